@@ -14,6 +14,7 @@ import com.google.common.collect.HashMultimap;
 import com.wolfram.puremath.dbapp.DBUtils.LiteralSearchTb;
 
 import thmp.search.LiteralSearch;
+import thmp.search.LiteralSearch.LiteralPostings;
 import thmp.search.LiteralSearch.LiteralSearchIndex;
 import thmp.search.Searcher;
 
@@ -37,23 +38,25 @@ public class LiteralSearchUtils {
 	 * Retrieve literal search thm indices, and the indices of that word
 	 * in these thms, from db.
 	 * 
-	 * Use at app runtime.
+	 * Use at app runtime, if there is no LiteralSearchIndexStore.
 	 * @param word, In normalized form.
 	 * @param conn
-	 * @return
+	 * @param postings filled with thm indices and word indices, cleared first.
 	 * @throws SQLException
 	 */
 	public static void getLiteralSearchThmsFromDB(String word,  Connection conn,
-			List<Integer> thmIndexList, List<Integer> wordsIndexArList) throws SQLException{
+			LiteralPostings postings) throws SQLException{
 		
+		postings.clear();
 		StringBuilder querySb = new StringBuilder(60);
 		querySb.append("SELECT ").append(LiteralSearchTb.THM_INDICES_COL)
 		.append(", ").append(LiteralSearchTb.WORD_INDICES_COL)
 		.append(" FROM ").append(LiteralSearchTb.TB_NAME)
 		.append(" WHERE ").append(LiteralSearchTb.WORD_COL)
-		.append("=").append(word).append(";");
+		.append("=?;");
 		
 		PreparedStatement pstm = conn.prepareStatement(querySb.toString());
+		pstm.setString(1, word);
 		
 		ResultSet rs = pstm.executeQuery();
 		byte[] indexBytes;
@@ -68,9 +71,28 @@ public class LiteralSearchUtils {
 		pstm.close();
 		rs.close();
 		
-		thmIndexList.addAll(SimilarThmUtils.byteArrayToIndexList(indexBytes, numBitsPerThmIndex));
-		wordsIndexArList.addAll(SimilarThmUtils.byteArrayToIndexList(wordsIndexArBytes, numBitsPerWordIndex));
-		
+		int[] thmIndexAr = PackedIndexCodec.decode(indexBytes, numBitsPerThmIndex);
+		int wordIndexArLen = LiteralSearchIndex.MAX_INDEX_COUNT_PER_WORD;
+		int thmIndexListSz = thmIndexAr.length;
+		//explicit count, since the padding byte holds a whole extra 8-bit index.
+		int wordsIndexArListSz = thmIndexListSz * wordIndexArLen;
+		if(PackedIndexCodec.decodedCount(wordsIndexArBytes.length, numBitsPerWordIndex) < wordsIndexArListSz) {
+			throw new IllegalArgumentException("Literal search db table inconsistency: "
+					+ "fewer word indices than (thmIndexListSz * maxWordIndexArLen)");
+		}
+		int[] wordsIndexAr = PackedIndexCodec.decode(wordsIndexArBytes, numBitsPerWordIndex, wordsIndexArListSz);
+		for(int i = 0; i < thmIndexListSz; i++) {
+			postings.add(thmIndexAr[i]);
+			for(int j = i * wordIndexArLen; j < (i+1) * wordIndexArLen; j++) {
+				//decoded as unsigned, word indices are signed bytes.
+				byte wordIndexInThm = (byte)wordsIndexAr[j];
+				//PLACEHOLDER_INDEX is a filler. (consecutive)
+				if(wordIndexInThm == LiteralSearchIndex.PLACEHOLDER_INDEX) {
+					break;
+				}
+				postings.addWordIndex(wordIndexInThm);
+			}
+		}
 	}
 	
 	/**
@@ -0,0 +1,294 @@
+package com.wolfram.puremath.dbapp;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Codec for lists of indices packed into byte arrays, e.g. thm indices in the similar thms,
+ * literal search, and concept db tables. Reads and writes 64 bits at a time, rather than bit
+ * by bit, and decodes into int arrays.
+ *
+ * Fixed-width format, as written by SimilarThmUtils since Dec 2017: index i occupies bits
+ * [i*numBitsPerIndex, (i+1)*numBitsPerIndex) of the array, where bit k is bit k%8 of byte k/8,
+ * followed by one byte of padding.
+ *
+ * Sorted lists can instead be encoded with encodeSorted(), in frame-of-reference or varint
+ * mode, as gaps between consecutive indices, which are usually much smaller than the indices.
+ */
+public class PackedIndexCodec {
+
+	/**Max number of bits per index, so an index and its offset in the first byte fit in a long.*/
+	public static final int MAX_BITS_PER_INDEX = 32;
+
+	private static final int NUM_BITS_PER_BYTE = 8;
+
+	/**
+	 * Encodings for sorted lists. The first byte of encoded list is the mode's tag.
+	 */
+	public enum SortedMode{
+		/**number of indices, first index as varints, then number of bits per gap,
+		 * and the gaps, in fixed-width format*/
+		FRAME_OF_REFERENCE(1),
+		/**number of indices, then the gaps as varints, the first gap being the first index*/
+		VARINT(2);
+
+		private final byte tag;
+
+		private SortedMode(int tag){
+			this.tag = (byte)tag;
+		}
+
+		private static SortedMode fromTag(byte tag){
+			for(SortedMode mode : values()){
+				if(mode.tag == tag){
+					return mode;
+				}
+			}
+			throw new IllegalArgumentException("Unknown sorted index list tag: " + tag);
+		}
+	}
+
+	/**
+	 * Number of indices in fixed-width encoded array, as decoded by decode(bytes, numBitsPerIndex).
+	 * Since padding can hold a whole index, this can be one more than the number encoded
+	 * if numBitsPerIndex <= 8.
+	 * @param byteArLen
+	 * @param numBitsPerIndex
+	 * @return
+	 */
+	public static int decodedCount(int byteArLen, int numBitsPerIndex){
+		return (int)((long)byteArLen * NUM_BITS_PER_BYTE / numBitsPerIndex);
+	}
+
+	/**
+	 * Decode fixed-width encoded indices, as many as fit in bytes.
+	 * @param bytes
+	 * @param numBitsPerIndex
+	 * @return
+	 */
+	public static int[] decode(byte[] bytes, int numBitsPerIndex){
+		return decode(bytes, numBitsPerIndex, decodedCount(bytes.length, numBitsPerIndex));
+	}
+
+	/**
+	 * Decode the first count fixed-width encoded indices.
+	 * @param bytes
+	 * @param numBitsPerIndex
+	 * @param count
+	 * @return
+	 */
+	public static int[] decode(byte[] bytes, int numBitsPerIndex, int count){
+		int[] indexAr = new int[count];
+		decode(bytes, 0, numBitsPerIndex, indexAr, 0, count);
+		return indexAr;
+	}
+
+	/**
+	 * Decode count fixed-width encoded indices, starting at byte offset in bytes, into indexAr
+	 * from arOffset on.
+	 */
+	private static void decode(byte[] bytes, int offset, int numBitsPerIndex, int[] indexAr, int arOffset, int count){
+		checkNumBits(numBitsPerIndex);
+		if((long)offset * NUM_BITS_PER_BYTE + (long)count * numBitsPerIndex > (long)bytes.length * NUM_BITS_PER_BYTE){
+			throw new IllegalArgumentException("Byte array of length " + bytes.length + " too short for " + count
+					+ " indices of " + numBitsPerIndex + " bits");
+		}
+		ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		long mask = (1L << numBitsPerIndex) - 1;
+		//last byte position a whole long can be read from.
+		int lastLongPos = bytes.length - 8;
+		long bitPos = (long)offset * NUM_BITS_PER_BYTE;
+		int i = 0;
+		for(; i < count; i++, bitPos += numBitsPerIndex){
+			int bytePos = (int)(bitPos >>> 3);
+			if(bytePos > lastLongPos){
+				break;
+			}
+			indexAr[arOffset + i] = (int)((buf.getLong(bytePos) >>> (bitPos & 7)) & mask);
+		}
+		//last few indices, within 8 bytes of end.
+		for(; i < count; i++, bitPos += numBitsPerIndex){
+			int bytePos = (int)(bitPos >>> 3);
+			long word = 0;
+			for(int j = 0; bytePos + j < bytes.length && j < 8; j++){
+				word |= (bytes[bytePos + j] & 0xFFL) << (j * NUM_BITS_PER_BYTE);
+			}
+			indexAr[arOffset + i] = (int)((word >>> (bitPos & 7)) & mask);
+		}
+	}
+
+	/**
+	 * Encode the first len indices in fixed-width format. Only the lowest numBitsPerIndex
+	 * bits of each index are kept, so e.g. negative byte word indices are kept with 8 bits.
+	 * @param indexAr
+	 * @param len
+	 * @param numBitsPerIndex
+	 * @return array of length len*numBitsPerIndex/8+1.
+	 */
+	public static byte[] encode(int[] indexAr, int len, int numBitsPerIndex){
+		checkNumBits(numBitsPerIndex);
+		byte[] bytes = new byte[(int)((long)len * numBitsPerIndex / NUM_BITS_PER_BYTE + 1)];
+		encode(indexAr, 0, len, numBitsPerIndex, bytes, 0);
+		return bytes;
+	}
+
+	/**
+	 * Encode len indices from arOffset on in fixed-width format, into bytes from byte offset on.
+	 * @return position after last byte written to.
+	 */
+	private static int encode(int[] indexAr, int arOffset, int len, int numBitsPerIndex, byte[] bytes, int offset){
+		long mask = (1L << numBitsPerIndex) - 1;
+		//bits not yet written, lowest first.
+		long acc = 0;
+		int accBits = 0;
+		int bytePos = offset;
+		for(int i = 0; i < len; i++){
+			acc |= (indexAr[arOffset + i] & mask) << accBits;
+			accBits += numBitsPerIndex;
+			//flush whole ints, accBits stays below 32 + MAX_BITS_PER_INDEX.
+			if(accBits >= 32){
+				bytes[bytePos] = (byte)acc;
+				bytes[bytePos + 1] = (byte)(acc >>> 8);
+				bytes[bytePos + 2] = (byte)(acc >>> 16);
+				bytes[bytePos + 3] = (byte)(acc >>> 24);
+				bytePos += 4;
+				acc >>>= 32;
+				accBits -= 32;
+			}
+		}
+		while(accBits > 0){
+			bytes[bytePos++] = (byte)acc;
+			acc >>>= NUM_BITS_PER_BYTE;
+			accBits -= NUM_BITS_PER_BYTE;
+		}
+		return bytePos;
+	}
+
+	/**
+	 * Encode the first len indices of sorted list in given mode.
+	 * @param sortedIndexAr nonnegative indices in ascending order.
+	 * @param len
+	 * @param mode
+	 * @return
+	 */
+	public static byte[] encodeSorted(int[] sortedIndexAr, int len, SortedMode mode){
+		int[] gapAr = new int[len];
+		int prev = 0;
+		for(int i = 0; i < len; i++){
+			int gap = sortedIndexAr[i] - prev;
+			if(gap < 0 || sortedIndexAr[i] < 0){
+				throw new IllegalArgumentException("Indices must be nonnegative and sorted in ascending order: "
+						+ Arrays.toString(Arrays.copyOf(sortedIndexAr, len)));
+			}
+			gapAr[i] = gap;
+			prev = sortedIndexAr[i];
+		}
+		//sized for the longest encoding, at most 5 bytes per varint.
+		byte[] bytes;
+		int pos;
+		switch(mode){
+		case FRAME_OF_REFERENCE:
+			int maxGap = 0;
+			for(int i = 1; i < len; i++){
+				maxGap = Math.max(maxGap, gapAr[i]);
+			}
+			int numBitsPerGap = Math.max(1, 32 - Integer.numberOfLeadingZeros(maxGap));
+			int firstIndex = len > 0 ? gapAr[0] : 0;
+			bytes = new byte[1 + 5 + 5 + 1 + (int)((long)len * numBitsPerGap / NUM_BITS_PER_BYTE + 1)];
+			bytes[0] = mode.tag;
+			pos = writeVarint(bytes, 1, len);
+			pos = writeVarint(bytes, pos, firstIndex);
+			bytes[pos++] = (byte)numBitsPerGap;
+			if(len > 1){
+				pos = encode(gapAr, 1, len - 1, numBitsPerGap, bytes, pos);
+			}
+			break;
+		case VARINT:
+			bytes = new byte[1 + 5 + 5 * len];
+			bytes[0] = mode.tag;
+			pos = writeVarint(bytes, 1, len);
+			for(int i = 0; i < len; i++){
+				pos = writeVarint(bytes, pos, gapAr[i]);
+			}
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown mode " + mode);
+		}
+		return Arrays.copyOf(bytes, pos);
+	}
+
+	/**
+	 * Decode sorted list encoded with encodeSorted(), in any mode.
+	 * @param bytes
+	 * @return
+	 */
+	public static int[] decodeSorted(byte[] bytes){
+		SortedMode mode = SortedMode.fromTag(bytes[0]);
+		int[] posAr = {1};
+		int len = readVarint(bytes, posAr);
+		int[] indexAr = new int[len];
+		if(0 == len){
+			return indexAr;
+		}
+		switch(mode){
+		case FRAME_OF_REFERENCE:
+			int firstIndex = readVarint(bytes, posAr);
+			int numBitsPerGap = bytes[posAr[0]++];
+			checkNumBits(numBitsPerGap);
+			decode(bytes, posAr[0], numBitsPerGap, indexAr, 1, len - 1);
+			int prev = firstIndex;
+			indexAr[0] = firstIndex;
+			for(int i = 1; i < len; i++){
+				prev += indexAr[i];
+				indexAr[i] = prev;
+			}
+			break;
+		case VARINT:
+			int sum = 0;
+			for(int i = 0; i < len; i++){
+				sum += readVarint(bytes, posAr);
+				indexAr[i] = sum;
+			}
+			break;
+		}
+		return indexAr;
+	}
+
+	/**
+	 * Writes nonnegative value as varint, 7 bits per byte, lowest first.
+	 * @return position after varint.
+	 */
+	private static int writeVarint(byte[] bytes, int pos, int value){
+		while((value & ~0x7F) != 0){
+			bytes[pos++] = (byte)((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[pos++] = (byte)value;
+		return pos;
+	}
+
+	/**
+	 * Reads varint at posAr[0], and advances posAr[0] past it.
+	 */
+	private static int readVarint(byte[] bytes, int[] posAr){
+		int pos = posAr[0];
+		int value = 0;
+		int shift = 0;
+		byte b;
+		do{
+			b = bytes[pos++];
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		}while(b < 0);
+		posAr[0] = pos;
+		return value;
+	}
+
+	private static void checkNumBits(int numBitsPerIndex){
+		if(numBitsPerIndex < 1 || numBitsPerIndex > MAX_BITS_PER_INDEX){
+			throw new IllegalArgumentException("Number of bits per index must be between 1 and "
+					+ MAX_BITS_PER_INDEX + ": " + numBitsPerIndex);
+		}
+	}
+}
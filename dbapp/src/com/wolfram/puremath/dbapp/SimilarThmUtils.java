@@ -14,6 +14,7 @@ import java.util.Random;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.google.common.primitives.Ints;
 import com.wolfram.puremath.dbapp.DBUtils.SimilarThmsTb;
 
 import thmp.parse.InitParseWithResources;
@@ -85,109 +86,17 @@ public class SimilarThmUtils {
 		return byteArrayToIndexList(byteAr, NUM_BITS_PER_INDEX);
 	}
 
-	public static List<Integer> byteArrayToIndexList(byte[] byteAr, int numBitsPerIndex) {
-	
-		List<Integer> thmIndexList = new ArrayList<Integer>();
-		int byteArrayLen = byteAr.length;
-		int totalBitsLen = NUM_BITS_PER_BYTE * byteArrayLen;
-		
-		int numTotal = totalBitsLen/numBitsPerIndex;
-		/* Note: must discard remainder in this division, since the bits padding was put in
-		 * to reach a multiple of 8. 
-		 */
-		
-		for(int i = 0; i < numTotal; i++) {
-			thmIndexList.add(getIndex(byteAr, i, numBitsPerIndex));	
-		}
-		return thmIndexList;
-	}
-	
-	//curTupleIndex is 0-based
-	private static int getIndex(byte[] byteAr, int curTupleIndex, int numBitsPerIndex) {
-		
-		List<Byte> zeroOneList = getZeroOneList(byteAr, curTupleIndex, numBitsPerIndex);
-		int thmIndex = 0;
-		if(DEBUG) {
-			System.out.println("zeroOneList.size() "+zeroOneList.size());
-			System.out.println("zeroOneList "+zeroOneList);
-		}
-		for(byte power : zeroOneList) {
-			thmIndex += 1 << power;				
-		}
-		return thmIndex;
-	}
-	
 	/**
-	 * Fill in the next 20 bits of the byteAr.
+	 * Decode indices packed with indexListToByteArray(), as many as fit in byteAr.
 	 * @param byteAr
-	 * @param curTupleIndex
-	 * @param numBitsPerIndex number of bits per (e.g. thm, word) index.
-	 * @return
+	 * @param numBitsPerIndex
+	 * @return fixed-size list backed by int array.
 	 */
-	private static List<Byte> getZeroOneList(byte[] byteAr, int curTupleIndex, int numBitsPerIndex) {
-		
-		//the next 21-bit thmIndex starts at index inArrayShift in the byte array
-		int inArrayShift = curTupleIndex * numBitsPerIndex / NUM_BITS_PER_BYTE;
-		//the next 21-bit thmIndex starts at index inByteShift in current byte
-		byte inByteShift = (byte)(curTupleIndex * numBitsPerIndex - NUM_BITS_PER_BYTE * inArrayShift);
-		
-		if(DEBUG) {
-			System.out.println("inByteShift "+inByteShift + " inArrayShift "+inArrayShift);
-		}
-		
-		List<Byte> zeroOneList = new ArrayList<Byte>();
-		int curBitCounter = 0;
-		byte curByte = byteAr[inArrayShift];
-		int bitDivider = NUM_BITS_PER_BYTE - inByteShift;
-		
-		byte remainder = curByte;
-		//!=0 instead of >=0, since 11111111 will be compared as -1 instead 255.
-		/*while(remainder != 0) {
-			byte power = (byte)(Math.log(remainder) / Math.log(2));			
-			if(power < inByteShift) {
-				break;
-			}	
-			zeroOneList.add((byte)(power - inByteShift));
-			remainder -= Math.pow(2, power);
-		}*/
-		
-		for(byte j = inByteShift; j < NUM_BITS_PER_BYTE; j++) {
-			if((remainder >> j & 1) == 1) {
-				byte curBitToSet = (byte)(j - inByteShift);				
-				zeroOneList.add(curBitToSet);
-			}
-		}
-		
-		curBitCounter += bitDivider;
-		
-		final int maxNumBytesSpan = (int)Math.ceil(((double)numBitsPerIndex)/NUM_BITS_PER_BYTE);
-		//4 because 3 is the maximal number of bytes NUM_BITS_PER_INDEX spans
-		outerFor: for(int i = 1; i <= maxNumBytesSpan && curBitCounter < numBitsPerIndex; i++) {
-			curByte = byteAr[inArrayShift+i];
-			remainder = curByte;
-			
-			for(byte j = 0; j < NUM_BITS_PER_BYTE; j++) {
-				if((remainder >> j & 1) == 1) {
-					byte curBitToSet = (byte)(j + bitDivider + NUM_BITS_PER_BYTE*(i-1));
-					
-					if(curBitToSet >= numBitsPerIndex) {
-						break outerFor;
-					}
-					zeroOneList.add(curBitToSet);
-				}
-			}			
-			/*while(remainder != 0) {
-				byte power = (byte)(Math.log(remainder) / Math.log(2));
-				byte curBitToSet = (byte)(power + bitDivider + 8*(i-1));				
-				if(curBitToSet >= 20) {
-					break outerFor;
-				}
-				zeroOneList.add(curBitToSet);		
-				remainder -= Math.pow(2, power);
-			}	*/
-			curBitCounter += NUM_BITS_PER_BYTE;
-		}
-		return zeroOneList;
+	public static List<Integer> byteArrayToIndexList(byte[] byteAr, int numBitsPerIndex) {
+		/* Note: count discards remainder in division, since the bits padding was put in
+		 * to reach a multiple of 8. 
+		 */
+		return Ints.asList(PackedIndexCodec.decode(byteAr, numBitsPerIndex));
 	}
 	
 	/**
@@ -220,12 +129,8 @@ public class SimilarThmUtils {
 		int thmIndexListLen = indexList.size();
 		thmIndexListLen = thmIndexListLen > maxIndexListLen ? maxIndexListLen : thmIndexListLen;
 		
-		//create byte array, then turn byte array into string		
-		byte[] indexByteAr = new byte[thmIndexListLen*NUM_BITS_PER_THM_INDEX/NUM_BITS_PER_BYTE+1];
-		
-		for(int i = 0; i < thmIndexListLen; i++) {						
-			fillByteArray(indexByteAr, indexList.get(i), i, NUM_BITS_PER_THM_INDEX);
-		}
+		byte[] indexByteAr = PackedIndexCodec.encode(Ints.toArray(indexList.subList(0, thmIndexListLen)), 
+				thmIndexListLen, NUM_BITS_PER_THM_INDEX);
 		if(DEBUG) System.out.println("indexByteAr "+Arrays.toString(indexByteAr));
 		return indexByteAr;
 	}
@@ -243,69 +148,12 @@ public class SimilarThmUtils {
 		if(thmIndexListLen > maxWordsIndexListLen) {
 			thmIndexListLen = maxWordsIndexListLen;
 		}
-		//create byte array, then turn byte array into string
-		
-		byte[] indexByteAr = new byte[thmIndexListLen*numBitsPerIndex/NUM_BITS_PER_BYTE+1];
-		
-		for(int i = 0; i < thmIndexListLen; i++) {						
-			fillByteArray(indexByteAr, indexList.get(i), i, numBitsPerIndex);
-		}
+		byte[] indexByteAr = PackedIndexCodec.encode(Ints.toArray(indexList.subList(0, thmIndexListLen)), 
+				thmIndexListLen, numBitsPerIndex);
 		if(DEBUG) System.out.println("indexByteAr "+Arrays.toString(indexByteAr));
 		return indexByteAr;
 	}
 	
-	/**
-	 *add byte to array , along with shift 
-	 * @param indexByteAr
-	 * @param thmIndex
-	 * @param thmCount the count of the current thm amongst the similar thms.
-	 * thmCount is 0-based, i.e. starts counting at 0.
-	 */
-	private static void fillByteArray(byte[] indexByteAr, int thmIndex, int thmCount, 
-			int numBitsPerIndex) {
-		
-		//higher-indexed bits represent higher powers of 2.
-		byte[] zeroOneAr = new byte[numBitsPerIndex];
-		int remainder = thmIndex;
-		for(int p = numBitsPerIndex-1; p > -1; p--) {
-			int tempRem = remainder - (1 << p);
-			if(tempRem >= 0) {
-				zeroOneAr[p] = 1;
-				remainder = tempRem;
-				if(tempRem == 0) {
-					break;
-				}
-			}			
-		}	
-		int inArrayShift = thmCount * numBitsPerIndex / NUM_BITS_PER_BYTE;
-		/* amount of shift in the byte partially filled from last index.
-		 * 8 means*/
-		int inByteShift = thmCount * numBitsPerIndex - inArrayShift * NUM_BITS_PER_BYTE;
-		
-		//current bit index between 0 and NUM_BITS_PER_INDEX
-		int curBitIndex = 0;
-		//at most 3 dividers fit within 20 bits, which span at most 4 bytes.
-		//divider indices are starting indices of next byte.
-		
-		int firstDivider = NUM_BITS_PER_BYTE - inByteShift;
-		
-		byte curByte = indexByteAr[inArrayShift];
-		
-		for(int i = 0; i < 4; i++) {		
-			for(; curBitIndex < firstDivider+NUM_BITS_PER_BYTE*i && curBitIndex < numBitsPerIndex; curBitIndex++) {
-				if(zeroOneAr[curBitIndex] == 1) {
-					curByte |= (1 << (curBitIndex + inByteShift - NUM_BITS_PER_BYTE*i));
-				}
-			}
-			
-			indexByteAr[inArrayShift+i] = curByte;
-			if(curBitIndex >= numBitsPerIndex) {
-				break;
-			}
-			curByte = 0;
-		}
-	}	
-	
 	/**
 	 * Retrieve indices from DB.
 	 * @param thmIndex
@@ -6,13 +6,18 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.primitives.Ints;
 import com.wolfram.puremath.dbapp.DBUtils.ThmHypTb;
 
 import thmp.search.SearchCombined.ThmHypPair;
@@ -25,55 +30,58 @@ import thmp.search.SearchCombined.ThmHypPair;
  */
 public class ThmHypUtils {
 
+	/**Sizes of IN (...) lists of thm indices per query. Lists are split into chunks of these sizes,
+	 * the last chunk padded by repeating an index, so all queries use one of these few statements.
+	 * A page of 50 results takes one query.*/
+	private static final int[] CHUNK_SIZES = {1, 8, 64};
+	private static final String[] CHUNK_QUERIES = new String[CHUNK_SIZES.length];
+	/**Max number of connections to cache statements for, more than the pool's max number of connections*/
+	private static final int MAX_CACHED_CONNECTIONS = 256;
+	/**Prepared statements of each chunk size, by physical connection, prepared on first use. 
+	 * A pooled connection is used by one thread at a time, so its statements are too.
+	 * Connections are weakly held, so entries go once the pool discards a connection, and
+	 * statements are closed when their entry is removed.*/
+	private static final Cache<Connection, PreparedStatement[]> statementCache = CacheBuilder.newBuilder()
+			.weakKeys().maximumSize(MAX_CACHED_CONNECTIONS)
+			.removalListener(new RemovalListener<Connection, PreparedStatement[]>() {
+				@Override
+				public void onRemoval(RemovalNotification<Connection, PreparedStatement[]> notification) {
+					closeStatements(notification.getValue());
+				}
+			}).build();
+	
+	static {
+		for(int i = 0; i < CHUNK_SIZES.length; i++) {
+			StringBuilder querySb = new StringBuilder(100 + 3*CHUNK_SIZES[i]);
+			querySb.append("SELECT ").append(ThmHypTb.THM_INDEX_COL)
+			.append(", ").append(ThmHypTb.THM_COL)
+			.append(", ").append(ThmHypTb.HYP_COL)
+			.append(", ").append(ThmHypTb.FILE_NAME_COL)
+			.append(", ").append(ThmHypTb.THM_TYPE_COL)
+			.append(" FROM ").append(ThmHypTb.TB_NAME)
+			.append(" WHERE ").append(ThmHypTb.THM_INDEX_COL)
+			.append(" IN (?");
+			for(int j = 1; j < CHUNK_SIZES[i]; j++) {
+				querySb.append(", ?");
+			}
+			querySb.append(");");
+			CHUNK_QUERIES[i] = querySb.toString();
+		}
+	}
+	
 	/**
 	 * Retrieve thm and hyp statement for given thm index, from db.
 	 * Use at app runtime
 	 * @param index of thm to retrieve.
 	 * @param conn db connection.
-	 * @return ThmHypPair.
+	 * @return ThmHypPair, placeholder pair if thm is not in db.
 	 * @throws SQLException
 	 */
 	public static ThmHypPair getThmHypFromDB(int thmIndex, Connection conn) throws SQLException{
 		
-		StringBuilder querySb = new StringBuilder(60);
-		querySb.append("SELECT ").append(ThmHypTb.THM_COL)
-		.append(", ").append(ThmHypTb.HYP_COL)
-		.append(", ").append(ThmHypTb.FILE_NAME_COL)
-		.append(", ").append(ThmHypTb.THM_TYPE_COL)
-		.append(" FROM ").append(ThmHypTb.TB_NAME)
-		.append(" WHERE ").append(ThmHypTb.THM_INDEX_COL)
-		.append("=").append(thmIndex).append(";");
-		
-		PreparedStatement pstm = conn.prepareStatement(querySb.toString());
-		
-		ResultSet rs = pstm.executeQuery();
-		//byte[] indexBytes;
-		//byte[] wordsIndexArBytes;
-		
-		String thmStr = "";
-		String hypStr = "";
-		String fileNameStr = "";
-		String thmTypeStr = "";
-		
-	 	if(rs.next()) {
-			//indexBytes = rs.getBytes(DBUtils.LiteralSearchTb.THM_INDICES_COL);
-			//wordsIndexArBytes = rs.getBytes(DBUtils.LiteralSearchTb.WORD_INDICES_COL);
-			
-			thmStr = rs.getString(ThmHypTb.THM_COL);
-			hypStr = rs.getString(ThmHypTb.HYP_COL);
-			fileNameStr = rs.getString(ThmHypTb.FILE_NAME_COL);
-			thmTypeStr = rs.getString(ThmHypTb.THM_TYPE_COL);
-		}else {
-			pstm.close();
-			return ThmHypPair.PLACEHOLDER_PAIR();
-		}
-		pstm.close();
-		rs.close();
-		
-		//thmIndexList.addAll(SimilarThmUtils.byteArrayToIndexList(indexBytes, numBitsPerThmIndex));
-		//wordsIndexArList.addAll(SimilarThmUtils.byteArrayToIndexList(wordsIndexArBytes, numBitsPerWordIndex));
-		
-		return new ThmHypPair(thmStr, hypStr, fileNameStr, thmTypeStr);
+		Map<Integer, ThmHypPair> thmHypPairMap = getThmHypMapFromDB(Collections.singletonList(thmIndex), conn);
+		ThmHypPair thmHypPair = thmHypPairMap.get(thmIndex);
+		return null == thmHypPair ? ThmHypPair.PLACEHOLDER_PAIR() : thmHypPair;
 	}
 	
 	/**
@@ -82,7 +90,7 @@ public class ThmHypUtils {
 	 * Use at app runtime
 	 * @param index of thm to retrieve.
 	 * @param conn db connection.
-	 * @return ThmHypPair.
+	 * @return ThmHypPair's in order of thmIndexList. Thms not in db, and repeated indices, are skipped.
 	 * @throws SQLException
 	 */
 	public static List<ThmHypPair> getThmHypFromDB(List<Integer> thmIndexList, Connection conn) throws SQLException{
@@ -90,92 +98,131 @@ public class ThmHypUtils {
 		if(thmIndexList.isEmpty()) {
 			return Collections.emptyList();
 		}
-		
-		StringBuilder thmIndexSb = new StringBuilder(400);
-		//note this query result does not preserve the order as in thmIndexList!
+		Map<Integer, ThmHypPair> thmHypPairMap = getThmHypMapFromDB(thmIndexList, conn);
+		List<ThmHypPair> thmHypPairList = new ArrayList<ThmHypPair>(thmHypPairMap.size());
 		for(int thmIndex : thmIndexList) {
-			thmIndexSb.append(ThmHypTb.THM_INDEX_COL)
-			.append("=")
-			.append(thmIndex)
-			.append(" OR ");			
-		}
-		thmIndexSb.delete(thmIndexSb.length()-4, thmIndexSb.length());
-		
-		StringBuilder querySb = new StringBuilder(60);
-		querySb.append("SELECT ").append(ThmHypTb.THM_INDEX_COL)
-		.append(", ").append(ThmHypTb.THM_COL)
-		.append(", ").append(ThmHypTb.HYP_COL)
-		.append(", ").append(ThmHypTb.FILE_NAME_COL)
-		.append(", ").append(ThmHypTb.THM_TYPE_COL)
-		.append(" FROM ").append(ThmHypTb.TB_NAME)
-		.append(" WHERE ").append(thmIndexSb)
-		.append(";");
-		
-		PreparedStatement pstm = conn.prepareStatement(querySb.toString());
-		
-		//byte[] indexBytes;
-		//byte[] wordsIndexArBytes;
-		int thmIndex = 0;
-		String thmStr = "";
-		String hypStr = "";
-		String fileNameStr = "";
-		String thmTypeStr = "";
-		
-		ResultSet rs = pstm.executeQuery();
-		List<ThmHypPair> thmHypPairList = new ArrayList<ThmHypPair>();
-		ThmHypPairComparator comp = new ThmHypPairComparator(thmIndexList) ;
-		TreeMap<Integer, ThmHypPair> thmHypPairMap = new TreeMap<Integer, ThmHypPair>(comp);
-		
-	 	while(rs.next()) {
-			//indexBytes = rs.getBytes(DBUtils.LiteralSearchTb.THM_INDICES_COL);
-			//wordsIndexArBytes = rs.getBytes(DBUtils.LiteralSearchTb.WORD_INDICES_COL);
-			thmIndex = rs.getInt(ThmHypTb.THM_INDEX_COL);
-			thmStr = rs.getString(ThmHypTb.THM_COL);
-			hypStr = rs.getString(ThmHypTb.HYP_COL);
-			fileNameStr = rs.getString(ThmHypTb.FILE_NAME_COL);
-			thmTypeStr = rs.getString(ThmHypTb.THM_TYPE_COL);
-			
-			thmHypPairMap.put(thmIndex, new ThmHypPair(thmStr, hypStr, fileNameStr, thmTypeStr));			
+			//remove, so repeated indices are added once
+			ThmHypPair thmHypPair = thmHypPairMap.remove(thmIndex);
+			if(null != thmHypPair) {
+				thmHypPairList.add(thmHypPair);
+			}
 		}
-	 	
-	 	thmHypPairList.addAll(thmHypPairMap.values());
-	 	
-		pstm.close();
-		rs.close();
-		
-		//thmIndexList.addAll(SimilarThmUtils.byteArrayToIndexList(indexBytes, numBitsPerThmIndex));
-		//wordsIndexArList.addAll(SimilarThmUtils.byteArrayToIndexList(wordsIndexArBytes, numBitsPerWordIndex));
-		
 		return thmHypPairList;
 	}
 	
-	private static class ThmHypPairComparator implements Comparator<Integer>{
-		
-		//map of thm indices and their ranking, lower means higher-ranked.
-		Map<Integer, Integer> indexOrderMap = new HashMap<Integer, Integer>();
-		ThmHypPairComparator(List<Integer> indexList){
-			int ranking = 0;
-			for(int index : indexList) {
-				indexOrderMap.put(index, ranking++);
+	/**
+	 * Retrieve thm and hyp statements for given thm indices, from db, with one query per
+	 * CHUNK_SIZES[CHUNK_SIZES.length-1] indices.
+	 * Use at app runtime
+	 * @param thmIndices
+	 * @param conn db connection.
+	 * @return map of thm indices and their ThmHypPair's, thms not in db are absent.
+	 * @throws SQLException
+	 */
+	public static Map<Integer, ThmHypPair> getThmHypMapFromDB(Collection<Integer> thmIndices, Connection conn) 
+			throws SQLException{
+		
+		Map<Integer, ThmHypPair> thmHypPairMap = new HashMap<Integer, ThmHypPair>();
+		int[] thmIndexAr = Ints.toArray(new LinkedHashSet<Integer>(thmIndices));
+		int thmIndexArLen = thmIndexAr.length;
+		if(0 == thmIndexArLen) {
+			return thmHypPairMap;
+		}
+		//statements are cached on the physical connection, since the pool hands out a new 
+		//proxy for each checkout, whose statements are closed with it.
+		Connection physicalConn = physicalConnection(conn);
+		PreparedStatement[] pstmAr = preparedStatements(physicalConn);
+		try {
+			int start = 0;
+			while(start < thmIndexArLen) {
+				int chunkSizeIndex = chunkSizeIndex(thmIndexArLen - start);
+				int chunkSize = CHUNK_SIZES[chunkSizeIndex];
+				PreparedStatement pstm = pstmAr[chunkSizeIndex];
+				if(null == pstm || pstm.isClosed()) {
+					pstm = physicalConn.prepareStatement(CHUNK_QUERIES[chunkSizeIndex]);
+					pstmAr[chunkSizeIndex] = pstm;
+				}
+				for(int i = 0; i < chunkSize; i++) {
+					//pad with last index
+					pstm.setInt(i + 1, thmIndexAr[Math.min(start + i, thmIndexArLen - 1)]);
+				}
+				ResultSet rs = pstm.executeQuery();
+				try {
+					while(rs.next()) {
+						thmHypPairMap.put(rs.getInt(ThmHypTb.THM_INDEX_COL), 
+								new ThmHypPair(rs.getString(ThmHypTb.THM_COL), rs.getString(ThmHypTb.HYP_COL), 
+										rs.getString(ThmHypTb.FILE_NAME_COL), rs.getString(ThmHypTb.THM_TYPE_COL)));
+					}
+				}finally {
+					rs.close();
+				}
+				start += chunkSize;
 			}
+		}catch(SQLException e) {
+			//statements could be unusable, prepare anew next time.
+			closeStatements(pstmAr);
+			statementCache.invalidate(physicalConn);
+			throw e;
 		}
-		
-		//want lower ranks to have priority.
-		@Override
-		public int compare(Integer pair1, Integer pair2) {
-			Integer rank1 = indexOrderMap.get(pair1);
-			Integer rank2 = indexOrderMap.get(pair2);
-			
-			if(rank1 == null) {
-				return 1;
+		return thmHypPairMap;
+	}
+	
+	/**
+	 * Index in CHUNK_SIZES of the size of the next chunk, the smallest size that holds 
+	 * the remaining indices, else the largest size.
+	 * @param remainingCount
+	 * @return
+	 */
+	private static int chunkSizeIndex(int remainingCount) {
+		for(int i = 0; i < CHUNK_SIZES.length; i++) {
+			if(remainingCount <= CHUNK_SIZES[i]) {
+				return i;
 			}
-			if(rank2 == null) {
-				return -1;
+		}
+		return CHUNK_SIZES.length - 1;
+	}
+	
+	/**
+	 * Cached statements of each chunk size for physicalConn, entries are null until first prepared.
+	 * @param physicalConn
+	 * @return
+	 */
+	private static PreparedStatement[] preparedStatements(Connection physicalConn) {
+		PreparedStatement[] pstmAr = statementCache.getIfPresent(physicalConn);
+		if(null == pstmAr) {
+			pstmAr = new PreparedStatement[CHUNK_SIZES.length];
+			statementCache.put(physicalConn, pstmAr);
+		}
+		return pstmAr;
+	}
+	
+	/**
+	 * Closes the statements prepared so far in pstmAr.
+	 * @param pstmAr
+	 */
+	private static void closeStatements(PreparedStatement[] pstmAr) {
+		for(int i = 0; i < pstmAr.length; i++) {
+			if(null == pstmAr[i]) {
+				continue;
 			}
-			
-			return Integer.compare(rank1, rank2);			
-		}		
-		
+			try {
+				pstmAr[i].close();
+			}catch(SQLException e) {
+				//connection already closed, along with its statements.
+			}
+			pstmAr[i] = null;
+		}
+	}
+	
+	/**
+	 * Connection underlying a pooled connection's proxy, else conn.
+	 */
+	private static Connection physicalConnection(Connection conn) {
+		try {
+			return conn.isWrapperFor(Connection.class) ? conn.unwrap(Connection.class) : conn;
+		}catch(SQLException e) {
+			return conn;
+		}
 	}
 	
 	/**
@@ -0,0 +1,200 @@
+package test.wolfram.puremath.dbapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.google.common.primitives.Ints;
+import com.wolfram.puremath.dbapp.PackedIndexCodec;
+import com.wolfram.puremath.dbapp.PackedIndexCodec.SortedMode;
+import com.wolfram.puremath.dbapp.SimilarThmUtils;
+
+/**
+ * Round trips through PackedIndexCodec on random lists, checked against the bit-by-bit
+ * codec SimilarThmUtils used before, which existing db tables were written with.
+ */
+public class PackedIndexCodecTest {
+
+	private static final int NUM_TRIALS = 2000;
+	//the bit-by-bit decoder reads the rest of an index's first byte unmasked, and the 
+	//encoder handles indices spanning at most 4 bytes. Tables use 8 to 21 bits.
+	private static final int MIN_LEGACY_BITS_PER_INDEX = 8;
+	private static final int MAX_LEGACY_BITS_PER_INDEX = 25;
+	private static final int NUM_BITS_PER_BYTE = 8;
+
+	private static int[] randomIndexAr(Random rand, int len, int numBitsPerIndex) {
+		int[] indexAr = new int[len];
+		for(int i = 0; i < len; i++) {
+			indexAr[i] = (int)((rand.nextLong() >>> 1) & ((1L << numBitsPerIndex) - 1));
+		}
+		return indexAr;
+	}
+
+	@Test
+	public void test1() {
+		//encoder writes same bytes as legacy encoder, decoder reads them the same.
+		Random rand = new Random(21);
+		for(int trial = 0; trial < NUM_TRIALS; trial++) {
+			int numBitsPerIndex = MIN_LEGACY_BITS_PER_INDEX 
+					+ rand.nextInt(MAX_LEGACY_BITS_PER_INDEX - MIN_LEGACY_BITS_PER_INDEX + 1);
+			int len = rand.nextInt(310);
+			int[] indexAr = randomIndexAr(rand, len, numBitsPerIndex);
+			byte[] legacyBytes = LegacyCodec.indexListToByteArray(Ints.asList(indexAr), numBitsPerIndex);
+			byte[] bytes = PackedIndexCodec.encode(indexAr, len, numBitsPerIndex);
+			assertArrayEquals("bits " + numBitsPerIndex + " list " + Arrays.toString(indexAr), legacyBytes, bytes);
+			assertArrayEquals(Ints.toArray(LegacyCodec.byteArrayToIndexList(bytes, numBitsPerIndex)),
+					PackedIndexCodec.decode(bytes, numBitsPerIndex));
+			assertEquals(Ints.asList(indexAr),
+					Ints.asList(PackedIndexCodec.decode(bytes, numBitsPerIndex)).subList(0, len));
+			assertArrayEquals(indexAr, PackedIndexCodec.decode(bytes, numBitsPerIndex, len));
+		}
+	}
+
+	@Test
+	public void test2() {
+		//widths past the legacy codec, and SimilarThmUtils on top of codec.
+		Random rand = new Random(22);
+		for(int trial = 0; trial < NUM_TRIALS; trial++) {
+			int numBitsPerIndex = 1 + rand.nextInt(PackedIndexCodec.MAX_BITS_PER_INDEX);
+			int len = rand.nextInt(100);
+			int[] indexAr = randomIndexAr(rand, len, numBitsPerIndex);
+			byte[] bytes = PackedIndexCodec.encode(indexAr, len, numBitsPerIndex);
+			assertArrayEquals(indexAr, PackedIndexCodec.decode(bytes, numBitsPerIndex, len));
+		}
+		int[] thmIndexAr = randomIndexAr(rand, 100, SimilarThmUtils.numBitsPerThmIndex());
+		byte[] bytes = SimilarThmUtils.indexListToByteArray(Ints.asList(thmIndexAr));
+		assertEquals(Ints.asList(thmIndexAr), SimilarThmUtils.byteArrayToIndexList(bytes, SimilarThmUtils.numBitsPerThmIndex()));
+	}
+
+	@Test
+	public void test3() {
+		//negative indices, e.g. literal search word indices, keep their low bits.
+		int[] indexAr = {-1, -128, 127, 0};
+		byte[] bytes = PackedIndexCodec.encode(indexAr, indexAr.length, NUM_BITS_PER_BYTE);
+		int[] decodedAr = PackedIndexCodec.decode(bytes, NUM_BITS_PER_BYTE, indexAr.length);
+		for(int i = 0; i < indexAr.length; i++) {
+			assertEquals(indexAr[i], (byte)decodedAr[i]);
+		}
+	}
+
+	@Test
+	public void test4() {
+		Random rand = new Random(23);
+		for(SortedMode mode : SortedMode.values()) {
+			for(int trial = 0; trial < NUM_TRIALS; trial++) {
+				int len = rand.nextInt(310);
+				int bound = 1 + rand.nextInt(rand.nextBoolean() ? 2000000 : Integer.MAX_VALUE);
+				int[] indexAr = new int[len];
+				for(int i = 0; i < len; i++) {
+					indexAr[i] = rand.nextInt(bound);
+				}
+				Arrays.sort(indexAr);
+				byte[] bytes = PackedIndexCodec.encodeSorted(indexAr, len, mode);
+				assertArrayEquals(mode + " " + Arrays.toString(indexAr), indexAr, PackedIndexCodec.decodeSorted(bytes));
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test5() {
+		PackedIndexCodec.encodeSorted(new int[]{3, 2}, 2, SortedMode.VARINT);
+	}
+
+	/**
+	 * Bit-by-bit codec SimilarThmUtils used before PackedIndexCodec.
+	 */
+	private static class LegacyCodec {
+
+		static List<Integer> byteArrayToIndexList(byte[] byteAr, int numBitsPerIndex) {
+			List<Integer> thmIndexList = new ArrayList<Integer>();
+			int numTotal = NUM_BITS_PER_BYTE * byteAr.length / numBitsPerIndex;
+			for(int i = 0; i < numTotal; i++) {
+				thmIndexList.add(getIndex(byteAr, i, numBitsPerIndex));
+			}
+			return thmIndexList;
+		}
+
+		private static int getIndex(byte[] byteAr, int curTupleIndex, int numBitsPerIndex) {
+			int thmIndex = 0;
+			for(byte power : getZeroOneList(byteAr, curTupleIndex, numBitsPerIndex)) {
+				thmIndex += 1 << power;
+			}
+			return thmIndex;
+		}
+
+		private static List<Byte> getZeroOneList(byte[] byteAr, int curTupleIndex, int numBitsPerIndex) {
+			int inArrayShift = curTupleIndex * numBitsPerIndex / NUM_BITS_PER_BYTE;
+			byte inByteShift = (byte)(curTupleIndex * numBitsPerIndex - NUM_BITS_PER_BYTE * inArrayShift);
+			List<Byte> zeroOneList = new ArrayList<Byte>();
+			int curBitCounter = 0;
+			byte remainder = byteAr[inArrayShift];
+			int bitDivider = NUM_BITS_PER_BYTE - inByteShift;
+			for(byte j = inByteShift; j < NUM_BITS_PER_BYTE; j++) {
+				if((remainder >> j & 1) == 1) {
+					zeroOneList.add((byte)(j - inByteShift));
+				}
+			}
+			curBitCounter += bitDivider;
+			final int maxNumBytesSpan = (int)Math.ceil(((double)numBitsPerIndex)/NUM_BITS_PER_BYTE);
+			outerFor: for(int i = 1; i <= maxNumBytesSpan && curBitCounter < numBitsPerIndex; i++) {
+				remainder = byteAr[inArrayShift+i];
+				for(byte j = 0; j < NUM_BITS_PER_BYTE; j++) {
+					if((remainder >> j & 1) == 1) {
+						byte curBitToSet = (byte)(j + bitDivider + NUM_BITS_PER_BYTE*(i-1));
+						if(curBitToSet >= numBitsPerIndex) {
+							break outerFor;
+						}
+						zeroOneList.add(curBitToSet);
+					}
+				}
+				curBitCounter += NUM_BITS_PER_BYTE;
+			}
+			return zeroOneList;
+		}
+
+		static byte[] indexListToByteArray(List<Integer> indexList, int numBitsPerIndex) {
+			int thmIndexListLen = indexList.size();
+			byte[] indexByteAr = new byte[thmIndexListLen*numBitsPerIndex/NUM_BITS_PER_BYTE+1];
+			for(int i = 0; i < thmIndexListLen; i++) {
+				fillByteArray(indexByteAr, indexList.get(i), i, numBitsPerIndex);
+			}
+			return indexByteAr;
+		}
+
+		private static void fillByteArray(byte[] indexByteAr, int thmIndex, int thmCount, int numBitsPerIndex) {
+			byte[] zeroOneAr = new byte[numBitsPerIndex];
+			int remainder = thmIndex;
+			for(int p = numBitsPerIndex-1; p > -1; p--) {
+				int tempRem = remainder - (1 << p);
+				if(tempRem >= 0) {
+					zeroOneAr[p] = 1;
+					remainder = tempRem;
+					if(tempRem == 0) {
+						break;
+					}
+				}
+			}
+			int inArrayShift = thmCount * numBitsPerIndex / NUM_BITS_PER_BYTE;
+			int inByteShift = thmCount * numBitsPerIndex - inArrayShift * NUM_BITS_PER_BYTE;
+			int curBitIndex = 0;
+			int firstDivider = NUM_BITS_PER_BYTE - inByteShift;
+			byte curByte = indexByteAr[inArrayShift];
+			for(int i = 0; i < 4; i++) {
+				for(; curBitIndex < firstDivider+NUM_BITS_PER_BYTE*i && curBitIndex < numBitsPerIndex; curBitIndex++) {
+					if(zeroOneAr[curBitIndex] == 1) {
+						curByte |= (1 << (curBitIndex + inByteShift - NUM_BITS_PER_BYTE*i));
+					}
+				}
+				indexByteAr[inArrayShift+i] = curByte;
+				if(curBitIndex >= numBitsPerIndex) {
+					break;
+				}
+				curByte = 0;
+			}
+		}
+	}
+}
@@ -0,0 +1,237 @@
+package test.wolfram.puremath.dbapp;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import com.wolfram.puremath.dbapp.DBUtils.ThmHypTb;
+import com.wolfram.puremath.dbapp.ThmHypUtils;
+
+import thmp.search.SearchCombined.ThmHypPair;
+
+/**
+ * Checks ThmHypUtils' chunked thm queries against a stub JDBC connection, which records
+ * the statements prepared and the parameters of each query, and returns rows of thms
+ * with even indices, in index order.
+ */
+public class ThmHypUtilsTest {
+
+	/**
+	 * Stub connection, with statements and result sets as dynamic proxies.
+	 */
+	private static class StubDb {
+		final List<String> preparedSqlList = new ArrayList<String>();
+		final List<StubStatement> statementList = new ArrayList<StubStatement>();
+		//parameters of each query executed, in order
+		final List<List<Integer>> queryParamsList = new ArrayList<List<Integer>>();
+		boolean failNextQuery;
+		final Connection conn = (Connection)Proxy.newProxyInstance(ThmHypUtilsTest.class.getClassLoader(),
+				new Class<?>[] {Connection.class}, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if("prepareStatement".equals(name)) {
+							preparedSqlList.add((String)args[0]);
+							StubStatement statement = new StubStatement(StubDb.this, (String)args[0]);
+							statementList.add(statement);
+							return statement.pstm;
+						}else if("isWrapperFor".equals(name)) {
+							return false;
+						}else if("hashCode".equals(name)) {
+							return System.identityHashCode(proxy);
+						}else if("equals".equals(name)) {
+							return proxy == args[0];
+						}
+						throw new UnsupportedOperationException(name);
+					}
+				});
+	}
+
+	private static class StubStatement {
+		final int paramCount;
+		final Integer[] params;
+		boolean closed;
+		final PreparedStatement pstm;
+
+		StubStatement(final StubDb db, String sql) {
+			this.paramCount = sql.length() - sql.replace("?", "").length();
+			this.params = new Integer[paramCount];
+			this.pstm = (PreparedStatement)Proxy.newProxyInstance(ThmHypUtilsTest.class.getClassLoader(),
+					new Class<?>[] {PreparedStatement.class}, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) throws SQLException {
+							String name = method.getName();
+							if("setInt".equals(name)) {
+								params[(Integer)args[0] - 1] = (Integer)args[1];
+								return null;
+							}else if("executeQuery".equals(name)) {
+								assertFalse("Query on closed statement", closed);
+								List<Integer> paramList = Arrays.asList(params.clone());
+								assertFalse("Parameter not set", paramList.contains(null));
+								if(db.failNextQuery) {
+									db.failNextQuery = false;
+									throw new SQLException("Stub connection lost");
+								}
+								db.queryParamsList.add(paramList);
+								return resultSet(paramList);
+							}else if("close".equals(name)) {
+								closed = true;
+								return null;
+							}else if("isClosed".equals(name)) {
+								return closed;
+							}
+							throw new UnsupportedOperationException(name);
+						}
+					});
+		}
+	}
+
+	/**
+	 * Rows of thms with even indices among thmIndexList, in index order.
+	 */
+	private static ResultSet resultSet(List<Integer> thmIndexList) {
+		final List<Integer> rowList = new ArrayList<Integer>();
+		for(int thmIndex : new TreeSet<Integer>(thmIndexList)) {
+			if(thmIndex % 2 == 0) {
+				rowList.add(thmIndex);
+			}
+		}
+		return (ResultSet)Proxy.newProxyInstance(ThmHypUtilsTest.class.getClassLoader(),
+				new Class<?>[] {ResultSet.class}, new InvocationHandler() {
+					int row = -1;
+
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if("next".equals(name)) {
+							return ++row < rowList.size();
+						}else if("getInt".equals(name)) {
+							assertEquals(ThmHypTb.THM_INDEX_COL, args[0]);
+							return rowList.get(row);
+						}else if("getString".equals(name)) {
+							return args[0] + " " + rowList.get(row);
+						}else if("close".equals(name)) {
+							return null;
+						}
+						throw new UnsupportedOperationException(name);
+					}
+				});
+	}
+
+	private static List<Integer> range(int start, int end) {
+		List<Integer> list = new ArrayList<Integer>();
+		for(int i = start; i < end; i++) {
+			list.add(i);
+		}
+		return list;
+	}
+
+	private static List<Integer> padded(List<Integer> thmIndexList, int chunkSize) {
+		List<Integer> list = new ArrayList<Integer>(thmIndexList);
+		while(list.size() < chunkSize) {
+			list.add(thmIndexList.get(thmIndexList.size() - 1));
+		}
+		return list;
+	}
+
+	@Test
+	public void testChunks() throws SQLException {
+		//number of indices, and sizes of the chunks they are queried in
+		int[][] chunkSizesAr = {{1, 1}, {2, 8}, {8, 8}, {9, 64}, {64, 64}, {65, 64, 1}, {72, 64, 8},
+				{73, 64, 64}, {136, 64, 64, 8}};
+		for(int[] chunkSizes : chunkSizesAr) {
+			StubDb db = new StubDb();
+			List<Integer> thmIndexList = range(1000, 1000 + chunkSizes[0]);
+			ThmHypUtils.getThmHypMapFromDB(thmIndexList, db.conn);
+			assertEquals(chunkSizes.length - 1, db.queryParamsList.size());
+			int start = 0;
+			for(int i = 1; i < chunkSizes.length; i++) {
+				int chunkSize = chunkSizes[i];
+				List<Integer> chunkList = thmIndexList.subList(start, Math.min(start + chunkSize, thmIndexList.size()));
+				//last chunk is padded by repeating its last index
+				assertEquals(padded(chunkList, chunkSize), db.queryParamsList.get(i - 1));
+				start += chunkSize;
+			}
+			//one statement per chunk size used
+			for(StubStatement statement : db.statementList) {
+				assertTrue(Arrays.asList(1, 8, 64).contains(statement.paramCount));
+			}
+			assertEquals(db.statementList.size(), new HashSet<String>(db.preparedSqlList).size());
+		}
+	}
+
+	@Test
+	public void testRequestOrder() throws SQLException {
+		StubDb db = new StubDb();
+		List<Integer> thmIndexList = new ArrayList<Integer>(range(0, 150));
+		Collections.shuffle(thmIndexList, new Random(11));
+		//repeated index
+		thmIndexList.add(5, thmIndexList.get(20));
+		List<ThmHypPair> thmHypPairList = ThmHypUtils.getThmHypFromDB(thmIndexList, db.conn);
+		List<String> expectedThmList = new ArrayList<String>();
+		List<Integer> seenList = new ArrayList<Integer>();
+		for(int thmIndex : thmIndexList) {
+			//odd thms are not in db, repeated thms are returned once
+			if(thmIndex % 2 == 0 && !seenList.contains(thmIndex)) {
+				expectedThmList.add(ThmHypTb.THM_COL + " " + thmIndex);
+				seenList.add(thmIndex);
+			}
+		}
+		List<String> thmList = new ArrayList<String>();
+		for(ThmHypPair thmHypPair : thmHypPairList) {
+			thmList.add(thmHypPair.thmStr());
+			int thmIndex = Integer.parseInt(thmHypPair.thmStr().split(" ")[1]);
+			assertEquals(ThmHypTb.HYP_COL + " " + thmIndex, thmHypPair.hypStr());
+			assertEquals(ThmHypTb.FILE_NAME_COL + " " + thmIndex, thmHypPair.srcFileName());
+		}
+		assertEquals(expectedThmList, thmList);
+		//150 distinct indices
+		assertEquals(3, db.queryParamsList.size());
+
+		assertEquals(ThmHypTb.THM_COL + " 4", ThmHypUtils.getThmHypFromDB(4, db.conn).thmStr());
+		assertEquals(ThmHypPair.PLACEHOLDER_PAIR().thmStr(), ThmHypUtils.getThmHypFromDB(5, db.conn).thmStr());
+		assertTrue(ThmHypUtils.getThmHypFromDB(Collections.<Integer>emptyList(), db.conn).isEmpty());
+	}
+
+	@Test
+	public void testStatementsInvalidatedAfterException() throws SQLException {
+		StubDb db = new StubDb();
+		ThmHypUtils.getThmHypMapFromDB(range(0, 72), db.conn);
+		assertEquals(2, db.statementList.size());
+		//statements are reused on the same connection
+		ThmHypUtils.getThmHypMapFromDB(range(100, 172), db.conn);
+		assertEquals(2, db.statementList.size());
+
+		db.failNextQuery = true;
+		try {
+			ThmHypUtils.getThmHypMapFromDB(range(0, 10), db.conn);
+			fail("SQLException not thrown");
+		}catch(SQLException e) {
+			//expected
+		}
+		for(StubStatement statement : db.statementList) {
+			assertTrue(statement.closed);
+		}
+		//statements are prepared anew
+		Map<Integer, ThmHypPair> thmHypPairMap = ThmHypUtils.getThmHypMapFromDB(range(0, 72), db.conn);
+		assertEquals(4, db.statementList.size());
+		assertFalse(db.statementList.get(2).closed);
+		assertFalse(db.statementList.get(3).closed);
+		assertEquals(36, thmHypPairMap.size());
+	}
+}
@@ -0,0 +1,135 @@
+package thmp.bench;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * Compares JMH json results with baseline results, e.g. those kept in jmh/baseline/,
+ * both in time per op and in bytes allocated per op, from the gc profiler.
+ * Lists each benchmark, and exits with status 1 if any got slower or allocates more
+ * than the baseline by more than the threshold.
+ * Usage: BenchmarkComparison results.json baseline.json [thresholdPercent]
+ */
+public class BenchmarkComparison {
+
+	private static final double DEFAULT_THRESHOLD_PERCENT = 10;
+	//suffix of the gc profiler metric, JMH prefixes profiler metrics with a separator char.
+	private static final String ALLOC_RATE_NORM_METRIC = "gc.alloc.rate.norm";
+
+	/**
+	 * Scores of one benchmark run, with one set of params.
+	 */
+	static class BenchmarkScore{
+		final double score;
+		final String scoreUnit;
+		//bytes allocated per op, -1 if not profiled.
+		final double allocBytesPerOp;
+
+		BenchmarkScore(double score, String scoreUnit, double allocBytesPerOp){
+			this.score = score;
+			this.scoreUnit = scoreUnit;
+			this.allocBytesPerOp = allocBytesPerOp;
+		}
+	}
+
+	/**
+	 * Reads JMH json results.
+	 * @param path
+	 * @return map of benchmark names with params, and their scores, in order of results.
+	 */
+	static Map<String, BenchmarkScore> readResults(String path){
+		Map<String, BenchmarkScore> scoreMap = new LinkedHashMap<String, BenchmarkScore>();
+		JsonArray resultAr;
+		try(Reader reader = new InputStreamReader(new FileInputStream(path), Charset.forName("UTF-8"))){
+			resultAr = new JsonParser().parse(reader).getAsJsonArray();
+		}catch(FileNotFoundException e){
+			throw new IllegalStateException("Benchmark results not found: " + path, e);
+		}catch(IOException e){
+			throw new IllegalStateException("IOException while reading benchmark results " + path, e);
+		}
+		for(JsonElement resultElem : resultAr){
+			JsonObject result = resultElem.getAsJsonObject();
+			StringBuilder nameSB = new StringBuilder(result.get("benchmark").getAsString());
+			if(result.has("params")){
+				for(Map.Entry<String, JsonElement> param : result.getAsJsonObject("params").entrySet()){
+					nameSB.append(" ").append(param.getKey()).append("=").append(param.getValue().getAsString());
+				}
+			}
+			JsonObject primaryMetric = result.getAsJsonObject("primaryMetric");
+			double allocBytesPerOp = -1;
+			if(result.has("secondaryMetrics")){
+				for(Map.Entry<String, JsonElement> metric : result.getAsJsonObject("secondaryMetrics").entrySet()){
+					if(metric.getKey().endsWith(ALLOC_RATE_NORM_METRIC)){
+						allocBytesPerOp = metric.getValue().getAsJsonObject().get("score").getAsDouble();
+					}
+				}
+			}
+			scoreMap.put(nameSB.toString(), new BenchmarkScore(primaryMetric.get("score").getAsDouble(),
+					primaryMetric.get("scoreUnit").getAsString(), allocBytesPerOp));
+		}
+		return scoreMap;
+	}
+
+	/**
+	 * Percent change from baseline.
+	 */
+	private static double percentChange(double baseline, double cur){
+		return 0 == baseline ? 0 : (cur - baseline) * 100 / baseline;
+	}
+
+	/**
+	 * Prints comparison of results with baseline.
+	 * @param resultMap
+	 * @param baselineMap
+	 * @param thresholdPercent
+	 * @return number of regressions, i.e. benchmarks slower or allocating more than threshold.
+	 */
+	static int compare(Map<String, BenchmarkScore> resultMap, Map<String, BenchmarkScore> baselineMap,
+			double thresholdPercent){
+		int regressionCount = 0;
+		for(Map.Entry<String, BenchmarkScore> entry : resultMap.entrySet()){
+			String name = entry.getKey();
+			BenchmarkScore cur = entry.getValue();
+			BenchmarkScore baseline = baselineMap.get(name);
+			if(null == baseline){
+				System.out.printf("%s: %.3f %s, %.0f B/op (no baseline)%n", name, cur.score, cur.scoreUnit, cur.allocBytesPerOp);
+				continue;
+			}
+			double timeChange = percentChange(baseline.score, cur.score);
+			double allocChange = percentChange(baseline.allocBytesPerOp, cur.allocBytesPerOp);
+			boolean regressed = timeChange > thresholdPercent
+					|| (baseline.allocBytesPerOp >= 0 && allocChange > thresholdPercent);
+			if(regressed){
+				regressionCount++;
+			}
+			System.out.printf("%s%s: %.3f -> %.3f %s (%+.1f%%), %.0f -> %.0f B/op (%+.1f%%)%n", regressed ? "REGRESSION " : "",
+					name, baseline.score, cur.score, cur.scoreUnit, timeChange,
+					baseline.allocBytesPerOp, cur.allocBytesPerOp, allocChange);
+		}
+		return regressionCount;
+	}
+
+	public static void main(String[] args){
+		if(args.length < 2){
+			System.out.println("Usage: BenchmarkComparison results.json baseline.json [thresholdPercent]");
+			return;
+		}
+		double thresholdPercent = args.length > 2 ? Double.parseDouble(args[2]) : DEFAULT_THRESHOLD_PERCENT;
+		int regressionCount = compare(readResults(args[0]), readResults(args[1]), thresholdPercent);
+		if(regressionCount > 0){
+			System.out.println(regressionCount + " benchmarks regressed by more than " + thresholdPercent + "%");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package thmp.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import thmp.search.ContextRelationVecStore;
+import thmp.search.TheoremGet.ContextRelationVecPair;
+
+/**
+ * Benchmarks context and relation scoring of a list of candidate thms, in a
+ * ContextRelationVecStore against the Map and Set vecs of a List<ContextRelationVecPair>,
+ * on a synthetic bundle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ContextRelationVecStoreBenchmark {
+
+	private static final int CANDIDATE_COUNT = 2000;
+
+	@Param({"100000"})
+	public int numThms;
+
+	private List<ContextRelationVecPair> vecsList;
+	private File storeFile;
+	private ContextRelationVecStore store;
+	private Map<Integer, Integer> queryContextVecMap;
+	private Set<Integer> queryRelationVec;
+	private int[] candidates;
+	private int[] missCountAr;
+
+	@Setup
+	public void setup() throws IOException {
+		Random rand = new Random(29);
+		vecsList = new ArrayList<ContextRelationVecPair>(numThms);
+		for(int i = 0; i < numThms; i++) {
+			vecsList.add(new ContextRelationVecPair(randomContextVecMap(rand), randomRelationVec(rand)));
+		}
+		storeFile = File.createTempFile("contextRelationVecBenchmark", ContextRelationVecStore.FILE_EXT);
+		ContextRelationVecStore.writeToFile(vecsList, storeFile.getPath());
+		store = ContextRelationVecStore.load(storeFile.getPath());
+		queryContextVecMap = randomContextVecMap(rand);
+		queryRelationVec = randomRelationVec(rand);
+		candidates = new int[CANDIDATE_COUNT];
+		for(int i = 0; i < CANDIDATE_COUNT; i++) {
+			candidates[i] = rand.nextInt(numThms);
+		}
+		//RelationalSearch scores candidates in ascending order.
+		Arrays.sort(candidates);
+		missCountAr = new int[CANDIDATE_COUNT];
+	}
+
+	@TearDown
+	public void tearDown() {
+		storeFile.delete();
+	}
+
+	private static Map<Integer, Integer> randomContextVecMap(Random rand) {
+		int contextSz = 5 + rand.nextInt(40);
+		Map<Integer, Integer> contextVecMap = new HashMap<Integer, Integer>();
+		for(int j = 0; j < contextSz; j++) {
+			contextVecMap.put(rand.nextInt(2000), rand.nextInt(50) - 3);
+		}
+		return contextVecMap;
+	}
+
+	private static Set<Integer> randomRelationVec(Random rand) {
+		int relationSz = rand.nextInt(20);
+		Set<Integer> relationVec = relationSz == 0 ? Collections.<Integer>emptySet() : new HashSet<Integer>();
+		for(int j = 0; j < relationSz; j++) {
+			relationVec.add(rand.nextInt(600));
+		}
+		return relationVec;
+	}
+
+	@Benchmark
+	public int contextMap() {
+		int count = 0;
+		for(int c : candidates) {
+			Map<Integer, Integer> thmMap = vecsList.get(c).contextVecMap();
+			for(Map.Entry<Integer, Integer> entry : queryContextVecMap.entrySet()) {
+				Integer thmVal = thmMap.get(entry.getKey());
+				if(entry.getValue().equals(thmVal) && thmVal > 0) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int contextStore() {
+		//query arrays are made once per query, as in ContextSearch.
+		int[] queryKeys = ContextRelationVecStore.sortedContextQueryKeys(queryContextVecMap);
+		int[] queryVals = ContextRelationVecStore.contextQueryVals(queryContextVecMap, queryKeys);
+		int count = 0;
+		for(int c : candidates) {
+			count += store.contextMatchCount(c, queryKeys, queryVals);
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int relationSet() {
+		//same as RelationVec.hammingDistanceForSets(), whose class init needs the parse data files.
+		int count = 0;
+		for(int c : candidates) {
+			Set<Integer> thmRelationVec = vecsList.get(c).relationVec();
+			for(int queryBit : queryRelationVec) {
+				if(!thmRelationVec.contains(queryBit)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int[] relationStore() {
+		long[] queryWords = ContextRelationVecStore.relationQueryWords(queryRelationVec);
+		int queryBitCount = ContextRelationVecStore.bitCount(queryWords);
+		store.relationMissCounts(candidates, 0, CANDIDATE_COUNT, queryWords, queryBitCount, missCountAr);
+		return missCountAr;
+	}
+}
@@ -0,0 +1,49 @@
+package thmp.bench;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import thmp.parse.GenerateContextVector;
+import thmp.search.SearchState;
+
+/**
+ * Benchmarks creating the context vector of a query, which parses the query.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ContextVectorBenchmark {
+
+	//no commas or backslashes, see ParseBenchmark.
+	@Param({"$f$ is holomorphic on $D$",
+		"finitely generated module over noetherian ring",
+		"$R/p$ is catenary for every minimal prime $p$"})
+	public String input;
+
+	@Setup
+	public void setup() {
+		//loads the lexicon and grammar before measuring
+		GenerateContextVector.createContextVector(input, new SearchState());
+	}
+
+	@Benchmark
+	public Map<Integer, Integer> createContextVector() {
+		//context vecs are created once per search, with a new SearchState.
+		return GenerateContextVector.createContextVector(input, new SearchState());
+	}
+}
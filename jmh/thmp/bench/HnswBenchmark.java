@@ -0,0 +1,140 @@
+package thmp.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import thmp.search.HnswIndex;
+
+/**
+ * Benchmarks nearest-vector queries on an HnswIndex, for several efSearch values,
+ * against an exact scan, on synthetic clustered vecs. Setup prints the recall of
+ * the index at efSearch, against the exact scan.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class HnswBenchmark {
+
+	private static final int NUM_VECS = 200000;
+	private static final int DIM = 35;
+	private static final int NUM_CLUSTERS = 200;
+	private static final int NUM_QUERIES = 500;
+	private static final int NUM_NEAREST = 30;
+
+	@Param({"16", "64", "256"})
+	public int efSearch;
+
+	private float[] vecs;
+	private double[][] queryAr;
+	private File indexFile;
+	private HnswIndex index;
+	private int queryCounter;
+
+	@Setup
+	public void setup() throws IOException {
+		Random rand = new Random(41);
+		float[][] centerAr = new float[NUM_CLUSTERS][DIM];
+		for(float[] center : centerAr) {
+			for(int i = 0; i < DIM; i++) {
+				center[i] = (float)rand.nextGaussian();
+			}
+		}
+		vecs = new float[NUM_VECS*DIM];
+		for(int v = 0; v < NUM_VECS; v++) {
+			float[] center = centerAr[rand.nextInt(NUM_CLUSTERS)];
+			for(int i = 0; i < DIM; i++) {
+				vecs[v*DIM + i] = center[i] + 0.4f*(float)rand.nextGaussian();
+			}
+		}
+		HnswIndex.Builder builder = new HnswIndex.Builder(DIM);
+		for(int v = 0; v < NUM_VECS; v++) {
+			builder.add(vecs, v*DIM, v);
+		}
+		indexFile = File.createTempFile("hnswBenchmark", ".hnsw");
+		builder.writeToFile(indexFile.getPath());
+		index = HnswIndex.load(indexFile.getPath());
+		index.setEfSearch(efSearch);
+
+		queryAr = new double[NUM_QUERIES][DIM];
+		for(double[] query : queryAr) {
+			float[] center = centerAr[rand.nextInt(NUM_CLUSTERS)];
+			for(int i = 0; i < DIM; i++) {
+				query[i] = center[i] + 0.4*rand.nextGaussian();
+			}
+		}
+		long hits = 0;
+		for(double[] query : queryAr) {
+			List<Integer> exactList = exactNearest(query);
+			for(int thmIndex : index.findNearest(query, NUM_NEAREST, Double.MAX_VALUE)) {
+				if(exactList.contains(thmIndex)) {
+					hits++;
+				}
+			}
+		}
+		System.out.println("efSearch " + efSearch + ": recall@" + NUM_NEAREST + " " + hits/(double)(NUM_QUERIES*NUM_NEAREST));
+	}
+
+	@TearDown
+	public void tearDown() {
+		indexFile.delete();
+	}
+
+	private double[] nextQuery() {
+		double[] query = queryAr[queryCounter];
+		queryCounter = (queryCounter + 1) % NUM_QUERIES;
+		return query;
+	}
+
+	/**
+	 * Indices of the NUM_NEAREST vecs nearest to query, by scan.
+	 */
+	private List<Integer> exactNearest(double[] query) {
+		//squared distances in high bits, vec index in low bits, so sorting orders by distance.
+		long[] distIndexAr = new long[NUM_VECS];
+		for(int v = 0; v < NUM_VECS; v++) {
+			double sum = 0;
+			for(int i = 0; i < DIM; i++) {
+				double diff = vecs[v*DIM + i] - query[i];
+				sum += diff*diff;
+			}
+			distIndexAr[v] = ((long)Float.floatToIntBits((float)sum) << 32) | v;
+		}
+		Arrays.sort(distIndexAr);
+		List<Integer> list = new ArrayList<Integer>(NUM_NEAREST);
+		for(int i = 0; i < NUM_NEAREST; i++) {
+			list.add((int)distIndexAr[i]);
+		}
+		return list;
+	}
+
+	@Benchmark
+	public List<Integer> hnswSearch() {
+		return index.findNearest(nextQuery(), NUM_NEAREST, Double.MAX_VALUE);
+	}
+
+	@Benchmark
+	public List<Integer> exactScan() {
+		return exactNearest(nextQuery());
+	}
+}
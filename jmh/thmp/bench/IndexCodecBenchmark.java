@@ -0,0 +1,78 @@
+package thmp.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.wolfram.puremath.dbapp.PackedIndexCodec;
+import com.wolfram.puremath.dbapp.PackedIndexCodec.SortedMode;
+import com.wolfram.puremath.dbapp.SimilarThmUtils;
+
+/**
+ * Benchmarks encoding and decoding lists of thm indices with PackedIndexCodec, in the
+ * fixed-width format of the db tables, and the sorted list modes. 100 is the length of
+ * similar thm lists, 300 that of literal search thm lists.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class IndexCodecBenchmark {
+
+	@Param({"100", "300"})
+	public int len;
+
+	private final int numBitsPerIndex = SimilarThmUtils.numBitsPerThmIndex();
+	private int[] indexAr;
+	private byte[] bytes;
+	private byte[] forBytes;
+	private byte[] varintBytes;
+
+	@Setup
+	public void setup() {
+		Random rand = new Random(len);
+		indexAr = new int[len];
+		for(int i = 0; i < len; i++) {
+			indexAr[i] = rand.nextInt(1 << numBitsPerIndex);
+		}
+		bytes = PackedIndexCodec.encode(indexAr, len, numBitsPerIndex);
+		int[] sortedIndexAr = indexAr.clone();
+		Arrays.sort(sortedIndexAr);
+		forBytes = PackedIndexCodec.encodeSorted(sortedIndexAr, len, SortedMode.FRAME_OF_REFERENCE);
+		varintBytes = PackedIndexCodec.encodeSorted(sortedIndexAr, len, SortedMode.VARINT);
+	}
+
+	@Benchmark
+	public int[] decode() {
+		return PackedIndexCodec.decode(bytes, numBitsPerIndex, len);
+	}
+
+	@Benchmark
+	public byte[] encode() {
+		return PackedIndexCodec.encode(indexAr, len, numBitsPerIndex);
+	}
+
+	@Benchmark
+	public int[] decodeFrameOfReference() {
+		return PackedIndexCodec.decodeSorted(forBytes);
+	}
+
+	@Benchmark
+	public int[] decodeVarint() {
+		return PackedIndexCodec.decodeSorted(varintBytes);
+	}
+}
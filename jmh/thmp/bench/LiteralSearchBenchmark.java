@@ -0,0 +1,101 @@
+package thmp.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+
+import thmp.search.LiteralSearch;
+import thmp.search.LiteralSearch.LiteralSearchIndex;
+import thmp.search.LiteralSearchIndexStore;
+import thmp.search.SearchState;
+import thmp.search.Searcher.SearchMetaData;
+import thmp.utils.WordForms;
+
+/**
+ * Benchmarks literal search over a LiteralSearchIndexStore, written in setup from a
+ * fixed-seed synthetic index, which has postings for every word of the queries, so
+ * timings don't depend on the local data files or a database.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class LiteralSearchBenchmark {
+
+	private static final int NUM_FILLER_WORDS = 100000;
+	//few thms, so words of a query share thms, and results are scored on word distances.
+	private static final int NUM_THMS = 1000;
+
+	@Param({"finitely generated module over noetherian ring",
+		"holomorphic function on unit disk",
+		"klein bottle embedding"})
+	public String query;
+
+	private File storeFile;
+	private LiteralSearchIndexStore store;
+	private SearchState searchState;
+
+	@Setup
+	public void setup() throws IOException {
+		Random rand = new Random(17);
+		ListMultimap<String, LiteralSearchIndex> mmap = ArrayListMultimap.create();
+		for(String word : WordForms.splitThmIntoSearchWordsList(query)) {
+			if(LiteralSearch.isInValidSearchWord(word)) {
+				continue;
+			}
+			//as processed in literal search
+			word = WordForms.normalizeWordForm(WordForms.getSingularForm(WordForms.stripUmlautFromWord(word)));
+			addPostings(mmap, word, SearchMetaData.maxThmsPerLiteralWord, rand);
+		}
+		for(int i = 0; i < NUM_FILLER_WORDS; i++) {
+			addPostings(mmap, "filler" + Integer.toString(i, 36), 1 + rand.nextInt(20), rand);
+		}
+		storeFile = File.createTempFile("literalSearchBenchmark", LiteralSearchIndexStore.FILE_EXT);
+		LiteralSearchIndexStore.writeToFile(mmap, storeFile.getPath());
+		store = LiteralSearchIndexStore.load(storeFile.getPath());
+		searchState = new SearchState();
+	}
+
+	private static void addPostings(ListMultimap<String, LiteralSearchIndex> mmap, String word, int numPostings,
+			Random rand) {
+		for(int i = 0; i < numPostings; i++) {
+			int thmIndex = rand.nextInt(NUM_THMS);
+			byte first = (byte)(Byte.MIN_VALUE + rand.nextInt(200));
+			mmap.put(word, new LiteralSearchIndex(thmIndex, new byte[]{first, (byte)(first + 1 + rand.nextInt(50))}));
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		storeFile.delete();
+	}
+
+	@Benchmark
+	public List<Integer> literalSearch() {
+		Set<String> searchWordsSet = new HashSet<String>();
+		//no prior span, so results are always scored.
+		return LiteralSearch.literalSearch(query, searchState, store, 0, searchWordsSet, new HashSet<String>());
+	}
+}
@@ -0,0 +1,96 @@
+package thmp.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import thmp.exceptions.ParseRuntimeException.IllegalSyntaxException;
+import thmp.parse.ParseState;
+import thmp.parse.ParseState.ParseStateBuilder;
+import thmp.parse.ParseToWLTree;
+import thmp.parse.Struct;
+import thmp.parse.ThmP1;
+
+/**
+ * Benchmarks the parser hot paths: tokenizing, parsing, and building WLCommands
+ * on the spanning parse trees with ParseToWLTree.buildCommandsDfs().
+ * Inputs are among those timed in thmp.test.TestParseTiming.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ParseBenchmark {
+
+	//no commas, since JMH splits values given with -p at commas, and no backslashes,
+	//which JMH doesn't escape in json results.
+	@Param({"$f$ is holomorphic on $D$",
+		"$f$ is a function with radius of convergence $r$",
+		"$R/p$ is catenary for every minimal prime $p$",
+		"The derivative of $f$ is $g$"})
+	public String input;
+
+	private ParseState parseState;
+	//first segment of preprocessed input, and its original-case form.
+	private String sentence;
+	private String originalCaseSentence;
+	//spanning parse trees of sentence, to build commands on.
+	private List<Struct> spanningStructList;
+
+	@Setup
+	public void setup() throws IllegalSyntaxException {
+		ParseStateBuilder parseStateBuilder = new ParseStateBuilder();
+		parseStateBuilder.setWriteUnknownWordsToFile(false);
+		parseState = parseStateBuilder.build();
+		List<String> originalCaseInputList = new ArrayList<String>();
+		sentence = ThmP1.preprocess(input, originalCaseInputList)[0].trim();
+		originalCaseSentence = originalCaseInputList.get(0).trim();
+		ThmP1.parse(ThmP1.tokenize(sentence, originalCaseSentence, parseState));
+		spanningStructList = new ArrayList<Struct>(parseState.getSpanningStructList());
+		if(spanningStructList.isEmpty()){
+			throw new IllegalStateException("Input has no spanning parse: " + input);
+		}
+		parseState.parseRunLocalCleanUp();
+	}
+
+	@Benchmark
+	public ParseState tokenize() throws IllegalSyntaxException {
+		return ThmP1.tokenize(sentence, originalCaseSentence, parseState);
+	}
+
+	@Benchmark
+	public ParseState tokenizeAndParse() throws IllegalSyntaxException {
+		ParseState state = ThmP1.parse(ThmP1.tokenize(sentence, originalCaseSentence, parseState));
+		state.parseRunLocalCleanUp();
+		return state;
+	}
+
+	/**
+	 * Builds commands on each spanning parse tree, then cleans up the tree for the next
+	 * round, as ThmP1 does for each long form.
+	 */
+	@Benchmark
+	public StringBuilder buildCommandsDfs() {
+		StringBuilder parsedSB = new StringBuilder();
+		for(Struct struct : spanningStructList){
+			struct.set_dfsDepth(0);
+			ParseToWLTree.buildCommandsDfs(struct, parsedSB, 0, parseState);
+			ParseToWLTree.dfsCleanUp(struct);
+		}
+		return parsedSB;
+	}
+}
@@ -0,0 +1,134 @@
+package thmp.bench;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Multimap;
+
+import thmp.search.CollectThm.ThmWordsMaps.IndexPartPair;
+import thmp.search.WordThmsPostingIndex;
+import thmp.search.WordThmsPostingIndex.PostingCursor;
+import thmp.utils.WordForms.ThmPart;
+
+/**
+ * Benchmarks traversing the postings of 4-term queries, mixing frequent and rare terms,
+ * in an ImmutableMultimap<String, IndexPartPair> against WordThmsPostingIndex, on a
+ * synthetic index with Zipfian term frequencies. Setup prints the heap used by each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class PostingIndexBenchmark {
+
+	private static final int NUM_TERMS = 60000;
+	private static final int TERMS_PER_THM = 12;
+	private static final int NUM_QUERIES = 2000;
+	private static final int QUERY_LEN = 4;
+
+	@Param({"1000000"})
+	public int numThms;
+
+	private ImmutableMultimap<String, IndexPartPair> mmap;
+	private WordThmsPostingIndex postingIndex;
+	private PostingCursor cursor;
+	private String[][] queryAr;
+	private int queryCounter;
+
+	@Setup
+	public void setup() {
+		Random rand = new Random(37);
+		String[] termAr = new String[NUM_TERMS];
+		for(int i = 0; i < NUM_TERMS; i++) {
+			termAr[i] = "term" + i;
+		}
+		//cumulative Zipf distribution, so a few terms have very long posting lists.
+		double[] cumulativeAr = new double[NUM_TERMS];
+		double total = 0;
+		for(int i = 0; i < NUM_TERMS; i++) {
+			total += 1.0 / (i + 1);
+			cumulativeAr[i] = total;
+		}
+		long heapBefore = usedHeap();
+		Multimap<String, IndexPartPair> preMMap = ArrayListMultimap.create();
+		for(int thmIndex = 0; thmIndex < numThms; thmIndex++) {
+			for(int j = 0; j < TERMS_PER_THM; j++) {
+				int pos = Arrays.binarySearch(cumulativeAr, rand.nextDouble() * total);
+				int termIndex = pos < 0 ? Math.min(-pos - 1, NUM_TERMS - 1) : pos;
+				ThmPart part = rand.nextInt(4) == 0 ? ThmPart.HYP : ThmPart.STM;
+				byte[] wordIndexAr = rand.nextBoolean() ? new byte[] {(byte)j} : new byte[] {(byte)j, (byte)(j + 5)};
+				preMMap.put(termAr[termIndex], new IndexPartPair(thmIndex, part, wordIndexAr));
+			}
+		}
+		mmap = ImmutableMultimap.copyOf(preMMap);
+		preMMap = null;
+		long mmapHeap = usedHeap() - heapBefore;
+		heapBefore = usedHeap();
+		postingIndex = WordThmsPostingIndex.create(mmap);
+		long postingIndexHeap = usedHeap() - heapBefore;
+		System.out.println("Postings: " + mmap.size() + ", heap (MB) ImmutableMultimap: " + (mmapHeap >> 20)
+				+ ", WordThmsPostingIndex: " + (postingIndexHeap >> 20));
+		cursor = postingIndex.cursor();
+
+		queryAr = new String[NUM_QUERIES][QUERY_LEN];
+		for(int i = 0; i < NUM_QUERIES; i++) {
+			for(int j = 0; j < QUERY_LEN; j++) {
+				queryAr[i][j] = termAr[rand.nextInt(j == 0 ? 50 : NUM_TERMS)];
+			}
+		}
+	}
+
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for(int i = 0; i < 4; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	private String[] nextQuery() {
+		String[] query = queryAr[queryCounter];
+		queryCounter = (queryCounter + 1) % NUM_QUERIES;
+		return query;
+	}
+
+	@Benchmark
+	public long multimapTraversal() {
+		long checksum = 0;
+		for(String term : nextQuery()) {
+			for(IndexPartPair pair : mmap.get(term)) {
+				checksum += pair.thmIndex() + pair.wordIndexAr().length;
+			}
+		}
+		return checksum;
+	}
+
+	@Benchmark
+	public long postingIndexTraversal() {
+		long checksum = 0;
+		for(String term : nextQuery()) {
+			cursor.reset(term);
+			while(cursor.next()) {
+				checksum += cursor.thmIndex() + cursor.wordIndexCount();
+			}
+		}
+		return checksum;
+	}
+}
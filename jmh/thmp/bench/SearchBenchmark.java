@@ -0,0 +1,57 @@
+package thmp.bench;
+
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import thmp.search.IndexGeneration;
+import thmp.search.SearchIntersection;
+import thmp.search.SearchResourceLoader;
+import thmp.search.SearchState;
+
+/**
+ * Benchmarks intersection search over the word-thm posting index, with and
+ * without context search. Needs the search data files under src/thmp/data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class SearchBenchmark {
+
+	private static final int NUM_HIGHEST = 50;
+
+	@Param({"finitely generated module over noetherian ring",
+		"holomorphic function on unit disk",
+		"prime ideal of polynomial ring over field"})
+	public String query;
+
+	@Param({"false", "true"})
+	public boolean contextSearch;
+
+	@Setup
+	public void setup() {
+		SearchResourceLoader.load();
+		//fails here, rather than in every search, if the index could not be loaded.
+		IndexGeneration.current();
+	}
+
+	@Benchmark
+	public SearchState intersectionSearch() {
+		return SearchIntersection.intersectionSearch(query, new HashSet<String>(), new SearchState(),
+				contextSearch, false, NUM_HIGHEST);
+	}
+}
@@ -0,0 +1,122 @@
+package thmp.bench;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+
+import thmp.search.CollectThm.ThmWordsMaps.IndexPartPair;
+import thmp.search.IndexGeneration;
+import thmp.search.SearchIntersection;
+import thmp.search.SearchState;
+import thmp.search.WordThmsPostingIndex;
+import thmp.utils.WordForms.ThmPart;
+
+/**
+ * Benchmarks intersection search of long queries of frequent words, on one shard against
+ * numShards shards in parallel, on a synthetic index with Zipfian word frequencies.
+ * Search words are scored with the word score map, so needs the search data files under
+ * src/thmp/data.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(value = 1, jvmArgs = {"-Xms4g", "-Xmx4g"})
+public class ShardedSearchBenchmark {
+
+	private static final int NUM_THMS = 1000000;
+	private static final int NUM_WORDS = 20000;
+	private static final int WORDS_PER_THM = 12;
+	private static final int NUM_QUERIES = 50;
+	private static final int QUERY_LEN = 12;
+	private static final int NUM_HIGHEST = 50;
+
+	@Param({"1", "4"})
+	public int numShards;
+
+	private String[] queryAr;
+	private int queryCounter;
+
+	@Setup
+	public void setup() {
+		Random rand = new Random(41);
+		String[] wordAr = new String[NUM_WORDS];
+		for(int i = 0; i < NUM_WORDS; i++) {
+			wordAr[i] = letterWord(i);
+		}
+		double[] cumulativeAr = new double[NUM_WORDS];
+		double total = 0;
+		for(int i = 0; i < NUM_WORDS; i++) {
+			total += 1.0 / (i + 1);
+			cumulativeAr[i] = total;
+		}
+		Multimap<String, IndexPartPair> wordThmsMMap = ArrayListMultimap.create();
+		for(int thmIndex = 0; thmIndex < NUM_THMS; thmIndex++) {
+			for(int j = 0; j < WORDS_PER_THM; j++) {
+				int pos = Arrays.binarySearch(cumulativeAr, rand.nextDouble() * total);
+				int wordIndex = pos < 0 ? Math.min(-pos - 1, NUM_WORDS - 1) : pos;
+				ThmPart part = rand.nextInt(4) == 0 ? ThmPart.HYP : ThmPart.STM;
+				wordThmsMMap.put(wordAr[wordIndex], new IndexPartPair(thmIndex, part, new byte[] {(byte)j}));
+			}
+		}
+		IndexGeneration generation = IndexGeneration.forPostingIndex(WordThmsPostingIndex.create(wordThmsMMap), NUM_THMS);
+		wordThmsMMap = null;
+		//setup and benchmark methods of Scope.Thread state run on the same thread.
+		IndexGeneration.enter(generation);
+		SearchIntersection.setShardedSearch(numShards);
+
+		queryAr = new String[NUM_QUERIES];
+		for(int q = 0; q < NUM_QUERIES; q++) {
+			StringBuilder querySb = new StringBuilder();
+			for(int j = 0; j < QUERY_LEN; j++) {
+				querySb.append(wordAr[rand.nextInt(j < 4 ? 30 : 2000)]).append(' ');
+			}
+			queryAr[q] = querySb.toString().trim();
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		SearchIntersection.setShardedSearch(1);
+		IndexGeneration.exit();
+	}
+
+	/**
+	 * Word of letters only, so it's kept as is by query preprocessing, e.g. "qbxa".
+	 */
+	private static String letterWord(int n) {
+		StringBuilder sb = new StringBuilder("q");
+		do {
+			sb.append((char)('b' + n % 24));
+			n /= 24;
+		}while(n > 0);
+		//no trailing 's', which singular forms would remove
+		return sb.append('a').toString();
+	}
+
+	@Benchmark
+	public SearchState intersectionSearch() {
+		String query = queryAr[queryCounter];
+		queryCounter = (queryCounter + 1) % NUM_QUERIES;
+		return SearchIntersection.intersectionSearch(query, new HashSet<String>(), new SearchState(),
+				false, false, NUM_HIGHEST);
+	}
+}
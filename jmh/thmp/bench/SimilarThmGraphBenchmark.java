@@ -0,0 +1,103 @@
+package thmp.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.primitives.Ints;
+import com.wolfram.puremath.dbapp.SimilarThmUtils;
+
+import thmp.search.SimilarThmGraph;
+
+/**
+ * Benchmarks similar thm lookups of a list of thms, in a SimilarThmGraph against decoding the
+ * byte arrays of a HashMap, as stored in the similarThmsTb database table, on a synthetic graph.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class SimilarThmGraphBenchmark {
+
+	private static final int LOOKUP_COUNT = 1000;
+
+	@Param({"200000"})
+	public int numThms;
+
+	private Map<Integer, byte[]> similarThmsMap;
+	private File graphFile;
+	private SimilarThmGraph graph;
+	private int numBitsPerThmIndex;
+	private int[] lookupThms;
+
+	@Setup
+	public void setup() throws IOException {
+		Random rand = new Random(31);
+		int maxNeighbourCount = SimilarThmUtils.maxSimilarThmListLen();
+		List<List<Integer>> neighbourListList = new ArrayList<List<Integer>>(numThms);
+		similarThmsMap = new HashMap<Integer, byte[]>();
+		for(int i = 0; i < numThms; i++) {
+			int[] neighbourAr = new int[rand.nextInt(maxNeighbourCount + 1)];
+			for(int j = 0; j < neighbourAr.length; j++) {
+				neighbourAr[j] = rand.nextInt(numThms);
+			}
+			neighbourListList.add(Ints.asList(neighbourAr));
+			similarThmsMap.put(i, SimilarThmUtils.indexListToByteArray(Ints.asList(neighbourAr)));
+		}
+		graphFile = File.createTempFile("similarThmGraphBenchmark", SimilarThmGraph.FILE_EXT);
+		SimilarThmGraph.writeToFile(0, neighbourListList, null, graphFile.getPath());
+		graph = SimilarThmGraph.load(graphFile.getPath());
+		numBitsPerThmIndex = SimilarThmUtils.numBitsPerThmIndex();
+		lookupThms = new int[LOOKUP_COUNT];
+		for(int i = 0; i < LOOKUP_COUNT; i++) {
+			lookupThms[i] = rand.nextInt(numThms);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		graphFile.delete();
+	}
+
+	@Benchmark
+	public long dbBytes() {
+		long sum = 0;
+		for(int thmIndex : lookupThms) {
+			for(int neighbour : SimilarThmUtils.byteArrayToIndexList(similarThmsMap.get(thmIndex), numBitsPerThmIndex)) {
+				sum += neighbour;
+			}
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public long graph() {
+		long sum = 0;
+		for(int thmIndex : lookupThms) {
+			for(int neighbour : graph.getNeighbours(thmIndex)) {
+				sum += neighbour;
+			}
+		}
+		return sum;
+	}
+}
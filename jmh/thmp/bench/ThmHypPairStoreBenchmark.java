@@ -0,0 +1,106 @@
+package thmp.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import thmp.search.SearchCombined.ThmHypPair;
+import thmp.search.ThmHypPairStore;
+import thmp.utils.FileUtils;
+
+/**
+ * Benchmarks looking up a thm in a synthetic bundle, in a ThmHypPairStore against the
+ * serialized List<ThmHypPair> it replaces. Cold lookups first deserialize the list, or
+ * map the store, as when the bundle is not in memory. Warm lookups use the loaded
+ * list or store.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class ThmHypPairStoreBenchmark {
+
+	@Param({"10000"})
+	public int numThms;
+
+	private File serialFile;
+	private File storeFile;
+	private List<ThmHypPair> thmHypPairList;
+	private ThmHypPairStore store;
+	private Random rand;
+
+	@Setup
+	public void setup() throws IOException {
+		rand = new Random(23);
+		thmHypPairList = new ArrayList<ThmHypPair>(numThms);
+		for(int i = 0; i < numThms; i++) {
+			thmHypPairList.add(new ThmHypPair(randomText(rand, 300), randomText(rand, 150),
+					"math0" + (211000 + rand.nextInt(1000)), "Theorem"));
+		}
+		serialFile = File.createTempFile("thmHypPairBenchmark", "");
+		storeFile = new File(ThmHypPairStore.storePath(serialFile.getPath()));
+		FileUtils.serializeObjToFile(thmHypPairList, serialFile.getPath());
+		ThmHypPairStore.writeToFile(thmHypPairList, storeFile.getPath());
+		store = ThmHypPairStore.load(storeFile.getPath());
+	}
+
+	@TearDown
+	public void tearDown() {
+		serialFile.delete();
+		storeFile.delete();
+	}
+
+	private static String randomText(Random rand, int len) {
+		StringBuilder sb = new StringBuilder(len);
+		while(sb.length() < len) {
+			int wordLen = 2 + rand.nextInt(8);
+			for(int i = 0; i < wordLen; i++) {
+				sb.append((char)('a' + rand.nextInt(26)));
+			}
+			sb.append(rand.nextInt(10) == 0 ? " $x_i$ " : " ");
+		}
+		return sb.toString();
+	}
+
+	@Benchmark
+	@SuppressWarnings("unchecked")
+	public String coldDeserializeList() {
+		List<ThmHypPair> list = (List<ThmHypPair>)FileUtils.deserializeListFromFile(serialFile.getPath());
+		return list.get(rand.nextInt(numThms)).thmStr();
+	}
+
+	@Benchmark
+	public String coldLoadStore() throws IOException {
+		return ThmHypPairStore.load(storeFile.getPath()).get(rand.nextInt(numThms)).thmStr();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String warmList() {
+		return thmHypPairList.get(rand.nextInt(numThms)).thmStr();
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public String warmStore() {
+		return store.get(rand.nextInt(numThms)).thmStr();
+	}
+}
@@ -1,6 +1,7 @@
 package thmp.parse;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -8,6 +9,9 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -38,6 +42,7 @@ import thmp.search.SearchCombined.ThmHypPair;
 import thmp.search.Searcher;
 import thmp.search.Searcher.SearchMetaData;
 import thmp.search.TheoremGet.ContextRelationVecPair;
+import thmp.search.ThmBundleWriter;
 import thmp.search.ThmSearch;
 import thmp.utils.FileUtils;
 import thmp.utils.MacrosTrie;
@@ -86,14 +91,14 @@ public class DetectHypothesis {
 	
 	//contains ParsedExpressions, to be serialized to persistent storage
 	//***private static final List<ParsedExpression> parsedExpressionList = new ArrayList<ParsedExpression>();
-	//for inspection
-	private static final List<String> parsedExpressionStrList = new ArrayList<String>();
-	private static final List<ContextRelationVecPair> contextRelationVecPairList = new ArrayList<ContextRelationVecPair>();
-	private static final List<String> DefinitionListWithThmStrList = new ArrayList<String>();
-	private static final List<String> allThmsStrWithSpaceList = new ArrayList<String>();
+	//number of threads to parse tex files on. Each thread parses with its own Parser.
+	private static final int NUM_PARSE_THREADS = Runtime.getRuntime().availableProcessors();
+	//subdirectory of tex files directory to checkpoint parsed files to.
+	private static final String INGESTION_CHECKPOINT_DIR_NAME = "ingestionCheckpoints";
 	
 	private static final String parsedExpressionSerialFileStr = "src/thmp/data/parsedExpressionList";
-	private static final String contextRelationPairSerialFileStr = "src/thmp/data/vecs/contextRelationVecPairList0";
+	//vec bundle index is appended when written, so the first bundle is contextRelationVecPairList0.
+	private static final String contextRelationPairSerialFileStr = "src/thmp/data/vecs/contextRelationVecPairList";
 	private static final String parsedExpressionStringFileStr = "src/thmp/data/parsedExpressionList.txt";
 	
 	public static final String parsedExpressionSerialFileNameStr = "parsedExpressionList";
@@ -160,7 +165,7 @@ public class DetectHypothesis {
 	private static final int NUM_NON_TEX_TOKEN_THRESHOLD = 4;
 	private static final int THM_MAX_CHAR_SIZE = 1800;
 	//this path is only used in this class, for inspection, so not in SearchMetadata
-	private static final String parserErrorLogPath = "src/thmp/data/parserErrorLog.txt";
+	static final String parserErrorLogPath = "src/thmp/data/parserErrorLog.txt";
 	private static final boolean DEBUG = FileUtils.isOSX() ? InitParseWithResources.isDEBUG() : false;
 	private static final int CONTEXT_SB_LENGTH_THRESHOLD = 15000;
 	private static final Pattern ENUMERATE_PATTERN = Pattern.compile("(?:\\\\(?:begin|end)\\{enumerate\\}"
@@ -240,6 +245,15 @@ public class DetectHypothesis {
 			this.totalThmsNum++;
 		}
 
+		/**
+		 * Adds counts from other, e.g. stats gathered when parsing another file.
+		 * @param other
+		 */
+		public void add(Stats other) {
+			this.headParseStructNullNum += other.headParseStructNullNum;
+			this.totalThmsNum += other.totalThmsNum;
+		}
+
 		/**
 		 * @return the headParseStructNullNum
 		 */
@@ -496,68 +510,33 @@ public class DetectHypothesis {
 		}		
 		List<DefinitionListWithThm> defThmList = new ArrayList<DefinitionListWithThm>();
 		List<ThmHypPair> thmHypPairList = new ArrayList<ThmHypPair>();
+		//context and relation vecs of thms, in same order as thmHypPairList
+		List<ContextRelationVecPair> contextRelationVecPairList = new ArrayList<ContextRelationVecPair>();
 		Stats stats = new Stats();
 		if(inputFile.isDirectory()){
 			//get all filenames from dir. Get tex file names from serialized file data.
 					
 				final boolean scrapeThmNames = FileUtils.SCRAPE_THM_NAME_Q;
-				List<String> thmNameList = new ArrayList<String>();
 				
-				for(Map.Entry<String, String> fileNameEntry : texFileNamesMap.entrySet()){
-					//this is absolute file path, e.g. /home/usr0/yihed/thm/
-					//0309_001Untarred/0309/math0309323/cwahl-ch3.tex
-					String fileName = fileNameEntry.getKey();
-					File file = new File(fileName);
-					BufferedReader inputBF = null;
-					try{
-						inputBF = new BufferedReader(new FileReader(file));	
-					}catch(FileNotFoundException e){						
-						String msg = fileName + " source file not found!";
-						System.out.println(msg);
-						logger.error(msg);
-						continue;
-					}
-					//file name needed as metadata for search. e.g. math0309323
-					String texFileName = fileNameEntry.getValue();
-					try{						
-						if(scrapeThmNames) {
-							scrapeThmNames(inputBF, thmNameList);
-						} else {
-							List<String> curFileThmNameList = new ArrayList<String>();
-							extractThmsFromFiles(inputBF, defThmList, thmHypPairList, stats, texFileName, curFileThmNameList);
-							//add delimiter to separate thm names per paper
-							if(!curFileThmNameList.isEmpty()) {
-								thmNameList.add("\n");
-								thmNameList.add(texFileName);
-								thmNameList.addAll(curFileThmNameList);
-							}							
-						}
-					}catch(OutOfMemoryError e){
-						String timeStr = new SimpleDateFormat("yyyy_MM_dd_HH:mm").format(Calendar.getInstance().getTime());
-						String msg = "\n"+timeStr + " Exception when processing: " + fileName + e+"\nwith trace " + Arrays.toString(e.getStackTrace());						
-						logger.error(msg);
-						System.out.println(msg);
-						throw e;
-					}catch(Throwable e){
-						String timeStr = new SimpleDateFormat("yyyy_MM_dd_HH:mm").format(Calendar.getInstance().getTime());
-						String msg = "\n"+timeStr + " Exception when processing: " + fileName + e+"\nwith trace " + Arrays.toString(e.getStackTrace());						
-						FileUtils.appendObjToFile(msg, parserErrorLogPath);
-						logger.error(msg);
-						System.out.println(msg);
-					}finally {
-						FileUtils.silentClose(inputBF);
-					}
-				}
+				/*Files are parsed concurrently, each with its own ParseState, and results are
+				 * merged in file order, so the output is the same as parsing files one by one.
+				 * Results are checkpointed as files are parsed, so reruns resume after a crash.*/
+				IngestionPipeline pipeline = new IngestionPipeline(texFileNamesMap, 
+						Paths.get(inputParams.texFilesDirPath, INGESTION_CHECKPOINT_DIR_NAME), scrapeThmNames, NUM_PARSE_THREADS);
+				pipeline.run();
+				List<String> thmNameList = pipeline.thmNameList();
+				stats.add(pipeline.stats());
 				
 				if(!thmNameList.isEmpty()) {
 					FileUtils.serializeObjToFile(thmNameList, inputParams.texFilesDirPath + THM_SCRAPE_SER_FILENAME);					
 					FileUtils.writeToFile(thmNameList, inputParams.texFilesDirPath + THM_SCRAPE_TXT_FILENAME);
 				}
-				//serialize, so don't discard the items already parsed.
-				//serialization only applicable when running on byblis
+				//serialize, so don't discard the items already parsed. Thms are read back from the
+				//checkpoints one shard at a time. Serialization only applicable when running on byblis
 				if(!FileUtils.isOSX()){
-					serializeDataToFile(stats, thmHypPairList, inputParams, runnerConfig);		
+					serializeDataToFile(pipeline.shards(), inputParams, runnerConfig);		
 				}					
+				pipeline.clearCheckpoints();
 				
 		}else{
 			BufferedReader inputBF = null;
@@ -569,7 +548,8 @@ public class DetectHypothesis {
 			}
 			
 			try{
-				extractThmsFromFiles(inputBF, defThmList, thmHypPairList, stats, inputFile.getName());				
+				extractThmsFromFiles(inputBF, defThmList, thmHypPairList, contextRelationVecPairList, stats, 
+						inputFile.getName(), null);				
 			}catch(Throwable e){
 				logger.error("Error during thm exptraction and parsing!"+e.getMessage());			
 				throw e;
@@ -578,7 +558,8 @@ public class DetectHypothesis {
 			}
 			
 			if(!FileUtils.isOSX()){
-				serializeDataToFile(stats, thmHypPairList, inputParams, runnerConfig);	
+				serializeDataToFile(Collections.singletonList(new IngestionPipeline.Shard(thmHypPairList, 
+						contextRelationVecPairList)), inputParams, runnerConfig);	
 			}
 			
 			//March 26: temporary to debug kahler
@@ -588,11 +569,6 @@ public class DetectHypothesis {
 		}
 		System.out.println("STATS -- percentage of non-trivial ParseStruct heads: " + stats.getNonNullPercentage() 
 			+ " out of total " + stats.getTotalThmsNum() + "thms");
-		//should actually make these local vars, so no need to clear at end
-		parsedExpressionStrList.clear() ;
-		contextRelationVecPairList.clear();
-		DefinitionListWithThmStrList.clear();
-		allThmsStrWithSpaceList.clear();
 		
 		boolean deserialize = false;
 		if(deserialize){
@@ -714,34 +690,86 @@ public class DetectHypothesis {
 		return ((List<Map<String, String>>)FileUtils.deserializeListFromFile(texFileNamesSerialFileStr)).get(0);
 	}
 
-	private static void extractThmsFromFiles(BufferedReader inputBF, List<DefinitionListWithThm> defThmList, 
-			List<ThmHypPair> thmHypPairList, Stats stats, String fileName, List<String> scrapedThmNameList) {
-
-		ParseStateBuilder parseStateBuilder = new ParseStateBuilder();		
-		ParseState parseState = parseStateBuilder.build();		
-		try{
-			readAndParseThm(inputBF, parseState, defThmList, thmHypPairList, stats, fileName, scrapedThmNameList);		
-		}catch(IOException e){
-			e.printStackTrace();
-			logger.error(e.getStackTrace());
-		}		
-		DefinitionListWithThmStrList.add(defThmList.toString()+ "\n");
+	/**
+	 * Theorems and data extracted from one tex file on a parse thread, to be
+	 * merged with those of other files in file order.
+	 */
+	static class TexFileData{
+		final String texFileName;
+		final List<DefinitionListWithThm> defThmList = new ArrayList<DefinitionListWithThm>();
+		final List<ThmHypPair> thmHypPairList = new ArrayList<ThmHypPair>();
+		final List<ContextRelationVecPair> contextRelationVecPairList = new ArrayList<ContextRelationVecPair>();
+		//scraped thm names
+		final List<String> thmNameList = new ArrayList<String>();
+		final Stats stats = new Stats();
+		//message to append to parser error log, null if no error.
+		String errorMsg;
+		
+		TexFileData(String texFileName){
+			this.texFileName = texFileName;
+		}
+	}
+	
+	/**
+	 * Extracts and parses thms from one file, or scrapes thm names. Runs on a parse thread.
+	 * @param inputBF reader of file content, closed when done.
+	 * @param fileName absolute path
+	 * @param texFileName name of file, to append to parsed thms, e.g. math0309323
+	 * @param scrapeThmNames whether to only scrape thm names.
+	 * @return
+	 */
+	static TexFileData extractThmsFromFile(BufferedReader inputBF, String fileName, String texFileName, 
+			boolean scrapeThmNames) {
+		TexFileData fileData = new TexFileData(texFileName);
+		try{						
+			if(scrapeThmNames) {
+				scrapeThmNames(inputBF, fileData.thmNameList);
+			} else {
+				extractThmsFromFiles(inputBF, fileData.defThmList, fileData.thmHypPairList, 
+						fileData.contextRelationVecPairList, fileData.stats, texFileName, fileData.thmNameList);
+			}
+		}catch(OutOfMemoryError e){
+			String timeStr = new SimpleDateFormat("yyyy_MM_dd_HH:mm").format(Calendar.getInstance().getTime());
+			String msg = "\n"+timeStr + " Exception when processing: " + fileName + e+"\nwith trace " + Arrays.toString(e.getStackTrace());						
+			logger.error(msg);
+			System.out.println(msg);
+			throw e;
+		}catch(Throwable e){
+			//keep thms parsed before the error
+			String timeStr = new SimpleDateFormat("yyyy_MM_dd_HH:mm").format(Calendar.getInstance().getTime());
+			String msg = "\n"+timeStr + " Exception when processing: " + fileName + e+"\nwith trace " + Arrays.toString(e.getStackTrace());						
+			fileData.errorMsg = msg;
+			logger.error(msg);
+			System.out.println(msg);
+		}finally {
+			FileUtils.silentClose(inputBF);
+		}
+		return fileData;
 	}
 	
 	/**
 	 * Entry point to extract thms given a file.
 	 * @param inputBF
-	 * @param defThmList empty list.
-	 * @param thmHypPairList Emoty list.
+	 * @param defThmList list to add to.
+	 * @param thmHypPairList list to add to.
+	 * @param contextRelationVecPairList list to add vecs of thms to, in same order as thmHypPairList.
 	 * @param stats
 	 * @param fileName name of file, to append to parsed thms.
-	 * @param scraped thm name list.
+	 * @param scrapedThmNameList can be null.
 	 */
 	private static void extractThmsFromFiles(BufferedReader inputBF, List<DefinitionListWithThm> defThmList, 
-			List<ThmHypPair> thmHypPairList, Stats stats, String fileName) {
+			List<ThmHypPair> thmHypPairList, List<ContextRelationVecPair> contextRelationVecPairList, 
+			Stats stats, String fileName, List<String> scrapedThmNameList) {
 
-		List<String> scrapedThmNameList = null;
-		extractThmsFromFiles(inputBF, defThmList, thmHypPairList, stats, fileName, scrapedThmNameList);
+		ParseStateBuilder parseStateBuilder = new ParseStateBuilder();		
+		ParseState parseState = parseStateBuilder.build();		
+		try{
+			readAndParseThm(inputBF, parseState, defThmList, thmHypPairList, contextRelationVecPairList, 
+					stats, fileName, scrapedThmNameList);		
+		}catch(IOException e){
+			e.printStackTrace();
+			logger.error(e.getStackTrace());
+		}		
 	}
 	
 	/**
@@ -749,9 +777,11 @@ public class DetectHypothesis {
 	 * The serializations done in this method should remain atomic, i.e. do *not* perform 
 	 * a subset of steps only, since we rely on the different serialized data to come from
 	 * the same source with the same settings.
-	 * @param pathToProjectionMx path to  projection mx, if specified.
+	 * Thms and vecs are written in a bundle per shard, so only one shard of thms is in memory at a time,
+	 * except when regenerating the term document mx, which needs all thms.
+	 * @param shardIterable parsed thms and vecs, in file order.
 	 */
-	private static void serializeDataToFile(Stats stats, List<ThmHypPair> thmHypPairList,
+	private static void serializeDataToFile(Iterable<IngestionPipeline.Shard> shardIterable,
 			InputParams inputParams, SearchDataRunnerConfig runnerConfig) {
 		
 		String pathToProjectionMx = inputParams.getPathToProjectionMx();
@@ -774,9 +804,44 @@ public class DetectHypothesis {
 			 *The indices need to be processed again later when combined into one MMap for multiple tars.
 			 * in projectMatrix.java*/
 			HashMultimap<String, IndexPartPair> wordThmIndexMMap = HashMultimap.create();
-			//actually turn ParsedExpression's into ThmHypPair's. To facilitate deserialization
-			//into cache at runtime with minimal processing.
-			createWordThmIndexMMap(thmHypPairList, wordThmIndexMMap);
+			//thms are read back by ThmBundleWriter.readTarThms().
+			ThmBundleWriter bundleWriter = ThmBundleWriter.forTar(parsedExpressionSerialFileStr, contextRelationPairSerialFileStr);
+			//parsedExpressionStringFileStr holds the toString() of the thm list, and allThmsStringFileStr one thm per line.
+			BufferedWriter parsedExpressionStringWriter = Files.newBufferedWriter(Paths.get(parsedExpressionStringFileStr), 
+					StandardCharsets.UTF_8);
+			BufferedWriter allThmsStringWriter = null;
+			int thmCount = 0;
+			try{
+				allThmsStringWriter = Files.newBufferedWriter(Paths.get(allThmsStringFileStr), StandardCharsets.UTF_8);
+				parsedExpressionStringWriter.write("[");
+				for(IngestionPipeline.Shard shard : shardIterable){
+					List<ThmHypPair> shardThmList = shard.thmHypPairList();
+					createWordThmIndexMMap(shardThmList, thmCount, wordThmIndexMMap);
+					for(ThmHypPair thmHypPair : shardThmList){
+						if(thmCount > 0){
+							parsedExpressionStringWriter.write(", ");
+						}
+						parsedExpressionStringWriter.write(String.valueOf(thmHypPair));
+						//write just the thms
+						allThmsStringWriter.write(thmHypPair.toString() + "\n");
+						allThmsStringWriter.newLine();
+						thmCount++;
+					}
+					bundleWriter.addThms(shardThmList);
+					bundleWriter.addVecs(shard.contextRelationVecPairList());
+					bundleWriter.endBundle();
+				}
+				parsedExpressionStringWriter.write("]");
+				parsedExpressionStringWriter.newLine();
+			}finally{
+				FileUtils.silentClose(parsedExpressionStringWriter);
+				FileUtils.silentClose(allThmsStringWriter);
+			}
+			if(bundleWriter.bundleStartThmIndexList().isEmpty()){
+				//so readers find the bundle index of a tar without thms
+				bundleWriter.endBundle();
+			}
+			bundleWriter.close();
 			
 			List<Multimap<String, IndexPartPair>> wordThmIndexMMapList = new ArrayList<Multimap<String, IndexPartPair>>();
 			wordThmIndexMMapList.add(wordThmIndexMMap);
@@ -786,12 +851,6 @@ public class DetectHypothesis {
 					.substring(0, wordThmIndexMMapSerialFileStr.length()-3) + "txt";
 			FileUtils.writeToFile(wordThmIndexMMapList, wordThmIndexMMapTxtFileStr);
 			
-			FileUtils.serializeObjToFile(thmHypPairList, parsedExpressionSerialFileStr);
-			//write parsedExpressionList to file
-			FileUtils.writeToFile(thmHypPairList, parsedExpressionStringFileStr);
-			
-			FileUtils.serializeObjToFile(contextRelationVecPairList, contextRelationPairSerialFileStr);
-			
 			List<Map<String, Integer>> wordMapToSerializeList = new ArrayList<Map<String, Integer>>();
 			wordMapToSerializeList.add(ALL_THM_WORDS_FREQ_MAP);
 			FileUtils.serializeObjToFile(wordMapToSerializeList, allThmWordsMapSerialFileStr);
@@ -799,12 +858,13 @@ public class DetectHypothesis {
 			List<String> wordMapStringList = new ArrayList<String>();
 			wordMapStringList.add(ALL_THM_WORDS_FREQ_MAP.toString());
 			FileUtils.writeToFile(wordMapStringList, allThmWordsMapStringFileStr);
-			
-			//write just the thms
-			FileUtils.writeToFile(allThmsStrWithSpaceList, allThmsStringFileStr);
 			//append to stats file!
 			//FileUtils.appendObjToFile(stats, statsFileStr); <--cmmented out Dec 2017
 			
+		}catch(IOException e){
+			String msg = "IOException when writing and serializing to file! " + e;
+			logger.error(msg);
+			throw new IllegalStateException(msg, e);
 		}catch(Throwable e){
 			logger.error("Error occurred when writing and serializing to file! " + e);
 			throw e;
@@ -817,7 +877,9 @@ public class DetectHypothesis {
 		 * If this step fails, need to re-run to produce matrix. This should run at end of this method,
 		 * so others have already serialized in case this fails.*/
 		if(runnerConfig.regenerateMx()) {
-			ImmutableList<TheoremContainer> immutableThmHypPairList = ImmutableList.copyOf(thmHypPairList);
+			//the mx is over all thms of the tar, so they are read back in full here.
+			ImmutableList<TheoremContainer> immutableThmHypPairList = ImmutableList.copyOf(
+					ThmBundleWriter.readTarThms(parsedExpressionSerialFileStr));
 			if(projectionPathsNotNull){
 				Map<String, Integer> wordFreqMap = getWordFreqMap(pathToWordFreqMap);
 				//first serialize full dimensional TD mx, then project using provided projection mx.
@@ -866,13 +928,14 @@ public class DetectHypothesis {
 	/**
 	 * Convert list of ParsedExpression's to list of ThmHypPair's for serialization.
 	 * @param peList
+	 * @param startThmIndex index of the first thm in peList, among the thms of the tar.
 	 * @param wordThmIndexMMap map used for intersection. Keys are words, values are IndexPartPair for word.
 	 * @return
 	 */
-	private static void createWordThmIndexMMap(List<ThmHypPair> peList,
+	private static void createWordThmIndexMMap(List<ThmHypPair> peList, int startThmIndex,
 			HashMultimap<String, IndexPartPair> wordThmIndexMMap){		
 		
-		int thmIndex = 0;
+		int thmIndex = startThmIndex;
 		for(ThmHypPair pe : peList){
 			char thmType = pe.thmType().charAt(0);
 			
@@ -969,6 +1032,20 @@ public class DetectHypothesis {
 			List<ThmHypPair> thmHypPairList,
 			Stats stats, String fileName, List<String> scrapedThmNameList) throws IOException{
 		
+		List<ContextRelationVecPair> contextRelationVecPairList = new ArrayList<ContextRelationVecPair>();
+		readAndParseThm(srcFileReader, parseState, definitionListWithThmList, thmHypPairList, 
+				contextRelationVecPairList, stats, fileName, scrapedThmNameList);
+	}
+	
+	/**
+	 * Same as the public readAndParseThm(), also collecting the context and relation vecs of thms.
+	 * @param contextRelationVecPairList list to add vecs to, in same order as thmHypPairList.
+	 */
+	private static void readAndParseThm(BufferedReader srcFileReader, 
+			ParseState parseState, List<DefinitionListWithThm> definitionListWithThmList,
+			List<ThmHypPair> thmHypPairList, List<ContextRelationVecPair> contextRelationVecPairList,
+			Stats stats, String fileName, List<String> scrapedThmNameList) throws IOException{
+		
 		//print to indicate progress, since all other outputs are suppressed during processing.
 		System.out.print("...Processing "+fileName);
 		List<String> customBeginThmList = new ArrayList<String>();
@@ -1120,8 +1197,8 @@ public class DetectHypothesis {
 				}
 				
 				//parse hyp and thm.
-				processParseHypThm(newThmSB, parseState, stats, definitionListWithThmList, thmHypPairList, fileName, macrosTrie,
-						curThmType, eliminateBeginEndThmPattern);				
+				processParseHypThm(newThmSB, parseState, stats, definitionListWithThmList, thmHypPairList, 
+						contextRelationVecPairList, fileName, macrosTrie, curThmType, eliminateBeginEndThmPattern);				
 				continue;
 			}else if(END_DOCUMENT_PATTERN.matcher(line).matches()){
 				parseState.parseRunGlobalCleanUp();
@@ -1179,6 +1256,7 @@ public class DetectHypothesis {
 	 */
 	private static String processParseHypThm(StringBuilder newThmSB, ParseState parseState, Stats stats, 
 			List<DefinitionListWithThm> definitionListWithThmList, List<ThmHypPair> thmHypPairList,
+			List<ContextRelationVecPair> contextRelationVecPairList,
 			String srcFileName, MacrosTrie macrosTrie, String thmType,
 			Pattern eliminateBeginEndThmPattern){
 		
@@ -1211,7 +1289,8 @@ public class DetectHypothesis {
 		
 		//If contained in local map, should be careful about when to append map.		
 		//Append to newThmSB additional hypotheses that are applicable to the theorem.			
-		DefinitionListWithThm thmDef = appendHypothesesAndParseThm(thm, parseState, thmHypPairList, stats, srcFileName,
+		DefinitionListWithThm thmDef = appendHypothesesAndParseThm(thm, parseState, thmHypPairList, 
+				contextRelationVecPairList, stats, srcFileName,
 				macrosTrie, thmType, eliminateBeginEndThmPattern, refThms);		
 		
 		if(thmDef != DefinitionListWithThm.PLACEHOLDER_DEF_LIST_WITH_THM){
@@ -1428,7 +1507,8 @@ public class DetectHypothesis {
 	 * @param refThms List of referenced theorems, as specified in \ref{...}, corresponding to earlier \label{...}.
 	 */
 	private static DefinitionListWithThm appendHypothesesAndParseThm(String thmStr, ParseState parseState, 
-			List<ThmHypPair> thmHypPairList, Stats stats, String srcFileName,
+			List<ThmHypPair> thmHypPairList, List<ContextRelationVecPair> contextRelationVecPairList, 
+			Stats stats, String srcFileName,
 			MacrosTrie macrosTrie, String thmType, Pattern eliminateBeginEndThmPattern, List<String> refThms){
 		
 		StringBuilder definitionSB = new StringBuilder();		
@@ -1540,9 +1620,6 @@ public class DetectHypothesis {
 		
 		ContextRelationVecPair vecsPair = new ContextRelationVecPair(combinedContextVecMap, relationalContextVec);
 		contextRelationVecPairList.add(vecsPair);
-		String thmHypPairString = thmHypPair.toString();
-		parsedExpressionStrList.add(thmHypPairString);
-		allThmsStrWithSpaceList.add(thmHypPairString + "\n");
 		//return this to supply to search later
 		return defListWithThm;
 	}
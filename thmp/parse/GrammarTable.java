@@ -0,0 +1,190 @@
+package thmp.parse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.Multimap;
+
+/**
+ * Reduction rules in structMap, compiled to integer symbol ids, for the chart parser
+ * in ThmP1.parse(). Struct types are interned as Symbol's, which also record the type
+ * with any conj/disj prefix removed, e.g. "conj_ent" -> "ent", so the chart loop gets
+ * the rules for a pair of types by indexing into a dense table, instead of splitting,
+ * regex matching, and concatenating the type strings for every pair of structs.
+ *
+ * Immutable after construction, except for the cache of types that don't appear in any rule,
+ * which is thread-safe.
+ */
+public class GrammarTable {
+
+	//id of types that don't appear in any rule
+	public static final int NO_ID = -1;
+	//same as ThmP1.CONJ_DISJ_PATTERN1
+	private static final Pattern CONJ_DISJ_PATTERN = Pattern.compile("(?:conj|disj).*");
+
+	//types appearing in rules, built on construction.
+	private final Map<String, Symbol> symbolMap;
+	//types encountered during parsing that don't appear in any rule.
+	private final ConcurrentMap<String, Symbol> extraSymbolMap;
+	private final int symbolCount;
+	//rules for symbol ids (left, right) at index left*symbolCount + right, null if none.
+	private final Rule[][] ruleTable;
+
+	/**
+	 * Interned struct type.
+	 */
+	public static class Symbol {
+		private final int id;
+		private final String name;
+		//null if name has no conj/disj prefix
+		private final Symbol conjDisjStripped;
+
+		private Symbol(int id, String name, Symbol conjDisjStripped) {
+			this.id = id;
+			this.name = name;
+			this.conjDisjStripped = conjDisjStripped;
+		}
+
+		/**
+		 * @return NO_ID if type doesn't appear in any rule.
+		 */
+		public int id() {
+			return id;
+		}
+
+		public String name() {
+			return name;
+		}
+
+		/**
+		 * Symbol with conj/disj prefix removed, e.g. for "conj_verbphrase",
+		 * returns "verbphrase". This symbol itself if no such prefix.
+		 * @return
+		 */
+		public Symbol conjDisjStripped() {
+			return null == conjDisjStripped ? this : conjDisjStripped;
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * @param structMap keys are pairs of types joined by "_", e.g. "or_ent".
+	 */
+	public GrammarTable(Multimap<String, Rule> structMap) {
+		this.extraSymbolMap = new ConcurrentHashMap<String, Symbol>();
+
+		//Types can contain "_" themselves, e.g. "conj_ent", so add every split of a key,
+		//only the right splits would ever be looked up.
+		Map<String, Integer> nameIdMap = new HashMap<String, Integer>();
+		List<String> nameList = new ArrayList<String>();
+		for(String key : structMap.keySet()) {
+			int underscoreIndex = -1;
+			while((underscoreIndex = key.indexOf('_', underscoreIndex + 1)) >= 0) {
+				addName(key.substring(0, underscoreIndex), nameIdMap, nameList);
+				addName(key.substring(underscoreIndex + 1), nameIdMap, nameList);
+			}
+		}
+		this.symbolCount = nameList.size();
+		this.symbolMap = new HashMap<String, Symbol>();
+		//create stripped symbols first, so they can be referred to
+		for(int id = 0; id < symbolCount; id++) {
+			String name = nameList.get(id);
+			if(null == conjDisjStrippedName(name)) {
+				symbolMap.put(name, new Symbol(id, name, null));
+			}
+		}
+		for(int id = 0; id < symbolCount; id++) {
+			String name = nameList.get(id);
+			String strippedName = conjDisjStrippedName(name);
+			if(null != strippedName) {
+				symbolMap.put(name, new Symbol(id, name, symbol(strippedName)));
+			}
+		}
+
+		this.ruleTable = new Rule[symbolCount * symbolCount][];
+		for(String key : structMap.keySet()) {
+			Collection<Rule> ruleCol = structMap.get(key);
+			if(ruleCol.isEmpty()) {
+				continue;
+			}
+			Rule[] ruleAr = ruleCol.toArray(new Rule[ruleCol.size()]);
+			int underscoreIndex = -1;
+			while((underscoreIndex = key.indexOf('_', underscoreIndex + 1)) >= 0) {
+				int leftId = nameIdMap.get(key.substring(0, underscoreIndex));
+				int rightId = nameIdMap.get(key.substring(underscoreIndex + 1));
+				ruleTable[leftId * symbolCount + rightId] = ruleAr;
+			}
+		}
+	}
+
+	private static void addName(String name, Map<String, Integer> nameIdMap, List<String> nameList) {
+		if(!nameIdMap.containsKey(name)) {
+			nameIdMap.put(name, nameList.size());
+			nameList.add(name);
+		}
+	}
+
+	/**
+	 * Type with conj/disj prefix removed, the way the chart parser has always done it,
+	 * i.e. the second "_"-separated part if the first part starts with conj or disj.
+	 * @param name
+	 * @return null if name has no such prefix.
+	 */
+	private static String conjDisjStrippedName(String name) {
+		if(name.indexOf('_') < 0) {
+			return null;
+		}
+		String[] nameAr = name.split("_");
+		if(nameAr.length > 1 && CONJ_DISJ_PATTERN.matcher(nameAr[0]).matches()) {
+			return nameAr[1];
+		}
+		return null;
+	}
+
+	/**
+	 * Interned symbol for the struct type.
+	 * @param type
+	 * @return
+	 */
+	public Symbol symbol(String type) {
+		Symbol symbol = symbolMap.get(type);
+		if(null != symbol) {
+			return symbol;
+		}
+		symbol = extraSymbolMap.get(type);
+		if(null != symbol) {
+			return symbol;
+		}
+		String strippedName = conjDisjStrippedName(type);
+		Symbol newSymbol = new Symbol(NO_ID, type, null == strippedName ? null : symbol(strippedName));
+		symbol = extraSymbolMap.putIfAbsent(type, newSymbol);
+		return null == symbol ? newSymbol : symbol;
+	}
+
+	/**
+	 * Rules for reducing a pair of types, same as structMap.get(type1 + "_" + type2).
+	 * @param symbol1
+	 * @param symbol2
+	 * @return null if no rule applies.
+	 */
+	public Rule[] rules(Symbol symbol1, Symbol symbol2) {
+		if(NO_ID == symbol1.id || NO_ID == symbol2.id) {
+			return null;
+		}
+		return ruleTable[symbol1.id * symbolCount + symbol2.id];
+	}
+
+	public int symbolCount() {
+		return symbolCount;
+	}
+}
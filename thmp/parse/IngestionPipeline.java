@@ -0,0 +1,512 @@
+package thmp.parse;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import thmp.parse.DetectHypothesis.Stats;
+import thmp.parse.DetectHypothesis.TexFileData;
+import thmp.search.SearchCombined.ThmHypPair;
+import thmp.search.TheoremGet.ContextRelationVecPair;
+import thmp.utils.FileUtils;
+
+/**
+ * Staged pipeline to extract and parse thms from the tex files of a tar, used by DetectHypothesis.
+ * A reader thread reads files into a bounded queue, a pool of parse threads extract macros and thms
+ * from each file and parse them, and the sink, on the calling thread, merges results in file order.
+ * Macro and thm extraction stay in the same stage as parsing, since definitions found while parsing
+ * are used for later thms in the same file. The number of files read but not yet merged is bounded.
+ *
+ * Every CHECKPOINT_FILE_COUNT files, the sink writes the results since the last checkpoint to a shard
+ * in the checkpoint directory, and records the files in the shard in the manifest. If a run dies, e.g.
+ * of OOM, a rerun skips the files in committed shards and only parses the remaining files. Results are
+ * the same as if the run hadn't been interrupted, since files are merged, and so checkpointed, in file order.
+ *
+ * Thms and vecs are not kept once checkpointed. They are read back one shard at a time with shards(),
+ * so the whole tar's results need not be in memory at once.
+ */
+public class IngestionPipeline {
+
+	private static final Logger logger = LogManager.getLogger(IngestionPipeline.class);
+	private static final String MANIFEST_FILE_NAME = "manifest.txt";
+	private static final String SHARD_FILE_PREFIX = "shard";
+	private static final String SHARD_FILE_SUFFIX = ".dat";
+	//manifest lines for files of a shard are followed by this prefix and the shard name,
+	//written once the shard is on disk. Lines after the last such line are discarded on resume.
+	private static final String COMMIT_LINE_PREFIX = "#committed ";
+	private static final Charset MANIFEST_CHARSET = Charset.forName("UTF-8");
+	//number of files merged between checkpoints
+	private static final int CHECKPOINT_FILE_COUNT = 100;
+	//max number of files read but not yet merged, per parse thread
+	private static final int IN_FLIGHT_FILES_PER_THREAD = 4;
+	private static final TexFile END_OF_INPUT = new TexFile(-1, null, null, null);
+
+	//absolute file paths, and the tex file names to record with their thms, in file order
+	private final List<Map.Entry<String, String>> texFileList;
+	private final Path checkpointDirPath;
+	private final Path manifestPath;
+	private final boolean scrapeThmNames;
+	private final int numThreads;
+
+	//thm names and stats of files merged so far, including ones in checkpoints from previous runs.
+	//Names are kept, since they are written out as one list, and are small compared with the thms.
+	private final List<String> thmNameList = new ArrayList<String>();
+	private final Stats stats = new Stats();
+
+	//results since last checkpoint
+	private Shard curShard = new Shard();
+	private final List<String> curShardFileList = new ArrayList<String>();
+	private int shardCount;
+
+	/**
+	 * File read by the reader stage.
+	 */
+	private static class TexFile {
+		final int seq;
+		final String fileName;
+		final String texFileName;
+		//null if file could not be read
+		final String content;
+
+		TexFile(int seq, String fileName, String texFileName, String content) {
+			this.seq = seq;
+			this.fileName = fileName;
+			this.texFileName = texFileName;
+			this.content = content;
+		}
+	}
+
+	/**
+	 * File processed by the parse stage.
+	 */
+	private static class ParsedFile {
+		final int seq;
+		final String fileName;
+		//null if file could not be read
+		final TexFileData fileData;
+		//error that should stop the run, e.g. OutOfMemoryError
+		final Throwable error;
+
+		ParsedFile(int seq, String fileName, TexFileData fileData, Throwable error) {
+			this.seq = seq;
+			this.fileName = fileName;
+			this.fileData = fileData;
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Results of the files between two checkpoints.
+	 */
+	public static class Shard implements Serializable {
+		private static final long serialVersionUID = -2817260134929577103L;
+		final List<ThmHypPair> thmHypPairList;
+		final List<ContextRelationVecPair> contextRelationVecPairList;
+		final List<String> thmNameList = new ArrayList<String>();
+		int headParseStructNullNum;
+		int totalThmsNum;
+
+		Shard() {
+			this(new ArrayList<ThmHypPair>(), new ArrayList<ContextRelationVecPair>());
+		}
+
+		/**
+		 * Shard of thms parsed outside a pipeline, e.g. from a single file.
+		 * @param thmHypPairList
+		 * @param contextRelationVecPairList in same order as thmHypPairList.
+		 */
+		Shard(List<ThmHypPair> thmHypPairList, List<ContextRelationVecPair> contextRelationVecPairList) {
+			this.thmHypPairList = thmHypPairList;
+			this.contextRelationVecPairList = contextRelationVecPairList;
+		}
+
+		public List<ThmHypPair> thmHypPairList() {
+			return thmHypPairList;
+		}
+
+		/**
+		 * @return context and relation vecs, in same order as thmHypPairList().
+		 */
+		public List<ContextRelationVecPair> contextRelationVecPairList() {
+			return contextRelationVecPairList;
+		}
+	}
+
+	/**
+	 * @param texFileNamesMap absolute file paths, and tex file names to record with their thms,
+	 * e.g. math0309323. Files are processed in the map's iteration order.
+	 * @param checkpointDirPath directory for shards and the manifest.
+	 * @param scrapeThmNames whether to only scrape thm names.
+	 * @param numThreads number of parse threads.
+	 */
+	public IngestionPipeline(Map<String, String> texFileNamesMap, Path checkpointDirPath,
+			boolean scrapeThmNames, int numThreads) {
+		this.texFileList = new ArrayList<Map.Entry<String, String>>(texFileNamesMap.entrySet());
+		this.checkpointDirPath = checkpointDirPath;
+		this.manifestPath = checkpointDirPath.resolve(MANIFEST_FILE_NAME);
+		this.scrapeThmNames = scrapeThmNames;
+		this.numThreads = numThreads;
+	}
+
+	/**
+	 * Processes files not completed by previous runs. Results of all files are then in the checkpointed shards.
+	 */
+	public void run() {
+		Set<String> completedFileSet = resumeFromCheckpoints();
+		final List<Map.Entry<String, String>> toProcessList = new ArrayList<Map.Entry<String, String>>();
+		for(Map.Entry<String, String> fileEntry : texFileList) {
+			if(!completedFileSet.contains(fileEntry.getKey())) {
+				toProcessList.add(fileEntry);
+			}
+		}
+		if(!completedFileSet.isEmpty()) {
+			String msg = "Resuming ingestion from " + shardCount + " checkpointed shards, " + completedFileSet.size()
+				+ " files done, " + toProcessList.size() + " files remaining.";
+			logger.info(msg);
+			System.out.println(msg);
+		}
+		final Semaphore inFlightSemaphore = new Semaphore(numThreads * IN_FLIGHT_FILES_PER_THREAD);
+		final BlockingQueue<TexFile> readQueue = new ArrayBlockingQueue<TexFile>(numThreads * 2);
+		//bounded by inFlightSemaphore
+		final BlockingQueue<ParsedFile> parsedQueue = new LinkedBlockingQueue<ParsedFile>();
+
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads + 1);
+		try {
+			executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					readFiles(toProcessList, inFlightSemaphore, readQueue, parsedQueue);
+				}
+			});
+			for(int i = 0; i < numThreads; i++) {
+				executor.submit(new Runnable() {
+					@Override
+					public void run() {
+						parseFiles(readQueue, parsedQueue);
+					}
+				});
+			}
+			mergeFiles(toProcessList.size(), inFlightSemaphore, parsedQueue);
+		}finally {
+			executor.shutdownNow();
+		}
+		writeCheckpoint();
+	}
+
+	/**
+	 * Reader stage.
+	 */
+	private void readFiles(List<Map.Entry<String, String>> toProcessList, Semaphore inFlightSemaphore,
+			BlockingQueue<TexFile> readQueue, BlockingQueue<ParsedFile> parsedQueue) {
+		try {
+			try {
+				int toProcessListSz = toProcessList.size();
+				for(int seq = 0; seq < toProcessListSz; seq++) {
+					Map.Entry<String, String> fileEntry = toProcessList.get(seq);
+					inFlightSemaphore.acquire();
+					readQueue.put(readTexFile(seq, fileEntry.getKey(), fileEntry.getValue()));
+				}
+			}catch(RuntimeException e) {
+				parsedQueue.put(new ParsedFile(-1, null, null, e));
+			}finally {
+				for(int i = 0; i < numThreads; i++) {
+					readQueue.put(END_OF_INPUT);
+				}
+			}
+		}catch(InterruptedException e) {
+			//run is being shut down
+		}
+	}
+
+	private static TexFile readTexFile(int seq, String fileName, String texFileName) {
+		StringBuilder contentSB = new StringBuilder();
+		BufferedReader inputBF = null;
+		try {
+			inputBF = new BufferedReader(new FileReader(new File(fileName)));
+			char[] buf = new char[8192];
+			int len;
+			while((len = inputBF.read(buf)) > -1) {
+				contentSB.append(buf, 0, len);
+			}
+		}catch(FileNotFoundException e) {
+			String msg = fileName + " source file not found!";
+			System.out.println(msg);
+			logger.error(msg);
+			return new TexFile(seq, fileName, texFileName, null);
+		}catch(IOException e) {
+			String msg = "IOException while reading " + fileName + ": " + e;
+			System.out.println(msg);
+			logger.error(msg);
+			return new TexFile(seq, fileName, texFileName, null);
+		}finally {
+			FileUtils.silentClose(inputBF);
+		}
+		return new TexFile(seq, fileName, texFileName, contentSB.toString());
+	}
+
+	/**
+	 * Parse stage, run by each parse thread.
+	 */
+	private void parseFiles(BlockingQueue<TexFile> readQueue, BlockingQueue<ParsedFile> parsedQueue) {
+		try {
+			while(true) {
+				TexFile texFile = readQueue.take();
+				if(END_OF_INPUT == texFile) {
+					return;
+				}
+				TexFileData fileData = null;
+				Throwable error = null;
+				if(null != texFile.content) {
+					try {
+						fileData = DetectHypothesis.extractThmsFromFile(new BufferedReader(new StringReader(texFile.content)),
+								texFile.fileName, texFile.texFileName, scrapeThmNames);
+					}catch(Throwable e) {
+						error = e;
+					}
+				}
+				parsedQueue.put(new ParsedFile(texFile.seq, texFile.fileName, fileData, error));
+			}
+		}catch(InterruptedException e) {
+			//run is being shut down
+		}
+	}
+
+	/**
+	 * Sink stage, merges files in order, and checkpoints.
+	 * @param numFiles
+	 */
+	private void mergeFiles(int numFiles, Semaphore inFlightSemaphore, BlockingQueue<ParsedFile> parsedQueue) {
+		//files parsed ahead of files before them
+		Map<Integer, ParsedFile> pendingMap = new HashMap<Integer, ParsedFile>();
+		int nextSeq = 0;
+		while(nextSeq < numFiles) {
+			ParsedFile parsedFile;
+			try {
+				parsedFile = parsedQueue.take();
+			}catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while ingesting tex files", e);
+			}
+			if(null != parsedFile.error) {
+				if(parsedFile.error instanceof Error) {
+					throw (Error)parsedFile.error;
+				}
+				throw new IllegalStateException("Error while ingesting " + parsedFile.fileName, parsedFile.error);
+			}
+			pendingMap.put(parsedFile.seq, parsedFile);
+			while(null != (parsedFile = pendingMap.remove(nextSeq))) {
+				mergeFile(parsedFile);
+				inFlightSemaphore.release();
+				nextSeq++;
+				if(curShardFileList.size() >= CHECKPOINT_FILE_COUNT) {
+					writeCheckpoint();
+				}
+			}
+		}
+	}
+
+	private void mergeFile(ParsedFile parsedFile) {
+		curShardFileList.add(parsedFile.fileName);
+		TexFileData fileData = parsedFile.fileData;
+		if(null == fileData) {
+			return;
+		}
+		if(null != fileData.errorMsg) {
+			FileUtils.appendObjToFile(fileData.errorMsg, DetectHypothesis.parserErrorLogPath);
+		}
+		curShard.thmHypPairList.addAll(fileData.thmHypPairList);
+		curShard.contextRelationVecPairList.addAll(fileData.contextRelationVecPairList);
+		curShard.headParseStructNullNum += fileData.stats.getHeadParseStructNullNum();
+		curShard.totalThmsNum += fileData.stats.getTotalThmsNum();
+		if(scrapeThmNames) {
+			curShard.thmNameList.addAll(fileData.thmNameList);
+		}else if(!fileData.thmNameList.isEmpty()) {
+			//add delimiter to separate thm names per paper
+			curShard.thmNameList.add("\n");
+			curShard.thmNameList.add(fileData.texFileName);
+			curShard.thmNameList.addAll(fileData.thmNameList);
+		}
+	}
+
+	/**
+	 * Adds thm names and stats of shard to those so far. Its thms and vecs are left to shards().
+	 * @param shard
+	 */
+	private void addShardSummary(Shard shard) {
+		thmNameList.addAll(shard.thmNameList);
+		stats.add(new Stats(shard.headParseStructNullNum, shard.totalThmsNum));
+	}
+
+	/**
+	 * Writes files merged since the last checkpoint to a new shard, then records them in the manifest.
+	 */
+	private void writeCheckpoint() {
+		if(curShardFileList.isEmpty()) {
+			return;
+		}
+		String shardName = shardName(shardCount);
+		Path shardPath = checkpointDirPath.resolve(shardName);
+		Path tempShardPath = checkpointDirPath.resolve(shardName + ".tmp");
+		List<Shard> shardList = new ArrayList<Shard>();
+		shardList.add(curShard);
+		//write whole shard before it appears under its name
+		FileUtils.serializeObjToFile(shardList, tempShardPath.toString());
+		List<String> manifestLineList = new ArrayList<String>(curShardFileList);
+		manifestLineList.add(COMMIT_LINE_PREFIX + shardName);
+		try {
+			Files.move(tempShardPath, shardPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			Files.write(manifestPath, manifestLineList, MANIFEST_CHARSET, StandardOpenOption.CREATE,
+					StandardOpenOption.APPEND);
+		}catch(IOException e) {
+			throw new IllegalStateException("IOException while writing ingestion checkpoint " + shardPath, e);
+		}
+		addShardSummary(curShard);
+		shardCount++;
+		curShard = new Shard();
+		curShardFileList.clear();
+	}
+
+	/**
+	 * Reads thm names and stats of shards committed in the manifest, one shard at a time,
+	 * and drops manifest lines after the last commit.
+	 * @return files already processed.
+	 */
+	private Set<String> resumeFromCheckpoints() {
+		if(!Files.exists(manifestPath)) {
+			return Collections.<String>emptySet();
+		}
+		List<String> manifestLineList;
+		try {
+			manifestLineList = Files.readAllLines(manifestPath, MANIFEST_CHARSET);
+		}catch(IOException e) {
+			throw new IllegalStateException("IOException while reading ingestion manifest " + manifestPath, e);
+		}
+		Set<String> completedFileSet = new HashSet<String>();
+		List<String> committedLineList = new ArrayList<String>();
+		List<String> shardFileList = new ArrayList<String>();
+		for(String line : manifestLineList) {
+			if(!line.startsWith(COMMIT_LINE_PREFIX)) {
+				shardFileList.add(line);
+				continue;
+			}
+			String shardName = line.substring(COMMIT_LINE_PREFIX.length());
+			if(!shardName.equals(shardName(shardCount))) {
+				throw new IllegalStateException("Shard " + shardName + " committed out of order in " + manifestPath);
+			}
+			addShardSummary(readShard(shardCount));
+			shardCount++;
+			completedFileSet.addAll(shardFileList);
+			committedLineList.addAll(shardFileList);
+			committedLineList.add(line);
+			shardFileList.clear();
+		}
+		if(!shardFileList.isEmpty()) {
+			//shard of these files wasn't written
+			try {
+				Path tempManifestPath = checkpointDirPath.resolve(MANIFEST_FILE_NAME + ".tmp");
+				Files.write(tempManifestPath, committedLineList, MANIFEST_CHARSET);
+				Files.move(tempManifestPath, manifestPath, StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}catch(IOException e) {
+				throw new IllegalStateException("IOException while rewriting ingestion manifest " + manifestPath, e);
+			}
+		}
+		return completedFileSet;
+	}
+
+	private static String shardName(int shardIndex) {
+		return SHARD_FILE_PREFIX + shardIndex + SHARD_FILE_SUFFIX;
+	}
+
+	@SuppressWarnings("unchecked")
+	private Shard readShard(int shardIndex) {
+		List<Shard> shardList = (List<Shard>)FileUtils.deserializeListFromFile(
+				checkpointDirPath.resolve(shardName(shardIndex)).toString());
+		return shardList.get(0);
+	}
+
+	/**
+	 * Committed shards, in file order, after run(). Each shard is read from its checkpoint as
+	 * the iteration reaches it, so only shards still referenced by the caller stay in memory.
+	 * @return
+	 */
+	public Iterable<Shard> shards() {
+		final int totalShardCount = shardCount;
+		return new Iterable<Shard>() {
+			@Override
+			public Iterator<Shard> iterator() {
+				return new Iterator<Shard>() {
+					int shardIndex;
+
+					@Override
+					public boolean hasNext() {
+						return shardIndex < totalShardCount;
+					}
+
+					@Override
+					public Shard next() {
+						if(!hasNext()) {
+							throw new NoSuchElementException();
+						}
+						return readShard(shardIndex++);
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+		};
+	}
+
+	/**
+	 * Deletes the shards and manifest, once results have been written out, so the next
+	 * run on the same directory starts over.
+	 */
+	public void clearCheckpoints() {
+		try {
+			for(int i = 0; i < shardCount; i++) {
+				Files.deleteIfExists(checkpointDirPath.resolve(shardName(i)));
+			}
+			Files.deleteIfExists(manifestPath);
+		}catch(IOException e) {
+			logger.error("IOException while deleting ingestion checkpoints: " + e);
+		}
+	}
+
+	public List<String> thmNameList() {
+		return thmNameList;
+	}
+
+	public Stats stats() {
+		return stats;
+	}
+}
@@ -30,6 +30,7 @@ import com.google.common.collect.SetMultimap;
 
 import food.utils.FoodLexicon;
 import food.utils.FoodLexicon.FoodMapNode;
+import thmp.search.SearchResourceLoader;
 import thmp.search.WordFrequency;
 import thmp.utils.FileUtils;
 import thmp.utils.WordForms;
@@ -133,7 +134,7 @@ public class Maps {
 		/*if("eggs".equals(inputAr[curIndex])){
 			System.out.println("Maps -egg");
 		}*/
-		return BuildMaps.FOOD_TRIE.getTokenCount(inputAr, curIndex, inputArLen);
+		return BuildMaps.FoodLexiconHolder.FOOD_TRIE.getTokenCount(inputAr, curIndex, inputArLen);
 	}
 	
 	/**
@@ -147,7 +148,7 @@ public class Maps {
 			System.out.println("Maps - combine");
 			//throw new IllegalStateException("combine");
 		}*/
-		return BuildMaps.COOKING_ACTION_TRIE.getTokenCount(inputAr, curIndex, inputArLen);		
+		return BuildMaps.FoodLexiconHolder.COOKING_ACTION_TRIE.getTokenCount(inputAr, curIndex, inputArLen);		
 	}		
 	
 	//subclass, to allow for setting resource in parent class.
@@ -171,10 +172,6 @@ public class Maps {
 
 		protected static final Map<String, String> anchorMap;
 		private static final boolean FOOD = FileUtils.isFoodParse();
-		//deliberately not final
-		private static FoodMapNode FOOD_TRIE ;
-		private static FoodMapNode COOKING_ACTION_TRIE;
-		private static Multimap<String, String> extraFoodLexiconMMap;
 
 		static{
 			
@@ -241,7 +238,25 @@ public class Maps {
 				posPreMMap.remove(entry.getKey(), entry.getValue());	
 			}
 			
-			if(FOOD){
+			//food lexicon is loaded on first use, see FoodLexiconHolder.
+			posMMap = ArrayListMultimap.create(posPreMMap);
+		}
+		
+		//used to initialize BuildMaps class
+		public static void initialize(){			
+		}
+		
+		/**
+		 * Food lexicon tries, only used when parsing food, so loaded on first use
+		 * rather than with the other maps.
+		 */
+		private static class FoodLexiconHolder{
+			private static final FoodMapNode FOOD_TRIE;
+			private static final FoodMapNode COOKING_ACTION_TRIE;
+			private static final Multimap<String, String> extraFoodLexiconMMap;
+			
+			static{
+				long beforeLoad = System.currentTimeMillis();
 				FOOD_TRIE = FoodLexicon.foodTrie();
 				COOKING_ACTION_TRIE = FoodLexicon.cookingActionTrie();
 				//String[][] extraPosAr = new String[][]{{"stir","verb_COMP"}, {"stir in","verb"},
@@ -256,13 +271,9 @@ public class Maps {
 					curFoodMapNode.setValidTokenEnd();
 					//FoodMapNode firstFoodMapNode = COOKING_ACTION_TRIE.addIfAbsent(extraPos[0]);					
 				}
-				extraFoodLexiconMMap = FoodLexicon.additionalFoodLexiconMMap();				
+				extraFoodLexiconMMap = FoodLexicon.additionalFoodLexiconMMap();
+				SearchResourceLoader.recordLoadTime("FoodLexicon", System.currentTimeMillis() - beforeLoad);
 			}
-			posMMap = ArrayListMultimap.create(posPreMMap);
-		}
-		
-		//used to initialize BuildMaps class
-		public static void initialize(){			
 		}
 		
 		/**
@@ -270,10 +281,10 @@ public class Maps {
 		 * @param posList
 		 */
 		public static Collection<String> updateWithAdditionalFoodPos(String word){
-			Collection<String> col = extraFoodLexiconMMap.get(word);
+			Collection<String> col = FoodLexiconHolder.extraFoodLexiconMMap.get(word);
 			//col.addAll(posMMap.get(word)); //add later
 			if(col.isEmpty()){
-				col = extraFoodLexiconMMap.get(WordForms.getSingularForm(word));
+				col = FoodLexiconHolder.extraFoodLexiconMMap.get(WordForms.getSingularForm(word));
 			}
 			return col;		
 		}
@@ -28,7 +28,7 @@ public class ParseAgain {
 	 * @param parseState
 	 */
 	public static void parseAgain(List<Struct> structList, List<int[]> structCoordinates, 
-			ParseState parseState, List<List<StructList>> mx, List<Struct> originalNonSpanningParseStructList){
+			ParseState parseState, ParseChart mx, List<Struct> originalNonSpanningParseStructList){
 		//pick up Structs that are not connected to either neighbor,
 		//which are those whose left neighbor has row column index i-1, 
 		//and whose right neighbor has row index i+1.
@@ -115,20 +115,20 @@ public class ParseAgain {
 				assert k == j + 1;
 				//drop lower right corner of ij block.
 				if(i < j){
-					StructList ijStructList = mx.get(i).get(j-1);
+					StructList ijStructList = mx.get(i, j-1);
 					if(0 == ijStructList.size()){
 						//System.out.println("ParseAgain-originalNonSpanningParseStructList: " + originalNonSpanningParseStructList);
 						ijStructList = new StructList(originalNonSpanningParseStructList.get(j-1));
 					}
 					/*Note that klStructList *cannot* be empty, because they are coordinates passed in.*/
-					StructList klStructList = mx.get(k).get(l);					
+					StructList klStructList = mx.get(k, l);					
 					if(addToDropList(indexToDropList, ijStructList, klStructList, j)){
 						continue coordinatesLoop;
 					}
 				}								
 				if(k < l){
-					StructList ijStructList = mx.get(i).get(j);
-					StructList klStructList = mx.get(k+1).get(l);
+					StructList ijStructList = mx.get(i, j);
+					StructList klStructList = mx.get(k+1, l);
 					if(0 == klStructList.size()){
 						klStructList = new StructList(originalNonSpanningParseStructList.get(k+1));
 					}
@@ -138,11 +138,11 @@ public class ParseAgain {
 				}
 				//Check dropping the corners from both ij block and the kl block
 				if(i < j && k < l){
-					StructList ijStructList = mx.get(i).get(j-1);
+					StructList ijStructList = mx.get(i, j-1);
 					if(0 == ijStructList.size()){
 						ijStructList = new StructList(originalNonSpanningParseStructList.get(j-1));
 					}
-					StructList klStructList = mx.get(k+1).get(l);
+					StructList klStructList = mx.get(k+1, l);
 					if(0 == klStructList.size()){
 						klStructList = new StructList(originalNonSpanningParseStructList.get(k+1));
 					}
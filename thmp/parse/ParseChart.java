@@ -0,0 +1,112 @@
+package thmp.parse;
+
+/**
+ * Chart for the chart parser in ThmP1.parse(). Entry (i, j), for i <= j, is the
+ * StructList of Struct's spanning tokens i through j. Only the upper triangle is stored,
+ * row by row in a flat array.
+ *
+ * Each thread keeps one chart, reused along with its StructList's by top-level parses on
+ * that thread, so parses don't allocate a StructList per entry. Nested parses, e.g. reparses,
+ * which run while the outer chart is still in use, get new charts. Structs created during
+ * a parse point to StructList's in the chart, so these should not be used once the parse is done.
+ *
+ * Entries other than the head, i.e. (0, size-1), keep at most maxEntrySize Struct's, the
+ * ones added first, to avoid grammar rules explosion.
+ */
+public class ParseChart {
+
+	private static final ThreadLocal<ParseChart> threadChart = new ThreadLocal<ParseChart>() {
+		@Override
+		protected ParseChart initialValue() {
+			return new ParseChart(true);
+		}
+	};
+
+	//entries of upper triangle, row by row
+	private StructList[] entryAr;
+	//number of tokens
+	private int size;
+	//whether this is a thread's reused chart
+	private final boolean isThreadChart;
+	private boolean inUse;
+
+	private ParseChart(boolean isThreadChart) {
+		this.isThreadChart = isThreadChart;
+		this.entryAr = new StructList[0];
+	}
+
+	/**
+	 * Chart for parsing size tokens, with empty entries. Must call release()
+	 * when done parsing.
+	 * @param size number of tokens.
+	 * @param maxEntrySize max number of Struct's in entries, except the head entry.
+	 * @return
+	 */
+	public static ParseChart acquire(int size, int maxEntrySize) {
+		ParseChart chart = threadChart.get();
+		if(chart.inUse) {
+			chart = new ParseChart(false);
+		}
+		chart.inUse = true;
+		chart.init(size, maxEntrySize);
+		return chart;
+	}
+
+	/**
+	 * Clears the chart, for reuse by next parse on this thread.
+	 * @param chart
+	 */
+	public static void release(ParseChart chart) {
+		if(chart.isThreadChart) {
+			int entryCount = entryCount(chart.size);
+			for(int i = 0; i < entryCount; i++) {
+				chart.entryAr[i].clear();
+			}
+		}
+		chart.inUse = false;
+	}
+
+	private static int entryCount(int size) {
+		return size * (size + 1) / 2;
+	}
+
+	private void init(int size, int maxEntrySize) {
+		int entryCount = entryCount(size);
+		if(entryAr.length < entryCount) {
+			StructList[] newEntryAr = new StructList[entryCount];
+			System.arraycopy(entryAr, 0, newEntryAr, 0, entryAr.length);
+			for(int i = entryAr.length; i < entryCount; i++) {
+				newEntryAr[i] = new StructList();
+			}
+			entryAr = newEntryAr;
+		}
+		this.size = size;
+		for(int i = 0; i < entryCount; i++) {
+			entryAr[i].setMaxSize(maxEntrySize);
+		}
+		//head entry holds all spanning parses, which are ranked later
+		entryAr[size - 1].setMaxSize(0);
+	}
+
+	/**
+	 * Entry spanning tokens i through j.
+	 * @param i row index
+	 * @param j column index
+	 * @return Empty StructList if i > j.
+	 */
+	public StructList get(int i, int j) {
+		if(i > j) {
+			return new StructList();
+		}
+		//rows before i contain size + (size-1) + ... + (size-i+1) entries
+		return entryAr[i * size - i * (i - 1) / 2 + j - i];
+	}
+
+	/**
+	 * Number of tokens.
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+}
@@ -13,6 +13,8 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.SetMultimap;
 
 import thmp.parse.ThmP1.ParsedPair;
 import thmp.search.CollectThm;
@@ -63,6 +65,8 @@ public class ParseState {
 	//tokenList of previous parse segment, i.e. punctuation
 	//-delimited parts of the original sentence.
 	private List<Struct> prevTokenList;	
+	//head Structs of spanning parses of the last parse segment, ranked.
+	private List<Struct> spanningStructList = Collections.<Struct>emptyList();
 	//parseStruct, for layering built WLCommands
 	private ParseStruct headParseStruct;	
 	//list of ParseStruct's, one for each parse tree.
@@ -140,8 +144,9 @@ public class ParseState {
 	//flag to denote whether currently in theorem/lemma/etc or not.
 	private boolean inThmFlag;
 	
-	//record pos postulated during parse.
-	private static HashMultimap<String, String> extrapolatedPosMMap = HashMultimap.create(); 		
+	//record pos postulated during parse. Shared by ParseState's parsing on different threads.
+	private static final SetMultimap<String, String> extrapolatedPosMMap 
+		= Multimaps.synchronizedSetMultimap(HashMultimap.<String, String>create()); 		
 	private static final Logger logger = LogManager.getLogger(ParseState.class);	
 	private static final String UNKNOWN_WORDS_FILE_NAME_STR = "src/thmp/data/unknownWords2.txt";
 	
@@ -416,8 +421,10 @@ public class ParseState {
 		
 		//first format the output so it can just be pasted into lexicon.
 		StringBuilder sb = new StringBuilder(1000);
-		for(Map.Entry<String, String> entry : extrapolatedPosMMap.entries()){
-			sb.append("\n").append(entry.getKey()).append(" ").append(entry.getValue());
+		synchronized(extrapolatedPosMMap){
+			for(Map.Entry<String, String> entry : extrapolatedPosMMap.entries()){
+				sb.append("\n").append(entry.getKey()).append(" ").append(entry.getValue());
+			}
 		}
 		
 		boolean appendBool = true;
@@ -966,6 +973,21 @@ public class ParseState {
 		return this.prevTokenList;
 	}
 
+	/**
+	 * Head Structs of the spanning parses of the last parse segment, best-ranked first,
+	 * as WLCommands are built on them. Empty if the segment had no spanning parse.
+	 * Commands can be rebuilt on them with ParseToWLTree.buildCommandsDfs(), 
+	 * followed by ParseToWLTree.dfsCleanUp().
+	 * @return
+	 */
+	public List<Struct> getSpanningStructList() {
+		return this.spanningStructList;
+	}
+
+	public void setSpanningStructList(List<Struct> structList) {
+		this.spanningStructList = structList;
+	}
+
 	/**
 	 * Head parseStruct after layering built WLCommands for
 	 * entire sentence.
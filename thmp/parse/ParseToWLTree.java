@@ -41,19 +41,6 @@ import thmp.utils.WordForms;
  */
 public class ParseToWLTree{
 	
-	/**
-	 * ArrayList used as Stack to store the Struct's that's being processed. 
-	 * Pop off after all required terms in a WL command are met.
-	 * Each level keeps a reference to some index of the deque.
-	 * 
-	 */
-	private static List<Struct> structDeque;	
-	
-	/**
-	 * List to keep track all triggered WLCommands
-	 */
-	private static List<WLCommand> WLCommandList;
-	
 	/**
 	 * Trigger words transmission map.
 	 */
@@ -91,8 +78,12 @@ public class ParseToWLTree{
 	 */
 	public static void buildCommandsDfs(Struct struct, StringBuilder parsedSB,
 			int numSpaces, ParseState parseState) {
-		structDeque = new ArrayList<Struct>();
-		WLCommandList = new ArrayList<WLCommand>();
+		/* ArrayList used as Stack to store the Struct's that's being processed. 
+		 * Pop off after all required terms in a WL command are met.
+		 * Local to each call, so threads can build commands concurrently. */
+		List<Struct> structDeque = new ArrayList<Struct>();
+		//List to keep track all triggered WLCommands
+		List<WLCommand> WLCommandList = new ArrayList<WLCommand>();
 		
 		buildWLCommandTreeDfs(struct, parsedSB, numSpaces, structDeque, WLCommandList, parseState);
 	}
@@ -0,0 +1,153 @@
+package thmp.parse;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Multimap;
+
+import thmp.parse.DetectHypothesis.Stats;
+import thmp.parse.ThmP1.ParsedPair;
+
+/**
+ * Mutable state of parsing, i.e. results ThmP1 gathers across parses until they are
+ * retrieved, and unknown words encountered. ThmP1 itself only keeps the grammar tables,
+ * e.g. from Maps and WLCommandsList, which are shared by all threads and not modified
+ * during parsing, so different Parser's can parse concurrently, e.g. theorems on a thread pool.
+ *
+ * Parses record their results in the current Parser of their thread. This is the thread's
+ * default Parser, used by the static methods in ThmP1 and ParseRun, unless parsing through
+ * parseInput() of another Parser. A Parser should only be used by one thread at a time.
+ */
+public class Parser {
+
+	private static final ThreadLocal<Parser> currentParser = new ThreadLocal<Parser>(){
+		@Override
+		protected Parser initialValue(){
+			return new Parser();
+		}
+	};
+
+	private List<ParsedPair> parsedExpr = new ArrayList<ParsedPair>();
+	//Stringified Map of parts used to build up a theorem/def etc.
+	private List<String> parseStructMapList = new ArrayList<String>();
+	//the non-stringified version of parseStructMapList. Only used for unit testing.
+	private List<Multimap<ParseStructType, ParsedPair>> parseStructMaps
+		= new ArrayList<Multimap<ParseStructType, ParsedPair>>();
+	private final List<String> unknownWords = new ArrayList<String>();
+
+	/**
+	 * Parses input with this Parser, same as ParseRun.parseInput().
+	 * @param st
+	 * @param parseState
+	 * @param isVerbose
+	 * @param stats can be null.
+	 */
+	public void parseInput(String st, ParseState parseState, boolean isVerbose, Stats stats){
+		Parser prevParser = currentParser.get();
+		currentParser.set(this);
+		try{
+			ParseRun.parseInput(st, parseState, isVerbose, stats);
+		}finally{
+			currentParser.set(prevParser);
+		}
+	}
+
+	/**
+	 * Parser that parses on this thread record results in.
+	 * @return
+	 */
+	static Parser current(){
+		return currentParser.get();
+	}
+
+	void addParsedPair(ParsedPair pair){
+		parsedExpr.add(pair);
+	}
+
+	void addParseStructMap(Multimap<ParseStructType, ParsedPair> map, boolean keepMap){
+		parseStructMapList.add(map.toString() + "\n");
+		if(keepMap){
+			parseStructMaps.add(map);
+		}
+	}
+
+	void addUnknownWord(String word){
+		unknownWords.add(word);
+	}
+
+	/**
+	 * @return the List of parsed expressions, with different scores.
+	 * Resets parsedExpr.
+	 */
+	public List<ParsedPair> getAndClearParsedExpr(){
+		ImmutableList<ParsedPair> parsedExprCopy = ImmutableList.copyOf(parsedExpr);
+		parsedExpr = new ArrayList<ParsedPair>();
+		return parsedExprCopy;
+	}
+
+	void clearParsedExpr(){
+		parsedExpr = new ArrayList<ParsedPair>();
+	}
+
+	/**
+	 * @return The ParseStruct parts of each parse since last retrieval.
+	 */
+	public List<String> getAndClearParseStructMapList(){
+		ImmutableList<String> parseStructMapListCopy = ImmutableList.copyOf(parseStructMapList);
+		parseStructMapList = new ArrayList<String>();
+		return parseStructMapListCopy;
+	}
+
+	/**
+	 * Should *only* be used for unit testing.
+	 * @return The ParseStruct ParsedPairs of each parse since last retrieval.
+	 */
+	List<Multimap<ParseStructType, String>> getAndClearParseStructMapsForTesting(){
+		List<Multimap<ParseStructType, String>> parseStructStringList = new ArrayList<Multimap<ParseStructType, String>>();
+		//get parsedStr in each parsedPair
+		for(Multimap<ParseStructType, ParsedPair> map : parseStructMaps){
+			Multimap<ParseStructType, String> newMap = ArrayListMultimap.create();
+			for(Map.Entry<ParseStructType, ParsedPair> entry : map.entries()){
+				newMap.put(entry.getKey(), entry.getValue().parsedStr().trim());
+			}
+			parseStructStringList.add(newMap);
+		}
+		parseStructMaps = new ArrayList<Multimap<ParseStructType, ParsedPair>>();
+		return parseStructStringList;
+	}
+
+	/**
+	 * Writes parsedExpr to file, and resets it.
+	 * @param path
+	 * @throws IOException
+	 */
+	void writeParsedExprToFile(Path path) throws IOException {
+		List<String> parsedExprStringList = new ArrayList<String>();
+		for(ParsedPair parsedPair : parsedExpr){
+			parsedExprStringList.add(parsedPair.toString());
+		}
+		Files.write(path, parsedExprStringList, Charset.forName("UTF-8"));
+		parsedExpr = new ArrayList<ParsedPair>();
+	}
+
+	/**
+	 * Writes unknown words to file to classify them.
+	 * @param path
+	 */
+	void writeUnknownWordsToFile(Path path){
+		if(unknownWords.isEmpty()) return;
+		try{
+			Files.write(path, unknownWords, Charset.forName("UTF-8"));
+		}catch(IOException e){
+			e.printStackTrace();
+			throw new IllegalArgumentException(e);
+		}
+	}
+}
@@ -27,6 +27,9 @@ public class StructList implements Serializable{
 	
 	private List<Struct> structList;	
 	
+	//if positive, Struct's added beyond this are dropped, to avoid grammar rules explosion.
+	private int maxSize;
+	
 	public StructList(){
 		this.structList = new ArrayList<Struct>();
 		this.highestDownScoreIndex = -1;
@@ -77,6 +80,7 @@ public class StructList implements Serializable{
 		//System.out.println("this.structList.size( ) " + this.structList.size()); 
 		newStructlist.structList = new ArrayList<Struct>(this.structList);
 		newStructlist.highestDownScoreIndex = this.highestDownScoreIndex;
+		newStructlist.maxSize = this.maxSize;
 		return newStructlist;
 	}
 	
@@ -94,9 +98,28 @@ public class StructList implements Serializable{
 	
 	public void add(Struct newStruct){
 		//System.out.println(Arrays.toString(Thread.currentThread().getStackTrace()));
+		if(this.maxSize > 0 && this.structList.size() >= this.maxSize){
+			return;
+		}
 		this.structList.add(newStruct);
 	}
 	
+	/**
+	 * Sets max number of Struct's kept, further ones added are dropped.
+	 * @param maxSize 0 for no limit.
+	 */
+	void setMaxSize(int maxSize){
+		this.maxSize = maxSize;
+	}
+	
+	/**
+	 * Empties this list, for reuse in another parse.
+	 */
+	void clear(){
+		this.structList.clear();
+		this.highestDownScoreIndex = -1;
+	}
+	
 	public String toString(){
 		return structList.toString();
 	}
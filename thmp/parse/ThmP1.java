@@ -3,8 +3,6 @@ package thmp.parse;
 import static thmp.parse.ThmP1AuxiliaryClass.posListContains;
 
 import java.io.IOException;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -26,7 +24,6 @@ import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 
 import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimap;
@@ -37,6 +34,7 @@ import syntaxnet.SentenceOuterClass.Sentence;
 import syntaxnet.SentenceOuterClass.Token;
 import thmp.exceptions.ParseRuntimeException;
 import thmp.exceptions.ParseRuntimeException.IllegalSyntaxException;
+import thmp.parse.GrammarTable.Symbol;
 import thmp.parse.ParseState.VariableDefinition;
 import thmp.parse.ParseToWLTree.WLCommandWrapper;
 import thmp.parse.Struct.Article;
@@ -56,6 +54,18 @@ public class ThmP1 {
 	
 	// map of structures, for all, disj, etc
 	private static final Multimap<String, Rule> structMap;
+	//structMap compiled to symbol ids, for the chart parser
+	private static final GrammarTable grammarTable;
+	private static final Symbol PRO_SYMBOL;
+	private static final Symbol VERB_SYMBOL;
+	private static final Symbol VBS_SYMBOL;
+	private static final Symbol PRE_SYMBOL;
+	private static final Symbol ENT_SYMBOL;
+	private static final Symbol ADJ_SYMBOL;
+	private static final Symbol CONJ_ADJ_SYMBOL;
+	private static final Symbol HYP_SYMBOL;
+	private static final Symbol PARTI_SYMBOL;
+	private static final Symbol TEX_ASSERT_SYMBOL;
 	private static final Map<String, String> anchorMap;
 	// parts of speech map, e.g. "open", "adj"
 	private static final ListMultimap<String, String> posMMap;
@@ -90,6 +100,8 @@ public class ThmP1 {
 	
 	//don't set lower than 100, affects context formations, etc.
 	private static final int MAX_STRUCTLIST_SZ = 100;
+	//max number of structs in a parse, to avoid excessive structs during data processing.
+	private static final int MAX_PARSE_STRUCT_COUNT = 80;
 	// list of parts of speech, ent, verb etc <--should make immutable
 	private static final List<String> posList;
 	
@@ -104,10 +116,6 @@ public class ThmP1 {
 	private static final Path unknownWordsFile = Paths.get("src/thmp/data/unknownWords1.txt");
 	
 	private static final Path parsedExprFile = Paths.get("src/thmp/data/parsedExpr.txt");
-
-	private static final List<String> unknownWords = new ArrayList<String>();
-	
-	private static List<ParsedPair> parsedExpr = new ArrayList<ParsedPair>();
 	
 	private static final ImmutableListMultimap<String, FixedPhrase> fixedPhraseMMap;	
 	
@@ -117,19 +125,13 @@ public class ThmP1 {
 	//use during data processing to avoid certain time-consuming steps. March 25, 2018.
 	private static final boolean PARSE_MINIMAL = true;
 	
-	/**
-	 * List of Stringified Map of parts used to build up a theorem/def etc.  
-	 * Global variable, so to be able to pass to other functions.
-	 * Not final, since it needs to be cleared and reassigned. 
-	 */
-	private static List<String> parseStructMapList = new ArrayList<String>();
-	//the non-stringified version of parseStructMapList. Only used for unit testing.
-	private static List<Multimap<ParseStructType, ParsedPair>> parseStructMaps 
-		= new ArrayList<Multimap<ParseStructType, ParsedPair>>();
+	/* Parsed expressions, parse struct maps, and unknown words gathered across parses
+	 * are kept in the thread's current Parser, so threads can parse concurrently. */
 	//whether current run is part of unit testing.
-	private static boolean unitTesting;
+	private static volatile boolean unitTesting;
 	
-	private static MaxentTagger posTagger;
+	//set up lazily, tagging is thread-safe.
+	private static volatile MaxentTagger posTagger;
 	
 	//list of context vectors of the highest-scoring parse tree for each input.
 	//will be cleared every time this list is retrieved, which should be once per 
@@ -210,6 +212,17 @@ public class ThmP1 {
 		//mathObjMap = Maps.BuildMaps.mathObjMap;
 		fixedPhraseMMap = Maps.fixedPhraseMap();
 		structMap = Maps.structMap();
+		grammarTable = new GrammarTable(structMap);
+		PRO_SYMBOL = grammarTable.symbol("pro");
+		VERB_SYMBOL = grammarTable.symbol("verb");
+		VBS_SYMBOL = grammarTable.symbol("vbs");
+		PRE_SYMBOL = grammarTable.symbol("pre");
+		ENT_SYMBOL = grammarTable.symbol("ent");
+		ADJ_SYMBOL = grammarTable.symbol("adj");
+		CONJ_ADJ_SYMBOL = grammarTable.symbol("conj_adj");
+		HYP_SYMBOL = grammarTable.symbol("hyp");
+		PARTI_SYMBOL = grammarTable.symbol("parti");
+		TEX_ASSERT_SYMBOL = grammarTable.symbol("texAssert");
 		anchorMap = Maps.anchorMap();
 		posMMap = Maps.posMMap();	
 		//adjMap = Maps.adjMap;
@@ -241,7 +254,10 @@ public class ThmP1 {
 		}
 	}
 	
-	private static void setUpPosTagger(){
+	private static synchronized void setUpPosTagger(){
+		if(null != posTagger){
+			return;
+		}
 		String pathToTagger = Maps.getServerPosTaggerPathStr();
 		
 		posTagger = new MaxentTagger(pathToTagger);
@@ -2153,7 +2169,7 @@ public class ThmP1 {
 	private static void addUnknownWordToSet(ParseState parseState, String curWord) {
 		if(parseState.writeUnknownWordsToFileBool() && isValidWord(curWord)){
 			// collect & write unknown words to file
-				unknownWords.add(curWord);
+				Parser.current().addUnknownWord(curWord);
 			}
 	}
 
@@ -2354,15 +2370,15 @@ public class ThmP1 {
 		//this is cumulative, should be cleared per parse! Move this back
 		//to initializer after debugging!
 		//parseContextVector = new int[parseContextVectorSz];		
+		parseState.setSpanningStructList(Collections.<Struct>emptyList());
 		List<Struct> inputStructList = parseState.getTokenList();	
 		if(null == inputStructList){
 			return parseState;
 		}
 		int inputStructListSize = inputStructList.size();
-		//avoid excessive structs during data processing - March 25, 2018.
-		final int structListSzThresh = 50;
 		
-		if(null == inputStructList || 0 == inputStructListSize || inputStructListSize > structListSzThresh){
+		//avoid excessive structs during data processing - March 25, 2018.
+		if(null == inputStructList || 0 == inputStructListSize || inputStructListSize > MAX_PARSE_STRUCT_COUNT){
 			return parseState;
 		}
 		
@@ -2385,6 +2401,28 @@ public class ThmP1 {
 		if (inputStructListSize == 0){
 			return parseState;
 		}
+		
+		// A triangular matrix of StructList's, reused across parses on this thread.
+		ParseChart mx = ParseChart.acquire(inputStructListSize, MAX_STRUCTLIST_SZ);
+		try{
+			return parse(parseState, isReparse, inputStructList, recentEnt, mx);
+		}finally{
+			ParseChart.release(mx);
+		}
+	}
+	
+	/**
+	 * Fills in chart mx for inputStructList, and obtains sentence structures from it.
+	 * @param parseState
+	 * @param isReparse
+	 * @param inputStructList
+	 * @param recentEnt
+	 * @param mx empty chart for inputStructList.
+	 * @return
+	 */
+	private static ParseState parse(ParseState parseState, boolean isReparse, List<Struct> inputStructList, 
+			Struct recentEnt, ParseChart mx) {
+		int inputStructListSize = inputStructList.size();
 		// first Struct
 		Struct firstEnt = null;
 		boolean foundFirstEnt = false;
@@ -2395,21 +2433,6 @@ public class ThmP1 {
 		int recentEntIndex = -1;
 
 		List<Struct> originalNonSpanningParseStructList = inputStructList;
-		// A matrix of List's. Dimenions of first two Lists are same: square
-		// matrix
-		List<List<StructList>> mx = new ArrayList<List<StructList>>(inputStructListSize);
-
-		for (int l = 0; l < inputStructListSize; l++) {
-			List<StructList> tempList = new ArrayList<StructList>();
-
-			for (int i = 0; i < inputStructListSize; i++) {
-				// initialize Lists now so no need to repeatedly check if null
-				// later
-				// but does use more space! Need to revisist.
-				tempList.add(new StructList());
-			}
-			mx.add(tempList);
-		}
 		//only call syntaxnet if prepositionCount is above certain threshold
 		int prepositionCount = 0;
 		// which row to start at for the next column
@@ -2420,8 +2443,8 @@ public class ThmP1 {
 			// ArrayList<Struct> diagonalStruct = new ArrayList<Struct>();
 			
 			Struct diagonalStruct = inputStructList.get(j);
-			diagonalStruct.set_structList(mx.get(j).get(j));
-			mx.get(j).get(j).add(diagonalStruct);
+			diagonalStruct.set_structList(mx.get(j, j));
+			mx.get(j, j).add(diagonalStruct);
 			
 			String structName;
 			if(diagonalStruct.isStructA()){
@@ -2452,8 +2475,8 @@ public class ThmP1 {
 						newStruct = new StructA<String, String>(structName, NodeType.STR, "", NodeType.STR, pos);					
 					}
 					//more likely pos come earlier.
-					mx.get(j).get(j).add(newStruct);
-					newStruct.set_structList(mx.get(j).get(j));
+					mx.get(j, j).add(newStruct);
+					newStruct.set_structList(mx.get(j, j));
 				}
 			}
 			// mx.get(j).set(j, inputList.get(j));
@@ -2472,8 +2495,8 @@ public class ThmP1 {
 				for (int k = j - 1; k >= i; k--) {
 					/* pairs are at mx positions (i,k), and (k+1,j) */
 
-					StructList structList1 = mx.get(i).get(k);
-					StructList structList2 = mx.get(k + 1).get(j);
+					StructList structList1 = mx.get(i, k);
+					StructList structList2 = mx.get(k + 1, j);
 					//don't delete below comment
 					/*
 					System.out.println("++++ "+i + " " + k + " structList1: " + structList1);
@@ -2492,11 +2515,8 @@ public class ThmP1 {
 					//System.out.println("=====++++ i, j pairs " + (i) + " " + k + ", " + " col " + (k+1) + " " +j );
 					// need to refactor to make methods more modular!
 
+					//entries are pruned to MAX_STRUCTLIST_SZ on insertion, to avoid grammar rules explosion
 					List<Struct> structList1List = structList1.structList();
-					//prune to avoid grammar rules explosion
-					if(structList1List.size() > MAX_STRUCTLIST_SZ) {
-						structList1List = structList1.pruneStructList(MAX_STRUCTLIST_SZ);
-					}
 					////here Iterator<Struct> structList1Iter = structList1.structList().iterator();
 					Iterator<Struct> structList1Iter = structList1List.iterator();
 					
@@ -2509,9 +2529,6 @@ public class ThmP1 {
 						
 						Struct struct1 = structList1Iter.next();
 						
-						if(struct2List.size() > MAX_STRUCTLIST_SZ) {
-							struct2List = structList2.pruneStructList(MAX_STRUCTLIST_SZ);
-						}						
 						Iterator<Struct> structList2Iter = struct2List.iterator();
 						int structList2IterCounter = 0;
 						while (structList2Iter.hasNext()) {
@@ -2519,30 +2536,23 @@ public class ThmP1 {
 							
 							// combine/reduce types, like or_ppt, for_ent,
 							// in_ent
-							String type1 = struct1.type();
-							String type2 = struct2.type();
+							Symbol rawSymbol1 = grammarTable.symbol(struct1.type());
+							// for types such as conj_verbphrase
+							/* This causes conj_ent to be counted as ent, so should
+							 * *not* use "ent" type to determine whether StructH or not!*/
+							Symbol symbol1 = rawSymbol1.conjDisjStripped();
+							Symbol symbol2 = grammarTable.symbol(struct2.type()).conjDisjStripped();
+							String type1 = symbol1.name();
+							String type2 = symbol2.name();
 							/*if(type1.equals("conj_ent") && type2.equals("prep")){
 								//throw new IllegalStateException(struct1.toString());
-								System.out.println("t   .equals(  mx.get(i).get(j).size() "+mx.get(i).get(j).size());
-								StructList s = mx.get(i).get(j);
+								System.out.println("t   .equals(  mx.get(i, j).size() "+mx.get(i, j).size());
+								StructList s = mx.get(i, j);
 							}*/
 							/*if(type1.equals("") && type2.equals("prep")){
 								throw new IllegalStateException(struct1.toString());
 								//System.out.println("");
 							}*/
-							// for types such as conj_verbphrase
-							String[] split1 = type1.split("_");
-							/* This causes conj_ent to be counted as ent, so should
-							 * *not* use "ent" type to determine whether StructH or not!*/							
-							if (split1.length > 1 && CONJ_DISJ_PATTERN1.matcher(split1[0]).matches()) {
-								type1 = split1[1];
-							}
-
-							String[] split2 = type2.split("_");
-							if (split2.length > 1 && CONJ_DISJ_PATTERN1.matcher(split2[0]).matches()) {
-								type2 = split2[1];
-							}
-
 							// if recentEntIndex < j, it was deliberately
 							// skipped in a previous pair when it was the 2nd struct.
 							if (!struct1.isStructA()
@@ -2560,7 +2570,7 @@ public class ThmP1 {
 							// assertion,
 							// sentence, or "complete" phrase.
 							// Note that different pronouns might need diferent rules.
-							if (type1.equals("pro") && struct1.prev1NodeType().equals(NodeType.STR)
+							if (symbol1 == PRO_SYMBOL && struct1.prev1NodeType().equals(NodeType.STR)
 									&& ((String) struct1.prev1()).matches("it|they") && struct1.prev2() != null
 									&& struct1.prev2().equals("")) {
 								if (recentEnt != null && recentEntIndex < j) {
@@ -2574,7 +2584,7 @@ public class ThmP1 {
 								}
 							}
 							
-							if (!struct2.isStructA() && !type1.matches("verb|pre")) {
+							if (!struct2.isStructA() && symbol1 != VERB_SYMBOL && symbol1 != PRE_SYMBOL) {
 								if (!foundFirstEnt) {
 									firstEnt = struct1;
 									foundFirstEnt = true;
@@ -2589,7 +2599,6 @@ public class ThmP1 {
 							// new type? entity, with extra ppt
 							// name: or. combined ex: or_adj (returns ent),
 							// or_ent (ent)
-							String combined = type1 + "_" + type2;
 							
 							// handle pattern ent_of_symb
 							//should *not* use "ent" type to determine whether StructH or not!
@@ -2616,19 +2625,19 @@ public class ThmP1 {
 									struct1.add_child(inputStructList.get(j + 1), new ChildRelation("of"));
 									inputStructList.get(j + 1).set_parentStruct(struct1);
 								}								
-								mx.get(i).get(j + 1).add(struct1);								
+								mx.get(i, j + 1).add(struct1);								
 								nextColStartRow = i;*/
-							/*} else*/ if (combined.equals("pro_verb")) {
+							/*} else*/ if (symbol1 == PRO_SYMBOL && symbol2 == VERB_SYMBOL) {
 								if (struct1.prev1().equals("we") && struct2.prev1().equals("say")) {
 									struct1.set_type(FLUFF);
 									// mx.get(i).set(j, struct1);
-									mx.get(i).get(j).add(struct1);
+									mx.get(i, j).add(struct1);
 								}
-							} else if (combined.equals("adj_ent") && !struct2.isStructA()) {
+							} else if (symbol1 == ADJ_SYMBOL && symbol2 == ENT_SYMBOL && !struct2.isStructA()) {
 								// update struct
 								Struct newStruct = struct2.copy();
 								String newPpt = "";
-								if (struct1.type().equals("conj_adj")) {
+								if (rawSymbol1 == CONJ_ADJ_SYMBOL) {
 									if (struct1.prev1NodeType().isTypeStruct()) {
 										newPpt += ((Struct) struct1.prev1()).prev1();
 									}
@@ -2640,7 +2649,7 @@ public class ThmP1 {
 								}
 								newStruct.struct().put(newPpt, "ppt");
 															
-								mx.get(i).get(j).add(newStruct);
+								mx.get(i, j).add(newStruct);
 								continue innerloop;								
 							}
 							//posessive pronouns with ent
@@ -2652,21 +2661,21 @@ public class ThmP1 {
 								if(foundFirstEnt && recentEntIndex < j){
 									newStruct.set_possessivePrev(recentEnt);									
 								}								
-								mx.get(i).get(j).add(newStruct);
+								mx.get(i, j).add(newStruct);
 								continue innerloop;
-							}*/else if(combined.equals("hyp_ent") && j == inputStructListSize-1){
+							}*/else if(symbol1 == HYP_SYMBOL && symbol2 == ENT_SYMBOL && j == inputStructListSize-1){
 								//e.g. "suppose $A$ is $B$". Better to add
 								if(struct2.isLatexStruct()){
 									struct2 = struct2.copyToStructA("texAssert");
 									structList2.set(structList2IterCounter, struct2);
-									type2 = "texAssert";
-									combined = "hyp_texAssert";
+									symbol2 = TEX_ASSERT_SYMBOL;
+									type2 = symbol2.name();
 								}
 							}
 							// handle "is called" -- "verb_parti", also "is
 							// defined"
 							// for definitions
-							else if (combined.equals("verb_parti") && IS_ARE_BE_PATTERN.matcher(struct1.prev1().toString()).find()
+							else if (symbol1 == VERB_SYMBOL && symbol2 == PARTI_SYMBOL && IS_ARE_BE_PATTERN.matcher(struct1.prev1().toString()).find()
 									&& CALLED_PATTERN.matcher(struct2.prev1().toString()).find()) {
 								String called = "";
 								StringBuilder calledSB = new StringBuilder(20);
@@ -2709,9 +2718,9 @@ public class ThmP1 {
 								if (firstEnt != null) {
 									StructA<Struct, String> parentStruct = 
 											new StructA<Struct, String>(firstEnt, NodeType.STRUCTH, 
-													called, NodeType.STR, "def", mx.get(0).get(inputStructListSize - 1));
+													called, NodeType.STR, "def", mx.get(0, inputStructListSize - 1));
 									firstEnt.set_parentStruct(parentStruct);									
-									mx.get(0).get(inputStructListSize - 1).add(parentStruct);
+									mx.get(0, inputStructListSize - 1).add(parentStruct);
 									
 									// recentEnt is defined to be "called"
 									parseState.addLocalVariableStructPair(called, recentEnt);									
@@ -2720,31 +2729,28 @@ public class ThmP1 {
 								}
 							}
 							
-							Collection<Rule> ruleCol = null;
 							// reduce if structMap has a rule for reducing combined
-							if (structMap.containsKey(combined)) {
-								ruleCol = structMap.get(combined);
-							}else if(type2.equals("ent") && k+1==j && struct2.isLatexStruct() && j < inputStructListSize-1){
+							Rule[] ruleAr = grammarTable.rules(symbol1, symbol2);
+							if (null == ruleAr && symbol2 == ENT_SYMBOL && k+1==j && struct2.isLatexStruct() && j < inputStructListSize-1){
 								//potentially change ent into texAssert
 								//Struct nextStruct = inputStructList.get(j+1);
-								String nextStructType = inputStructList.get(j+1).type();
-								String nextCombinedPos = "ent_"+nextStructType;
-								String newType = type1+"_texAssert";
+								Symbol nextStructSymbol = grammarTable.symbol(inputStructList.get(j+1).type());
+								Rule[] newTypeRuleAr = grammarTable.rules(symbol1, TEX_ASSERT_SYMBOL);
 								
-								if(!structMap.containsKey(nextCombinedPos) 
-										&& !nextStructType.equals("verb") && !nextStructType.equals("vbs")){
+								if(null == grammarTable.rules(ENT_SYMBOL, nextStructSymbol) 
+										&& nextStructSymbol != VERB_SYMBOL && nextStructSymbol != VBS_SYMBOL){
 									
-									if(structMap.containsKey(newType)){										
+									if(null != newTypeRuleAr){										
 										StructA<String, String> convertedStructA = new StructA<String, String>(struct2.nameStr(), 
 												NodeType.STR, "", NodeType.STR, "texAssert");
 										struct2.copyChildrenToStruct(convertedStructA);
 										struct2List.set(0, convertedStructA);
-										type2 = "texAssert";
+										symbol2 = TEX_ASSERT_SYMBOL;
+										type2 = symbol2.name();
 										struct2 = convertedStructA;
-										ruleCol = structMap.get(newType);
+										ruleAr = newTypeRuleAr;
 									}else{
-										String newType2 = "texAssert_"+type2;
-										if(structMap.containsKey(newType2)){
+										if(null != grammarTable.rules(TEX_ASSERT_SYMBOL, symbol2)){
 											StructA<String, String> convertedStructA = new StructA<String, String>(struct2.nameStr(), 
 													NodeType.STR, "", NodeType.STR, "texAssert");
 											struct2.copyChildrenToStruct(convertedStructA);
@@ -2764,17 +2770,15 @@ public class ThmP1 {
 								combined = type1 + "_" + "expr";
 							}*/
 							// update localVariablesMap
-							if (type1.equals("ent") && !struct1.isStructA()) {
+							if (symbol1 == ENT_SYMBOL && !struct1.isStructA()) {
 								String called = struct1.struct().get("called");
 								if (called != null){
 									parseState.addLocalVariableStructPair(called, struct1);									
 								}
 							}
 							
-							if(null != ruleCol){
-								Iterator<Rule> ruleColIter = ruleCol.iterator();
-								while (ruleColIter.hasNext()) {
-									Rule ruleColNext = ruleColIter.next();
+							if(null != ruleAr){
+								for(Rule ruleColNext : ruleAr) {
 									EntityBundle entityBundle = grammarReduce(mx, ruleColNext, struct1, struct2, firstEnt, recentEnt, recentEntIndex, i, j,
 											k, type1, type2, parseState);
 									//if nothing was updated
@@ -2802,7 +2806,7 @@ public class ThmP1 {
 		// string together the parsed pieces
 		// ArrayList (better at get/set) or LinkedList (better at add/remove)?
 		// iterating over all headStruct
-		StructList headStructList = mx.get(0).get(inputStructListSize - 1);
+		StructList headStructList = mx.get(0, inputStructListSize - 1);
 		int headStructListSz = headStructList.size();
 		
 		//System.out.println("headStructListSz " + headStructListSz);
@@ -2852,6 +2856,8 @@ public class ThmP1 {
 				structList = structList2;
 				headStructListSz = max;
 			}
+			//copied, since mx's lists are cleared once it's released for reuse.
+			parseState.setSpanningStructList(new ArrayList<Struct>(structList));
 			
 			StringBuilder parsedSB = new StringBuilder();			
 			// System.out.println("index of highest score: " +
@@ -2972,14 +2978,14 @@ public class ThmP1 {
 			/*Get the upper right edge tip of each nontrivial block in the matrix*/
 			while (j > -1) {
 				i = 0;
-				while (mx.get(i).get(j).size() == 0) {
+				while (mx.get(i, j).size() == 0) {
 					i++;
 					// some diagonal elements can be set to null on purpose
 					if (i >= j) {
 						break;
 					}
 				}				
-				StructList tempStructList = mx.get(i).get(j);
+				StructList tempStructList = mx.get(i, j);
 				if (tempStructList.size() > 0) {					
 					//but adding at 0 is slow! Add at end and reverse once!
 					structListList.add(0, tempStructList);
@@ -3162,7 +3168,7 @@ public class ThmP1 {
 		
 		/*
 		 * Don't delete this part! System.out.println("\nWL: "); StructList
-		 * headStructList = mx.get(len - 1).get(len - 1); //should pick out best
+		 * headStructList = mx.get(len - 1, len - 1); //should pick out best
 		 * parse before WL and just parse to WL for that particular parse!
 		 */
 		parseState.setRecentEnt(recentEnt);
@@ -3186,7 +3192,7 @@ public class ThmP1 {
 	 * @param type2
 	 */
 	private static void handleConjDisjInLongForm(List<Struct> inputStructList, int inputStructListSize,
-			List<List<StructList>> mx, int j, int i, int k, Struct struct2, String type1, String type2) {
+			ParseChart mx, int j, int i, int k, Struct struct2, String type1, String type2) {
 		/* iterate through the List at position (i-t, i-1), to handle conjunction and disjunction.
 		 * And and or handling code here.*/
 		if (i > 0 && i + 1 < inputStructListSize) {
@@ -3197,7 +3203,7 @@ public class ThmP1 {
 				String andOrType = type1.equals("or") ? "disj" : "conj";
 				searchConjLoop: while (i - t > -1) {
 					//i-1 to look at the column before i.
-					List<Struct> structArrayList = mx.get(i - t).get(i - 1).structList();
+					List<Struct> structArrayList = mx.get(i - t, i - 1).structList();
 					int structArrayListSz = structArrayList.size();
 					if (structArrayListSz == 0) {
 						t++;
@@ -3207,7 +3213,7 @@ public class ThmP1 {
 					 * e.g. "Given ring of finite presentation and field of finite type".
 					 * variable t indicates how far back. */
 					if(type2.equals("ent") && i - t - 2 > -1){
-						List<Struct> structRightBeforeAndOrList = mx.get(i-1).get(i-1).structList();
+						List<Struct> structRightBeforeAndOrList = mx.get(i-1, i-1).structList();
 						Struct structRightBeforeAndOr = null;
 						if(structRightBeforeAndOrList.size() > 0){
 							structRightBeforeAndOr = structRightBeforeAndOrList.get(0);												
@@ -3217,8 +3223,8 @@ public class ThmP1 {
 								|| !WordForms.areTexExprSimilar(structRightBeforeAndOr.nameStr(), struct2.nameStr())){
 						
 						/*always along the same column i-1. Recall i is row of combined term.*/
-						List<Struct> structArrayList2 = mx.get(i-t-1).get(i-1).structList();
-						List<Struct> structArrayList3 = mx.get(i-t-2).get(i-1).structList();											
+						List<Struct> structArrayList2 = mx.get(i-t-1, i-1).structList();
+						List<Struct> structArrayList3 = mx.get(i-t-2, i-1).structList();											
 						/* Less than double-looping O(mn) on average because of the conditionals.*/
 						for(Struct list2Struct : structArrayList2){			
 							if(list2Struct.type().equals("prep")){
@@ -3283,7 +3289,7 @@ public class ThmP1 {
 								
 								StructA<Struct, Struct> parentStruct = new StructA<Struct, Struct>(
 										p_struct, struct1Type, struct2, struct2Type, andOrType + "_" + type2,
-										mx.get(i - t).get(j));
+										mx.get(i - t, j));
 								//if(true) throw new RuntimeException(parentStruct.toString());
 								p_struct.set_parentStruct(parentStruct);
 								struct2.set_parentStruct(parentStruct);
@@ -3292,7 +3298,7 @@ public class ThmP1 {
 								double maxDownPathScore = p_struct.maxDownPathScore();
 								parentStruct.set_maxDownPathScore(maxDownPathScore);
 
-								mx.get(i - t).get(j).add(parentStruct);
+								mx.get(i - t, j).add(parentStruct);
 								// mx.get(i+1).set(j, null);
 								//stopLoop = true;
 								break searchConjLoop;
@@ -3318,7 +3324,7 @@ public class ThmP1 {
 	 * @param t
 	 * @param andOrType
 	 */
-	private static void convertLastEntToTexAssertInConjDisj(int inputStructListSize, List<List<StructList>> mx, int j, int i,
+	private static void convertLastEntToTexAssertInConjDisj(int inputStructListSize, ParseChart mx, int j, int i,
 			int k, Struct struct2, int t, String andOrType) {
 		if(i-t == -1 && j == inputStructListSize-1 && struct2.isLatexStruct()){
 			//reached beginning of input, but did not find matching type.
@@ -3332,7 +3338,7 @@ public class ThmP1 {
 				Struct assertStruct = null;
 				int assertRowIndex = 0;
 				rowLoop: while(r > -1){
-					StructList colNumStructList = mx.get(r).get(colNum);
+					StructList colNumStructList = mx.get(r, colNum);
 					List<Struct> structList = colNumStructList.structList();
 					for(Struct struct : structList){
 						if(struct.type().equals("assert")){
@@ -3346,11 +3352,11 @@ public class ThmP1 {
 				if(null != assertStruct){
 					StructA<String, String> convertedStructA = new StructA<String, String>(struct2.nameStr(), 
 							NodeType.STR, "", NodeType.STR, "texAssert");
-					//mx.get(k+1).get(j).add(convertedStructA);										
+					//mx.get(k+1, j).add(convertedStructA);										
 					StructA<Struct, Struct> conjAssertStruct = new StructA<Struct, Struct>(assertStruct,
 							NodeType.STRUCTA, convertedStructA, NodeType.STRUCTA, andOrType+"_assert");
 					
-					mx.get(assertRowIndex).get(j).add(conjAssertStruct);
+					mx.get(assertRowIndex, j).add(conjAssertStruct);
 				}				
 			}			
 		}
@@ -3571,10 +3577,8 @@ public class ThmP1 {
 			
 			Multimap<ParseStructType, ParsedPair> map = sortedParsedPairMMapList.get(i);
 			
-			parseStructMapList.add(map.toString() + "\n");
-			if(unitTesting){ 
-				parseStructMaps.add(map);
-			}
+			Parser parser = Parser.current();
+			parser.addParseStructMap(map, unitTesting);
 			//add to parsedExpr  parsedExpr.add(new ParsedPair(totalParsedString, totalScore, "wl"));
 			//note that Multimap does not necessarily preserve insertion order!
 			for(Map.Entry<ParseStructType, ParsedPair> structTypePair : map.entries()){
@@ -3585,11 +3589,11 @@ public class ThmP1 {
 						pair.numUnits, pair.commandNumUnits, 
 						wlCommand, parseStructType);
 				newPair.setNumCoincidingRelationIndex(pair.numCoincidingStruct);
-				parsedExpr.add(newPair);		
+				parser.addParsedPair(newPair);
 			}
 			
 			//Also add the long form to parsedExpr	
-			parsedExpr.add(longFormParsedPairList.get(finalOrderingList.get(i)));
+			parser.addParsedPair(longFormParsedPairList.get(finalOrderingList.get(i)));
 			if(DEBUG){
 				System.out.println("ThmP1-" +commandNumUnitsList + " longForm, commandUnits: " + commandNumUnitsList.get(i) +". numUnits: " +numUnitsList.get(i) 
 					+ ". "+ longFormParsedPairList.get(finalOrderingList.get(i)));
@@ -3864,7 +3868,7 @@ public class ThmP1 {
 	 * @return @Nullable EntityBundle containing entities such as recentEnt, etc.  
 	 * null if not changed, so no wasting resources creating new objects.
 	 */
-	public static EntityBundle grammarReduce(List<List<StructList>> mx, Rule newRule, Struct struct1, Struct struct2,
+	public static EntityBundle grammarReduce(ParseChart mx, Rule newRule, Struct struct1, Struct struct2,
 			Struct firstEnt, Struct recentEnt, int recentEntIndex, int i, int j, int k, String type1, String type2,
 			ParseState parseState) {
 		
@@ -3947,7 +3951,7 @@ public class ThmP1 {
 			}else{
 				// Add to child relation, usually a preposition, 
 				// e.g. "from", "over". Could also be verb, "consist", "lies"			
-				List<Struct> kPlus1StructArrayList = mx.get(k + 1).get(k + 1).structList();					
+				List<Struct> kPlus1StructArrayList = mx.get(k + 1, k + 1).structList();					
 				for(int p = 0; p < kPlus1StructArrayList.size(); p++){
 					Struct struct = kPlus1StructArrayList.get(p);
 					if(struct.prev1NodeType().equals(NodeType.STR)){						
@@ -3987,7 +3991,7 @@ public class ThmP1 {
 				structToAppendChild.add_child(childToAdd, childRelation);
 				//e.g. "A and B over C"
 				newStruct.set_type(null == combinedPos ? struct1.type() : combinedPos);
-				mx.get(i).get(j).add(newStruct);				
+				mx.get(i, j).add(newStruct);				
 				childToAdd.set_parentStruct(structToAppendChild); 
 				
 				return new EntityBundle(firstEnt, recentEnt, recentEntIndex);
@@ -4020,7 +4024,7 @@ public class ThmP1 {
 				childToAdd.set_childRelationType(childRelation.childRelationType());				
 				
 				convertedStructA.set_maxDownPathScore(newDownPathScore);
-				mx.get(i).get(j).add(convertedStructA);
+				mx.get(i, j).add(convertedStructA);
 				return new EntityBundle(firstEnt, recentEnt, recentEntIndex);
 			}
 			
@@ -4094,7 +4098,7 @@ public class ThmP1 {
 				recentEntIndex = j;				
 			}
 			newStruct.set_maxDownPathScore(newDownPathScore);
-			mx.get(i).get(j).add(newStruct);
+			mx.get(i, j).add(newStruct);
 		} 
 		else if (newType.equals("addstruct")){
 			// add struct2 content to struct1.struct, depending on type2
@@ -4114,7 +4118,7 @@ public class ThmP1 {
 				recentEntIndex = j;
 				
 				newStruct.set_maxDownPathScore(newDownPathScore);
-				mx.get(i).get(j).add(newStruct);
+				mx.get(i, j).add(newStruct);
 			}
 		}else if(newType.equals("fuse")){
 			
@@ -4158,11 +4162,11 @@ public class ThmP1 {
 					StructA<Struct, Struct> newStruct = new StructA<Struct, Struct>(ent1, NodeType.STRUCTH, ent2, NodeType.STRUCTH, 
 							struct2.type().substring(0, 4) + "_ent");					
 					newStruct.set_maxDownPathScore(newDownPathScore);					
-					mx.get(i).get(j).add(newStruct);
+					mx.get(i, j).add(newStruct);
 				}/*else if(null != combinedPos && "ent".equals(combinedPos)){
 					//e.g. "ent_quant", i.e. "genus one"
 					
-					mx.get(i).get(j).add(newStruct);
+					mx.get(i, j).add(newStruct);
 				}*/
 			}
 			//fuse ent's, e.g. "integer linear combination"
@@ -4186,7 +4190,7 @@ public class ThmP1 {
 				recentEntIndex = j;
 				newStruct.set_maxDownPathScore(newDownPathScore);
 				
-				mx.get(i).get(j).add(newStruct);
+				mx.get(i, j).add(newStruct);
 			}
 			}
 		}
@@ -4243,11 +4247,11 @@ public class ThmP1 {
 					
 					String updatedType = "assert";
 					StructA<Struct, Struct> parentStruct = new StructA<Struct, Struct>(parentPrev1, struct1Type, 
-							parentPrev2, struct2Type, updatedType, newScore, mx.get(i).get(j), parentDownPathScore, parentNumUnits);
+							parentPrev2, struct2Type, updatedType, newScore, mx.get(i, j), parentDownPathScore, parentNumUnits);
 					
 					parentPrev1.set_parentStruct(parentStruct);
 					
-					mx.get(i).get(j).add(parentStruct);					
+					mx.get(i, j).add(parentStruct);					
 				}				
 			}
 		}
@@ -4258,13 +4262,13 @@ public class ThmP1 {
 				struct2.set_prev1(adj + " " + struct2.prev1());
 				struct2.set_maxDownPathScore(struct2.maxDownPathScore() * newScore);
 				// mx.get(i).set(j, struct2);
-				mx.get(i).get(j).add(struct2);
+				mx.get(i, j).add(struct2);
 			}
 		}else if(type1.equals("rpro") && type2.equals("assert")){
 			//e.g. "we say that $p$ is prime."
 			if(struct1.prev1().equals("that")){
 				//put the assert in the parent mx entry, ignore "that".
-				mx.get(i).get(j).add(struct2);
+				mx.get(i, j).add(struct2);
 			}
 		}
 		else {
@@ -4330,7 +4334,7 @@ public class ThmP1 {
 			}
 			// add to namesMap if letbe defines a name for an ent
 			else if (newType.equals("letbe") && i+1 < mx.size() && k+2 < mx.size()
-					&& mx.get(i + 1).get(k).size() > 0 && mx.get(k + 2).get(j).size() > 0) {
+					&& mx.get(i + 1, k).size() > 0 && mx.get(k + 2, j).size() > 0) {
 				// temporary patch Rewrite StructA to avoid cast
 				// assert(struct1 instanceof StructA);
 				// assert(struct2 instanceof StructA);
@@ -4338,8 +4342,8 @@ public class ThmP1 {
 				
 				// now need to iterate through structList's for these two
 				// Structs
-				List<Struct> tempSymStructList = mx.get(i + 1).get(k).structList();
-				List<Struct> tempEntStructList = mx.get(k + 2).get(j).structList();
+				List<Struct> tempSymStructList = mx.get(i + 1, k).structList();
+				List<Struct> tempEntStructList = mx.get(k + 2, j).structList();
 
 				int tempSymStructListSz = tempSymStructList.size();
 				ploop: for (int p = 0; p < tempSymStructListSz; p++) {
@@ -4373,7 +4377,7 @@ public class ThmP1 {
 			NodeType struct2Type = struct2.isStructA() ? NodeType.STRUCTA : NodeType.STRUCTH;
 			
 			StructA<Struct, Struct> parentStruct = new StructA<Struct, Struct>(struct1, struct1Type, 
-					struct2, struct2Type, newType, newScore, mx.get(i).get(j), parentDownPathScore, parentNumUnits);
+					struct2, struct2Type, newType, newScore, mx.get(i, j), parentDownPathScore, parentNumUnits);
 			if(null == struct1.parentStruct()){
 				struct1.set_parentStruct(parentStruct);
 			}
@@ -4385,7 +4389,7 @@ public class ThmP1 {
 				parseState.setRecentAssert(parentStruct);
 			}
 			
-			mx.get(i).get(j).add(parentStruct);
+			mx.get(i, j).add(parentStruct);
 		}
 		
 		// found a grammar rule match, move on to next mx column
@@ -4470,7 +4474,7 @@ public class ThmP1 {
 	 * @param absorbingStruct
 	 * @param absorbedStruct
 	 */
-	private static Struct absorbStruct(List<List<StructList>> mx, Struct firstEnt, int i, int j, double newDownPathScore,
+	private static Struct absorbStruct(ParseChart mx, Struct firstEnt, int i, int j, double newDownPathScore,
 			Struct absorbingStruct, Struct absorbedStruct) {
 		Struct recentEnt = null;
 		//if(struct1.isStructA() && !struct2.isStructA()){
@@ -4543,7 +4547,7 @@ public class ThmP1 {
 				recentEnt = newStruct;
 			}
 			newStruct.set_maxDownPathScore(newDownPathScore);
-			mx.get(i).get(j).add(newStruct);
+			mx.get(i, j).add(newStruct);
 			
 			return recentEnt;
 	}
@@ -4725,15 +4729,7 @@ public class ThmP1 {
 	 * @throws IOException
 	 */
 	public static void writeUnknownWordsToFile() {
-		
-		if(unknownWords.isEmpty()) return;
-		
-		try{
-			Files.write(unknownWordsFile, unknownWords, Charset.forName("UTF-8"));
-		}catch(IOException e){
-			e.printStackTrace();
-			throw new IllegalArgumentException(e);			
-		}
+		Parser.current().writeUnknownWordsToFile(unknownWordsFile);
 	}
 
 	/**
@@ -4742,13 +4738,7 @@ public class ThmP1 {
 	 * @throws IOException
 	 */
 	public static void writeParsedExprToFile() throws IOException {		
-		List<String> parsedExprStringList = new ArrayList<String>();
-		//just call .toString() directly on parsedExpr!
-		for(ParsedPair parsedPair : parsedExpr){
-			parsedExprStringList.add(parsedPair.toString());
-		}
-		Files.write(parsedExprFile, parsedExprStringList, Charset.forName("UTF-8"));
-		parsedExpr = new ArrayList<ParsedPair>();
+		Parser.current().writeParsedExprToFile(parsedExprFile);
 	}
 	
 	/**
@@ -4757,16 +4747,14 @@ public class ThmP1 {
 	 * Defensively copies List and returns copy.
 	 */
 	public static List<ParsedPair> getAndClearParsedExpr(){		
-		ImmutableList<ParsedPair> parsedExprCopy = ImmutableList.copyOf(parsedExpr);		
-		parsedExpr = new ArrayList<ParsedPair>();
-		return parsedExprCopy;
+		return Parser.current().getAndClearParsedExpr();
 	}
 	
 	/**
 	 * Clear parsedExpr.
 	 */
 	private static void clearParsedExpr(){				
-		parsedExpr = new ArrayList<ParsedPair>();		
+		Parser.current().clearParsedExpr();
 	}
 	
 	/**
@@ -4784,10 +4772,7 @@ public class ThmP1 {
 	 * @return The ParseStruct parts of each parse since last retrieval.
 	 */
 	public static List<String> getAndClearParseStructMapList(){		
-		//List<String> parseStructMapListCopy = new ArrayList<String>(parseStructMapList);
-		ImmutableList<String> parseStructMapListCopy = ImmutableList.copyOf(parseStructMapList);
-		parseStructMapList = new ArrayList<String>();
-		return parseStructMapListCopy;
+		return Parser.current().getAndClearParseStructMapList();
 	}
 	
 	/** 
@@ -4797,18 +4782,7 @@ public class ThmP1 {
 	 * @return The ParseStruct ParsedPairs of each parse since last retrieval.
 	 */
 	public static List<Multimap<ParseStructType, String>> getAndClearParseStructMapsForTesting(){		
-		
-		List<Multimap<ParseStructType, String>> parseStructStringList = new ArrayList<Multimap<ParseStructType, String>>();
-		//get parsedStr in each parsedPair
-		for(Multimap<ParseStructType, ParsedPair> map : parseStructMaps){
-			Multimap<ParseStructType, String> newMap = ArrayListMultimap.create();
-			for(Map.Entry<ParseStructType, ParsedPair> entry : map.entries()){
-				newMap.put(entry.getKey(), entry.getValue().parsedStr.trim());
-			}
-			parseStructStringList.add(newMap);
-		}
-		parseStructMaps = new ArrayList<Multimap<ParseStructType, ParsedPair>>();
-		return parseStructStringList;
+		return Parser.current().getAndClearParseStructMapsForTesting();
 	}
 	
 	/**
@@ -6,6 +6,7 @@ import java.util.Map;
 
 import thmp.parse.ParsedExpression;
 import thmp.search.SearchCombined.ThmHypPair;
+import thmp.search.ThmBundleWriter;
 import thmp.utils.FileUtils;
 import thmp.utils.GatherRelatedWords.RelatedWords;
 
@@ -35,26 +36,21 @@ public class ExtractFromParsedExpressionList {
 	
 		
 		peSerialSrcFile = "0502_001Untarred/0502/parsedExpressionList";	
-		@SuppressWarnings("unchecked")
-		List<ThmHypPair> peList2 = ((List<ThmHypPair>)FileUtils.deserializeListFromFile(peSerialSrcFile));
+		List<ThmHypPair> peList2 = ThmBundleWriter.readTarThms(peSerialSrcFile);
 		System.out.println("ExtractFromParsedExpressionList - 0502 peList.size() " + peList2.size());
 		peSerialSrcFile = "0502_002Untarred/0502/parsedExpressionList";	
-		@SuppressWarnings("unchecked")
-		List<ThmHypPair> peList22 = ((List<ThmHypPair>)FileUtils.deserializeListFromFile(peSerialSrcFile));
+		List<ThmHypPair> peList22 = ThmBundleWriter.readTarThms(peSerialSrcFile);
 		System.out.println("ExtractFromParsedExpressionList - 05022 peList.size() " + peList22.size());
 		
 		peSerialSrcFile = "0503_001Untarred/0503/parsedExpressionList";	
-		@SuppressWarnings("unchecked")
-		List<ThmHypPair> peList3 = ((List<ThmHypPair>)FileUtils.deserializeListFromFile(peSerialSrcFile));
+		List<ThmHypPair> peList3 = ThmBundleWriter.readTarThms(peSerialSrcFile);
 		System.out.println("ExtractFromParsedExpressionList - 0503 peList.size() " + peList3.size());
 		peSerialSrcFile = "0503_002Untarred/0503/parsedExpressionList";	
-		@SuppressWarnings("unchecked")
-		List<ThmHypPair> peList32 = ((List<ThmHypPair>)FileUtils.deserializeListFromFile(peSerialSrcFile));
+		List<ThmHypPair> peList32 = ThmBundleWriter.readTarThms(peSerialSrcFile);
 		System.out.println("ExtractFromParsedExpressionList - 05032 peList.size() " + peList32.size());
 		
 		peSerialSrcFile = "0504_001Untarred/0504/parsedExpressionList";		
-		@SuppressWarnings("unchecked")
-		List<ThmHypPair> peList4 = ((List<ThmHypPair>)FileUtils.deserializeListFromFile(peSerialSrcFile));
+		List<ThmHypPair> peList4 = ThmBundleWriter.readTarThms(peSerialSrcFile);
 		System.out.println("ExtractFromParsedExpressionList - 0504 peList.size() " + peList4.size());
 		
 	}
@@ -13,6 +13,7 @@ import com.google.common.collect.ImmutableList;
 
 import thmp.parse.TheoremContainer;
 import thmp.search.Searcher;
+import thmp.search.ThmBundleWriter;
 import thmp.search.ThmSearch;
 import thmp.utils.FileUtils;
 import thmp.utils.WordForms;
@@ -63,13 +64,13 @@ public class GenerateFullTDMatrix {
 		
 		String fullTermDocumentMxPath = texFilesDirPath + ThmSearch.TermDocumentMatrix.FULL_TERM_DOCUMENT_MX_NAME + ".mx";
 		
-		//some are named parsedExpressionList, but others are without the extension .dat
+		//some are named parsedExpressionList, but others are without the extension .dat.
+		//Tars parsed by the ingestion pipeline have bundles parsedExpressionList0, parsedExpressionList1, etc.
 		String thmListPath = texFilesDirPath + ThmSearch.TermDocumentMatrix.PARSEDEXPRESSION_LIST_FILE_NAME_ROOT ;
-		if(!Files.isRegularFile(Paths.get(thmListPath))){
+		if(!Files.isRegularFile(Paths.get(thmListPath)) && Files.isRegularFile(Paths.get(thmListPath + ".dat"))){
 			thmListPath = thmListPath + ".dat";
 		}		
-		@SuppressWarnings("unchecked")
-		List<? extends TheoremContainer> thmContainerList = (List<? extends TheoremContainer>)FileUtils.deserializeListFromFile(thmListPath);
+		List<? extends TheoremContainer> thmContainerList = ThmBundleWriter.readTarThms(thmListPath);
 		
 		ImmutableList<TheoremContainer> immutableThmContainerList = ImmutableList.copyOf(thmContainerList);
 		String pathToWordFreqMap = Searcher.SearchMetaData.wordDocFreqMapPath();
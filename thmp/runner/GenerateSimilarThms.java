@@ -1,5 +1,6 @@
 package thmp.runner;
 
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -10,11 +11,16 @@ import java.util.Map;
 import com.wolfram.puremath.dbapp.DBUtils;
 import com.wolfram.puremath.dbapp.SimilarThmUtils;
 
+import thmp.search.SimilarThmGraph;
+import thmp.search.Searcher.SearchMetaData;
 import thmp.search.ThmHypPairGet;
 
 /**
  * Generate indices of similar thms. Encodes indices to string,
  * Write results to csv file for database.
+ * Also writes a SimilarThmGraph per bundle of thms, and bundles whose graph is already written
+ * are skipped, so an interrupted run is restarted by running again. Once all bundles are written,
+ * they are assembled into the graph searched at app runtime.
  * 
  * @author yihed
  *
@@ -25,8 +31,8 @@ public class GenerateSimilarThms {
 	private static final int numThmPerBundle = 5000;
 	
 	/**
-	 * At least one arg required, for path to tar, optional arg to specify whether to 
-	 * collect msc data, with "msc" option
+	 * Optional args "-shard i n", to only generate bundles j with j % n == i, so bundles can
+	 * be split between processes. Each bundle is computed on all available processors.
 	 * @param args
 	 * @throws FileNotFoundException
 	 * @throws IOException
@@ -44,17 +50,41 @@ public class GenerateSimilarThms {
 		//get all files in thm dir
 		//System.out.println("GenerateSimilarThms-fileNamesList: " + fileNamesList);
 		
+		int shardIndex = 0;
+		int shardCount = 1;
+		if(args.length > 2 && "-shard".equals(args[0])) {
+			shardIndex = Integer.parseInt(args[1]);
+			shardCount = Integer.parseInt(args[2]);
+			if(shardIndex < 0 || shardIndex >= shardCount) {
+				throw new IllegalArgumentException("Shard index must be between 0 and shard count: " 
+						+ shardIndex + " " + shardCount);
+			}
+		}
 		//run through thm indices
 		int totalThmCount = ThmHypPairGet.totalThmsCount();
 		int totalBundles = (int)Math.ceil(((double)totalThmCount) / numThmPerBundle);
+		int numThreads = Runtime.getRuntime().availableProcessors();
+		new File(SearchMetaData.similarThmGraphBundleDirPath()).mkdirs();
 		
-		for(int j = 60; j < totalBundles; j++) {
+		for(int j = shardIndex; j < totalBundles; j += shardCount) {
 			
+			String bundlePath = SimilarThmGraph.bundlePath(j);
+			if(new File(bundlePath).exists()) {
+				//written by previous run
+				continue;
+			}
 			Map<Integer, byte[]> similarThmsMap = new HashMap<Integer, byte[]>();
 			int endingIndex = Math.min(totalThmCount, (j+1)*numThmPerBundle);
 			int startingIndex = j * numThmPerBundle;
+			List<Integer> thmIndexList = new ArrayList<Integer>();
+			for(int i = startingIndex; i < endingIndex; i++) {
+				thmIndexList.add(i);
+			}
+			//intersection searches for the bundle are batched, deduplicated across thms
+			List<List<Integer>> similarThmListList 
+				= thmp.search.SimilarThmSearch.preComputeSimilarThms(thmIndexList, numThreads);
 			for(int i = startingIndex; i < endingIndex; i++) {				
-				List<Integer> similarThmList = thmp.search.SimilarThmSearch.preComputeSimilarThm( i );
+				List<Integer> similarThmList = similarThmListList.get(i - startingIndex);
 				similarThmsMap.put(i, SimilarThmUtils.indexListToByteArray(similarThmList));				
 			}
 			String path = DBUtils.SimilarThmsTb.similarThmIndexByteArrayPathNoDat + j + ".dat" ;
@@ -62,7 +92,18 @@ public class GenerateSimilarThms {
 			List<Map<Integer, byte[]>> similarThmsMapList = new ArrayList<Map<Integer, byte[]>>();
 			similarThmsMapList.add(similarThmsMap);
 			thmp.utils.FileUtils.serializeObjToFile(similarThmsMapList, path);
+			//written last, so bundle is only skipped on restart once complete.
+			SimilarThmGraph.writeToFile(startingIndex, similarThmListList, null, bundlePath);
 			System.out.println("Done serializing for bundle " + j);
-		}		
+		}
+		
+		for(int j = 0; j < totalBundles; j++) {
+			if(!new File(SimilarThmGraph.bundlePath(j)).exists()) {
+				System.out.println("Bundle " + j + " not yet written, assemble graph with "
+						+ "SimilarThmGraph -assemble once all shards are done.");
+				return;
+			}
+		}
+		SimilarThmGraph.assembleBundles();
 	}
 }
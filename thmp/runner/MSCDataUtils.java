@@ -8,6 +8,7 @@ import java.util.List;
 
 import thmp.parse.DetectHypothesis;
 import thmp.search.SearchCombined.ThmHypPair;
+import thmp.search.ThmBundleWriter;
 import thmp.utils.FileUtils;
 import thmp.utils.WordForms;
 
@@ -66,8 +67,7 @@ public class MSCDataUtils {
 		dirPath = FileUtils.addIfAbsentTrailingSlashToPath(dirPath);
 		//deserialize parsedExpressionList, get the paperId list,
 		//write to file.
-		@SuppressWarnings("unchecked")
-		List<ThmHypPair> thmHypPairList = (List<ThmHypPair>)FileUtils.deserializeListFromFile(dirPath + 
+		List<ThmHypPair> thmHypPairList = ThmBundleWriter.readTarThms(dirPath + 
 				DetectHypothesis.parsedExpressionSerialFileNameStr);
 		
 		StringBuilder sb = new StringBuilder(20000);
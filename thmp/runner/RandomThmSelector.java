@@ -8,6 +8,7 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 
 import thmp.search.SearchCombined.ThmHypPair;
+import thmp.search.ThmBundleWriter;
 import thmp.utils.FileUtils;
 
 /**
@@ -76,8 +77,7 @@ public class RandomThmSelector {
 			int listSz = list.size();
 			int randomInt = rand.nextInt(listSz);
 			String randomDirFilePath = list.get(randomInt) + thmHypPairFileName;
-			@SuppressWarnings("unchecked")
-			List<ThmHypPair> thmHypPairList = (List<ThmHypPair>)FileUtils.deserializeListFromFile(randomDirFilePath);
+			List<ThmHypPair> thmHypPairList = ThmBundleWriter.readTarThms(randomDirFilePath);
 			listSz = thmHypPairList.size();
 			randomInt = rand.nextInt(listSz);
 			
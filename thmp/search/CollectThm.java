@@ -149,8 +149,6 @@ public class CollectThm {
 		/*words and their document-wide frequencies. These words are normalized, 
 		e.g. "annihilator", "annihiate" all have the single entry "annihilat" */
 		private static final ImmutableMap<String, Integer> docWordsFreqMap;
-		//entries are word and the indices of thms that contain that word.
-		private static final ImmutableMultimap<String, IndexPartPair> wordThmsIndexMMap;
 		
 		private static final int CONTEXT_VEC_SIZE;
 		
@@ -209,14 +207,7 @@ public class CollectThm {
 		
 		private static final boolean GATHER_SKIP_GRAM_WORDS = ThmList.gather_skip_gram_words();
 		//private static final boolean GATHER_SKIP_GRAM_WORDS = true;
-		/* Related words scraped from wiktionary, etc. 
-		 * Related words are *only* used.
-		 * to process queries, not the corpus; applied to all search algorithms. Therefore
-		 * intentionally *not* final.
-		 * Keys to relatedWordsMap are not necessarily normalized, only normalized if key not 
-		 * already contained in docWordsFreqMap
-		 */
-		private static final Map<String, GatherRelatedWords.RelatedWords> relatedWordsMap;
+		//related words are deserialized separately from the other maps, see RelatedWordsMapHolder.
 		private static final Map<String, Integer> stockFrequencyMap = WordFrequency.ComputeFrequencyData.englishStockFreqMap();
 		
 		static{
@@ -270,32 +261,7 @@ public class CollectThm {
 			//the values are just the words' indices in wordsList.
 			//this orders the list as well. INDEX map. Can rely on order as map is immutable.
 			
-			if(!FileUtils.isOSX()) {
-				//putting in the OS check here, so running locally on OSX does not take forever to load.
-				//should not build if not searching
-				String wordThmIndexMMapPath = FileUtils.getPathIfOnServlet(SearchMetaData.wordThmIndexMMapSerialFilePath());				
-				@SuppressWarnings("unchecked")
-				Multimap<String, IndexPartPair> wordThmsIndexMultimap = ((List<Multimap<String, IndexPartPair>>)
-						FileUtils.deserializeListFromFile(wordThmIndexMMapPath)).get(0);
-				//temporary ugly conversion code for data migration, Dec 2017. Remove one month later.
-				/*Collection<IndexPartPair> indexPartPairCol = wordThmsIndexMultimap.get("group");
-				Iterator<IndexPartPair> iter = indexPartPairCol.iterator();
-				try {
-					IndexPartPair p = iter.next();					
-				}catch(java.lang.ClassCastException e) {
-					
-					@SuppressWarnings("unchecked")
-					Multimap<String, Integer> wordThmsIntMultimap = ((List<Multimap<String, Integer>>)
-							FileUtils.deserializeListFromFile(wordThmIndexMMapPath)).get(0);
-					wordThmsIndexMultimap = HashMultimap.create();
-					for(Map.Entry<String, Integer> entry : wordThmsIntMultimap.entries()) {
-						wordThmsIndexMultimap.put(entry.getKey(), new IndexPartPair(entry.getValue(), ThmPart.STM, new byte[] {}));
-					}					
-				}*/		
-				wordThmsIndexMMap = ImmutableMultimap.copyOf(wordThmsIndexMultimap);
-			}else {
-				wordThmsIndexMMap = null;
-			}				
+			//word-thm postings are loaded with each IndexGeneration, see loadWordThmsPostingIndex().
 				 //SearchMetaData.wordDocFreqMapPath()
 				String docWordsFreqMapPath = FileUtils.getPathIfOnServlet(SearchMetaData.allThmWordsFreqListPath());
 				/****@SuppressWarnings("unchecked")
@@ -330,10 +296,6 @@ public class CollectThm {
 				buildScoreMap(wordsScorePreMap, docWordsFreqMap);	
 
 				//***docWordsFreqMapNoAnno = ImmutableMap.copyOf(keyWordFreqTreeMap); //<--previous one
-				/* RelatedWordsMap is only used during search, not data gathering! 
-				 * Keys to relatedWordsMap are not necessarily normalized, only normalized if key not 
-				 * already contained in docWordsFreqMapNoAnno.*/
-				relatedWordsMap = deserializeAndProcessRelatedWordsMapFromFile(docWordsFreqMap);
 				CONTEXT_VEC_WORDS_FREQ_MAP = docWordsFreqMap;
 				
 			/*}else{				
@@ -372,6 +334,10 @@ public class CollectThm {
 				this.freq = freq_;
 			}
 			
+			public int freq() {
+				return freq;
+			}
+			
 		}
 		
 		/**
@@ -408,6 +374,14 @@ public class CollectThm {
 				this.wordIndexAr = wordIndexAr_;				
 			}
 			
+			/**
+			 * Used to read pairs back from BinaryDataFile.
+			 */
+			public IndexPartPair(int index_, ThmPart thmPart_, char thmType_, byte[] wordIndexAr_) {
+				this(index_, thmPart_, wordIndexAr_);
+				this.thmType = thmType_;
+			}
+			
 			public IndexPartPair(int index_, ThmPart thmPart_, char thmType_) {
 				this.thmIndex = index_;
 				this.thmPart = thmPart_;
@@ -790,7 +764,30 @@ public class CollectThm {
 			return umlautVocabMap;
 		}
 		
+		/**
+		 * Holds relatedWordsMap, loaded on first use rather than with the other maps, since
+		 * it is only used during search, not data gathering. SearchResourceLoader loads it
+		 * concurrently with the search data at startup.
+		 */
+		private static class RelatedWordsMapHolder{
+			/* Related words scraped from wiktionary, etc. 
+			 * Related words are *only* used.
+			 * to process queries, not the corpus; applied to all search algorithms. Therefore
+			 * intentionally *not* final.
+			 * Keys to relatedWordsMap are not necessarily normalized, only normalized if key not 
+			 * already contained in docWordsFreqMap
+			 */
+			private static final Map<String, GatherRelatedWords.RelatedWords> relatedWordsMap;
+			
+			static{
+				long beforeLoad = System.currentTimeMillis();
+				relatedWordsMap = deserializeAndProcessRelatedWordsMapFromFile(docWordsFreqMap);
+				SearchResourceLoader.recordLoadTime("relatedWordsMap", System.currentTimeMillis() - beforeLoad);
+			}
+		}
+		
 		public static Map<String, RelatedWords> getRelatedWordsMap(){
+			Map<String, RelatedWords> relatedWordsMap = RelatedWordsMapHolder.relatedWordsMap;
 			//add synonyms
 			if(!synonymsAddedToRelatedWordsQ) {
 				synchronized(ThmWordsMaps.class) {
@@ -1479,8 +1476,30 @@ public class CollectThm {
 			return docWordsFreqMap; 
 		}
 		
-		public static ImmutableMultimap<String, IndexPartPair> get_wordThmsMMap(){
-			return wordThmsIndexMMap;
+		/**
+		 * Word-thm index as posting lists, keys are normalized words, 2 and 3-grams.
+		 * @return
+		 */
+		public static WordThmsPostingIndex get_wordThmsPostingIndex(){
+			return IndexGeneration.forCurrentThread().wordThmsPostingIndex();
+		}
+		
+		/**
+		 * Loads the word-thm index, of the full build along with all IndexSegments, 
+		 * for a new IndexGeneration.
+		 * @return null on OSX, where the index is not built, so running locally does not take forever to load.
+		 */
+		static WordThmsPostingIndex loadWordThmsPostingIndex(){
+			if(FileUtils.isOSX()) {
+				return null;
+			}
+			String wordThmIndexMMapPath = FileUtils.getPathIfOnServlet(SearchMetaData.wordThmIndexMMapSerialFilePath());				
+			@SuppressWarnings("unchecked")
+			Multimap<String, IndexPartPair> wordThmsIndexMultimap = ((List<Multimap<String, IndexPartPair>>)
+					FileUtils.deserializeListFromFile(wordThmIndexMMapPath)).get(0);
+			//postings of tars appended since the full build
+			IndexSegments.addSegmentPostings(wordThmsIndexMultimap);
+			return WordThmsPostingIndex.create(wordThmsIndexMultimap);
 		}
 	}
 	//***********End of prev class
@@ -3,7 +3,6 @@ package thmp.search;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -14,12 +13,11 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import com.google.common.collect.HashMultiset;
-import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.Multiset;
 import com.wolfram.puremath.dbapp.ConceptSearchUtils;
 import com.wolfram.puremath.dbapp.SimilarThmUtils;
 
-import thmp.search.CollectThm.ThmWordsMaps.IndexPartPair;
+import thmp.search.WordThmsPostingIndex.PostingCursor;
 import thmp.utils.DBUtils;
 import thmp.utils.WordForms;
 
@@ -34,8 +32,6 @@ public class ConceptSearch {
 	private static final Map<String, Integer> keywordsIndexMap 
 		= CollectThm.ThmWordsMaps.get_CONTEXT_VEC_WORDS_INDEX_MAP();
 	private static final List<String> keywordsList = CollectThm.ThmWordsMaps.get_CONTEXT_VEC_WORDS_LIST();
-	private static final ImmutableMultimap<String, IndexPartPair> wordThmsIndexMMap1
-		= CollectThm.ThmWordsMaps.get_wordThmsMMap();
 	private static final int NUM_NEAREST_VECS = SearchCombined.NUM_NEAREST;
 	
 	private static final int NUM_BITS_PER_WORD_INDEX = ConceptSearchUtils.NUM_BITS_PER_WORD_INDEX();
@@ -63,41 +59,54 @@ public class ConceptSearch {
 	}
 	
 	/**
-	 * Get thms that strictly contain *all* words in keyWordsList.
+	 * Get thms that strictly contain *all* words in keyWordsList, by thm index.
 	 * @param keyWordsList List of keywords, *must* already be normalized, i.e. in form 
 	 * that is used in maps.
 	 * @return List of thms that contain all words
 	 */
 	public static List<Integer> getStrictNormalizedWordsThms(List<String> keyWordsList) {
 		
-		Multiset<IndexPartPair> allWordsThms = HashMultiset.create();
+		Multiset<Integer> allWordsThms = HashMultiset.create();
+		//thms whose first posting encountered is in the context part, i.e. hyp.
+		Set<Integer> contextPartThmSet = new HashSet<Integer>();
 		if(keyWordsList.isEmpty()) {
 			return Collections.<Integer>emptyList();
 		}
 		int keyWordsListSz = keyWordsList.size();
+		PostingCursor postingCursor = CollectThm.ThmWordsMaps.get_wordThmsPostingIndex().cursor();
 		for(String word : keyWordsList) {
 			//actually for display on web, word was converted to full form according to stem map. 
 			String wordStem = wordToStemMap.get(word);
 			if(null != wordStem) {
 				word = wordStem;
 			}
-			Collection<IndexPartPair> wordThms = wordThmsIndexMMap1.get(word);
-			allWordsThms.addAll(wordThms);
+			postingCursor.reset(word);
+			//a thm can have several postings for a word, count it once per word.
+			int prevThmIndex = -1;
+			while(postingCursor.next()) {
+				int thmIndex = postingCursor.thmIndex();
+				if(thmIndex == prevThmIndex) {
+					continue;
+				}
+				prevThmIndex = thmIndex;
+				if(allWordsThms.add(thmIndex, 1) == 0 && postingCursor.isContextPart()) {
+					contextPartThmSet.add(thmIndex);
+				}
+			}
 		}
 		//multiset to favor results that show up in thm statements
 		Multiset<Integer> indexPartMSet = HashMultiset.create();
 		List<Integer> selectedThmsList = new ArrayList<Integer>();
 		int thmCount = 0;
 		
-		for(Multiset.Entry<IndexPartPair> entry : allWordsThms.entrySet()) {
+		for(Multiset.Entry<Integer> entry : allWordsThms.entrySet()) {
 			
 			int count = entry.getCount();
 			if(count < keyWordsListSz) {
 				continue;
 			}
-			IndexPartPair pair = entry.getElement();
-			int thmIndex = pair.thmIndex();
-			if(!pair.isContextPart()) {
+			int thmIndex = entry.getElement();
+			if(!contextPartThmSet.contains(thmIndex)) {
 				indexPartMSet.add(thmIndex);
 			}
 			selectedThmsList.add(thmIndex);
@@ -0,0 +1,450 @@
+package thmp.search;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import thmp.search.TheoremGet.ContextRelationVecBundle;
+import thmp.search.TheoremGet.ContextRelationVecPair;
+import thmp.utils.FileUtils;
+
+/**
+ * Off-heap, memory-mapped store of the context and relation vectors in one vec bundle,
+ * in compressed sparse row form. Replaces the Java-serialized List<ContextRelationVecPair>
+ * at search time, so ContextSearch and RelationalSearch score candidates with primitive
+ * loops over sorted int arrays, rather than through boxed Map and Set lookups.
+ * Relation vecs are stored as the nonzero 64-bit words of their bitsets, so relation
+ * distances are Long.bitCount() over query and thm words.
+ *
+ * File layout (big-endian): magic, version, thm count, context nnz, relation word count,
+ * a reserved int, relation words (longs, kept 8-byte aligned), then contextStart (thmCount+1 ints),
+ * context keys (sorted within each thm), context values, relationStart (thmCount+1 ints),
+ * and relation word indices (sorted within each thm).
+ *
+ * Immutable once loaded, and safe for concurrent lookups.
+ */
+public class ContextRelationVecStore {
+
+	private static final Logger logger = LogManager.getLogger(ContextRelationVecStore.class);
+	//"CRVS"
+	private static final int FILE_MAGIC = 0x43525653;
+	//version 1 stored relation vecs as sorted bit positions.
+	private static final int FILE_VERSION = 2;
+	private static final int HEADER_INT_COUNT = 6;
+	private static final int BITS_PER_WORD_SHIFT = 6;
+	/**appended to path of the serialized vec bundle*/
+	public static final String FILE_EXT = ".store";
+	private static final int[] EMPTY_INT_AR = new int[0];
+	private static final long[] EMPTY_LONG_AR = new long[0];
+
+	private final int thmCount;
+	private final IntBuffer contextStartBuf;
+	private final IntBuffer contextKeyBuf;
+	private final IntBuffer contextValBuf;
+	private final IntBuffer relationStartBuf;
+	private final IntBuffer relationWordIndexBuf;
+	private final LongBuffer relationWordBuf;
+
+	private ContextRelationVecStore(int thmCount, IntBuffer contextStartBuf, IntBuffer contextKeyBuf,
+			IntBuffer contextValBuf, IntBuffer relationStartBuf, IntBuffer relationWordIndexBuf,
+			LongBuffer relationWordBuf){
+		this.thmCount = thmCount;
+		this.contextStartBuf = contextStartBuf;
+		this.contextKeyBuf = contextKeyBuf;
+		this.contextValBuf = contextValBuf;
+		this.relationStartBuf = relationStartBuf;
+		this.relationWordIndexBuf = relationWordIndexBuf;
+		this.relationWordBuf = relationWordBuf;
+	}
+
+	/**
+	 * Memory-maps the store at path.
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static ContextRelationVecStore load(String path) throws IOException{
+		ByteBuffer buf;
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try{
+			FileChannel channel = file.getChannel();
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}finally{
+			file.close();
+		}
+		if(FILE_MAGIC != buf.getInt(0) || FILE_VERSION != buf.getInt(4)){
+			throw new IOException("Not a ContextRelationVecStore file, or unsupported version: " + path);
+		}
+		int thmCount = buf.getInt(8);
+		int contextNnz = buf.getInt(12);
+		int relationWordCount = buf.getInt(16);
+		int pos = HEADER_INT_COUNT*4;
+		ByteBuffer dup = buf.duplicate();
+		dup.position(pos);
+		dup.limit(pos + relationWordCount*8);
+		LongBuffer relationWordBuf = dup.slice().asLongBuffer();
+		pos += relationWordCount*8;
+		IntBuffer contextStartBuf = intSlice(buf, pos, thmCount+1);
+		pos += (thmCount+1)*4;
+		IntBuffer contextKeyBuf = intSlice(buf, pos, contextNnz);
+		pos += contextNnz*4;
+		IntBuffer contextValBuf = intSlice(buf, pos, contextNnz);
+		pos += contextNnz*4;
+		IntBuffer relationStartBuf = intSlice(buf, pos, thmCount+1);
+		pos += (thmCount+1)*4;
+		IntBuffer relationWordIndexBuf = intSlice(buf, pos, relationWordCount);
+		return new ContextRelationVecStore(thmCount, contextStartBuf, contextKeyBuf, contextValBuf,
+				relationStartBuf, relationWordIndexBuf, relationWordBuf);
+	}
+
+	private static IntBuffer intSlice(ByteBuffer buf, int pos, int len){
+		ByteBuffer dup = buf.duplicate();
+		dup.position(pos);
+		dup.limit(pos + len*4);
+		return dup.slice().asIntBuffer();
+	}
+
+	/**
+	 * Number of thms in store.
+	 * @return
+	 */
+	public int size(){
+		return thmCount;
+	}
+
+	/**
+	 * Number of query context entries that coincide with the thm's context vec,
+	 * i.e. same word index and same positive value. Entries with value <= 0 are
+	 * deliberately not counted, see ContextSearch.
+	 * @param indexInBundle
+	 * @param queryKeys sorted ascending, see sortedContextQueryKeys().
+	 * @param queryVals values corresponding to queryKeys.
+	 * @return
+	 */
+	public int contextMatchCount(int indexInBundle, int[] queryKeys, int[] queryVals){
+		int i = contextStartBuf.get(indexInBundle);
+		int end = contextStartBuf.get(indexInBundle+1);
+		int q = 0;
+		int queryLen = queryKeys.length;
+		int count = 0;
+		while(i < end && q < queryLen){
+			int key = contextKeyBuf.get(i);
+			int queryKey = queryKeys[q];
+			if(key < queryKey){
+				i++;
+			}else if(key > queryKey){
+				q++;
+			}else{
+				int val = contextValBuf.get(i);
+				if(val == queryVals[q] && val > 0){
+					count++;
+				}
+				i++;
+				q++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Number of query relation bits not set in the thm's relation vec.
+	 * Same as RelationVec.hammingDistanceForSets().
+	 * @param indexInBundle
+	 * @param queryWords query relation vec as bitset words, see relationQueryWords().
+	 * @param queryBitCount number of bits set in queryWords.
+	 * @return
+	 */
+	public int relationMissCount(int indexInBundle, long[] queryWords, int queryBitCount){
+		int end = relationStartBuf.get(indexInBundle+1);
+		int queryWordsLen = queryWords.length;
+		int hitCount = 0;
+		for(int i = relationStartBuf.get(indexInBundle); i < end; i++){
+			int wordIndex = relationWordIndexBuf.get(i);
+			if(wordIndex >= queryWordsLen){
+				//word indices ascending
+				break;
+			}
+			hitCount += Long.bitCount(queryWords[wordIndex] & relationWordBuf.get(i));
+		}
+		return queryBitCount - hitCount;
+	}
+
+	/**
+	 * Batch version of relationMissCount(), for thms at indexInBundleAr[from] up to 
+	 * indexInBundleAr[to-1]. Result for indexInBundleAr[i] is put in missCountAr[i].
+	 * @param indexInBundleAr
+	 * @param from
+	 * @param to exclusive
+	 * @param queryWords
+	 * @param queryBitCount
+	 * @param missCountAr
+	 */
+	public void relationMissCounts(int[] indexInBundleAr, int from, int to, long[] queryWords, int queryBitCount,
+			int[] missCountAr){
+		for(int i = from; i < to; i++){
+			missCountAr[i] = relationMissCount(indexInBundleAr[i], queryWords, queryBitCount);
+		}
+	}
+
+	/**
+	 * Decodes the vec pair with given index in the bundle.
+	 * @param indexInBundle
+	 * @return
+	 */
+	public ContextRelationVecPair get(int indexInBundle){
+		if(indexInBundle < 0 || indexInBundle >= thmCount){
+			throw new IndexOutOfBoundsException("Index " + indexInBundle + " for store of size " + thmCount);
+		}
+		int contextStart = contextStartBuf.get(indexInBundle);
+		int contextEnd = contextStartBuf.get(indexInBundle+1);
+		Map<Integer, Integer> contextVecMap = new HashMap<Integer, Integer>();
+		for(int i = contextStart; i < contextEnd; i++){
+			contextVecMap.put(contextKeyBuf.get(i), contextValBuf.get(i));
+		}
+		int relationStart = relationStartBuf.get(indexInBundle);
+		int relationEnd = relationStartBuf.get(indexInBundle+1);
+		Set<Integer> relationVec = new HashSet<Integer>();
+		for(int i = relationStart; i < relationEnd; i++){
+			int wordBase = relationWordIndexBuf.get(i) << BITS_PER_WORD_SHIFT;
+			long word = relationWordBuf.get(i);
+			while(word != 0){
+				relationVec.add(wordBase + Long.numberOfTrailingZeros(word));
+				word &= word - 1;
+			}
+		}
+		return new ContextRelationVecPair(contextVecMap, relationVec);
+	}
+
+	/**
+	 * Keys of query context vec, sorted, for use in contextMatchCount().
+	 * @param queryContextVecMap
+	 * @return
+	 */
+	public static int[] sortedContextQueryKeys(Map<Integer, Integer> queryContextVecMap){
+		return sortedInts(queryContextVecMap.keySet());
+	}
+
+	/**
+	 * Values of query context vec, in order of sortedKeys.
+	 * @param queryContextVecMap
+	 * @param sortedKeys
+	 * @return
+	 */
+	public static int[] contextQueryVals(Map<Integer, Integer> queryContextVecMap, int[] sortedKeys){
+		int[] vals = new int[sortedKeys.length];
+		for(int i = 0; i < sortedKeys.length; i++){
+			vals[i] = queryContextVecMap.get(sortedKeys[i]);
+		}
+		return vals;
+	}
+
+	/**
+	 * Query relation vec as bitset words, bit b in word b/64, for use in relationMissCount().
+	 * @param queryRelationVec
+	 * @return
+	 */
+	public static long[] relationQueryWords(Set<Integer> queryRelationVec){
+		int[] bits = sortedInts(queryRelationVec);
+		//relation bit positions are nonnegative, RelationType.NONE has no segment.
+		if(bits.length == 0 || bits[bits.length-1] < 0){
+			return EMPTY_LONG_AR;
+		}
+		long[] words = new long[(bits[bits.length-1] >>> BITS_PER_WORD_SHIFT) + 1];
+		for(int bit : bits){
+			if(bit >= 0){
+				words[bit >>> BITS_PER_WORD_SHIFT] |= 1L << bit;
+			}
+		}
+		return words;
+	}
+
+	/**
+	 * Number of bits set in words.
+	 * @param words
+	 * @return
+	 */
+	public static int bitCount(long[] words){
+		int count = 0;
+		for(long word : words){
+			count += Long.bitCount(word);
+		}
+		return count;
+	}
+
+	/**
+	 * Sorted, deduplicated, array of ints in set.
+	 * @param set
+	 * @return
+	 */
+	public static int[] sortedInts(Set<Integer> set){
+		if(null == set || set.isEmpty()){
+			return EMPTY_INT_AR;
+		}
+		int[] ar = new int[set.size()];
+		int i = 0;
+		for(int n : set){
+			ar[i++] = n;
+		}
+		Arrays.sort(ar);
+		return ar;
+	}
+
+	/**
+	 * Writes the list in store format.
+	 * @param vecsList
+	 * @param path
+	 * @throws IOException
+	 */
+	public static void writeToFile(List<ContextRelationVecPair> vecsList, String path) throws IOException{
+		List<Map<Integer, Integer>> contextVecMapList = new ArrayList<Map<Integer, Integer>>(vecsList.size());
+		List<Set<Integer>> relationVecList = new ArrayList<Set<Integer>>(vecsList.size());
+		for(ContextRelationVecPair vecPair : vecsList){
+			contextVecMapList.add(null == vecPair ? null : vecPair.contextVecMap());
+			relationVecList.add(null == vecPair ? null : vecPair.relationVec());
+		}
+		writeToFile(contextVecMapList, relationVecList, path);
+	}
+
+	/**
+	 * Writes context and relation vecs, the i'th elements of both lists belonging to the i'th thm.
+	 * @param contextVecMapList
+	 * @param relationVecList
+	 * @param path
+	 * @throws IOException
+	 */
+	static void writeToFile(List<Map<Integer, Integer>> contextVecMapList, List<Set<Integer>> relationVecList,
+			String path) throws IOException{
+		int thmCount = contextVecMapList.size();
+		int[][] contextKeysAr = new int[thmCount][];
+		long[][] relationWordsAr = new long[thmCount][];
+		int[][] relationWordIndicesAr = new int[thmCount][];
+		long contextNnz = 0;
+		long relationWordCount = 0;
+		for(int i = 0; i < thmCount; i++){
+			Map<Integer, Integer> contextVecMap = contextVecMapList.get(i);
+			contextKeysAr[i] = null == contextVecMap ? EMPTY_INT_AR : sortedInts(contextVecMap.keySet());
+			//keep only nonzero words
+			long[] words = relationQueryWords(relationVecList.get(i));
+			int nonzeroCount = 0;
+			for(long word : words){
+				if(word != 0) nonzeroCount++;
+			}
+			relationWordsAr[i] = new long[nonzeroCount];
+			relationWordIndicesAr[i] = new int[nonzeroCount];
+			nonzeroCount = 0;
+			for(int j = 0; j < words.length; j++){
+				if(words[j] != 0){
+					relationWordsAr[i][nonzeroCount] = words[j];
+					relationWordIndicesAr[i][nonzeroCount++] = j;
+				}
+			}
+			contextNnz += contextKeysAr[i].length;
+			relationWordCount += nonzeroCount;
+		}
+		if(contextNnz + relationWordCount > Integer.MAX_VALUE/8){
+			throw new IllegalStateException("Bundle too large for ContextRelationVecStore: "
+					+ contextNnz + " context entries and " + relationWordCount + " relation words");
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+		try{
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(thmCount);
+			out.writeInt((int)contextNnz);
+			out.writeInt((int)relationWordCount);
+			//reserved, pads header to 8-byte boundary
+			out.writeInt(0);
+			for(long[] relationWords : relationWordsAr){
+				for(long word : relationWords){
+					out.writeLong(word);
+				}
+			}
+			int offset = 0;
+			for(int[] contextKeys : contextKeysAr){
+				out.writeInt(offset);
+				offset += contextKeys.length;
+			}
+			out.writeInt(offset);
+			for(int[] contextKeys : contextKeysAr){
+				for(int key : contextKeys){
+					out.writeInt(key);
+				}
+			}
+			for(int i = 0; i < thmCount; i++){
+				Map<Integer, Integer> contextVecMap = contextVecMapList.get(i);
+				for(int key : contextKeysAr[i]){
+					Integer val = contextVecMap.get(key);
+					out.writeInt(null == val ? 0 : val);
+				}
+			}
+			offset = 0;
+			for(int[] relationWordIndices : relationWordIndicesAr){
+				out.writeInt(offset);
+				offset += relationWordIndices.length;
+			}
+			out.writeInt(offset);
+			for(int[] relationWordIndices : relationWordIndicesAr){
+				for(int wordIndex : relationWordIndices){
+					out.writeInt(wordIndex);
+				}
+			}
+		}finally{
+			out.close();
+		}
+	}
+
+	/**
+	 * Path to store of vec bundle, from path to its serialized list.
+	 * @param serialFileStr e.g. "src/thmp/data/vecs/combinedContextRelationVecPairList3"
+	 * @return
+	 */
+	public static String storePath(String serialFileStr){
+		return serialFileStr + FILE_EXT;
+	}
+
+	/**
+	 * Converts all serialized vec bundles to store format, written next to them.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void convertBundles(){
+		for(int i = 0; ; i++){
+			String serialFileStr = ContextRelationVecBundle.BASE_FILE_STR + String.valueOf(i);
+			if(!new File(serialFileStr).exists()){
+				break;
+			}
+			List<ContextRelationVecPair> vecsList = (List<ContextRelationVecPair>)FileUtils.deserializeListFromFile(serialFileStr);
+			try{
+				writeToFile(vecsList, storePath(serialFileStr));
+			}catch(IOException e){
+				String msg = "IOException while writing ContextRelationVecStore for " + serialFileStr;
+				logger.error(msg + e);
+				throw new IllegalStateException(msg, e);
+			}
+			System.out.println("ContextRelationVecStore - converted vec bundle " + i + " of size " + vecsList.size());
+		}
+	}
+
+	/**
+	 * Converts existing serialized vec bundles to store format, see convertBundles().
+	 */
+	public static void main(String[] args) {
+		convertBundles();
+	}
+}
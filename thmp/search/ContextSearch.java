@@ -169,9 +169,23 @@ public class ContextSearch implements Searcher<Map<Integer, Integer>>{
 		//TreeMap<Integer, List<Integer>> thmVecsTMap = new TreeMap<Integer, List<Integer>>(
 		//		new thmp.utils.DataUtility.ReverseIntComparator());
 		
+		//query entries sorted by word index, to merge against the sorted entries in ContextRelationVecStore.
+		int[] queryKeys = ContextRelationVecStore.sortedContextQueryKeys(queryContextVecMap);
+		int[] queryVals = ContextRelationVecStore.contextQueryVals(queryContextVecMap, queryKeys);
+		int numThmsInBundle = TheoremGet.ContextRelationVecBundle.numThmsInBundle();
+		
 		//extract context vec maps for each thm
 		for(int i = 0; i < nearestThmIndexListSz; i++){
 			int thmIndex = nearestThmIndexList.get(i);
+			int bundleKey = thmIndex / numThmsInBundle;
+			ContextRelationVecStore vecStore = TheoremGet.getContextRelationVecStore(bundleKey);
+			if(null != vecStore){
+				int numCoinciding = CONTEXT_MATCH_DEFAULT 
+						* vecStore.contextMatchCount(thmIndex - bundleKey*numThmsInBundle, queryKeys, queryVals);
+				if(DEBUG) System.out.println("ContextSearch - index / numCoinciding " + thmIndex + " " + numCoinciding);
+				contextVecScoreMap.put(thmIndex, numCoinciding);
+				continue;
+			}
 			ContextRelationVecPair vecPair = TheoremGet.getContextRelationVecFromIndex(thmIndex);
 			Map<Integer, Integer> curThmVecMap = vecPair.contextVecMap();
 			if(DEBUG) System.out.println("ContextSearch - index/curThmVecMap " +thmIndex + " " +curThmVecMap);
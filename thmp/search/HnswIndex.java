@@ -0,0 +1,689 @@
+package thmp.search;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Hierarchical navigable small world graph over the projected thm vecs, for approximate
+ * nearest-vector search under Euclidean distance. Built offline once the combined projected
+ * mx are written, see ProjectionMatrix.buildNearestVecIndex, and persisted as one file that is
+ * memory-mapped at query time, so loading is cheap and the OS shares pages across processes.
+ *
+ * Recall versus the exact scan in NearestVecSearch is traded for speed with efSearch, the
+ * size of the candidate list kept while searching the bottom layer.
+ *
+ * Immutable once loaded, and safe for concurrent searches.
+ */
+public class HnswIndex {
+
+	//"HNSW"
+	private static final int FILE_MAGIC = 0x484e5357;
+	private static final int FILE_VERSION = 1;
+	private static final int HEADER_INT_COUNT = 8;
+	/**max number of links per node on upper layers, twice this on bottom layer*/
+	public static final int DEFAULT_M = 16;
+	public static final int DEFAULT_EF_CONSTRUCTION = 100;
+	public static final int DEFAULT_EF_SEARCH = 64;
+
+	private final Layers layers;
+	private final int nodeCount;
+	private final int dim;
+	private final int entryPoint;
+	private final int maxLevel;
+	private final IntBuffer thmIndexBuf;
+	private volatile int efSearch = DEFAULT_EF_SEARCH;
+	private final ThreadLocal<VisitedSet> visitedSetLocal;
+
+	private HnswIndex(MappedLayers layers, int nodeCount, int dim, int entryPoint, int maxLevel,
+			IntBuffer thmIndexBuf){
+		this.layers = layers;
+		this.nodeCount = nodeCount;
+		this.dim = dim;
+		this.entryPoint = entryPoint;
+		this.maxLevel = maxLevel;
+		this.thmIndexBuf = thmIndexBuf;
+		this.visitedSetLocal = new ThreadLocal<VisitedSet>(){
+			@Override
+			protected VisitedSet initialValue(){
+				return new VisitedSet(HnswIndex.this.nodeCount);
+			}
+		};
+	}
+
+	/**
+	 * Memory-maps the index at path.
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static HnswIndex load(String path) throws IOException{
+		ByteBuffer buf;
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try{
+			FileChannel channel = file.getChannel();
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}finally{
+			file.close();
+		}
+		IntBuffer headerBuf = buf.asIntBuffer();
+		if(FILE_MAGIC != headerBuf.get(0) || FILE_VERSION != headerBuf.get(1)){
+			throw new IOException("Not an HnswIndex file, or unsupported version: " + path);
+		}
+		int nodeCount = headerBuf.get(2);
+		int dim = headerBuf.get(3);
+		int m = headerBuf.get(4);
+		int m0 = headerBuf.get(5);
+		int entryPoint = headerBuf.get(6);
+		int maxLevel = headerBuf.get(7);
+
+		int pos = HEADER_INT_COUNT*4;
+		FloatBuffer vecBuf = sliceAt(buf, pos).asFloatBuffer();
+		pos += 4*nodeCount*dim;
+		IntBuffer thmIndexBuf = sliceAt(buf, pos).asIntBuffer();
+		pos += 4*nodeCount;
+		IntBuffer level0LinkBuf = sliceAt(buf, pos).asIntBuffer();
+		pos += 4*nodeCount*(m0+1);
+		IntBuffer upperLinkStartBuf = sliceAt(buf, pos).asIntBuffer();
+		pos += 4*(nodeCount+1);
+		IntBuffer upperLinkBuf = sliceAt(buf, pos).asIntBuffer();
+
+		MappedLayers layers = new MappedLayers(dim, m, m0, vecBuf, level0LinkBuf, upperLinkStartBuf, upperLinkBuf);
+		return new HnswIndex(layers, nodeCount, dim, entryPoint, maxLevel, thmIndexBuf);
+	}
+
+	private static ByteBuffer sliceAt(ByteBuffer buf, int pos){
+		ByteBuffer dup = buf.duplicate();
+		dup.position(pos);
+		return dup.slice();
+	}
+
+	public int nodeCount(){
+		return nodeCount;
+	}
+
+	public int dim(){
+		return dim;
+	}
+
+	/**
+	 * Larger efSearch gives higher recall, at the cost of more distance computations.
+	 * @param efSearch
+	 */
+	public void setEfSearch(int efSearch){
+		if(efSearch < 1){
+			throw new IllegalArgumentException("efSearch must be positive: " + efSearch);
+		}
+		this.efSearch = efSearch;
+	}
+
+	public int efSearch(){
+		return efSearch;
+	}
+
+	/**
+	 * Approximate numNearest nearest thms to query, closer than threshold.
+	 * @param query projected query vec, of length dim.
+	 * @param numNearest
+	 * @param threshold Euclidean distance threshold.
+	 * @return List of thm indices, closest first.
+	 */
+	public List<Integer> findNearest(double[] query, int numNearest, double threshold){
+		return findNearest(query, numNearest, threshold, null);
+	}
+
+	/**
+	 * Approximate nearest thms, along with their distances, e.g. to merge with results of other searches.
+	 * @param query
+	 * @param numNearest
+	 * @param threshold
+	 * @param distList Euclidean distances of the returned thms are added to this, can be null.
+	 * @return List of thm indices, closest first.
+	 */
+	public List<Integer> findNearest(double[] query, int numNearest, double threshold, List<Double> distList){
+		if(query.length != dim){
+			throw new IllegalArgumentException("Query has dimension " + query.length + ", index has dimension " + dim);
+		}
+		if(0 == nodeCount || numNearest <= 0){
+			return new ArrayList<Integer>();
+		}
+		int ep = entryPoint;
+		for(int level = maxLevel; level > 0; level--){
+			ep = greedyClosest(layers, query, ep, level);
+		}
+		NodeHeap resultHeap = searchLayer(layers, query, ep, Math.max(efSearch, numNearest), 0, visitedSetLocal.get());
+		//result heap is keyed by negative distance, pop gives furthest first.
+		int resultCount = resultHeap.size();
+		int[] nodeAr = new int[resultCount];
+		double[] distSqAr = new double[resultCount];
+		for(int i = resultCount-1; i >= 0; i--){
+			distSqAr[i] = -resultHeap.peekKey();
+			nodeAr[i] = resultHeap.pop();
+		}
+		double thresholdSq = threshold*threshold;
+		List<Integer> thmIndexList = new ArrayList<Integer>(Math.min(numNearest, resultCount));
+		for(int i = 0; i < resultCount && thmIndexList.size() < numNearest; i++){
+			if(distSqAr[i] >= thresholdSq){
+				break;
+			}
+			thmIndexList.add(thmIndexBuf.get(nodeAr[i]));
+			if(null != distList){
+				distList.add(Math.sqrt(distSqAr[i]));
+			}
+		}
+		return thmIndexList;
+	}
+
+	/**
+	 * Access to vecs and links, on the mapped file at query time, or on
+	 * growable arrays while building.
+	 */
+	private static abstract class Layers{
+		/**squared Euclidean distance between query and node*/
+		abstract double distanceSq(double[] query, int node);
+		abstract int neighborCount(int node, int level);
+		abstract int neighbor(int node, int level, int i);
+	}
+
+	private static class MappedLayers extends Layers{
+		private final int dim;
+		private final int m;
+		private final int m0;
+		private final FloatBuffer vecBuf;
+		//per node: count, then m0 slots
+		private final IntBuffer level0LinkBuf;
+		private final IntBuffer upperLinkStartBuf;
+		//per node and level >= 1: count, then m slots
+		private final IntBuffer upperLinkBuf;
+
+		MappedLayers(int dim, int m, int m0, FloatBuffer vecBuf, IntBuffer level0LinkBuf,
+				IntBuffer upperLinkStartBuf, IntBuffer upperLinkBuf){
+			this.dim = dim;
+			this.m = m;
+			this.m0 = m0;
+			this.vecBuf = vecBuf;
+			this.level0LinkBuf = level0LinkBuf;
+			this.upperLinkStartBuf = upperLinkStartBuf;
+			this.upperLinkBuf = upperLinkBuf;
+		}
+
+		@Override
+		double distanceSq(double[] query, int node){
+			int base = node*dim;
+			double sum = 0;
+			for(int i = 0; i < dim; i++){
+				double diff = vecBuf.get(base + i) - query[i];
+				sum += diff*diff;
+			}
+			return sum;
+		}
+
+		@Override
+		int neighborCount(int node, int level){
+			if(0 == level){
+				return level0LinkBuf.get(node*(m0+1));
+			}
+			return upperLinkBuf.get(upperLinkStartBuf.get(node) + (level-1)*(m+1));
+		}
+
+		@Override
+		int neighbor(int node, int level, int i){
+			if(0 == level){
+				return level0LinkBuf.get(node*(m0+1) + 1 + i);
+			}
+			return upperLinkBuf.get(upperLinkStartBuf.get(node) + (level-1)*(m+1) + 1 + i);
+		}
+	}
+
+	private static int greedyClosest(Layers layers, double[] query, int ep, int level){
+		int cur = ep;
+		double curDist = layers.distanceSq(query, cur);
+		boolean changed = true;
+		while(changed){
+			changed = false;
+			int node = cur;
+			int count = layers.neighborCount(node, level);
+			for(int i = 0; i < count; i++){
+				int next = layers.neighbor(node, level, i);
+				double dist = layers.distanceSq(query, next);
+				if(dist < curDist){
+					curDist = dist;
+					cur = next;
+					changed = true;
+				}
+			}
+		}
+		return cur;
+	}
+
+	/**
+	 * Best-first search on one layer from ep.
+	 * @return heap of at most ef closest nodes found, keyed by *negative* squared distance.
+	 */
+	private static NodeHeap searchLayer(Layers layers, double[] query, int ep, int ef, int level,
+			VisitedSet visitedSet){
+		visitedSet.clear();
+		NodeHeap candidateHeap = new NodeHeap(ef*2);
+		NodeHeap resultHeap = new NodeHeap(ef+1);
+		double epDist = layers.distanceSq(query, ep);
+		visitedSet.visit(ep);
+		candidateHeap.push(epDist, ep);
+		resultHeap.push(-epDist, ep);
+		while(candidateHeap.size() > 0){
+			double candidateDist = candidateHeap.peekKey();
+			if(candidateDist > -resultHeap.peekKey() && resultHeap.size() >= ef){
+				break;
+			}
+			int candidate = candidateHeap.pop();
+			int count = layers.neighborCount(candidate, level);
+			for(int i = 0; i < count; i++){
+				int next = layers.neighbor(candidate, level, i);
+				if(!visitedSet.visit(next)){
+					continue;
+				}
+				double dist = layers.distanceSq(query, next);
+				if(resultHeap.size() < ef || dist < -resultHeap.peekKey()){
+					candidateHeap.push(dist, next);
+					resultHeap.push(-dist, next);
+					if(resultHeap.size() > ef){
+						resultHeap.pop();
+					}
+				}
+			}
+		}
+		return resultHeap;
+	}
+
+	/**
+	 * Growable binary min-heap of (key, node) pairs.
+	 */
+	private static class NodeHeap{
+		private double[] keyAr;
+		private int[] nodeAr;
+		private int size;
+
+		NodeHeap(int capacity){
+			keyAr = new double[Math.max(capacity, 4)];
+			nodeAr = new int[keyAr.length];
+		}
+
+		int size(){
+			return size;
+		}
+
+		double peekKey(){
+			return keyAr[0];
+		}
+
+		void push(double key, int node){
+			if(size == keyAr.length){
+				keyAr = Arrays.copyOf(keyAr, size*2);
+				nodeAr = Arrays.copyOf(nodeAr, size*2);
+			}
+			int i = size++;
+			while(i > 0){
+				int parent = (i-1) >>> 1;
+				if(keyAr[parent] <= key){
+					break;
+				}
+				keyAr[i] = keyAr[parent];
+				nodeAr[i] = nodeAr[parent];
+				i = parent;
+			}
+			keyAr[i] = key;
+			nodeAr[i] = node;
+		}
+
+		/**
+		 * @return node with smallest key.
+		 */
+		int pop(){
+			int top = nodeAr[0];
+			size--;
+			double key = keyAr[size];
+			int node = nodeAr[size];
+			int i = 0;
+			while(true){
+				int child = 2*i + 1;
+				if(child >= size){
+					break;
+				}
+				if(child + 1 < size && keyAr[child+1] < keyAr[child]){
+					child++;
+				}
+				if(key <= keyAr[child]){
+					break;
+				}
+				keyAr[i] = keyAr[child];
+				nodeAr[i] = nodeAr[child];
+				i = child;
+			}
+			keyAr[i] = key;
+			nodeAr[i] = node;
+			return top;
+		}
+	}
+
+	/**
+	 * Visited marks reused across searches, cleared by bumping the generation.
+	 */
+	private static class VisitedSet{
+		private int[] stampAr;
+		private int generation;
+
+		VisitedSet(int capacity){
+			stampAr = new int[capacity];
+		}
+
+		void clear(){
+			generation++;
+			if(0 == generation){
+				Arrays.fill(stampAr, 0);
+				generation = 1;
+			}
+		}
+
+		/**
+		 * @return false if node had already been visited.
+		 */
+		boolean visit(int node){
+			if(node >= stampAr.length){
+				stampAr = Arrays.copyOf(stampAr, Math.max(node+1, stampAr.length*2));
+			}
+			if(stampAr[node] == generation){
+				return false;
+			}
+			stampAr[node] = generation;
+			return true;
+		}
+	}
+
+	/**
+	 * Builds the graph in memory by inserting vecs one at a time, then writes it
+	 * in the format read by load(). Not thread-safe.
+	 */
+	public static class Builder extends Layers{
+		private final int dim;
+		private final int m;
+		private final int m0;
+		private final int efConstruction;
+		private final double levelMultiplier;
+		private final Random rand;
+		private final VisitedSet visitedSet = new VisitedSet(1024);
+
+		private float[] vecAr;
+		private int[] thmIndexAr;
+		private int[] level0LinkAr;
+		//links on levels >= 1, null for nodes only on level 0
+		private int[][] upperLinkArAr;
+		private int nodeCount;
+		private int entryPoint = -1;
+		private int maxLevel;
+
+		public Builder(int dim){
+			this(dim, DEFAULT_M, DEFAULT_EF_CONSTRUCTION, 17);
+		}
+
+		public Builder(int dim, int m, int efConstruction, long seed){
+			this.dim = dim;
+			this.m = m;
+			this.m0 = 2*m;
+			this.efConstruction = efConstruction;
+			this.levelMultiplier = 1/Math.log(m);
+			this.rand = new Random(seed);
+			int capacity = 1024;
+			vecAr = new float[capacity*dim];
+			thmIndexAr = new int[capacity];
+			level0LinkAr = new int[capacity*(m0+1)];
+			upperLinkArAr = new int[capacity][];
+		}
+
+		public int nodeCount(){
+			return nodeCount;
+		}
+
+		/**
+		 * Inserts the vec at vecs[offset, offset+dim).
+		 * @param vecs
+		 * @param offset
+		 * @param thmIndex overall thm index the vec represents.
+		 */
+		public void add(float[] vecs, int offset, int thmIndex){
+			ensureCapacity(nodeCount+1);
+			int node = nodeCount++;
+			System.arraycopy(vecs, offset, vecAr, node*dim, dim);
+			thmIndexAr[node] = thmIndex;
+			int level = (int)(-Math.log(1 - rand.nextDouble()) * levelMultiplier);
+			if(level > 0){
+				upperLinkArAr[node] = new int[level*(m+1)];
+			}
+			if(entryPoint < 0){
+				entryPoint = node;
+				maxLevel = level;
+				return;
+			}
+			double[] query = new double[dim];
+			for(int i = 0; i < dim; i++){
+				query[i] = vecAr[node*dim + i];
+			}
+			int ep = entryPoint;
+			for(int l = maxLevel; l > level; l--){
+				ep = greedyClosest(this, query, ep, l);
+			}
+			for(int l = Math.min(level, maxLevel); l >= 0; l--){
+				NodeHeap resultHeap = searchLayer(this, query, ep, efConstruction, l, visitedSet);
+				int resultCount = resultHeap.size();
+				int[] candidateAr = new int[resultCount];
+				double[] candidateDistAr = new double[resultCount];
+				for(int i = resultCount-1; i >= 0; i--){
+					candidateDistAr[i] = -resultHeap.peekKey();
+					candidateAr[i] = resultHeap.pop();
+				}
+				int[] selectedAr = selectNeighbors(candidateAr, candidateDistAr, resultCount, m);
+				setLinks(node, l, selectedAr, selectedAr.length);
+				int maxLinks = 0 == l ? m0 : m;
+				for(int neighbor : selectedAr){
+					addLink(neighbor, node, l, maxLinks);
+				}
+				ep = candidateAr[0];
+			}
+			if(level > maxLevel){
+				maxLevel = level;
+				entryPoint = node;
+			}
+		}
+
+		/**
+		 * Keeps candidates that are closer to the base than to any already selected
+		 * neighbor, so links spread out in different directions.
+		 * @param candidateAr sorted by increasing distance to base.
+		 */
+		private int[] selectNeighbors(int[] candidateAr, double[] candidateDistAr, int candidateCount, int maxCount){
+			int[] selectedAr = new int[Math.min(maxCount, candidateCount)];
+			int selectedCount = 0;
+			for(int i = 0; i < candidateCount && selectedCount < selectedAr.length; i++){
+				int candidate = candidateAr[i];
+				boolean keep = true;
+				for(int j = 0; j < selectedCount; j++){
+					if(nodeDistanceSq(candidate, selectedAr[j]) < candidateDistAr[i]){
+						keep = false;
+						break;
+					}
+				}
+				if(keep){
+					selectedAr[selectedCount++] = candidate;
+				}
+			}
+			return Arrays.copyOf(selectedAr, selectedCount);
+		}
+
+		private void addLink(int node, int newNeighbor, int level, int maxLinks){
+			int count = neighborCount(node, level);
+			if(count < maxLinks){
+				setLink(node, level, count, newNeighbor);
+				setLinkCount(node, level, count+1);
+				return;
+			}
+			//full, re-select among existing links and the new one.
+			int[] candidateAr = new int[count+1];
+			double[] candidateDistAr = new double[count+1];
+			for(int i = 0; i < count; i++){
+				candidateAr[i] = neighbor(node, level, i);
+			}
+			candidateAr[count] = newNeighbor;
+			//insertion sort by distance to node, lists are short.
+			for(int i = 0; i <= count; i++){
+				int candidate = candidateAr[i];
+				double dist = nodeDistanceSq(node, candidate);
+				int j = i;
+				while(j > 0 && candidateDistAr[j-1] > dist){
+					candidateAr[j] = candidateAr[j-1];
+					candidateDistAr[j] = candidateDistAr[j-1];
+					j--;
+				}
+				candidateAr[j] = candidate;
+				candidateDistAr[j] = dist;
+			}
+			int[] selectedAr = selectNeighbors(candidateAr, candidateDistAr, count+1, maxLinks);
+			setLinks(node, level, selectedAr, selectedAr.length);
+		}
+
+		private void setLinks(int node, int level, int[] linkAr, int count){
+			for(int i = 0; i < count; i++){
+				setLink(node, level, i, linkAr[i]);
+			}
+			setLinkCount(node, level, count);
+		}
+
+		private void setLink(int node, int level, int i, int neighbor){
+			if(0 == level){
+				level0LinkAr[node*(m0+1) + 1 + i] = neighbor;
+			}else{
+				upperLinkArAr[node][(level-1)*(m+1) + 1 + i] = neighbor;
+			}
+		}
+
+		private void setLinkCount(int node, int level, int count){
+			if(0 == level){
+				level0LinkAr[node*(m0+1)] = count;
+			}else{
+				upperLinkArAr[node][(level-1)*(m+1)] = count;
+			}
+		}
+
+		@Override
+		int neighborCount(int node, int level){
+			if(0 == level){
+				return level0LinkAr[node*(m0+1)];
+			}
+			return upperLinkArAr[node][(level-1)*(m+1)];
+		}
+
+		@Override
+		int neighbor(int node, int level, int i){
+			if(0 == level){
+				return level0LinkAr[node*(m0+1) + 1 + i];
+			}
+			return upperLinkArAr[node][(level-1)*(m+1) + 1 + i];
+		}
+
+		@Override
+		double distanceSq(double[] query, int node){
+			int base = node*dim;
+			double sum = 0;
+			for(int i = 0; i < dim; i++){
+				double diff = vecAr[base + i] - query[i];
+				sum += diff*diff;
+			}
+			return sum;
+		}
+
+		private double nodeDistanceSq(int node1, int node2){
+			int base1 = node1*dim;
+			int base2 = node2*dim;
+			double sum = 0;
+			for(int i = 0; i < dim; i++){
+				double diff = vecAr[base1 + i] - vecAr[base2 + i];
+				sum += diff*diff;
+			}
+			return sum;
+		}
+
+		private void ensureCapacity(int capacity){
+			if(capacity <= thmIndexAr.length){
+				return;
+			}
+			int newCapacity = Math.max(capacity, thmIndexAr.length*2);
+			vecAr = Arrays.copyOf(vecAr, newCapacity*dim);
+			thmIndexAr = Arrays.copyOf(thmIndexAr, newCapacity);
+			level0LinkAr = Arrays.copyOf(level0LinkAr, newCapacity*(m0+1));
+			upperLinkArAr = Arrays.copyOf(upperLinkArAr, newCapacity);
+		}
+
+		/**
+		 * Writes index in the (big-endian) format read by HnswIndex.load().
+		 * @param path
+		 * @throws IOException
+		 */
+		public void writeToFile(String path) throws IOException{
+			long upperIntCount = 0;
+			for(int node = 0; node < nodeCount; node++){
+				if(null != upperLinkArAr[node]){
+					upperIntCount += upperLinkArAr[node].length;
+				}
+			}
+			long byteCount = 4L*(HEADER_INT_COUNT + (long)nodeCount*dim + nodeCount
+					+ (long)nodeCount*(m0+1) + nodeCount + 1 + upperIntCount);
+			if(byteCount > Integer.MAX_VALUE){
+				throw new IllegalStateException("HnswIndex too large to be memory-mapped as one buffer: " + byteCount);
+			}
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+			try{
+				out.writeInt(FILE_MAGIC);
+				out.writeInt(FILE_VERSION);
+				out.writeInt(nodeCount);
+				out.writeInt(dim);
+				out.writeInt(m);
+				out.writeInt(m0);
+				out.writeInt(entryPoint);
+				out.writeInt(maxLevel);
+				for(int i = 0; i < nodeCount*dim; i++){
+					out.writeFloat(vecAr[i]);
+				}
+				for(int i = 0; i < nodeCount; i++){
+					out.writeInt(thmIndexAr[i]);
+				}
+				for(int i = 0; i < nodeCount*(m0+1); i++){
+					out.writeInt(level0LinkAr[i]);
+				}
+				int upperStart = 0;
+				for(int node = 0; node < nodeCount; node++){
+					out.writeInt(upperStart);
+					if(null != upperLinkArAr[node]){
+						upperStart += upperLinkArAr[node].length;
+					}
+				}
+				out.writeInt(upperStart);
+				for(int node = 0; node < nodeCount; node++){
+					if(null != upperLinkArAr[node]){
+						for(int link : upperLinkArAr[node]){
+							out.writeInt(link);
+						}
+					}
+				}
+			}finally{
+				out.close();
+			}
+		}
+	}
+}
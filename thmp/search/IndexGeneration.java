@@ -0,0 +1,311 @@
+package thmp.search;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import thmp.utils.FileUtils;
+
+/**
+ * Search data that depends on the set of thms, loaded together as one generation: the word-thm
+ * posting index, the literal search index store, the similar thms graph, the bundle layout from SearchConfiguration, and
+ * the ThmHypPair, context vec, and projected vec bundles loaded from it. Data that only depends on the lexicon, e.g. the word
+ * maps in CollectThm.ThmWordsMaps, is shared by all generations.
+ *
+ * reloadInBackground() loads a new generation, e.g. after IndexSegments are appended, while
+ * searches continue on the current one, then swaps it in through a volatile reference, so data
+ * is refreshed without restarting the servlet. Searches pin the generation they start on with
+ * enter() and exit(), so in-flight searches finish on the old generation, and its caches are
+ * released once the last such search exits. The static accessors in ThmHypPairGet, TheoremGet,
+ * NearestVecSearch, and CollectThm.ThmWordsMaps.get_wordThmsPostingIndex() use the generation
+ * pinned on the calling thread, or the current generation if none is.
+ */
+public class IndexGeneration {
+
+	private static final Logger logger = LogManager.getLogger(IndexGeneration.class);
+	private static final AtomicLong generationCounter = new AtomicLong();
+	private static final ThreadLocal<Pin> threadPin = new ThreadLocal<Pin>();
+	private static final ExecutorService loadExecutor = Executors.newSingleThreadExecutor(
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("index-generation-load-%d").build());
+	//loaded on first use
+	private static volatile IndexGeneration currentGeneration;
+
+	private final long id;
+	//null on OSX, see CollectThm.ThmWordsMaps.loadWordThmsPostingIndex().
+	private final WordThmsPostingIndex wordThmsPostingIndex;
+	//null if no store was written, then literal search uses the db.
+	private final LiteralSearchIndexStore literalSearchIndexStore;
+	//null if no graph was written, then similar thms come from the db.
+	private final SimilarThmGraph similarThmGraph;
+	private final ThmHypPairGet.BundleData thmBundleData;
+	private final TheoremGet.VecData vecData;
+	private final NearestVecSearch.GenerationData nearestVecData;
+	//created on first use, see SearchIntersection.setShardedSearch().
+	private ShardedIntersectionSearch shardedSearch;
+	//number of pins by searches, plus one while this is the current generation.
+	private final AtomicInteger refCount = new AtomicInteger(1);
+
+	/**
+	 * Generation pinned on a thread. Nested enter()'s on the same thread share the pin.
+	 */
+	private static class Pin{
+		final IndexGeneration generation;
+		int depth = 1;
+
+		Pin(IndexGeneration generation){
+			this.generation = generation;
+		}
+	}
+
+	private IndexGeneration(){
+		this.id = generationCounter.incrementAndGet();
+		long beforeLoad = System.currentTimeMillis();
+		this.thmBundleData = new ThmHypPairGet.BundleData(FileUtils.deserializeSearchConfiguration());
+		this.wordThmsPostingIndex = CollectThm.ThmWordsMaps.loadWordThmsPostingIndex();
+		this.literalSearchIndexStore = LiteralSearchIndexStore.loadDefault();
+		this.similarThmGraph = SimilarThmGraph.loadDefault();
+		this.vecData = new TheoremGet.VecData();
+		this.nearestVecData = new NearestVecSearch.GenerationData();
+		String msg = "IndexGeneration - loaded generation " + id + " in " + (System.currentTimeMillis() - beforeLoad) + "ms";
+		System.out.println(msg);
+		logger.info(msg);
+	}
+
+	private IndexGeneration(WordThmsPostingIndex wordThmsPostingIndex, int totalThmsCount){
+		this.id = generationCounter.incrementAndGet();
+		this.thmBundleData = new ThmHypPairGet.BundleData(new Searcher.SearchConfiguration(
+				new ArrayList<Integer>(), totalThmsCount, 0));
+		this.wordThmsPostingIndex = wordThmsPostingIndex;
+		this.literalSearchIndexStore = null;
+		this.similarThmGraph = null;
+		this.vecData = new TheoremGet.VecData();
+		this.nearestVecData = new NearestVecSearch.GenerationData();
+	}
+
+	/**
+	 * Generation over the given posting index only, without thm bundles, literal search store, 
+	 * or similar thm graph, e.g. to run intersection search on a synthetic index. Pin it on the
+	 * searching thread with enter(IndexGeneration), or make it current with swapInBackground().
+	 * @param wordThmsPostingIndex
+	 * @param totalThmsCount number of thms in the posting index.
+	 * @return
+	 */
+	public static IndexGeneration forPostingIndex(WordThmsPostingIndex wordThmsPostingIndex, int totalThmsCount){
+		return new IndexGeneration(wordThmsPostingIndex, totalThmsCount);
+	}
+
+	/**
+	 * Generation new searches start on. Loads the first generation if none is loaded yet.
+	 * @return
+	 */
+	public static IndexGeneration current(){
+		IndexGeneration generation = currentGeneration;
+		if(null == generation){
+			synchronized(IndexGeneration.class){
+				generation = currentGeneration;
+				if(null == generation){
+					generation = new IndexGeneration();
+					currentGeneration = generation;
+				}
+			}
+		}
+		return generation;
+	}
+
+	/**
+	 * Generation pinned on this thread, else the current generation.
+	 * @return
+	 */
+	public static IndexGeneration forCurrentThread(){
+		Pin pin = threadPin.get();
+		return null == pin ? current() : pin.generation;
+	}
+
+	/**
+	 * Pins the current generation on this thread, for the duration of a search, until the
+	 * matching exit(). If a generation is already pinned on this thread, that one is kept.
+	 * @return the pinned generation, to be passed to threads the search hands work to.
+	 */
+	public static IndexGeneration enter(){
+		Pin pin = threadPin.get();
+		if(null != pin){
+			pin.depth++;
+			return pin.generation;
+		}
+		IndexGeneration generation;
+		do{
+			generation = current();
+			//retain fails if generation was released after being swapped out meanwhile
+		}while(!generation.retain());
+		threadPin.set(new Pin(generation));
+		return generation;
+	}
+
+	/**
+	 * Pins generation on this thread, e.g. on worker threads of a search that pinned it, until
+	 * the matching exit(). generation must be pinned elsewhere during the call.
+	 * @param generation
+	 */
+	public static void enter(IndexGeneration generation){
+		Pin pin = threadPin.get();
+		if(null != pin){
+			if(pin.generation != generation){
+				throw new IllegalStateException("Thread is already on generation " + pin.generation.id
+						+ ", can't enter generation " + generation.id);
+			}
+			pin.depth++;
+			return;
+		}
+		if(!generation.retain()){
+			throw new IllegalStateException("Generation " + generation.id + " was already released!");
+		}
+		threadPin.set(new Pin(generation));
+	}
+
+	/**
+	 * Unpins the generation pinned by the matching enter().
+	 */
+	public static void exit(){
+		Pin pin = threadPin.get();
+		if(null == pin){
+			throw new IllegalStateException("exit() without matching enter()!");
+		}
+		if(--pin.depth == 0){
+			threadPin.remove();
+			pin.generation.release();
+		}
+	}
+
+	/**
+	 * Loads a new generation on a background thread, and swaps it in once loaded.
+	 * Searches continue on the current generation meanwhile.
+	 * @return the new generation.
+	 */
+	public static Future<IndexGeneration> reloadInBackground(){
+		return loadExecutor.submit(new Callable<IndexGeneration>(){
+			public IndexGeneration call(){
+				return swapIn(new IndexGeneration());
+			}
+		});
+	}
+
+	/**
+	 * Swaps in a generation that is already loaded, e.g. one from forPostingIndex(), on the same
+	 * background thread as reloadInBackground().
+	 * @param generation not yet swapped in, and not released.
+	 * @return the new generation.
+	 */
+	public static Future<IndexGeneration> swapInBackground(final IndexGeneration generation){
+		return loadExecutor.submit(new Callable<IndexGeneration>(){
+			public IndexGeneration call(){
+				return swapIn(generation);
+			}
+		});
+	}
+
+	private static synchronized IndexGeneration swapIn(IndexGeneration generation){
+		IndexGeneration prevGeneration = currentGeneration;
+		currentGeneration = generation;
+		//frees cached results of the previous generation, which new searches can't hit.
+		SearchCombined.invalidateResultCache();
+		String msg = "IndexGeneration - swapped in generation " + generation.id;
+		System.out.println(msg);
+		logger.info(msg);
+		if(null != prevGeneration){
+			prevGeneration.release();
+		}
+		return generation;
+	}
+
+	private boolean retain(){
+		int count;
+		do{
+			count = refCount.get();
+			if(0 == count){
+				return false;
+			}
+		}while(!refCount.compareAndSet(count, count + 1));
+		return true;
+	}
+
+	private void release(){
+		if(0 == refCount.decrementAndGet()){
+			releaseCaches();
+		}
+	}
+
+	/**
+	 * Drops caches and mapped stores, once no search uses this generation anymore.
+	 */
+	private void releaseCaches(){
+		thmBundleData.release();
+		vecData.release();
+		nearestVecData.release();
+		ShardedIntersectionSearch search = setShardedSearch(null);
+		if(null != search){
+			search.shutdown();
+		}
+		String msg = "IndexGeneration - released generation " + id;
+		System.out.println(msg);
+		logger.info(msg);
+	}
+
+	public long id(){
+		return id;
+	}
+
+	/**
+	 * @return whether caches and mapped stores have been released, once the generation was swapped
+	 * out and the last search on it exited.
+	 */
+	public boolean isReleased(){
+		return 0 == refCount.get();
+	}
+
+	public WordThmsPostingIndex wordThmsPostingIndex(){
+		return wordThmsPostingIndex;
+	}
+
+	public LiteralSearchIndexStore literalSearchIndexStore(){
+		return literalSearchIndexStore;
+	}
+
+	public SimilarThmGraph similarThmGraph(){
+		return similarThmGraph;
+	}
+
+	ThmHypPairGet.BundleData thmBundleData(){
+		return thmBundleData;
+	}
+
+	TheoremGet.VecData vecData(){
+		return vecData;
+	}
+
+	NearestVecSearch.GenerationData nearestVecData(){
+		return nearestVecData;
+	}
+
+	synchronized ShardedIntersectionSearch shardedSearch(){
+		return shardedSearch;
+	}
+
+	/**
+	 * @param search
+	 * @return previous sharded search, to be shut down by caller.
+	 */
+	synchronized ShardedIntersectionSearch setShardedSearch(ShardedIntersectionSearch search){
+		ShardedIntersectionSearch prevSearch = shardedSearch;
+		shardedSearch = search;
+		return prevSearch;
+	}
+}
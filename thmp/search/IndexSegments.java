@@ -0,0 +1,504 @@
+package thmp.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import thmp.search.CollectThm.ThmWordsMaps.IndexPartPair;
+import thmp.search.Searcher.SearchConfiguration;
+import thmp.utils.BinaryDataFile;
+import thmp.utils.FileUtils;
+
+/**
+ * Segments of search data appended after the full build in ProjectionMatrix, so a new batch
+ * of tars, e.g. a month of arXiv papers, can be added without rebuilding the data of earlier tars.
+ * ProjectionMatrix.appendSegment() writes a segment's ThmHypPair bundles and combined projected mx
+ * after the existing ones, and lists them in SearchConfiguration as usual; continues the last
+ * context vec bundle; and writes the word-thm postings of the new thms, with overall thm indices,
+ * to a separate file listed in the manifest here. These postings are added to those in
+ * wordThmIndexMMap.dat when the posting index is built.
+ *
+ * The manifest also names the approximate nearest vec index, and how many bundles it covers.
+ * NearestVecSearch scans bundles after these exactly.
+ * The manifest is replaced atomically, so readers see a consistent set of files. Writers, i.e.
+ * appends and compaction, take a file lock, since they can run in different processes. An append
+ * holds it from reading SearchConfiguration until its segment is listed, since it writes bundles
+ * after the existing ones.
+ *
+ * Compaction merges runs of small posting segments, and rebuilds the nearest vec index once too
+ * many thms are outside it. Files no longer listed are deleted after the new manifest is in place.
+ */
+public class IndexSegments {
+
+	private static final Logger logger = LogManager.getLogger(IndexSegments.class);
+	private static final Charset MANIFEST_CHARSET = Charset.forName("UTF-8");
+	private static final String DATA_DIR = "src/thmp/data/";
+	private static final String MANIFEST_NAME = "indexSegments.txt";
+	private static final String LOCK_NAME = "indexSegments.lock";
+	private static final String SEGMENT_POSTINGS_NAME_ROOT = "wordThmIndexMMapSegment";
+	private static final String INDEX_LINE_KEY = "nearestVecIndex";
+	private static final String SEGMENT_LINE_KEY = "segment";
+	//consecutive segments with fewer thms than this are merged during compaction.
+	private static final int SMALL_SEGMENT_THM_COUNT = 100000;
+	//nearest vec index is rebuilt once more thms than this are only reachable by exact scan.
+	private static final int MAX_UNINDEXED_THM_COUNT = 200000;
+	//number of times to re-read manifest, if compaction removes files while reading them.
+	private static final int READ_ATTEMPT_COUNT = 3;
+	//FileLock's are held per JVM, so writers in the same process also lock this.
+	private static final ReentrantLock WRITE_LOCK = new ReentrantLock();
+	//held while WRITE_LOCK is, guarded by WRITE_LOCK.
+	private static FileLock writeFileLock;
+	//directory of the manifest and segment posting files, see setDataDir().
+	private static volatile String dataDir = DATA_DIR;
+	private static final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("index-compaction-%d").build());
+
+	//null if the index is at the default path, ProjectionMatrix.nearestVecIndexPath(), and covers all bundles.
+	private final String nearestVecIndexPath;
+	private final int nearestVecIndexBundleCount;
+	private final List<Segment> segmentList;
+
+	/**
+	 * Posting file of a segment, for thms with indices in
+	 * [startThmIndex, startThmIndex + thmCount).
+	 */
+	public static class Segment{
+		private final String postingsFileName;
+		private final int startThmIndex;
+		private final int thmCount;
+
+		Segment(String postingsFileName, int startThmIndex, int thmCount){
+			this.postingsFileName = postingsFileName;
+			this.startThmIndex = startThmIndex;
+			this.thmCount = thmCount;
+		}
+
+		public String postingsFileName(){
+			return postingsFileName;
+		}
+
+		public int startThmIndex(){
+			return startThmIndex;
+		}
+
+		public int thmCount(){
+			return thmCount;
+		}
+
+		@Override
+		public String toString(){
+			return SEGMENT_LINE_KEY + "\t" + postingsFileName + "\t" + startThmIndex + "\t" + thmCount;
+		}
+	}
+
+	private IndexSegments(String nearestVecIndexPath, int nearestVecIndexBundleCount, List<Segment> segmentList){
+		this.nearestVecIndexPath = nearestVecIndexPath;
+		this.nearestVecIndexBundleCount = nearestVecIndexBundleCount;
+		this.segmentList = Collections.unmodifiableList(segmentList);
+	}
+
+	/**
+	 * Reads the current manifest.
+	 * @return No segments if there is no manifest, e.g. right after a full build.
+	 */
+	public static IndexSegments read(){
+		String path = dataPath(MANIFEST_NAME);
+		if(!new File(path).exists()){
+			return new IndexSegments(null, -1, new ArrayList<Segment>());
+		}
+		String indexPath = null;
+		int indexBundleCount = -1;
+		List<Segment> segmentList = new ArrayList<Segment>();
+		for(String line : FileUtils.readLinesFromFile(path, MANIFEST_CHARSET)){
+			String[] lineAr = line.split("\t");
+			if(INDEX_LINE_KEY.equals(lineAr[0]) && lineAr.length == 3){
+				indexPath = lineAr[1];
+				indexBundleCount = Integer.parseInt(lineAr[2]);
+			}else if(SEGMENT_LINE_KEY.equals(lineAr[0]) && lineAr.length == 4){
+				segmentList.add(new Segment(lineAr[1], Integer.parseInt(lineAr[2]), Integer.parseInt(lineAr[3])));
+			}else if(!line.isEmpty()){
+				logger.error("IndexSegments - malformed manifest line: " + line);
+			}
+		}
+		return new IndexSegments(indexPath, indexBundleCount, segmentList);
+	}
+
+	private void write() throws IOException{
+		List<String> lineList = new ArrayList<String>();
+		if(null != nearestVecIndexPath){
+			lineList.add(INDEX_LINE_KEY + "\t" + nearestVecIndexPath + "\t" + nearestVecIndexBundleCount);
+		}
+		for(Segment segment : segmentList){
+			lineList.add(segment.toString());
+		}
+		Path path = Paths.get(dataPath(MANIFEST_NAME));
+		Path tempPath = Paths.get(path.toString() + ".tmp");
+		Files.write(tempPath, lineList, MANIFEST_CHARSET);
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	public List<Segment> segmentList(){
+		return segmentList;
+	}
+
+	/**
+	 * Path to the approximate nearest vec index.
+	 * @return
+	 */
+	public String nearestVecIndexPath(){
+		if(null == nearestVecIndexPath){
+			return FileUtils.getPathIfOnServlet(ProjectionMatrix.nearestVecIndexPath());
+		}
+		return FileUtils.getPathIfOnServlet(nearestVecIndexPath);
+	}
+
+	/**
+	 * Number of bundles, starting from the first, whose vecs are in the nearest vec index.
+	 * @param totalBundleNum current total number of bundles.
+	 * @return
+	 */
+	public int nearestVecIndexBundleCount(int totalBundleNum){
+		return null == nearestVecIndexPath ? totalBundleNum : nearestVecIndexBundleCount;
+	}
+
+	private static String dataPath(String fileName){
+		return FileUtils.getPathIfOnServlet(dataDir + fileName);
+	}
+
+	/**
+	 * Sets the directory of the manifest and segment posting files, e.g. a temp directory to
+	 * append segments without touching the search data.
+	 * @param dir path ending in a separator, or null for the default, src/thmp/data/.
+	 */
+	public static void setDataDir(String dir){
+		dataDir = null == dir ? DATA_DIR : dir;
+	}
+
+	/**
+	 * Adds postings of all segments to the postings of the full build, e.g. from wordThmIndexMMap.dat.
+	 * Re-reads the manifest if compaction replaces segment files while they are read.
+	 * @param wordThmsIndexMMap postings of the full build, added to.
+	 */
+	public static void addSegmentPostings(Multimap<String, IndexPartPair> wordThmsIndexMMap){
+		for(int attempt = 1; ; attempt++){
+			IndexSegments segments = read();
+			List<Multimap<String, IndexPartPair>> segmentPostingsList = readSegmentPostings(segments.segmentList);
+			if(null != segmentPostingsList){
+				for(Multimap<String, IndexPartPair> segmentPostings : segmentPostingsList){
+					wordThmsIndexMMap.putAll(segmentPostings);
+				}
+				if(!segmentPostingsList.isEmpty()){
+					logger.info("IndexSegments - added postings of " + segmentPostingsList.size() + " segments.");
+				}
+				return;
+			}
+			if(attempt == READ_ATTEMPT_COUNT){
+				throw new IllegalStateException("Segment posting files keep changing while being read!");
+			}
+		}
+	}
+
+	/**
+	 * @param segmentList
+	 * @return null if a segment file no longer exists.
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Multimap<String, IndexPartPair>> readSegmentPostings(List<Segment> segmentList){
+		List<Multimap<String, IndexPartPair>> segmentPostingsList = new ArrayList<Multimap<String, IndexPartPair>>();
+		for(Segment segment : segmentList){
+			String path = dataPath(segment.postingsFileName);
+			if(!new File(path).exists()){
+				return null;
+			}
+			segmentPostingsList.add(((List<Multimap<String, IndexPartPair>>)FileUtils.deserializeListFromFile(path)).get(0));
+		}
+		return segmentPostingsList;
+	}
+
+	/**
+	 * Removes all segments, after a full build, which includes all tars. Deletes the segment files.
+	 */
+	public static void clear(){
+		lockForWrite();
+		try{
+			IndexSegments prevSegments = read();
+			Files.deleteIfExists(Paths.get(dataPath(MANIFEST_NAME)));
+			prevSegments.deleteFilesNotIn(new IndexSegments(null, -1, new ArrayList<Segment>()));
+		}catch(IOException e){
+			throw new IllegalStateException("IOException while clearing index segments!", e);
+		}finally{
+			unlockForWrite();
+		}
+	}
+
+	/**
+	 * Lists a new segment, after its bundles have been written and SearchConfiguration updated.
+	 * Caller should hold the write lock since reading SearchConfiguration, see lockForWrite().
+	 * @param wordThmIndexMMap postings of the new thms, with overall thm indices.
+	 * @param startThmIndex index of the first thm in the segment.
+	 * @param thmCount
+	 * @param prevTotalBundleNum number of bundles before the segment was added. The nearest vec
+	 * index covers these, if the manifest doesn't say otherwise yet.
+	 */
+	public static void addSegment(Multimap<String, IndexPartPair> wordThmIndexMMap, int startThmIndex, int thmCount,
+			int prevTotalBundleNum){
+		String postingsFileName = postingsFileName(startThmIndex, thmCount);
+		writePostings(wordThmIndexMMap, postingsFileName);
+		lockForWrite();
+		try{
+			IndexSegments prevSegments = read();
+			String indexPath = prevSegments.nearestVecIndexPath;
+			int indexBundleCount = prevSegments.nearestVecIndexBundleCount;
+			if(null == indexPath){
+				indexPath = ProjectionMatrix.nearestVecIndexPath();
+				indexBundleCount = prevTotalBundleNum;
+			}
+			List<Segment> segmentList = new ArrayList<Segment>(prevSegments.segmentList);
+			segmentList.add(new Segment(postingsFileName, startThmIndex, thmCount));
+			new IndexSegments(indexPath, indexBundleCount, segmentList).write();
+		}catch(IOException e){
+			throw new IllegalStateException("IOException while adding index segment " + postingsFileName, e);
+		}finally{
+			unlockForWrite();
+		}
+		String msg = "IndexSegments - added segment with " + thmCount + " thms, starting at thm " + startThmIndex;
+		System.out.println(msg);
+		logger.info(msg);
+	}
+
+	private static String postingsFileName(int startThmIndex, int thmCount){
+		return SEGMENT_POSTINGS_NAME_ROOT + startThmIndex + "_" + (startThmIndex + thmCount) + ".dat";
+	}
+
+	private static void writePostings(Multimap<String, IndexPartPair> wordThmIndexMMap, String postingsFileName){
+		List<Multimap<String, IndexPartPair>> wordThmIndexMMapList = new ArrayList<Multimap<String, IndexPartPair>>();
+		wordThmIndexMMapList.add(wordThmIndexMMap);
+		BinaryDataFile.write(wordThmIndexMMapList, BinaryDataFile.WORD_THM_INDEX_SCHEMA, dataPath(postingsFileName));
+	}
+
+	/**
+	 * Compacts on a background thread, so searches continue on the current segments meanwhile.
+	 * @return
+	 */
+	public static Future<?> compactInBackground(){
+		return compactionExecutor.submit(new Callable<Void>(){
+			public Void call(){
+				compact();
+				return null;
+			}
+		});
+	}
+
+	/**
+	 * Merges runs of consecutive small segments into one segment each, and rebuilds the nearest
+	 * vec index if too many thms are outside it. Readers pick up the result on their next load.
+	 */
+	public static void compact(){
+		compact(FileUtils.deserializeSearchConfiguration());
+	}
+
+	/**
+	 * Compacts as compact() does, with the given bundle layout rather than the serialized one.
+	 * @param searchConfig bundle layout after the segments were appended.
+	 */
+	public static void compact(SearchConfiguration searchConfig){
+		mergeSmallSegments();
+		List<Integer> bundleStartThmIndexList = searchConfig.bundleStartThmIndexList();
+		int totalBundleNum = bundleStartThmIndexList.size();
+		int indexBundleCount = read().nearestVecIndexBundleCount(totalBundleNum);
+		int unindexedThmCount = indexBundleCount < totalBundleNum
+				? searchConfig.totalThmsCount() - bundleStartThmIndexList.get(indexBundleCount) : 0;
+		if(unindexedThmCount > MAX_UNINDEXED_THM_COUNT){
+			rebuildNearestVecIndex(bundleStartThmIndexList);
+		}
+	}
+
+	private static void mergeSmallSegments(){
+		lockForWrite();
+		IndexSegments prevSegments;
+		IndexSegments newSegments;
+		try{
+			prevSegments = read();
+			List<Segment> segmentList = new ArrayList<Segment>();
+			List<Segment> smallRunList = new ArrayList<Segment>();
+			for(Segment segment : prevSegments.segmentList){
+				if(segment.thmCount < SMALL_SEGMENT_THM_COUNT){
+					smallRunList.add(segment);
+					continue;
+				}
+				addMergedSegment(smallRunList, segmentList);
+				smallRunList = new ArrayList<Segment>();
+				segmentList.add(segment);
+			}
+			addMergedSegment(smallRunList, segmentList);
+			if(segmentList.size() == prevSegments.segmentList.size()){
+				return;
+			}
+			newSegments = new IndexSegments(prevSegments.nearestVecIndexPath,
+					prevSegments.nearestVecIndexBundleCount, segmentList);
+			newSegments.write();
+			prevSegments.deleteFilesNotIn(newSegments);
+		}catch(IOException e){
+			throw new IllegalStateException("IOException while merging index segments!", e);
+		}finally{
+			unlockForWrite();
+		}
+		String msg = "IndexSegments - merged " + prevSegments.segmentList.size() + " segments into "
+				+ newSegments.segmentList.size();
+		System.out.println(msg);
+		logger.info(msg);
+	}
+
+	/**
+	 * Merges the segments, which are consecutive, into one, and adds it to segmentList.
+	 * @param smallRunList
+	 * @param segmentList
+	 */
+	private static void addMergedSegment(List<Segment> smallRunList, List<Segment> segmentList){
+		if(smallRunList.size() < 2){
+			segmentList.addAll(smallRunList);
+			return;
+		}
+		List<Multimap<String, IndexPartPair>> postingsList = readSegmentPostings(smallRunList);
+		if(null == postingsList){
+			throw new IllegalStateException("Segment posting file missing while merging segments " + smallRunList);
+		}
+		Multimap<String, IndexPartPair> mergedPostings = ArrayListMultimap.create();
+		int thmCount = 0;
+		for(int i = 0; i < smallRunList.size(); i++){
+			mergedPostings.putAll(postingsList.get(i));
+			thmCount += smallRunList.get(i).thmCount;
+		}
+		int startThmIndex = smallRunList.get(0).startThmIndex;
+		String postingsFileName = postingsFileName(startThmIndex, thmCount);
+		writePostings(mergedPostings, postingsFileName);
+		segmentList.add(new Segment(postingsFileName, startThmIndex, thmCount));
+	}
+
+	/**
+	 * Builds nearest vec index over all bundles, under a new path, so searches with the
+	 * current index mapped are not affected.
+	 * @param bundleStartThmIndexList
+	 */
+	private static void rebuildNearestVecIndex(List<Integer> bundleStartThmIndexList){
+		int bundleCount = bundleStartThmIndexList.size();
+		String indexPath = ProjectionMatrix.nearestVecIndexPath(bundleCount);
+		if(!ProjectionMatrix.buildNearestVecIndex(bundleStartThmIndexList, FileUtils.getPathIfOnServlet(indexPath))){
+			return;
+		}
+		lockForWrite();
+		try{
+			IndexSegments prevSegments = read();
+			IndexSegments newSegments = new IndexSegments(indexPath, bundleCount, prevSegments.segmentList);
+			newSegments.write();
+			prevSegments.deleteFilesNotIn(newSegments);
+		}catch(IOException e){
+			throw new IllegalStateException("IOException while updating nearest vec index in manifest!", e);
+		}finally{
+			unlockForWrite();
+		}
+	}
+
+	/**
+	 * Deletes segment files listed in this manifest but not in newSegments. The default nearest
+	 * vec index, written by full builds, is never deleted here.
+	 * @param newSegments
+	 */
+	private void deleteFilesNotIn(IndexSegments newSegments){
+		Set<String> keptPathSet = new HashSet<String>();
+		for(Segment segment : newSegments.segmentList){
+			keptPathSet.add(dataPath(segment.postingsFileName));
+		}
+		keptPathSet.add(newSegments.nearestVecIndexPath());
+		keptPathSet.add(FileUtils.getPathIfOnServlet(ProjectionMatrix.nearestVecIndexPath()));
+
+		Collection<String> pathCol = new ArrayList<String>();
+		for(Segment segment : segmentList){
+			pathCol.add(dataPath(segment.postingsFileName));
+		}
+		pathCol.add(nearestVecIndexPath());
+		for(String path : pathCol){
+			if(keptPathSet.contains(path)){
+				continue;
+			}
+			try{
+				//searches that have the file mapped keep their mapping.
+				Files.deleteIfExists(Paths.get(path));
+			}catch(IOException e){
+				logger.error("IndexSegments - could not delete " + path + ": " + e);
+			}
+		}
+	}
+
+	/**
+	 * Takes the write lock, against writers in this and other processes, until the matching
+	 * unlockForWrite(). Reentrant, e.g. an append holds it around addSegment().
+	 */
+	public static void lockForWrite(){
+		WRITE_LOCK.lock();
+		if(WRITE_LOCK.getHoldCount() > 1){
+			return;
+		}
+		try{
+			writeFileLock = acquireFileLock();
+		}catch(RuntimeException e){
+			WRITE_LOCK.unlock();
+			throw e;
+		}
+	}
+
+	/**
+	 * Releases the write lock taken by the matching lockForWrite().
+	 */
+	public static void unlockForWrite(){
+		if(WRITE_LOCK.getHoldCount() == 1){
+			FileLock lock = writeFileLock;
+			writeFileLock = null;
+			releaseFileLock(lock);
+		}
+		WRITE_LOCK.unlock();
+	}
+
+	private static FileLock acquireFileLock(){
+		try{
+			FileChannel channel = new RandomAccessFile(dataPath(LOCK_NAME), "rw").getChannel();
+			return channel.lock();
+		}catch(IOException e){
+			throw new IllegalStateException("IOException while locking index segments!", e);
+		}
+	}
+
+	private static void releaseFileLock(FileLock lock){
+		try{
+			lock.release();
+			lock.channel().close();
+		}catch(IOException e){
+			logger.error("IndexSegments - IOException while releasing lock: " + e);
+		}
+	}
+}
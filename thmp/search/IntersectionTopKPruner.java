@@ -0,0 +1,126 @@
+package thmp.search;
+
+import java.util.Arrays;
+import java.util.Set;
+
+import com.google.common.collect.SetMultimap;
+
+import thmp.search.WordThmsPostingIndex.PostingCursor;
+
+/**
+ * MaxScore-style dynamic pruning for intersection search. Once the words of a query only
+ * score thms already selected by previous words, the candidate thms are fixed, and a
+ * thm can only be ranked if its word span makes the top topK spans, see
+ * SearchIntersection.intersectionSearch(). A thm whose current span, plus the number of
+ * query word positions still to be processed, is below the topK'th largest current span,
+ * can't make it, so it is dropped, and the postings of remaining words are only read for
+ * the thms left, skipping over the rest with PostingCursor.skipTo().
+ *
+ * All postings of a word contribute the same span, so the per-word bounds are tight for
+ * every block of postings, and block-max bounds would not prune further.
+ *
+ * Not thread-safe, one instance per query.
+ */
+class IntersectionTopKPruner {
+
+	private final int topK;
+	//sorted thm indices that can still make the top spans
+	private int[] liveThmAr;
+	private int liveCount;
+	//position in liveThmAr for current word
+	private int liveIndex;
+
+	IntersectionTopKPruner(int topK) {
+		this.topK = topK;
+	}
+
+	/**
+	 * Restricts to the selected thms, excluding ones filtered out by dbThmSet, which never get scored.
+	 * @param selectedThmsSet
+	 * @param dbThmSet optional.
+	 */
+	void start(Set<Integer> selectedThmsSet, Set<Integer> dbThmSet) {
+		liveThmAr = new int[selectedThmsSet.size()];
+		liveCount = 0;
+		for(int thmIndex : selectedThmsSet) {
+			if(null == dbThmSet || dbThmSet.contains(thmIndex)) {
+				liveThmAr[liveCount++] = thmIndex;
+			}
+		}
+		Arrays.sort(liveThmAr, 0, liveCount);
+	}
+
+	/**
+	 * Drops thms that can't reach the topK largest spans.
+	 * @param thmWordSpanMMap thm indices and the query word positions they contain.
+	 * @param remainingSpanBound number of query word positions covered by the words still to be processed.
+	 */
+	void prune(SetMultimap<Integer, Integer> thmWordSpanMMap, int remainingSpanBound) {
+		if(liveCount <= topK) {
+			return;
+		}
+		int[] spanAr = new int[liveCount];
+		int maxSpan = 0;
+		for(int i = 0; i < liveCount; i++) {
+			int span = thmWordSpanMMap.get(liveThmAr[i]).size();
+			spanAr[i] = span;
+			maxSpan = Math.max(maxSpan, span);
+		}
+		//spans only grow, so the topK'th largest current span is a lower bound for the final one.
+		int[] spanCountAr = new int[maxSpan + 1];
+		for(int i = 0; i < liveCount; i++) {
+			spanCountAr[spanAr[i]]++;
+		}
+		int threshold = maxSpan;
+		int count = spanCountAr[maxSpan];
+		while(count < topK) {
+			threshold--;
+			count += spanCountAr[threshold];
+		}
+		int newLiveCount = 0;
+		for(int i = 0; i < liveCount; i++) {
+			if(spanAr[i] + remainingSpanBound >= threshold) {
+				liveThmAr[newLiveCount++] = liveThmAr[i];
+			}
+		}
+		liveCount = newLiveCount;
+	}
+
+	int liveCount() {
+		return liveCount;
+	}
+
+	/**
+	 * Call before reading postings of next word.
+	 */
+	void startWord() {
+		liveIndex = 0;
+	}
+
+	/**
+	 * Advances cursor to next posting of a live thm.
+	 * @param cursor positioned with reset(term).
+	 * @return false if no more such postings.
+	 */
+	boolean nextPosting(PostingCursor cursor) {
+		if(!cursor.next()) {
+			return false;
+		}
+		while(true) {
+			int thmIndex = cursor.thmIndex();
+			while(liveIndex < liveCount && liveThmAr[liveIndex] < thmIndex) {
+				liveIndex++;
+			}
+			if(liveIndex == liveCount) {
+				return false;
+			}
+			int targetThmIndex = liveThmAr[liveIndex];
+			if(targetThmIndex == thmIndex) {
+				return true;
+			}
+			if(!cursor.skipTo(targetThmIndex)) {
+				return false;
+			}
+		}
+	}
+}
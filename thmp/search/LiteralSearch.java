@@ -27,8 +27,8 @@ import com.google.common.collect.TreeMultimap;
 import com.wolfram.puremath.dbapp.DBUtils;
 import com.wolfram.puremath.dbapp.LiteralSearchUtils;
 
-import thmp.search.CollectThm.ThmWordsMaps.IndexPartPair;
 import thmp.search.SearchIntersection.WordDistScoreTMap;
+import thmp.search.WordThmsPostingIndex.PostingCursor;
 import thmp.utils.FileUtils;
 import thmp.utils.WordForms;
 
@@ -172,6 +172,68 @@ public class LiteralSearch {
 		}
 	}	
 	
+	/**
+	 * Postings of one word, i.e. thm indices and the indices of the word in those thms,
+	 * as filled by LiteralSearchIndexStore or the literal search db table. Reused across
+	 * the words of a query, so lookups don't box or allocate per thm.
+	 */
+	public static class LiteralPostings{
+		private static final int WORD_INDEX_SLOT_COUNT = LiteralSearchIndex.MAX_INDEX_COUNT_PER_WORD;
+		private int[] thmIndexAr = new int[64];
+		private byte[] wordIndexCountAr = new byte[64];
+		private byte[] wordIndexAr = new byte[64 * WORD_INDEX_SLOT_COUNT];
+		private int size;
+
+		public void clear() {
+			size = 0;
+		}
+
+		/**
+		 * Adds posting for thm, whose word indices are then added with addWordIndex().
+		 * @param thmIndex
+		 */
+		public void add(int thmIndex) {
+			if(size == thmIndexAr.length) {
+				thmIndexAr = Arrays.copyOf(thmIndexAr, size * 2);
+				wordIndexCountAr = Arrays.copyOf(wordIndexCountAr, size * 2);
+				wordIndexAr = Arrays.copyOf(wordIndexAr, size * 2 * WORD_INDEX_SLOT_COUNT);
+			}
+			thmIndexAr[size] = thmIndex;
+			wordIndexCountAr[size] = 0;
+			size++;
+		}
+
+		/**
+		 * Adds index of word in thm of last posting added. Indices past 
+		 * MAX_INDEX_COUNT_PER_WORD are dropped.
+		 * @param wordIndex
+		 */
+		public void addWordIndex(byte wordIndex) {
+			int last = size - 1;
+			int count = wordIndexCountAr[last];
+			if(count < WORD_INDEX_SLOT_COUNT) {
+				wordIndexAr[last * WORD_INDEX_SLOT_COUNT + count] = wordIndex;
+				wordIndexCountAr[last] = (byte)(count + 1);
+			}
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public int thmIndex(int i) {
+			return thmIndexAr[i];
+		}
+
+		public int wordIndexCount(int i) {
+			return wordIndexCountAr[i];
+		}
+
+		public byte wordIndexAt(int i, int j) {
+			return wordIndexAr[i * WORD_INDEX_SLOT_COUNT + j];
+		}
+	}
+	
 	/**
 	 * Used for returning pairs of literal search scores.
 	 */
@@ -305,15 +367,28 @@ public class LiteralSearch {
 	 * @param query ALl lower-case
 	 * @param priorWordSpan Word span of previous search algorithms wrt user's query words.
 	 * @param searchWordsSet set of words to be used for highlighting on the web FE.
-	 * @param wordIndexPartPairMap map of word and their collection of thms. To take prior found in 
-	 * intersection search into account
+	 * @param postingWordsSet words whose thms were found in the posting index by intersection search. 
+	 * To take prior found in intersection search into account
 	 * @param maxThmCount the max number of thms that should be returned, optional param.
 	 * @return
 	 * List from literal search. Empty list if literal search doesn't improve word span,
 	 * for e.g. "klfjk module"
 	 */
 	public static List<Integer> literalSearch(String query, SearchState searchState, int priorWordSpan, 
-			Set<String> searchWordsSet,	Map<String, Collection<IndexPartPair>> wordIndexPartPairMap,
+			Set<String> searchWordsSet,	Set<String> postingWordsSet,
+			int...maxThmCountAr){
+		return literalSearch(query, searchState, IndexGeneration.forCurrentThread().literalSearchIndexStore(),
+				priorWordSpan, searchWordsSet, postingWordsSet, maxThmCountAr);
+	}
+	
+	/**
+	 * Literal search with postings from given store, or from the literal search db table
+	 * through searchState's connection if store is null.
+	 * @see #literalSearch(String, SearchState, int, Set, Set, int...)
+	 */
+	public static List<Integer> literalSearch(String query, SearchState searchState, 
+			LiteralSearchIndexStore literalIndexStore, int priorWordSpan, 
+			Set<String> searchWordsSet,	Set<String> postingWordsSet,
 			int...maxThmCountAr){
 		
 		List<String> queryWordList = WordForms.splitThmIntoSearchWordsList(query);
@@ -323,13 +398,17 @@ public class LiteralSearch {
 		int wordSpan = 0;
 		
 		Connection conn = searchState.databaseConnection();
-		//Connection conn = thmp.utils.DBUtils.getPooledConnection();
+		if(null == literalIndexStore && null == conn) {
+			logger.error("Literal search has neither a LiteralSearchIndexStore nor a db connection!");
+			return Collections.emptyList();
+		}
 		
-		//Max length allowed for wordIndexAr. E.g. 2.
-		int wordIndexArLen = LiteralSearchIndex.MAX_INDEX_COUNT_PER_WORD;
 		//multiset of thm indices and the count of words for each index, where words
 		//are not found in literal search db, but in lexicon
 		Multiset<Integer> thmWordCountMSet = HashMultiset.create();
+		//only needed for words without literal postings
+		PostingCursor postingCursor = null;
+		LiteralPostings postings = new LiteralPostings();
 		
 		for(String word : queryWordList) {
 			if(isInValidSearchWord(word)) {
@@ -338,33 +417,28 @@ public class LiteralSearch {
 			word = processLiteralSearchWord(word);
 			searchWordsSet.add(word);
 			
-			//list of thm indices for given word. Request indices from db!! Don't delete yet
-			//List<LiteralSearchIndex> thmIndexList = literalSearchIndexMap.get(word);
-			
-			//getLiteralSearchThmsFromDB String word,  Connection conn,
-			//List<Integer> thmIndexList, List<Integer> wordsIndexArList
-			List<Integer> thmIndexList = new ArrayList<Integer>();
-			//list of words indices in respective theorems.
-			List<Integer> wordsIndexArList = new ArrayList<Integer>();
-			try {
-				LiteralSearchUtils.getLiteralSearchThmsFromDB(word, conn, thmIndexList, wordsIndexArList);
-			}catch(SQLException e) {
-				logger.error("SQLException when getting literal search data!" + e);
-				continue;
-			}
-			int thmIndexListSz = thmIndexList.size();			
-			int wordsIndexArListSz = wordsIndexArList.size();
-			if((thmIndexListSz * wordIndexArLen) != wordsIndexArListSz) {
-				throw new IllegalArgumentException("Literal search db table inconsistency: "
-						+ "(thmIndexListSz * maxWordIndexArLen) != wordsIndexArListSz");
+			//thm indices for given word, and the word's indices in those thms.
+			if(null != literalIndexStore) {
+				literalIndexStore.getPostings(word, postings);
+			}else {
+				try {
+					LiteralSearchUtils.getLiteralSearchThmsFromDB(word, conn, postings);
+				}catch(SQLException e) {
+					logger.error("SQLException when getting literal search data!" + e);
+					continue;
+				}
 			}
+			int thmIndexListSz = postings.size();
 			 
 			//if empty, check list from intersection search
 			if(0 == thmIndexListSz) {
-				Collection<IndexPartPair> wordIndexPartPairCol = wordIndexPartPairMap.get(word);
-				if(null != wordIndexPartPairCol) {
-					for(IndexPartPair pair : wordIndexPartPairCol) {
-						thmWordCountMSet.add(pair.thmIndex());
+				if(postingWordsSet.contains(word)) {
+					if(null == postingCursor) {
+						postingCursor = CollectThm.ThmWordsMaps.get_wordThmsPostingIndex().cursor();
+					}
+					postingCursor.reset(word);
+					while(postingCursor.next()) {
+						thmWordCountMSet.add(postingCursor.thmIndex());
 					}
 					wordSpan++;
 				}		
@@ -374,20 +448,16 @@ public class LiteralSearch {
 			//gather maps used for scoring based on word distances.
 			for(int i = 0; i < thmIndexListSz; i++) {
 				
-				int thmIndex = thmIndexList.get(i);
+				int thmIndex = postings.thmIndex(i);
 				//map of word index in thm, and that word.
 				TreeMap<Number, String> indexWordMap = thmIndexWordMap.get(thmIndex);
 				
 				indexWordMap = null == indexWordMap ? new TreeMap<Number, String>() : indexWordMap;
 				
-				int endIndex = (i+1) * wordIndexArLen;
-				for(int j = i * wordIndexArLen; j < endIndex; j++) {			
-					int wordIndexInThm = wordsIndexArList.get(j);
-					//PLACEHOLDER_INDEX is a filler. (consecutive)
-					if(wordIndexInThm == LiteralSearchIndex.PLACEHOLDER_INDEX) {
-						break;
-					}
-					indexWordMap.put(wordIndexInThm, word);
+				int wordIndexCount = postings.wordIndexCount(i);
+				for(int j = 0; j < wordIndexCount; j++) {
+					//Integer keys, as for all words
+					indexWordMap.put((int)postings.wordIndexAt(i, j), word);
 				}				
 				thmIndexWordMap.put(thmIndex, indexWordMap);
 			}
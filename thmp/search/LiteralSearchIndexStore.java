@@ -0,0 +1,415 @@
+package thmp.search;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimap;
+
+import thmp.search.LiteralSearch.LiteralPostings;
+import thmp.search.LiteralSearch.LiteralSearchIndex;
+import thmp.search.Searcher.SearchMetaData;
+import thmp.utils.FileUtils;
+
+/**
+ * Memory-mapped literal search index, with the content of the literalSearchTb database table:
+ * for each normalized word, up to SearchMetaData.maxThmsPerLiteralWord thms containing it, and
+ * the first LiteralSearchIndex.MAX_INDEX_COUNT_PER_WORD indices of the word in each thm.
+ * Loaded with each IndexGeneration, so LiteralSearch looks words up in process, rather than
+ * with one database query per word. The table is only used if no store has been written.
+ *
+ * File layout (big-endian): magic, version, term count, posting count, then termStart
+ * (termCount+1 ints into the UTF-8 term blob), postingStart (termCount+1 ints), thm indices
+ * (postingCount ints), word index counts (postingCount bytes), word indices
+ * (postingCount*MAX_INDEX_COUNT_PER_WORD bytes), and the term blob. Terms are sorted by their
+ * UTF-8 bytes, and looked up by binary search on the mapped bytes. Postings of a term are
+ * sorted by thm index.
+ *
+ * Immutable once loaded, and safe for concurrent lookups.
+ */
+public class LiteralSearchIndexStore {
+
+	private static final Logger logger = LogManager.getLogger(LiteralSearchIndexStore.class);
+	//"LSIS"
+	private static final int FILE_MAGIC = 0x4C534953;
+	private static final int FILE_VERSION = 1;
+	private static final int HEADER_INT_COUNT = 4;
+	private static final int WORD_INDEX_SLOT_COUNT = LiteralSearchIndex.MAX_INDEX_COUNT_PER_WORD;
+	/**appended to path of the serialized literal search index*/
+	public static final String FILE_EXT = ".store";
+	//e.g. literalSearchIndexMapSegment1200000.dat, written by ProjectionMatrix.appendSegment().
+	private static final Pattern SEGMENT_FILE_PATTERN = Pattern.compile("literalSearchIndexMapSegment(\\d+)\\.dat");
+	private static final Comparator<LiteralSearchIndex> THM_INDEX_COMPARATOR = new Comparator<LiteralSearchIndex>() {
+		@Override
+		public int compare(LiteralSearchIndex index1, LiteralSearchIndex index2) {
+			return Integer.compare(index1.thmIndex(), index2.thmIndex());
+		}
+	};
+
+	private final int termCount;
+	private final IntBuffer termStartBuf;
+	private final IntBuffer postingStartBuf;
+	private final IntBuffer thmIndexBuf;
+	private final ByteBuffer wordIndexCountBuf;
+	private final ByteBuffer wordIndexBuf;
+	private final ByteBuffer termBlobBuf;
+
+	private LiteralSearchIndexStore(int termCount, IntBuffer termStartBuf, IntBuffer postingStartBuf,
+			IntBuffer thmIndexBuf, ByteBuffer wordIndexCountBuf, ByteBuffer wordIndexBuf, ByteBuffer termBlobBuf){
+		this.termCount = termCount;
+		this.termStartBuf = termStartBuf;
+		this.postingStartBuf = postingStartBuf;
+		this.thmIndexBuf = thmIndexBuf;
+		this.wordIndexCountBuf = wordIndexCountBuf;
+		this.wordIndexBuf = wordIndexBuf;
+		this.termBlobBuf = termBlobBuf;
+	}
+
+	/**
+	 * Memory-maps the store at path.
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static LiteralSearchIndexStore load(String path) throws IOException{
+		ByteBuffer buf;
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try{
+			FileChannel channel = file.getChannel();
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}finally{
+			file.close();
+		}
+		if(FILE_MAGIC != buf.getInt(0) || FILE_VERSION != buf.getInt(4)){
+			throw new IOException("Not a LiteralSearchIndexStore file, or unsupported version: " + path);
+		}
+		int termCount = buf.getInt(8);
+		int postingCount = buf.getInt(12);
+		int pos = HEADER_INT_COUNT*4;
+		IntBuffer termStartBuf = slice(buf, pos, (termCount+1)*4).asIntBuffer();
+		pos += (termCount+1)*4;
+		IntBuffer postingStartBuf = slice(buf, pos, (termCount+1)*4).asIntBuffer();
+		pos += (termCount+1)*4;
+		IntBuffer thmIndexBuf = slice(buf, pos, postingCount*4).asIntBuffer();
+		pos += postingCount*4;
+		ByteBuffer wordIndexCountBuf = slice(buf, pos, postingCount);
+		pos += postingCount;
+		ByteBuffer wordIndexBuf = slice(buf, pos, postingCount*WORD_INDEX_SLOT_COUNT);
+		pos += postingCount*WORD_INDEX_SLOT_COUNT;
+		ByteBuffer termBlobBuf = slice(buf, pos, buf.capacity() - pos);
+		return new LiteralSearchIndexStore(termCount, termStartBuf, postingStartBuf, thmIndexBuf,
+				wordIndexCountBuf, wordIndexBuf, termBlobBuf);
+	}
+
+	private static ByteBuffer slice(ByteBuffer buf, int pos, int len){
+		ByteBuffer dup = buf.duplicate();
+		dup.position(pos);
+		dup.limit(pos + len);
+		return dup.slice();
+	}
+
+	/**
+	 * Maps the store of the default literal search index, if one has been written.
+	 * @return null if there is no store, so literal search uses the database.
+	 */
+	public static LiteralSearchIndexStore loadDefault(){
+		String path = FileUtils.getPathIfOnServlet(storePath(SearchMetaData.literalSearchIndexMapPath()));
+		if(!new File(path).exists()){
+			logger.info("No LiteralSearchIndexStore at " + path + ", literal search uses the database.");
+			return null;
+		}
+		try{
+			return load(path);
+		}catch(IOException e){
+			logger.error("IOException when mapping LiteralSearchIndexStore " + path + " " + e);
+			return null;
+		}
+	}
+
+	/**
+	 * Number of words in index.
+	 * @return
+	 */
+	public int termCount(){
+		return termCount;
+	}
+
+	/**
+	 * Id of word in the index, by binary search over the sorted terms.
+	 * @param wordBytes UTF-8 bytes of word.
+	 * @return -1 if word is not in index.
+	 */
+	private int termId(byte[] wordBytes){
+		int lo = 0;
+		int hi = termCount - 1;
+		while(lo <= hi){
+			int mid = (lo + hi) >>> 1;
+			int cmp = compareTerm(mid, wordBytes);
+			if(cmp < 0){
+				lo = mid + 1;
+			}else if(cmp > 0){
+				hi = mid - 1;
+			}else{
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Compares term with given id to wordBytes, as unsigned bytes, which orders
+	 * UTF-8 strings by code point.
+	 */
+	private int compareTerm(int termId, byte[] wordBytes){
+		int start = termStartBuf.get(termId);
+		int len = termStartBuf.get(termId + 1) - start;
+		int minLen = Math.min(len, wordBytes.length);
+		for(int i = 0; i < minLen; i++){
+			int cmp = (termBlobBuf.get(start + i) & 0xFF) - (wordBytes[i] & 0xFF);
+			if(cmp != 0){
+				return cmp;
+			}
+		}
+		return len - wordBytes.length;
+	}
+
+	/**
+	 * Looks up the thms containing word, and the word's indices in them.
+	 * @param word In normalized form, as in LiteralSearch.
+	 * @param postings Filled with the postings of word, cleared first.
+	 * @return number of thms found, 0 if word is not in index.
+	 */
+	public int getPostings(String word, LiteralPostings postings){
+		postings.clear();
+		int termId = termId(word.getBytes(StandardCharsets.UTF_8));
+		if(termId < 0){
+			return 0;
+		}
+		int start = postingStartBuf.get(termId);
+		int end = postingStartBuf.get(termId + 1);
+		for(int p = start; p < end; p++){
+			postings.add(thmIndexBuf.get(p));
+			int wordIndexCount = wordIndexCountBuf.get(p);
+			for(int j = 0; j < wordIndexCount; j++){
+				postings.addWordIndex(wordIndexBuf.get(p*WORD_INDEX_SLOT_COUNT + j));
+			}
+		}
+		return end - start;
+	}
+
+	/**
+	 * Decodes all postings, e.g. to merge with those of a new segment.
+	 * @return multimap of words and their postings, in word order.
+	 */
+	public ListMultimap<String, LiteralSearchIndex> toMultimap(){
+		ListMultimap<String, LiteralSearchIndex> mmap = ArrayListMultimap.create();
+		for(int termId = 0; termId < termCount; termId++){
+			int termStart = termStartBuf.get(termId);
+			byte[] termBytes = new byte[termStartBuf.get(termId + 1) - termStart];
+			ByteBuffer dup = termBlobBuf.duplicate();
+			dup.position(termStart);
+			dup.get(termBytes);
+			String term = new String(termBytes, StandardCharsets.UTF_8);
+			for(int p = postingStartBuf.get(termId); p < postingStartBuf.get(termId + 1); p++){
+				byte[] wordIndexAr = new byte[wordIndexCountBuf.get(p)];
+				for(int j = 0; j < wordIndexAr.length; j++){
+					wordIndexAr[j] = wordIndexBuf.get(p*WORD_INDEX_SLOT_COUNT + j);
+				}
+				mmap.put(term, new LiteralSearchIndex(thmIndexBuf.get(p), wordIndexAr));
+			}
+		}
+		return mmap;
+	}
+
+	/**
+	 * Writes the literal search index in store format, keeping for each word the same
+	 * postings as LiteralSearchUtils.populateLiteralSearchTb() puts in the database table,
+	 * i.e. the first maxThmsPerLiteralWord in iteration order. Written to a temp file first,
+	 * so stores mapped by searches are replaced atomically.
+	 * @param literalSearchIndexMap
+	 * @param path
+	 */
+	public static void writeToFile(Multimap<String, LiteralSearchIndex> literalSearchIndexMap, String path){
+		int maxThmsPerLiteralWord = SearchMetaData.maxThmsPerLiteralWord;
+		//sorted by UTF-8 bytes, see compareTerm().
+		TreeMap<byte[], List<LiteralSearchIndex>> termPostingsMap = new TreeMap<byte[], List<LiteralSearchIndex>>(
+				new Comparator<byte[]>() {
+					@Override
+					public int compare(byte[] bytes1, byte[] bytes2) {
+						int minLen = Math.min(bytes1.length, bytes2.length);
+						for(int i = 0; i < minLen; i++){
+							int cmp = (bytes1[i] & 0xFF) - (bytes2[i] & 0xFF);
+							if(cmp != 0){
+								return cmp;
+							}
+						}
+						return bytes1.length - bytes2.length;
+					}
+				});
+		int postingCount = 0;
+		long termBlobLen = 0;
+		for(Map.Entry<String, Collection<LiteralSearchIndex>> entry : literalSearchIndexMap.asMap().entrySet()){
+			List<LiteralSearchIndex> postingList = new ArrayList<LiteralSearchIndex>();
+			for(LiteralSearchIndex searchIndex : entry.getValue()){
+				if(postingList.size() == maxThmsPerLiteralWord){
+					break;
+				}
+				postingList.add(searchIndex);
+			}
+			Collections.sort(postingList, THM_INDEX_COMPARATOR);
+			byte[] termBytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+			termPostingsMap.put(termBytes, postingList);
+			postingCount += postingList.size();
+			termBlobLen += termBytes.length;
+		}
+		if(termBlobLen > Integer.MAX_VALUE - (long)postingCount*(4 + 1 + WORD_INDEX_SLOT_COUNT)){
+			throw new IllegalStateException("Literal search index too large for LiteralSearchIndexStore: "
+					+ termBlobLen + " bytes of terms");
+		}
+		String tempPath = path + ".tmp";
+		try{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempPath), 1 << 16));
+			try{
+				out.writeInt(FILE_MAGIC);
+				out.writeInt(FILE_VERSION);
+				out.writeInt(termPostingsMap.size());
+				out.writeInt(postingCount);
+				int offset = 0;
+				for(byte[] termBytes : termPostingsMap.keySet()){
+					out.writeInt(offset);
+					offset += termBytes.length;
+				}
+				out.writeInt(offset);
+				offset = 0;
+				for(List<LiteralSearchIndex> postingList : termPostingsMap.values()){
+					out.writeInt(offset);
+					offset += postingList.size();
+				}
+				out.writeInt(offset);
+				for(List<LiteralSearchIndex> postingList : termPostingsMap.values()){
+					for(LiteralSearchIndex searchIndex : postingList){
+						out.writeInt(searchIndex.thmIndex());
+					}
+				}
+				for(List<LiteralSearchIndex> postingList : termPostingsMap.values()){
+					for(LiteralSearchIndex searchIndex : postingList){
+						out.writeByte(Math.min(searchIndex.wordIndexAr().length, WORD_INDEX_SLOT_COUNT));
+					}
+				}
+				for(List<LiteralSearchIndex> postingList : termPostingsMap.values()){
+					for(LiteralSearchIndex searchIndex : postingList){
+						byte[] wordIndexAr = searchIndex.wordIndexAr();
+						for(int j = 0; j < WORD_INDEX_SLOT_COUNT; j++){
+							out.writeByte(j < wordIndexAr.length ? wordIndexAr[j] : LiteralSearchIndex.PLACEHOLDER_INDEX);
+						}
+					}
+				}
+				for(byte[] termBytes : termPostingsMap.keySet()){
+					out.write(termBytes);
+				}
+			}finally{
+				out.close();
+			}
+			Files.move(Paths.get(tempPath), Paths.get(path), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException e){
+			String msg = "IOException while writing LiteralSearchIndexStore " + path;
+			logger.error(msg + e);
+			throw new IllegalStateException(msg, e);
+		}
+	}
+
+	/**
+	 * Adds the literal search index of a new segment to the store at path, after the postings
+	 * already in it, or writes a new store if there is none.
+	 * @param segmentIndexMap postings of the segment's thms, with overall thm indices.
+	 * @param path
+	 */
+	public static void append(Multimap<String, LiteralSearchIndex> segmentIndexMap, String path){
+		if(!new File(path).exists()){
+			writeToFile(segmentIndexMap, path);
+			return;
+		}
+		ListMultimap<String, LiteralSearchIndex> mmap;
+		try{
+			mmap = load(path).toMultimap();
+		}catch(IOException e){
+			String msg = "IOException while reading LiteralSearchIndexStore " + path;
+			logger.error(msg + e);
+			throw new IllegalStateException(msg, e);
+		}
+		mmap.putAll(segmentIndexMap);
+		writeToFile(mmap, path);
+	}
+
+	/**
+	 * Path to store, from path to the serialized literal search index.
+	 * @param serialFileStr e.g. "src/thmp/data/literalSearchIndexMap.dat"
+	 * @return
+	 */
+	public static String storePath(String serialFileStr){
+		return serialFileStr + FILE_EXT;
+	}
+
+	/**
+	 * Writes the store of the literal search index of the full build, followed by those of
+	 * segments appended since, in order of their thm indices.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void convert(){
+		String serialPath = SearchMetaData.literalSearchIndexMapPath();
+		ListMultimap<String, LiteralSearchIndex> mmap = ArrayListMultimap.create();
+		mmap.putAll(((List<Multimap<String, LiteralSearchIndex>>)FileUtils.deserializeListFromFile(serialPath)).get(0));
+		TreeMap<Integer, File> segmentFileMap = new TreeMap<Integer, File>();
+		File[] fileAr = new File(serialPath).getAbsoluteFile().getParentFile().listFiles();
+		for(File file : null == fileAr ? new File[0] : fileAr){
+			Matcher matcher = SEGMENT_FILE_PATTERN.matcher(file.getName());
+			if(matcher.matches()){
+				segmentFileMap.put(Integer.parseInt(matcher.group(1)), file);
+			}
+		}
+		for(File segmentFile : segmentFileMap.values()){
+			mmap.putAll(((List<Multimap<String, LiteralSearchIndex>>)FileUtils.deserializeListFromFile(
+					segmentFile.getPath())).get(0));
+			System.out.println("LiteralSearchIndexStore - added segment " + segmentFile.getName());
+		}
+		writeToFile(mmap, storePath(serialPath));
+		System.out.println("LiteralSearchIndexStore - wrote store of " + mmap.keySet().size() + " words");
+	}
+
+	/**
+	 * Supply "-convert" to write the store of the existing serialized literal search index.
+	 * Lookup timings are in jmh/thmp/bench/LiteralSearchBenchmark.
+	 */
+	public static void main(String[] args) {
+		if(args.length > 0 && "-convert".equals(args[0])) {
+			convert();
+			return;
+		}
+		System.out.println("Supply \"-convert\" to write the literal search index store.");
+	}
+}
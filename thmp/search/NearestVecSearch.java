@@ -0,0 +1,663 @@
+package thmp.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import thmp.search.ThmSearch.TermDocumentMatrix;
+import thmp.utils.FileUtils;
+
+/**
+ * Nearest-vector (SVD) search done in Java, rather than through the WL kernel as in
+ * ThmSearch.ThmSearchQuery.findNearestVecs. Query vecs are smoothed with corMx, projected
+ * with dInverse.uTranspose, then compared against the projected thm vecs of all bundles,
+ * with one scan task per thread.
+ * Reads the binary exports written by TermDocumentMatrix.projectionMxBinaryExportCmd and
+ * ProjectionMatrix.combineProjectedMx, since .mx files can only be read by the kernel.
+ */
+public class NearestVecSearch {
+
+	private static final Logger logger = LogManager.getLogger(NearestVecSearch.class);
+	//number of nearest vectors to get, if not specified.
+	private static final int NUM_NEAREST = 50;
+	//same as threshold used for Nearest in ThmSearchQuery.
+	private static final double EUCLIDEAN_DISTANCE_THRESHOLD = 0.05;
+	//vecs this close to the zero vec don't have much content, e.g. contain mostly tex.
+	//Same as filterNonSense in CacheManager.m.
+	static final double ZERO_VEC_NORM_THRESHOLD = 0.0001;
+	//cap of bundle count in cache. Each bundle is about 1.3 mb.
+	private static final int CACHE_BUNDLE_COUNT_CAP = 400;
+	private static final int NUM_SCAN_THREADS = Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors()));
+
+	private static final ExecutorService scanExecutor;
+	private static volatile DistanceMetric distanceMetric = DistanceMetric.EUCLIDEAN;
+	private static volatile double distanceThreshold = EUCLIDEAN_DISTANCE_THRESHOLD;
+	//whether to use the approximate HnswIndex when present, rather than scanning all bundles.
+	private static volatile boolean useApproximateIndex = true;
+	private static volatile int approximateEfSearch = HnswIndex.DEFAULT_EF_SEARCH;
+
+	static{
+		scanExecutor = Executors.newFixedThreadPool(NUM_SCAN_THREADS,
+				new ThreadFactoryBuilder().setNameFormat("nearestVecScan-%d").setDaemon(true).build());
+	}
+
+	/**
+	 * Distance used to compare projected vecs. EUCLIDEAN is consistent with the
+	 * WL Nearest used previously.
+	 */
+	public enum DistanceMetric{
+		EUCLIDEAN,
+		/*1 - cosine similarity*/
+		COSINE;
+	}
+
+	/**
+	 * Projection matrices from the SVD, loaded lazily on first query.
+	 */
+	private static class ProjectionMxHolder{
+		private static final ProjectionMx projectionMx;
+		static{
+			String path = FileUtils.getPathIfOnServlet(ThmSearch.getSystemProjectionMxBinaryFilePath());
+			ProjectionMx mx = null;
+			if(new File(path).exists()){
+				try{
+					mx = ProjectionMx.load(path);
+					String msg = "NearestVecSearch - loaded projection mx, k: " + mx.k + " number of words: " + mx.termCount;
+					System.out.println(msg);
+					logger.info(msg);
+				}catch(IOException e){
+					logger.error("IOException when loading binary projection mx! " + e);
+				}
+			}else{
+				logger.info("NearestVecSearch - no binary projection mx found at " + path);
+			}
+			projectionMx = mx;
+		}
+	}
+
+	/**
+	 * Vec bundles loaded so far, and the approximate nearest-vector index, for one IndexGeneration.
+	 */
+	static class GenerationData{
+		private final LoadingCache<Integer, VecBundle> vecBundleCache;
+		//null until first query
+		private volatile ApproximateIndex approximateIndex;
+
+		GenerationData(){
+			vecBundleCache = CacheBuilder.newBuilder()
+					.maximumSize(CACHE_BUNDLE_COUNT_CAP)
+					.build(
+							new CacheLoader<Integer, VecBundle>() {
+								public VecBundle load(Integer bundleKey) throws IOException{
+									return VecBundle.load(bundleKey);
+								}
+							}
+							);
+		}
+
+		/**
+		 * Approximate index, memory-mapped on first call.
+		 * @return
+		 */
+		private ApproximateIndex approximateIndex(){
+			ApproximateIndex index = approximateIndex;
+			if(null == index){
+				synchronized(this){
+					index = approximateIndex;
+					if(null == index){
+						index = ApproximateIndex.load();
+						approximateIndex = index;
+					}
+				}
+			}
+			return index;
+		}
+
+		/**
+		 * Drops loaded bundles, once the generation is no longer used.
+		 */
+		void release(){
+			vecBundleCache.invalidateAll();
+		}
+	}
+
+	/**
+	 * Approximate nearest-vector index over all bundles, or those present when it was built.
+	 */
+	private static class ApproximateIndex{
+		//null if no usable index
+		private final HnswIndex index;
+		//bundles appended as IndexSegments after the index was built are not in it.
+		private final int indexedBundleCount;
+
+		private ApproximateIndex(HnswIndex index, int indexedBundleCount){
+			this.index = index;
+			this.indexedBundleCount = indexedBundleCount;
+		}
+
+		static ApproximateIndex load(){
+			IndexSegments indexSegments = IndexSegments.read();
+			String path = indexSegments.nearestVecIndexPath();
+			int indexedBundleCount = indexSegments.nearestVecIndexBundleCount(ThmHypPairGet.totalBundleNum());
+			HnswIndex index = null;
+			if(new File(path).exists()){
+				try{
+					index = HnswIndex.load(path);
+					ProjectionMx projectionMx = ProjectionMxHolder.projectionMx;
+					if(null != projectionMx && index.dim() != projectionMx.k){
+						logger.error("NearestVecSearch - index dimension " + index.dim() + " differs from projection mx k " 
+								+ projectionMx.k + ", not using index.");
+						index = null;
+					}else{
+						index.setEfSearch(approximateEfSearch);
+						logger.info("NearestVecSearch - loaded approximate index with " + index.nodeCount() + " vecs.");
+					}
+				}catch(IOException e){
+					logger.error("IOException when loading approximate nearest vec index! " + e);
+				}
+			}
+			return new ApproximateIndex(index, indexedBundleCount);
+		}
+	}
+
+	/**
+	 * The dInverse, uTranspose, corMx, and mxMeanValue from the SVD of the
+	 * term-document mx.
+	 */
+	private static class ProjectionMx{
+		//number of singular values kept
+		final int k;
+		//number of words, i.e. length of query vecs
+		final int termCount;
+		final double meanValue;
+		//diagonal of dInverse
+		final float[] dInverseDiag;
+		//k x termCount, row-major
+		final float[] uTranspose;
+		final double[] uTransposeRowSum;
+		//corMx in compressed column form
+		final int[] corColStart;
+		final int[] corRowIndex;
+		final float[] corValue;
+
+		private ProjectionMx(int k, int termCount, double meanValue, float[] dInverseDiag, float[] uTranspose,
+				int[] corColStart, int[] corRowIndex, float[] corValue){
+			this.k = k;
+			this.termCount = termCount;
+			this.meanValue = meanValue;
+			this.dInverseDiag = dInverseDiag;
+			this.uTranspose = uTranspose;
+			this.corColStart = corColStart;
+			this.corRowIndex = corRowIndex;
+			this.corValue = corValue;
+			this.uTransposeRowSum = new double[k];
+			for(int r = 0; r < k; r++){
+				double sum = 0;
+				int rowStart = r*termCount;
+				for(int i = 0; i < termCount; i++){
+					sum += uTranspose[rowStart + i];
+				}
+				uTransposeRowSum[r] = sum;
+			}
+		}
+
+		static ProjectionMx load(String path) throws IOException{
+			ByteBuffer buf = mapFile(path);
+			int k = buf.getInt();
+			int termCount = buf.getInt();
+			double meanValue = buf.getFloat();
+			float[] dInverseDiag = new float[k];
+			buf.asFloatBuffer().get(dInverseDiag);
+			buf.position(buf.position() + 4*k);
+			float[] uTranspose = new float[k*termCount];
+			buf.asFloatBuffer().get(uTranspose);
+			buf.position(buf.position() + 4*uTranspose.length);
+			int nnz = buf.getInt();
+			int[] rowAr = new int[nnz];
+			int[] colAr = new int[nnz];
+			float[] valAr = new float[nnz];
+			buf.asIntBuffer().get(rowAr);
+			buf.position(buf.position() + 4*nnz);
+			buf.asIntBuffer().get(colAr);
+			buf.position(buf.position() + 4*nnz);
+			buf.asFloatBuffer().get(valAr);
+
+			//convert to column form, so corMx.q only visits columns where q is nonzero.
+			int[] corColStart = new int[termCount+1];
+			for(int col : colAr){
+				corColStart[col+1]++;
+			}
+			for(int i = 0; i < termCount; i++){
+				corColStart[i+1] += corColStart[i];
+			}
+			int[] fillPos = corColStart.clone();
+			int[] corRowIndex = new int[nnz];
+			float[] corValue = new float[nnz];
+			for(int i = 0; i < nnz; i++){
+				int pos = fillPos[colAr[i]]++;
+				corRowIndex[pos] = rowAr[i];
+				corValue[pos] = valAr[i];
+			}
+			return new ProjectionMx(k, termCount, meanValue, dInverseDiag, uTranspose, corColStart, corRowIndex, corValue);
+		}
+
+		/**
+		 * Same as q = dInverse.uTranspose.((q + COR_MX_SCALING_FACTOR*corMx.q)/.{0.0->mxMeanValue})
+		 * in ThmSearchQuery, but only iterates over nonzero entries of the query.
+		 * @param queryVec of length termCount.
+		 * @return projected vec of length k.
+		 */
+		double[] project(double[] queryVec){
+			double[] q0 = queryVec.clone();
+			for(int j = 0; j < termCount; j++){
+				double qj = queryVec[j];
+				if(0 == qj){
+					continue;
+				}
+				double scaled = TermDocumentMatrix.COR_MX_SCALING_FACTOR * qj;
+				for(int p = corColStart[j]; p < corColStart[j+1]; p++){
+					q0[corRowIndex[p]] += scaled * corValue[p];
+				}
+			}
+			int[] nonZeroIndexAr = new int[termCount];
+			int nonZeroCount = 0;
+			for(int i = 0; i < termCount; i++){
+				if(0 != q0[i]){
+					nonZeroIndexAr[nonZeroCount++] = i;
+				}
+			}
+			//zero entries are replaced by the mean, so the product is
+			//mean*rowSum + sum over nonzero entries of uT*(q0 - mean).
+			double[] projected = new double[k];
+			for(int r = 0; r < k; r++){
+				int rowStart = r*termCount;
+				double sum = meanValue * uTransposeRowSum[r];
+				for(int i = 0; i < nonZeroCount; i++){
+					int index = nonZeroIndexAr[i];
+					sum += uTranspose[rowStart + index] * (q0[index] - meanValue);
+				}
+				projected[r] = dInverseDiag[r] * sum;
+			}
+			return projected;
+		}
+	}
+
+	/**
+	 * Projected thm vecs in one bundle, as dense row-major float array.
+	 * Rows are thms, in same order as in the ThmHypPairBundle with same key.
+	 */
+	static class VecBundle{
+		final int bundleKey;
+		final int rowCount;
+		final int dim;
+		final float[] vecs;
+
+		private VecBundle(int bundleKey, int rowCount, int dim, float[] vecs){
+			this.bundleKey = bundleKey;
+			this.rowCount = rowCount;
+			this.dim = dim;
+			this.vecs = vecs;
+		}
+
+		static VecBundle load(int bundleKey) throws IOException{
+			String path = FileUtils.getPathIfOnServlet(ProjectionMatrix.combinedMxBinaryPath(bundleKey));
+			ByteBuffer buf = mapFile(path);
+			int rowCount = buf.getInt();
+			int dim = buf.getInt();
+			float[] vecs = new float[rowCount*dim];
+			buf.asFloatBuffer().get(vecs);
+			return new VecBundle(bundleKey, rowCount, dim, vecs);
+		}
+	}
+
+	/**
+	 * Bounded max-heap on distance, to keep the numNearest closest thms.
+	 */
+	private static class NearestHeap{
+		final int capacity;
+		final double[] distAr;
+		final int[] thmIndexAr;
+		int size;
+
+		NearestHeap(int capacity){
+			this.capacity = capacity;
+			this.distAr = new double[capacity];
+			this.thmIndexAr = new int[capacity];
+		}
+
+		void offer(double dist, int thmIndex){
+			if(size < capacity){
+				int i = size++;
+				while(i > 0){
+					int parent = (i-1) >>> 1;
+					if(!greater(dist, thmIndex, parent)){
+						break;
+					}
+					distAr[i] = distAr[parent];
+					thmIndexAr[i] = thmIndexAr[parent];
+					i = parent;
+				}
+				distAr[i] = dist;
+				thmIndexAr[i] = thmIndex;
+			}else if(greater(distAr[0], thmIndexAr[0], dist, thmIndex)){
+				int i = 0;
+				while(true){
+					int child = 2*i + 1;
+					if(child >= size){
+						break;
+					}
+					if(child + 1 < size && greater(child+1, child)){
+						child++;
+					}
+					if(!greater(distAr[child], thmIndexAr[child], dist, thmIndex)){
+						break;
+					}
+					distAr[i] = distAr[child];
+					thmIndexAr[i] = thmIndexAr[child];
+					i = child;
+				}
+				distAr[i] = dist;
+				thmIndexAr[i] = thmIndex;
+			}
+		}
+
+		private boolean greater(int i, int j){
+			return greater(distAr[i], thmIndexAr[i], distAr[j], thmIndexAr[j]);
+		}
+
+		private boolean greater(double dist, int thmIndex, int j){
+			return greater(dist, thmIndex, distAr[j], thmIndexAr[j]);
+		}
+
+		//ties broken by thm index, so results don't depend on scan order.
+		private static boolean greater(double dist1, int thmIndex1, double dist2, int thmIndex2){
+			return dist1 > dist2 || (dist1 == dist2 && thmIndex1 > thmIndex2);
+		}
+
+		/**
+		 * Empties the heap.
+		 * @return thm indices, sorted by increasing distance.
+		 */
+		List<Integer> sortedThmIndexList(){
+			Integer[] thmIndexList = new Integer[size];
+			//pop largest repeatedly, filling from the back.
+			while(size > 0){
+				thmIndexList[size-1] = thmIndexAr[0];
+				size--;
+				double lastDist = distAr[size];
+				int lastThmIndex = thmIndexAr[size];
+				int i = 0;
+				while(true){
+					int child = 2*i + 1;
+					if(child >= size){
+						break;
+					}
+					if(child + 1 < size && greater(child+1, child)){
+						child++;
+					}
+					if(!greater(distAr[child], thmIndexAr[child], lastDist, lastThmIndex)){
+						break;
+					}
+					distAr[i] = distAr[child];
+					thmIndexAr[i] = thmIndexAr[child];
+					i = child;
+				}
+				distAr[i] = lastDist;
+				thmIndexAr[i] = lastThmIndex;
+			}
+			return Arrays.asList(thmIndexList);
+		}
+	}
+
+	/**
+	 * Whether binary exports of the projection mx are present, so search can
+	 * be done without the WL kernel.
+	 * @return
+	 */
+	public static boolean isAvailable(){
+		return null != ProjectionMxHolder.projectionMx;
+	}
+
+	/**
+	 * Sets the metric used to compare projected vecs, and the distance below which
+	 * thms are considered near.
+	 * @param metric
+	 * @param threshold
+	 */
+	public static void setDistanceMetric(DistanceMetric metric, double threshold){
+		distanceMetric = metric;
+		distanceThreshold = threshold;
+	}
+
+	/**
+	 * Configures recall of the approximate index versus exact scan. 
+	 * @param useIndex whether to use the approximate index, if present. 
+	 * Exact scan is used otherwise.
+	 * @param efSearch candidate list size for the approximate index, larger 
+	 * gives higher recall but slower searches.
+	 */
+	public static void setApproximateSearch(boolean useIndex, int efSearch){
+		useApproximateIndex = useIndex;
+		approximateEfSearch = efSearch;
+		HnswIndex index = IndexGeneration.forCurrentThread().nearestVecData().approximateIndex().index;
+		if(null != index){
+			index.setEfSearch(efSearch);
+		}
+	}
+
+	/**
+	 * Finds thms nearest to the given query String.
+	 * @param thm query String
+	 * @param num number of nearest thms to take.
+	 * @return List of indices of nearest thms, closest first.
+	 */
+	public static List<Integer> findNearestThms(String thm, int... num){
+		ProjectionMx projectionMx = ProjectionMxHolder.projectionMx;
+		if(null == projectionMx){
+			throw new IllegalStateException("Binary projection mx not available!");
+		}
+		double[] queryVec = TriggerMathThm2.createQueryVecAr(thm, projectionMx.termCount);
+		//short-circuit if no relevant term was detected.
+		if(null == queryVec){
+			return Collections.emptyList();
+		}
+		int numNearest = num.length == 0 ? NUM_NEAREST : num[0];
+		return findNearestVecs(projectionMx.project(queryVec), numNearest);
+	}
+
+	/**
+	 * Finds thm vecs nearest the projected query vec, with the approximate index if
+	 * available and enabled, and the metric is Euclidean, which the index is built for.
+	 * @param projectedVec query vec already projected with dInverse.uTranspose.
+	 * @param numNearest
+	 * @return List of indices of nearest thms, closest first.
+	 */
+	public static List<Integer> findNearestVecs(double[] projectedVec, int numNearest){
+		//index and scanned bundles come from the same generation.
+		IndexGeneration generation = IndexGeneration.enter();
+		try{
+			ApproximateIndex approximateIndex = generation.nearestVecData().approximateIndex();
+			HnswIndex index = approximateIndex.index;
+			if(useApproximateIndex && null != index && DistanceMetric.EUCLIDEAN == distanceMetric){
+				int indexedBundleCount = approximateIndex.indexedBundleCount;
+				if(indexedBundleCount >= ThmHypPairGet.totalBundleNum() || numNearest <= 0){
+					return index.findNearest(projectedVec, numNearest, distanceThreshold);
+				}
+				//bundles after the indexed ones are scanned exactly, and merged by distance.
+				List<Double> distList = new ArrayList<Double>();
+				List<Integer> thmIndexList = index.findNearest(projectedVec, numNearest, distanceThreshold, distList);
+				NearestHeap heap = scanBundles(projectedVec, numNearest, DistanceMetric.EUCLIDEAN, distanceThreshold,
+						indexedBundleCount);
+				for(int i = 0; i < thmIndexList.size(); i++){
+					heap.offer(distList.get(i), thmIndexList.get(i));
+				}
+				return heap.sortedThmIndexList();
+			}
+			return findNearestVecsExact(projectedVec, numNearest);
+		}finally{
+			IndexGeneration.exit();
+		}
+	}
+
+	/**
+	 * Scans all bundles for thm vecs nearest the projected query vec.
+	 * @param projectedVec query vec already projected with dInverse.uTranspose.
+	 * @param numNearest
+	 * @return List of indices of nearest thms, closest first.
+	 */
+	public static List<Integer> findNearestVecsExact(double[] projectedVec, int numNearest){
+		if(numNearest <= 0){
+			return Collections.emptyList();
+		}
+		return scanBundles(projectedVec, numNearest, distanceMetric, distanceThreshold, 0).sortedThmIndexList();
+	}
+
+	/**
+	 * Scans bundles with keys from firstBundleKey on, for thm vecs nearest the projected query vec.
+	 * @param projectedVec
+	 * @param numNearest
+	 * @param metric
+	 * @param threshold
+	 * @param firstBundleKey
+	 * @return heap of nearest thms.
+	 */
+	private static NearestHeap scanBundles(final double[] projectedVec, final int numNearest, 
+			final DistanceMetric metric, final double threshold, final int firstBundleKey){
+		//pinned for the scan, so scan threads can use the generation the query is on
+		//even if a new one is swapped in meanwhile.
+		final IndexGeneration generation = IndexGeneration.enter();
+		try{
+			return scanBundles(projectedVec, numNearest, metric, threshold, firstBundleKey, generation);
+		}finally{
+			IndexGeneration.exit();
+		}
+	}
+
+	private static NearestHeap scanBundles(final double[] projectedVec, final int numNearest, 
+			final DistanceMetric metric, final double threshold, final int firstBundleKey,
+			final IndexGeneration generation){
+		final int totalBundleNum = ThmHypPairGet.totalBundleNum();
+		final AtomicInteger nextBundleKey = new AtomicInteger(totalBundleNum);
+
+		List<Future<NearestHeap>> futureList = new ArrayList<Future<NearestHeap>>(NUM_SCAN_THREADS);
+		int numTasks = Math.min(NUM_SCAN_THREADS, totalBundleNum - firstBundleKey);
+		for(int t = 0; t < numTasks; t++){
+			futureList.add(scanExecutor.submit(new Callable<NearestHeap>(){
+				public NearestHeap call(){
+					NearestHeap heap = new NearestHeap(numNearest);
+					IndexGeneration.enter(generation);
+					try{
+						//newest bundles first, same order as MxBundleKeyIterator
+						int bundleKey;
+						while((bundleKey = nextBundleKey.decrementAndGet()) >= firstBundleKey){
+							scanBundle(bundleKey, projectedVec, metric, threshold, heap);
+						}
+					}finally{
+						IndexGeneration.exit();
+					}
+					return heap;
+				}
+			}));
+		}
+		NearestHeap mergedHeap = new NearestHeap(numNearest);
+		try{
+			for(Future<NearestHeap> future : futureList){
+				NearestHeap heap = future.get();
+				for(int i = 0; i < heap.size; i++){
+					mergedHeap.offer(heap.distAr[i], heap.thmIndexAr[i]);
+				}
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted during nearest vec search!", e);
+		}catch(ExecutionException e){
+			logger.error("ExecutionException during nearest vec search! " + e);
+			throw new IllegalStateException(e);
+		}
+		return mergedHeap;
+	}
+
+	private static void scanBundle(int bundleKey, double[] projectedVec, DistanceMetric metric,
+			double threshold, NearestHeap heap){
+		VecBundle bundle;
+		try{
+			bundle = IndexGeneration.forCurrentThread().nearestVecData().vecBundleCache.get(bundleKey);
+		}catch(ExecutionException e){
+			logger.error("Could not load vec bundle " + bundleKey + "! " + e.getCause());
+			return;
+		}
+		int dim = bundle.dim;
+		if(dim != projectedVec.length){
+			logger.error("Vec bundle " + bundleKey + " has dimension " + dim
+					+ ", but the projected query has dimension " + projectedVec.length);
+			return;
+		}
+		double queryNorm = 0;
+		for(double d : projectedVec){
+			queryNorm += d*d;
+		}
+		queryNorm = Math.sqrt(queryNorm);
+		double zeroNormSq = ZERO_VEC_NORM_THRESHOLD*ZERO_VEC_NORM_THRESHOLD;
+		int bundleStartThmIndex = ThmHypPairGet.bundleStartThmIndex(bundleKey);
+		float[] vecs = bundle.vecs;
+
+		for(int row = 0, base = 0; row < bundle.rowCount; row++, base += dim){
+			double normSq = 0;
+			double dist;
+			if(metric == DistanceMetric.EUCLIDEAN){
+				double distSq = 0;
+				for(int i = 0; i < dim; i++){
+					double v = vecs[base + i];
+					double diff = v - projectedVec[i];
+					distSq += diff*diff;
+					normSq += v*v;
+				}
+				dist = Math.sqrt(distSq);
+			}else{
+				double dot = 0;
+				for(int i = 0; i < dim; i++){
+					double v = vecs[base + i];
+					dot += v*projectedVec[i];
+					normSq += v*v;
+				}
+				dist = 0 == queryNorm || 0 == normSq ? 1 : 1 - dot/(queryNorm*Math.sqrt(normSq));
+			}
+			if(normSq <= zeroNormSq || dist >= threshold){
+				continue;
+			}
+			heap.offer(dist, bundleStartThmIndex + row);
+		}
+	}
+
+	private static ByteBuffer mapFile(String path) throws IOException{
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try{
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			return buf;
+		}finally{
+			file.close();
+		}
+	}
+}
@@ -8,7 +8,11 @@ import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -23,7 +27,6 @@ import org.apache.logging.log4j.Logger;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableMultimap;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.SetMultimap;
@@ -37,8 +40,8 @@ import thmp.search.LiteralSearch.LiteralSearchIndex;
 import thmp.search.SearchCombined.ThmHypPair;
 import thmp.search.Searcher.SearchConfiguration;
 import thmp.search.Searcher.SearchMetaData;
-import thmp.search.TheoremGet.ContextRelationVecPair;
 import thmp.search.ThmSearch.TermDocumentMatrix;
+import thmp.utils.BinaryDataFile;
 import thmp.utils.FileUtils;
 import thmp.utils.MathLinkUtils.WLEvaluationMedium;
 import thmp.utils.WordForms.ThmPart;
@@ -71,18 +74,11 @@ public class ProjectionMatrix {
 	 */
 	private static final ImmutableMap<String, Integer> wordsScoreMap;
 
-	/**
-	 * Multimap of words, and the theorems (their indices) in thmList, the word
-	 * shows up in.
-	 */
-	private static final ImmutableMultimap<String, IndexPartPair> wordThmsIndexMMap;
-	
 	//regex to match strings of form: "'math0702266','Florent','','Baudier'"
 	private static final Pattern NAME_DATA_LINE_PATT = Pattern.compile("'([^']+)'.+");
 	
 	static {
 		wordsScoreMap = CollectThm.ThmWordsMaps.get_wordsScoreMap();
-		wordThmsIndexMMap = CollectThm.ThmWordsMaps.get_wordThmsMMap();
 		
 	}
 	
@@ -93,6 +89,11 @@ public class ProjectionMatrix {
 	 * e.g. "0208_001Untarred/0208/", or "0304_001Untarred/0304", OR
 	 * "0304_001Untarred/0304/FullTDMatrix.mx"
 	 * Could also supply file containing such paths, with exact same format.
+	 * Supply "-exportBinary" to write binary exports of the existing projection and 
+	 * combined mx files, for NearestVecSearch.
+	 * Supply "-append" followed by paths, or a file of paths, to add the tars as a new segment
+	 * after the existing data, rather than rebuilding, see IndexSegments. And "-compact" to
+	 * compact the segments.
 	 */
 	public static void main(String[] args){
 		int argsLen = args.length;
@@ -101,13 +102,32 @@ public class ProjectionMatrix {
 					+ "Or a file containing such paths.");
 			return;
 		}
+		if("-exportBinary".equals(args[0])){
+			exportBinaryMx();
+			return;
+		}
+		if("-compact".equals(args[0])){
+			IndexSegments.compact();
+			return;
+		}
+		boolean append = "-append".equals(args[0]);
+		if(append){
+			args = Arrays.copyOfRange(args, 1, argsLen);
+			argsLen = args.length;
+		}
 		//check if supplied arg is file containing directories, or a single directory.
 		if(1 == argsLen){
 			args = readListFromFile(args);
 			argsLen = args.length;
 		}
 		
-		serializeCombinedSources(args, argsLen);
+		if(append){
+			appendSegment(args);
+			//segment is already searchable, compaction only reorganizes it.
+			IndexSegments.compact();
+		}else{
+			serializeCombinedSources(args, argsLen);
+		}
 	}
 
 	/**
@@ -145,11 +165,8 @@ public class ProjectionMatrix {
 	private static void serializeCombinedSources(String[] args, int argsLen) {
 		//List<String> parsedExpressionFilePathList = new ArrayList<String>();
 		//List<String> contextRelationVecPairFilePathList = new ArrayList<String>();
-		//form list of String's of paths, e.g. "0208_001/0208/termDocumentMatrixSVD.mx".
-		List<String> projectedMxFilePathList = new ArrayList<String>();
-		List<ThmHypPair> combinedPEList = new ArrayList<ThmHypPair>();
-		List<ContextRelationVecPair> combinedVecsList = new ArrayList<ContextRelationVecPair>();
-		List<Integer> bundleStartThmIndexList = new ArrayList<Integer>();
+		//writes thms and vecs in bundles as tars are added, so only one bundle is kept in memory
+		ThmBundleWriter bundleWriter = new ThmBundleWriter(SearchConfiguration.bundleIndexPath());
 		List<String> allThmNameScrapeList = new ArrayList<String>();
 		
 		HashMultimap<String, LiteralSearchIndex> literalSearchIndexMap 
@@ -170,12 +187,144 @@ public class ProjectionMatrix {
 	    BufferedWriter nameCSVBWriter = new BufferedWriter(nameCSVFileWriter);
 	    PrintWriter nameCSVPWriter = new PrintWriter(nameCSVBWriter);
 		
-		int loopTotal = argsLen / TAR_COUNT_PER_BUNDLE + 1;
-		int vecsFileNameCounter = 0;
-		//will go up to ~10^6 when all tars are included.
-		int thmCounter = 0;
 		//combined MMap from multiple tars.
 		Multimap<String, IndexPartPair> combinedWordThmIndexMMap = ArrayListMultimap.create();
+		//will go up to ~10^6 when all tars are included.
+		int thmCounter = combineTarsIntoBundles(args, bundleWriter, 0, 0, combinedWordThmIndexMMap, 
+				literalSearchIndexMap, allThmNameScrapeList, nameCSVPWriter, paperIdNameDataMap);
+		//serialize the remaining thm vecs (must be less than the number of thms per vecsBundle).
+		bundleWriter.close();
+		int keywordsMapSz = CollectThm.ThmWordsMaps.get_CONTEXT_VEC_SIZE();
+		List<Integer> bundleStartThmIndexList = ThmBundleWriter.readBundleIndex(SearchConfiguration.bundleIndexPath());
+		Searcher.SearchConfiguration searchConfig = new Searcher.SearchConfiguration(bundleStartThmIndexList, thmCounter,
+				keywordsMapSz);
+		List<Searcher.SearchConfiguration> searchConfigList = new ArrayList<Searcher.SearchConfiguration>();
+		searchConfigList.add(searchConfig);
+		FileUtils.serializeObjToFile(searchConfigList, SearchConfiguration.searchConfigurationSerialPath());
+		
+		/***June 13 comment out if use database*/
+		List<HashMultimap<String, LiteralSearchIndex>> literalSearchIndexMapList 
+			= new ArrayList<HashMultimap<String, LiteralSearchIndex>>();
+		literalSearchIndexMapList.add(literalSearchIndexMap);
+		//to be put into database, rather than storing in memory, for access at app runtime
+		BinaryDataFile.write(literalSearchIndexMapList, BinaryDataFile.LITERAL_SEARCH_INDEX_SCHEMA,
+				SearchMetaData.literalSearchIndexMapPath());
+		//mapped by IndexGeneration, so literal search doesn't need the database
+		LiteralSearchIndexStore.writeToFile(literalSearchIndexMap, 
+				LiteralSearchIndexStore.storePath(SearchMetaData.literalSearchIndexMapPath()));
+		//for human inspection purposes, so put path here.
+		final String literalSearchMapKeysPath = "src/thmp/data/literalSearchIndexMapKeys.txt";
+		FileUtils.writeToFile(literalSearchIndexMap.keySet(), literalSearchMapKeysPath);
+		
+		//serialize scraped thm names
+		FileUtils.serializeObjToFile(allThmNameScrapeList, DetectHypothesis.allThmNameScrapeSerStr);
+		FileUtils.writeToFile(allThmNameScrapeList, DetectHypothesis.allThmNameScrapeTxtStr);
+		
+		//serialize map into one file, to be loaded at once in memory at runtime.
+		//should be ~240 MB.
+	 	String wordThmIndexMMapPath = FileUtils.getPathIfOnServlet(SearchMetaData.wordThmIndexMMapSerialFilePath());
+	 	List<Multimap<String, IndexPartPair>> combinedWordThmIndexMMapList = new ArrayList<Multimap<String, IndexPartPair>>();
+	 	combinedWordThmIndexMMapList.add(combinedWordThmIndexMMap);	 	
+	 	BinaryDataFile.write(combinedWordThmIndexMMapList, BinaryDataFile.WORD_THM_INDEX_SCHEMA, wordThmIndexMMapPath);
+	 	
+	 	FileUtils.silentClose(nameCSVPWriter);
+	 	
+	 	buildNearestVecIndex(bundleStartThmIndexList);
+	 	//data of all tars is now in the full build
+	 	IndexSegments.clear();
+	}
+	
+	/**
+	 * Adds tars as a new segment after the existing data, without rebuilding the data of earlier 
+	 * tars, see IndexSegments. The tars' term document mx must have been projected with the existing
+	 * projection mx, i.e. uTranspose and dInverse, as DetectHypothesis does when a projection mx is supplied.
+	 * @param args paths to directories of the tars.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void appendSegment(String[] args) {
+		//appends that overlap, e.g. from different processes, would write bundles after the same thms.
+		IndexSegments.lockForWrite();
+		try {
+			SearchConfiguration prevSearchConfig = FileUtils.deserializeSearchConfiguration();
+			int startThmIndex = prevSearchConfig.totalThmsCount();
+			int prevTotalBundleNum = prevSearchConfig.bundleStartThmIndexList().size();
+			ThmBundleWriter bundleWriter = ThmBundleWriter.forAppend(SearchConfiguration.bundleIndexPath(), startThmIndex);
+			if(bundleWriter.bundleStartThmIndexList().size() != prevTotalBundleNum) {
+				throw new IllegalStateException("Bundle index " + SearchConfiguration.bundleIndexPath() + " lists "
+						+ bundleWriter.bundleStartThmIndexList().size() + " bundles, but SearchConfiguration has "
+						+ prevTotalBundleNum);
+			}
+			List<String> thmNameScrapeList = new ArrayList<String>();
+			HashMultimap<String, LiteralSearchIndex> literalSearchIndexMap = HashMultimap.create();
+			Multimap<String, String> paperIdNameDataMap = parseRawNameDataFile();
+		
+			FileWriter nameCSVFileWriter = null;
+			try {
+				nameCSVFileWriter = new FileWriter(SearchMetaData.nameCSVDataPath(), true);
+			} catch (IOException e) {			
+				throw new IllegalStateException("IOException while opening FileWriter!");
+			}
+			PrintWriter nameCSVPWriter = new PrintWriter(new BufferedWriter(nameCSVFileWriter));
+		
+			Multimap<String, IndexPartPair> segmentWordThmIndexMMap = ArrayListMultimap.create();
+			int thmCounter = combineTarsIntoBundles(args, bundleWriter, prevTotalBundleNum, startThmIndex, 
+					segmentWordThmIndexMMap, literalSearchIndexMap, thmNameScrapeList, nameCSVPWriter, paperIdNameDataMap);
+			bundleWriter.close();
+			FileUtils.silentClose(nameCSVPWriter);
+		
+			//tars' context vecs are over the same keywords map
+			List<Integer> bundleStartThmIndexList = ThmBundleWriter.readBundleIndex(SearchConfiguration.bundleIndexPath());
+			List<Searcher.SearchConfiguration> searchConfigList = new ArrayList<Searcher.SearchConfiguration>();
+			searchConfigList.add(new Searcher.SearchConfiguration(bundleStartThmIndexList, thmCounter, 
+					prevSearchConfig.allKeywordsMapSz()));
+			FileUtils.serializeObjToFile(searchConfigList, SearchConfiguration.searchConfigurationSerialPath());
+		
+			//to be put into database along with the full literal search index.
+			List<HashMultimap<String, LiteralSearchIndex>> literalSearchIndexMapList 
+				= new ArrayList<HashMultimap<String, LiteralSearchIndex>>();
+			literalSearchIndexMapList.add(literalSearchIndexMap);
+			BinaryDataFile.write(literalSearchIndexMapList, BinaryDataFile.LITERAL_SEARCH_INDEX_SCHEMA,
+					SearchMetaData.literalSearchIndexMapPath().replace(".dat", "Segment" + startThmIndex + ".dat"));
+			LiteralSearchIndexStore.append(literalSearchIndexMap, 
+					LiteralSearchIndexStore.storePath(SearchMetaData.literalSearchIndexMapPath()));
+		
+			if(new File(DetectHypothesis.allThmNameScrapeSerStr).exists()) {
+				List<String> allThmNameScrapeList = new ArrayList<String>((List<String>)
+						FileUtils.deserializeListFromFile(DetectHypothesis.allThmNameScrapeSerStr));
+				allThmNameScrapeList.addAll(thmNameScrapeList);
+				thmNameScrapeList = allThmNameScrapeList;
+			}
+			FileUtils.serializeObjToFile(thmNameScrapeList, DetectHypothesis.allThmNameScrapeSerStr);
+			FileUtils.writeToFile(thmNameScrapeList, DetectHypothesis.allThmNameScrapeTxtStr);
+		
+			IndexSegments.addSegment(segmentWordThmIndexMMap, startThmIndex, thmCounter - startThmIndex, prevTotalBundleNum);
+		}finally {
+			IndexSegments.unlockForWrite();
+		}
+	}
+	
+	/**
+	 * Combines tars, TAR_COUNT_PER_BUNDLE at a time, into ThmHypPair bundles and combined projected mx.
+	 * @param args paths to directories of the tars.
+	 * @param bundleWriter
+	 * @param startBundleIndex index of first bundle and combined mx to write.
+	 * @param startThmIndex overall index of first thm in the tars.
+	 * @param combinedWordThmIndexMMap postings of the tars' thms are added to this, with overall thm indices.
+	 * @param literalSearchIndexMap
+	 * @param allThmNameScrapeList
+	 * @param nameCSVPWriter
+	 * @param paperIdNameDataMap
+	 * @return overall index after the last thm in the tars.
+	 */
+	private static int combineTarsIntoBundles(String[] args, ThmBundleWriter bundleWriter, int startBundleIndex,
+			int startThmIndex, Multimap<String, IndexPartPair> combinedWordThmIndexMMap, 
+			HashMultimap<String, LiteralSearchIndex> literalSearchIndexMap, List<String> allThmNameScrapeList, 
+			PrintWriter nameCSVPWriter, Multimap<String, String> paperIdNameDataMap) {
+		int argsLen = args.length;
+		//form list of String's of paths, e.g. "0208_001/0208/termDocumentMatrixSVD.mx".
+		List<String> projectedMxFilePathList = new ArrayList<String>();
+		int loopTotal = argsLen / TAR_COUNT_PER_BUNDLE + 1;
+		int thmCounter = startThmIndex;
 		//process TAR_COUNT_PER_BUNDLE each time. This loops over tar files.
 		//Loops about 1569/15 ~ 105 times if all tar files supplied.
 		for(int i = 0; i < loopTotal; i++){
@@ -187,7 +336,6 @@ public class ProjectionMatrix {
 			int end = nextIndex < argsLen ? nextIndex : argsLen;
 			//int end = i < loopTotal-1 ? (i+1)*TAR_COUNT_PER_BUNDLE : argsLen;
 			if(end > start){
-				bundleStartThmIndexList.add(thmCounter);
 				for(int j = start; j < end; j++){
 					String dirName = args[j];
 					if(!(new File(dirName)).exists()){
@@ -200,7 +348,7 @@ public class ProjectionMatrix {
 					String vecsFilePath = path_j + "vecs/" + ThmSearch.TermDocumentMatrix.CONTEXT_VEC_PAIR_LIST_FILE_NAME;
 					String wordThmIndexMMapPath = path_j + SearchMetaData.wordThmIndexMMapSerialFileName();
 					
-					thmCounter = addExprsToLists(path_j, peFilePath, combinedPEList, vecsFilePath, combinedVecsList, wordThmIndexMMapPath,
+					thmCounter = addExprsToLists(path_j, peFilePath, vecsFilePath, bundleWriter, wordThmIndexMMapPath,
 							combinedWordThmIndexMMap, literalSearchIndexMap, allThmNameScrapeList, thmCounter, nameDBSb,
 							paperIdNameDataMap);
 					
@@ -210,61 +358,23 @@ public class ProjectionMatrix {
 					FileUtils.runtimeExec("cat " + thmsListOriginPath + " >> " + thmsStringListDestPath);*
 					*/
 				}
-				//thmCounter += combinedPEList.size();
-				System.out.println("Serializing combinedPEList size: " + combinedPEList.size() + "   index: " +i);
-				System.out.println("Serializing combinedVecsList size: " + combinedVecsList.size() + "   index: " +i);
+				System.out.println("Serializing bundle size: " + bundleWriter.curBundleSize() + "   index: " +i);
 				
 				//write csv file
 				nameCSVPWriter.write(nameDBSb.toString());
 				
-				serializeListsToFile(combinedPEList, i);
-				combinedPEList = new ArrayList<ThmHypPair>();
-				///return the counter
-				vecsFileNameCounter = splitAndUpdateCombinedVecsList(combinedVecsList, vecsFileNameCounter);
+				//bundle i, in line with combined mx i
+				int bundleIndex = startBundleIndex + i;
+				bundleWriter.endBundle();
 				//without the trailing ".mx". E.g. "CombinedTDMatrix0"
-				String combinedProjectedTDMxName = TermDocumentMatrix.COMBINED_PROJECTED_TERM_DOCUMENT_MX_NAME + i;
-				//Appends the index i to the name.
-				combineProjectedMx(projectedMxFilePathList, TermDocumentMatrix.PROJECTED_MX_NAME, i, combinedProjectedTDMxName);
+				String combinedProjectedTDMxName = TermDocumentMatrix.COMBINED_PROJECTED_TERM_DOCUMENT_MX_NAME + bundleIndex;
+				//Appends the index to the name.
+				combineProjectedMx(projectedMxFilePathList, TermDocumentMatrix.PROJECTED_MX_NAME, bundleIndex, 
+						combinedProjectedTDMxName);
 				projectedMxFilePathList = new ArrayList<String>();
 			}
 		}
-		//serialize the remaining thm vecs (must be less than the number of thms per vecsBundle).
-		if(!combinedVecsList.isEmpty()){
-			//Name deliberately does not contain ".dat" at end.
-			String path = TheoremGet.ContextRelationVecBundle.BASE_FILE_STR 
-					+ String.valueOf(vecsFileNameCounter);
-			FileUtils.serializeObjToFile(combinedVecsList, path);
-		}
-		int keywordsMapSz = CollectThm.ThmWordsMaps.get_CONTEXT_VEC_SIZE();
-		Searcher.SearchConfiguration searchConfig = new Searcher.SearchConfiguration(bundleStartThmIndexList, thmCounter,
-				keywordsMapSz);
-		List<Searcher.SearchConfiguration> searchConfigList = new ArrayList<Searcher.SearchConfiguration>();
-		searchConfigList.add(searchConfig);
-		FileUtils.serializeObjToFile(searchConfigList, SearchConfiguration.searchConfigurationSerialPath());
-		
-		/***June 13 comment out if use database*/
-		List<HashMultimap<String, LiteralSearchIndex>> literalSearchIndexMapList 
-			= new ArrayList<HashMultimap<String, LiteralSearchIndex>>();
-		literalSearchIndexMapList.add(literalSearchIndexMap);
-		//to be put into database, rather than storing in memory, for access at app runtime
-		FileUtils.serializeObjToFile(literalSearchIndexMapList, SearchMetaData.literalSearchIndexMapPath());
-		//for human inspection purposes, so put path here.
-		final String literalSearchMapKeysPath = "src/thmp/data/literalSearchIndexMapKeys.txt";
-		FileUtils.writeToFile(literalSearchIndexMap.keySet(), literalSearchMapKeysPath);
-		
-		//serialize scraped thm names
-		FileUtils.serializeObjToFile(allThmNameScrapeList, DetectHypothesis.allThmNameScrapeSerStr);
-		FileUtils.writeToFile(allThmNameScrapeList, DetectHypothesis.allThmNameScrapeTxtStr);
-		
-		//serialize map into one file, to be loaded at once in memory at runtime.
-		//should be ~240 MB.
-	 	String wordThmIndexMMapPath = FileUtils.getPathIfOnServlet(SearchMetaData.wordThmIndexMMapSerialFilePath());
-	 	List<Multimap<String, IndexPartPair>> combinedWordThmIndexMMapList = new ArrayList<Multimap<String, IndexPartPair>>();
-	 	combinedWordThmIndexMMapList.add(combinedWordThmIndexMMap);	 	
-	 	FileUtils.serializeObjToFile(combinedWordThmIndexMMapList, wordThmIndexMMapPath);
-	 	
-	 	FileUtils.silentClose(nameCSVFileWriter);
-		
+		return thmCounter;
 	}
 
 	/**
@@ -322,86 +432,28 @@ public class ProjectionMatrix {
 		return args;
 	}
 	
-	/**
-	 * Split combinedVecsList and serialize all pieces to file, up to an integral multiple
-	 * of ContextRelationVecBundle.numThmsInBundle(). Put the rest back in combinedVecsList,
-	 * to be serialized next time. This guarantees all files contain same number of vecs, 
-	 * until the very last file for all tars.
-	 * @param combinedVecsList
-	 * @param vecsFileNameCounter
-	 */
-	private static int splitAndUpdateCombinedVecsList(List<ContextRelationVecPair> combinedVecsList,
-			int vecsFileNameCounter) {
-		int numThmsInBundle = TheoremGet.ContextRelationVecBundle.numThmsInBundle();
-		String baseFileStr = TheoremGet.ContextRelationVecBundle.BASE_FILE_STR;
-		int combinedVecsListSz = combinedVecsList.size();
-		int numBundle = combinedVecsListSz / numThmsInBundle;
-		//int remainder = combinedVecsListSz - numBundle * numThmsInBundle;
-		
-		for(int fileCounter = 0; fileCounter < numBundle; fileCounter++){			
-			String path = baseFileStr + String.valueOf(vecsFileNameCounter);
-			vecsFileNameCounter++;
-			List<ContextRelationVecPair> curList = new ArrayList<ContextRelationVecPair>();
-			int curBase = numThmsInBundle * fileCounter;
-			for(int j = 0; j < numThmsInBundle; j++){
-				curList.add(combinedVecsList.get(j+curBase));
-			}
-			FileUtils.serializeObjToFile(curList, path);
-		}
-		/*Add the remainder to combinedVecsList, to be serialized with subsequent thms*/
-		//String path = baseFileStr + String.valueOf(vecsFileNameCounter);
-		List<ContextRelationVecPair> curList = new ArrayList<ContextRelationVecPair>();
-		for(int i = numBundle * numThmsInBundle; i < combinedVecsListSz; i++){
-			curList.add(combinedVecsList.get(i));
-		}
-		//System.out.println("splitAndUpdateCombinedVecsList - curList.size() " + curList.size() + " numBundle: "+ numBundle); 
-		combinedVecsList.clear();
-		if(!curList.isEmpty()){
-			combinedVecsList.addAll(curList);
-			//FileUtils.serializeObjToFile(curList, path);
-			//vecsFileNameCounter++;
-		}
-		return vecsFileNameCounter;
-	}
-
-	/**
-	 * 
-	 * @param combinedPEList List to be serialized.
-	 * @param peFileNameCounter used to construct next file path.
-	 */
-	private static void serializeListsToFile(List<ThmHypPair> combinedPEList,
-			//List<ContextRelationVecPair> combinedVecsList
-			int peFileNameCounter) {
-		String targetFilePath = ThmSearch.getSystemCombinedParsedExpressionListFilePathBase() 
-				+ String.valueOf(peFileNameCounter);
-		FileUtils.serializeObjToFile(combinedPEList, targetFilePath);	
-		//targetFilePath = ThmSearch.getSystemCombinedContextRelationVecPairListFilePath();
-		//FileUtils.serializeObjToFile(combinedPEList, targetFilePath);
-	}
-	
 	/**
 	 * Add Expr's to various lists combining the different serialized lists
 	 * from individual tars.
 	 * @param dirName name of directory for the files to be placed in. Ending file separator included.
 	 * @param peFilePath
-	 * @param combinedPEList
 	 * @param vecsFilePath
-	 * @param combinedVecsList
+	 * @param bundleWriter to add thms and vecs to.
 	 * @param wordThmIndexMMapPath
 	 * @param combinedWordThmIndexMMap
 	 * @param startingThmIndex
 	 * @return
 	 */
 	@SuppressWarnings("unchecked")
-	private static int addExprsToLists(String dirPathStr, String peFilePath, List<ThmHypPair> combinedPEList, String vecsFilePath,
-			List<ContextRelationVecPair> combinedVecsList, String wordThmIndexMMapPath, 
+	private static int addExprsToLists(String dirPathStr, String peFilePath, String vecsFilePath,
+			ThmBundleWriter bundleWriter, String wordThmIndexMMapPath, 
 			Multimap<String, IndexPartPair> combinedWordThmIndexMMap, HashMultimap<String, LiteralSearchIndex> literalSearchIndexMap,
 			List<String> allThmNameScrapeList, int startingThmIndex, StringBuilder nameDBSB,
 			Multimap<String, String> paperIdNameDataMap) {
 		
-		List<ThmHypPair> thmHypPairList = (List<ThmHypPair>)FileUtils.deserializeListFromFile(peFilePath);
+		List<ThmHypPair> thmHypPairList = ThmBundleWriter.readTarThms(peFilePath);
 		int thmHypPairListSz = thmHypPairList.size();
-		combinedPEList.addAll(thmHypPairList);
+		bundleWriter.addThms(thmHypPairList);
 
 		//add scraped thm names.
 		String thmNameScrapeDirPath = dirPathStr + DetectHypothesis.thmNameScrapeNameRoot + ".dat";
@@ -428,7 +480,7 @@ public class ProjectionMatrix {
 			}
 		}
 		
-		combinedVecsList.addAll((List<ContextRelationVecPair>)FileUtils.deserializeListFromFile(vecsFilePath));
+		bundleWriter.addVecs(ThmBundleWriter.readTarVecs(peFilePath, vecsFilePath, thmHypPairListSz));
 		
 		Multimap<String, IndexPartPair> wordThmIndexMMap = ((List<Multimap<String, IndexPartPair>>)
 				FileUtils.deserializeListFromFile(wordThmIndexMMapPath)).get(0);
@@ -553,6 +605,8 @@ public class ProjectionMatrix {
 		//System.out.println("ProjectionMatrix, concatenatedListName "+evaluateWLCommand(concatenatedListName, true, true));
 		
 		evaluateWLCommand(ml, "DumpSave[\"" + combinedMxRootPath  + mxFileIndex + ".mx\"," + concatenatedListName + "]");
+		evaluateWLCommand(ml, TermDocumentMatrix.projectedMxBinaryExportCmd(concatenatedListName, 
+				combinedMxBinaryPath(mxFileIndex)));
 		FileUtils.releaseWLEvaluationMedium(ml);
 		
 		msg = "In combineProjectedMx(), Done concatenating matrices!";
@@ -560,4 +614,121 @@ public class ProjectionMatrix {
 		logger.info(msg);		
 	}
 	
+	/**
+	 * Path to binary export of combined projected mx with given index.
+	 * @param mxFileIndex
+	 * @return
+	 */
+	protected static String combinedMxBinaryPath(int mxFileIndex){
+		return combinedMxRootPath + mxFileIndex + TermDocumentMatrix.PROJECTED_MX_BINARY_FILE_EXT;
+	}
+	
+	/**
+	 * Writes binary exports of the projection mx, and of all combined projected mx
+	 * already DumpSave'd, for the Java NearestVecSearch. Mx files are only readable 
+	 * by the kernel.
+	 */
+	public static void exportBinaryMx(){
+		WLEvaluationMedium ml = FileUtils.acquireWLEvaluationMedium();
+		try{
+			evaluateWLCommand(ml, "<<" + ThmSearch.getSystemProjectionMxFilePath());
+			evaluateWLCommand(ml, TermDocumentMatrix.projectionMxBinaryExportCmd(ThmSearch.getSystemProjectionMxBinaryFilePath()));
+			
+			int totalBundleNum = ThmHypPairGet.totalBundleNum();
+			for(int i = 0; i < totalBundleNum; i++){
+				String mxName = TermDocumentMatrix.COMBINED_PROJECTED_TERM_DOCUMENT_MX_NAME + i;
+				evaluateWLCommand(ml, "<<" + combinedMxRootPath + i + ".mx");
+				evaluateWLCommand(ml, TermDocumentMatrix.projectedMxBinaryExportCmd(mxName, 
+						combinedMxBinaryPath(i)));
+				evaluateWLCommand(ml, "Clear[" + mxName + "]");
+			}
+			String msg = "ProjectionMatrix - exported binary mx for " + totalBundleNum + " bundles.";
+			System.out.println(msg);
+			logger.info(msg);
+		}finally{
+			FileUtils.releaseWLEvaluationMedium(ml);
+		}
+		List<Integer> bundleStartThmIndexList = new ArrayList<Integer>();
+		for(int i = 0; i < ThmHypPairGet.totalBundleNum(); i++){
+			bundleStartThmIndexList.add(ThmHypPairGet.bundleStartThmIndex(i));
+		}
+		buildNearestVecIndex(bundleStartThmIndexList);
+	}
+	
+	/**
+	 * Path to the approximate nearest-vec index over all combined projected mx.
+	 * @return
+	 */
+	protected static String nearestVecIndexPath(){
+		return combinedMxRootPath + "Index.hnsw";
+	}
+	
+	/**
+	 * Path to an approximate nearest-vec index over the first bundleCount combined projected mx,
+	 * built after segments were appended, see IndexSegments.
+	 * @param bundleCount
+	 * @return
+	 */
+	protected static String nearestVecIndexPath(int bundleCount){
+		return combinedMxRootPath + "Index" + bundleCount + ".hnsw";
+	}
+	
+	/**
+	 * Builds the approximate nearest-vec index (HnswIndex) from the binary exports of 
+	 * all combined projected mx, for NearestVecSearch. Vecs close to the zero vec are 
+	 * left out, since search never returns them.
+	 * @param bundleStartThmIndexList overall index of first thm in each bundle.
+	 */
+	public static void buildNearestVecIndex(List<Integer> bundleStartThmIndexList){
+		buildNearestVecIndex(bundleStartThmIndexList, nearestVecIndexPath());
+	}
+	
+	/**
+	 * Builds the approximate nearest-vec index, see buildNearestVecIndex(List). The index is 
+	 * written to a temp file first, so searches that have the previous index mapped are not affected.
+	 * @param bundleStartThmIndexList overall index of first thm in each bundle.
+	 * @param indexPath
+	 * @return whether the index was written.
+	 */
+	protected static boolean buildNearestVecIndex(List<Integer> bundleStartThmIndexList, String indexPath){
+		HnswIndex.Builder builder = null;
+		double zeroNormSq = NearestVecSearch.ZERO_VEC_NORM_THRESHOLD * NearestVecSearch.ZERO_VEC_NORM_THRESHOLD;
+		try{
+			for(int i = 0; i < bundleStartThmIndexList.size(); i++){
+				NearestVecSearch.VecBundle bundle = NearestVecSearch.VecBundle.load(i);
+				int dim = bundle.dim;
+				if(null == builder){
+					builder = new HnswIndex.Builder(dim);
+				}
+				int bundleStartThmIndex = bundleStartThmIndexList.get(i);
+				for(int row = 0; row < bundle.rowCount; row++){
+					double normSq = 0;
+					for(int j = row*dim; j < (row+1)*dim; j++){
+						normSq += bundle.vecs[j]*bundle.vecs[j];
+					}
+					if(normSq > zeroNormSq){
+						builder.add(bundle.vecs, row*dim, bundleStartThmIndex + row);
+					}
+				}
+			}
+			if(null == builder){
+				return false;
+			}
+			String tempPath = indexPath + ".tmp";
+			builder.writeToFile(tempPath);
+			Files.move(Paths.get(tempPath), Paths.get(indexPath), StandardCopyOption.REPLACE_EXISTING, 
+					StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException e){
+			//index is optional, NearestVecSearch falls back to exact scan.
+			String msg = "IOException while building nearest vec index! " + e;
+			System.out.println(msg);
+			logger.error(msg);
+			return false;
+		}
+		String msg = "ProjectionMatrix - built nearest vec index with " + builder.nodeCount() + " vecs.";
+		System.out.println(msg);
+		logger.info(msg);
+		return true;
+	}
+	
 }
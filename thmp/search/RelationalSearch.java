@@ -2,7 +2,7 @@ package thmp.search;
 
 import java.math.BigInteger;
 import java.util.ArrayList;
-import java.util.BitSet;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
@@ -11,8 +11,6 @@ import java.util.Set;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.google.common.collect.TreeMultimap;
-
 import thmp.parse.RelationVec;
 import thmp.search.SearchCombined.ThmHypPair;
 import thmp.search.TheoremGet.ContextRelationVecPair;
@@ -160,34 +158,68 @@ public class RelationalSearch implements Searcher<Set<Integer>>{
 			return nearestThmIndexList;
 		}
 		
-		//keys are distances to query relationVector, values are indices in nearestThmIndexList.
-		TreeMultimap<Integer, Integer> nearestThmTreeMMap = TreeMultimap.create();
-		
 		int nearestThmIndexListSz = nearestThmIndexList.size();
+		//sorted, so thms in the same vec bundle are contiguous. Order of result doesn't depend on input order.
+		int[] thmIndexAr = new int[nearestThmIndexListSz];
+		for(int i = 0; i < nearestThmIndexListSz; i++){
+			thmIndexAr[i] = nearestThmIndexList.get(i);
+		}
+		Arrays.sort(thmIndexAr);
+		int[] distAr = new int[nearestThmIndexListSz];
+		relationDistances(queryRelationVec, thmIndexAr, distAr);
 		
+		//distance to query relationVector in high bits, thm index in low bits, so sorting
+		//orders by distance, then by thm index.
+		long[] distThmIndexAr = new long[nearestThmIndexListSz];
 		for(int i = 0; i < nearestThmIndexListSz; i++){
-			int thmIndex = nearestThmIndexList.get(i);
-			ContextRelationVecPair vecPair = TheoremGet.getContextRelationVecFromIndex(thmIndex);
-			Set<Integer> relationVec_i = vecPair.relationVec();
-			//relationVecList.add(relationVec_i);
-			//if(true) throw new IllegalStateException();
-			int hammingDistance_i = RelationVec.hammingDistanceForSets(queryRelationVec, relationVec_i);
-			nearestThmTreeMMap.put(hammingDistance_i, thmIndex);
-		}		
-		return new ArrayList<Integer>(nearestThmTreeMMap.values());		
+			distThmIndexAr[i] = ((long)distAr[i] << 32) | (thmIndexAr[i] & 0xffffffffL);
+		}
+		Arrays.sort(distThmIndexAr);
+		List<Integer> sortedThmIndexList = new ArrayList<Integer>(nearestThmIndexListSz);
+		for(int i = 0; i < nearestThmIndexListSz; i++){
+			//skip duplicate thms
+			if(i > 0 && distThmIndexAr[i] == distThmIndexAr[i-1]){
+				continue;
+			}
+			sortedThmIndexList.add((int)distThmIndexAr[i]);
+		}
+		return sortedThmIndexList;
 	}
 	
-	//this should be inside RelationVec!!
-	@Deprecated
-	private static int hammingDistance(BitSet bs1, BitSet bs2){
-		BitSet bs1Copy = (BitSet)bs1.clone();
-		BitSet bs2Copy = (BitSet)bs2.clone();
-		
-		bs1Copy.flip(0, bs1.size()); 
-		bs2Copy.andNot(bs1Copy);
-		//only the bits set in original bs1 are selected in bs2Copy.
-		bs2Copy.xor(bs1);
-		return bs2Copy.cardinality();
+	/**
+	 * Relation distances, as in RelationVec.hammingDistanceForSets(), of thms to query, 
+	 * computed in one batch. Thms whose vec bundle has a ContextRelationVecStore are scored
+	 * with bitCount over the query's bitset words, without allocating per thm.
+	 * @param queryRelationVec
+	 * @param thmIndexAr Thm indices, sorted in ascending order.
+	 * @param distAr distance of thmIndexAr[i] is put in distAr[i].
+	 */
+	public static void relationDistances(Set<Integer> queryRelationVec, int[] thmIndexAr, int[] distAr){
+		long[] queryWords = ContextRelationVecStore.relationQueryWords(queryRelationVec);
+		int queryBitCount = ContextRelationVecStore.bitCount(queryWords);
+		int numThmsInBundle = TheoremGet.ContextRelationVecBundle.numThmsInBundle();
+		int thmIndexArLen = thmIndexAr.length;
+		int[] indexInBundleAr = new int[thmIndexArLen];
+		int runStart = 0;
+		while(runStart < thmIndexArLen){
+			int bundleKey = thmIndexAr[runStart] / numThmsInBundle;
+			int bundleBase = bundleKey * numThmsInBundle;
+			int runEnd = runStart;
+			while(runEnd < thmIndexArLen && thmIndexAr[runEnd] < bundleBase + numThmsInBundle){
+				indexInBundleAr[runEnd] = thmIndexAr[runEnd] - bundleBase;
+				runEnd++;
+			}
+			ContextRelationVecStore vecStore = TheoremGet.getContextRelationVecStore(bundleKey);
+			if(null != vecStore){
+				vecStore.relationMissCounts(indexInBundleAr, runStart, runEnd, queryWords, queryBitCount, distAr);
+			}else{
+				for(int i = runStart; i < runEnd; i++){
+					ContextRelationVecPair vecPair = TheoremGet.getContextRelationVecFromIndex(thmIndexAr[i]);
+					distAr[i] = RelationVec.hammingDistanceForSets(queryRelationVec, vecPair.relationVec());
+				}
+			}
+			runStart = runEnd;
+		}
 	}
 	
 	
@@ -19,6 +19,7 @@ import javax.servlet.ServletContext;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.TreeMultimap;
 
@@ -50,6 +51,8 @@ public class SearchCombined {
 	
 	private static final Pattern INPUT_PATTERN = Pattern.compile("(\\d+)\\s+(.+)");
 	private static final Pattern CONTEXT_INPUT_PATTERN = Pattern.compile("(context|relation)\\s+(.*)");
+	//results of repeated queries
+	private static final SearchResultCache resultCache = new SearchResultCache();
 	protected static final int CONTEXT_SEARCH_TUPLE_SIZE = 10;
 	//private static final Logger logger = LogManager.getLogger(SearchCombined.class);
 	
@@ -175,6 +178,23 @@ public class SearchCombined {
 		}
 	}
 	
+	/**
+	 * Turn one page of list of indices of thms into list of ThmHypPair's, and prefetch
+	 * the next page, for paging through results.
+	 * @param highestThms thm indices of all results, in ranked order.
+	 * @param pageStart index in highestThms of first result on page.
+	 * @param pageSize
+	 * @return
+	 */
+	public static List<ThmHypPair> thmListIndexToThmHypPairPage(List<Integer> highestThms, int pageStart, int pageSize){
+		Connection conn = DBUtils.getPooledConnection();
+		try {
+			return ThmHypPairGet.retrieveThmHypPairPage(highestThms, pageStart, pageSize, conn);
+		}finally {
+			DBUtils.closePooledConnection(conn);
+		}
+	}
+	
 	/**
 	 * Set resources for list of resource files.
 	 * @param freqWordsFileBuffer
@@ -186,6 +206,8 @@ public class SearchCombined {
 	public static void initializeSearchWithResource(ServletContext servletContext_){
 		CollectThm.setServletContext(servletContext_);
 		ProcessInput.setServletContext(servletContext_);
+		//load resources concurrently now, rather than in static initializers reached by first search.
+		SearchResourceLoader.loadInBackground();
 		//DBUtils.recompileDatabase();
 	}
 	
@@ -304,9 +326,15 @@ public class SearchCombined {
 	public static List<ThmHypPair> searchCombined(String input, Set<String> searchWordsSet, boolean searchContextBool){
 		
 		SearchState searchState = new SearchState();
-		List<ThmHypPair> bestCommonThmHypPairList 
-			= thmListIndexToThmHypPair(searchCombined(input, searchState, searchWordsSet, searchContextBool, false));
-		return bestCommonThmHypPairList;
+		//thm indices are looked up on the same generation they are found on
+		IndexGeneration.enter();
+		try{
+			List<ThmHypPair> bestCommonThmHypPairList 
+				= thmListIndexToThmHypPair(searchCombined(input, searchState, searchWordsSet, searchContextBool, false));
+			return bestCommonThmHypPairList;
+		}finally{
+			IndexGeneration.exit();
+		}
 	}
 	
 	/**
@@ -320,6 +348,18 @@ public class SearchCombined {
 	public static List<Integer> searchCombined(String input, SearchState searchState,
 			Set<String> searchWordsSet, boolean searchContextBool,
 			boolean searchRelationalBool){
+		//searches finish on the IndexGeneration they start on, even if a new one is swapped in meanwhile.
+		IndexGeneration.enter();
+		try{
+			return searchCombinedOnGeneration(input, searchState, searchWordsSet, searchContextBool, searchRelationalBool);
+		}finally{
+			IndexGeneration.exit();
+		}
+	}
+	
+	private static List<Integer> searchCombinedOnGeneration(String input, SearchState searchState,
+			Set<String> searchWordsSet, boolean searchContextBool,
+			boolean searchRelationalBool){
 		
 		if(WordForms.getWhiteEmptySpacePattern().matcher(input).matches()) return Collections.<Integer>emptyList();
 		input = input.toLowerCase();
@@ -343,8 +383,13 @@ public class SearchCombined {
 		int numCommonVecs = getNumCommonVecs(inputSB, input);
 		input = inputSB.toString();
 		
-		//SearchState searchState = new SearchState();
-			
+		SearchResultCache.QueryKey cacheKey = SearchResultCache.QueryKey.create(input, searchState, numCommonVecs, 
+				searchContextBool, searchRelationalBool);
+		List<Integer> cachedList = resultCache.get(cacheKey, searchState, searchWordsSet);
+		if(null != cachedList) {
+			return cachedList;
+		}
+		
 		SearchIntersection.getHighestThmStringList(input, searchWordsSet,
 				searchState, searchContextBool, searchRelationalBool);
 		
@@ -356,8 +401,8 @@ public class SearchCombined {
 		
 		List<Integer> bestCommonVecsList = searchState.intersectionVecList();
 		//need good heuristics for when to trigger this, e.g. very few or no results from previous algorithms.
-		//Feb 2018 - don't trigger this on server.
-		if(null == FileUtils.getServletContext() && bestCommonVecsList.isEmpty()){			
+		//Feb 2018 - don't trigger this on server, unless search can be done in Java without the kernel.
+		if((null == FileUtils.getServletContext() || NearestVecSearch.isAvailable()) && bestCommonVecsList.isEmpty()){			
 			System.out.println("SVD triggered!");
 			//experiment with this constant!
 			if(searchState.largestWordSpan() < searchWordsSet.size()*2./3){
@@ -375,10 +420,25 @@ public class SearchCombined {
 		}		
 
 		//List<ThmHypPair> bestCommonThmHypPairList = thmListIndexToThmHypPair(bestCommonVecsList);
-		
+		resultCache.put(cacheKey, bestCommonVecsList, searchState, searchWordsSet);
 		return bestCommonVecsList;
 	}
 	
+	/**
+	 * Drops cached search results, call when a new index is loaded.
+	 */
+	public static void invalidateResultCache() {
+		resultCache.invalidateAll();
+	}
+	
+	/**
+	 * Hit, miss, and eviction counts of the search result cache.
+	 * @return
+	 */
+	public static CacheStats resultCacheStats() {
+		return resultCache.stats();
+	}
+	
 	/**
 	 * Finds the number of output vectors as specified by user.
 	 * @param inputSB empty StringBuilder to be filled with theorem content.
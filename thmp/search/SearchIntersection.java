@@ -2,6 +2,7 @@ package thmp.search;
 
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -23,6 +24,8 @@ import java.util.Random;
 import java.util.Scanner;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
@@ -33,9 +36,11 @@ import com.google.common.collect.Multimap;
 import com.google.common.collect.SetMultimap;
 import com.google.common.collect.TreeMultimap;
 
-import thmp.search.CollectThm.ThmWordsMaps.IndexPartPair;
 import thmp.search.LiteralSearch.LiteralSearchIndexPair;
 import thmp.search.SearchCombined.ThmHypPair;
+import thmp.search.SearchState.SearchStateBuilder;
+import thmp.search.WordThmsPostingIndex.DecodedTerms;
+import thmp.search.WordThmsPostingIndex.PostingCursor;
 import thmp.utils.DBUtils.AuthorName;
 import thmp.utils.DBUtils.ConjDisjType;
 import thmp.utils.FileUtils;
@@ -72,7 +77,6 @@ public class SearchIntersection {
 	 * shows up in.
 	 */
 	//private static final ImmutableMultimap<String, Integer> wordThmMMap;
-	private static final ImmutableMultimap<String, IndexPartPair> wordThmsIndexMMap1;
 	
 	private static final Set<String> stopWordSet;
 	
@@ -99,13 +103,20 @@ public class SearchIntersection {
 	
 	// debug flag for development. Prints out the words used and their scores.
 	private static final boolean DEBUG = FileUtils.isOSX();
+	//max number of thms ranked by word distance, per query.
+	private static final int MAX_RANKED_THM_COUNT = 400;
+	//max number of queries of a group in intersectionSearchBatch() searched by one task.
+	private static final int BATCH_CHUNK_QUERY_COUNT = 32;
+	//number of shards of sharded search, see setShardedSearch(). Each IndexGeneration has its own sharded search.
+	private static volatile int shardCount;
+	//see setTopKPruning()
+	private static volatile boolean topKPruning;
 	
 	/**
 	 * Static initializer, retrieves maps from CollectThm.java.
 	 */
 	static {		
 		wordsScoreMap = CollectThm.ThmWordsMaps.get_wordsScoreMap();
-		wordThmsIndexMMap1 = CollectThm.ThmWordsMaps.get_wordThmsMMap();
 		relatedWordsMap = CollectThm.ThmWordsMaps.getRelatedWordsMap();
 		stopWordSet = WordForms.stopWordsSet();
 		
@@ -132,6 +143,65 @@ public class SearchIntersection {
 		defaultWordScore = avgScore;
 	}
 
+	/**
+	 * Turns on scoring intersection search queries over numShards shards of the thm index,
+	 * in parallel. Turned off if numShards is at most 1. Off by default. Applies right away to
+	 * the generation pinned on this thread, else the current one, and to later generations.
+	 * @param numShards
+	 */
+	public static synchronized void setShardedSearch(int numShards) {
+		shardCount = numShards;
+		IndexGeneration generation = IndexGeneration.forCurrentThread();
+		ShardedIntersectionSearch prevSearch = generation.setShardedSearch(createShardedSearch(generation, numShards));
+		if(null != prevSearch) {
+			prevSearch.shutdown();
+		}
+	}
+	
+	private static ShardedIntersectionSearch createShardedSearch(IndexGeneration generation, int numShards) {
+		if(numShards <= 1) {
+			return null;
+		}
+		int parallelism = Math.min(numShards, Runtime.getRuntime().availableProcessors());
+		logger.info("Sharded intersection search on, with " + numShards + " shards.");
+		return new ShardedIntersectionSearch(generation.wordThmsPostingIndex(), numShards, parallelism);
+	}
+	
+	/**
+	 * Sharded search over the generation's posting index, created on first use after a new 
+	 * generation is swapped in.
+	 * @param generation
+	 * @return null if sharded search is off.
+	 */
+	private static ShardedIntersectionSearch shardedSearch(IndexGeneration generation) {
+		ShardedIntersectionSearch search = generation.shardedSearch();
+		if(null == search && shardCount > 1) {
+			synchronized(SearchIntersection.class) {
+				search = generation.shardedSearch();
+				if(null == search) {
+					search = createShardedSearch(generation, shardCount);
+					generation.setShardedSearch(search);
+				}
+			}
+		}
+		return search;
+	}
+	
+	private static WordThmsPostingIndex postingIndex() {
+		return IndexGeneration.forCurrentThread().wordThmsPostingIndex();
+	}
+	
+	/**
+	 * Turns on dynamic pruning of thms that can't be ranked, once query words only score 
+	 * thms selected by previous words, see IntersectionTopKPruner. Ranked results are unchanged,
+	 * but the thm score and span maps put in SearchState stop being updated for pruned thms.
+	 * Off by default. Applies to the non-sharded search.
+	 * @param pruning
+	 */
+	public static void setTopKPruning(boolean pruning) {
+		topKPruning = pruning;
+	}
+	
 	public static class ThmScoreSpanPairDefComparator implements Comparator<ThmScoreSpanPair>{
 		
 		private boolean defFirst = false;
@@ -202,7 +272,9 @@ public class SearchIntersection {
 		// favor lower starting index 
 		return pair1.firstStartScore < other.firstStartScore ? -1
 				//same comment as above applies here.
-				: (pair1.firstStartScore > other.firstStartScore ? 1 : -1);
+				: (pair1.firstStartScore > other.firstStartScore ? 1 
+						//lower thm index, so ranking doesn't depend on the order thms were scored in.
+						: (pair1.thmIndex < other.thmIndex ? -1 : (pair1.thmIndex > other.thmIndex ? 1 : 0)));
 	}
 	
 	//Tie break with the starting point, favors earlier starting point, per discussion with Michael.
@@ -304,10 +376,12 @@ public class SearchIntersection {
 	/**
 	 * Word and its corresponding theorems list. 
 	 */
-	private static class WordThmsList implements Comparable<WordThmsList>{
+	static class WordThmsList implements Comparable<WordThmsList>{
 		
+		//word whose postings are used, also the key in the posting index.
 		String word;
-		Collection<IndexPartPair> thmsList;
+		//number of thms containing word.
+		int thmsCount;
 		//word score as used in intersection search.
 		int score;
 		//score for *orginal* word, that this word might be related to, is same as score
@@ -319,20 +393,20 @@ public class SearchIntersection {
 		
 		WordForms.TokenType tokenType;
 		
-		WordThmsList(String word_, Collection<IndexPartPair> thmsList_, int score_,
+		WordThmsList(String word_, int thmsCount_, int score_,
 				WordForms.TokenType tokenType_, int wordIndexInThm_){
 			this.word = word_;
-			this.thmsList = thmsList_;
+			this.thmsCount = thmsCount_;
 			this.score = score_;
 			this.originalScore = score_;
 			this.tokenType = tokenType_;
 			this.wordIndexInThm = wordIndexInThm_;
 		}
 		
-		WordThmsList(String word_, Collection<IndexPartPair> thmsList_, int score_,
+		WordThmsList(String word_, int thmsCount_, int score_,
 				int originalScore_,
 				WordForms.TokenType tokenType_, int wordIndexInThm_){			
-			this(word_, thmsList_, score_, tokenType_, wordIndexInThm_);
+			this(word_, thmsCount_, score_, tokenType_, wordIndexInThm_);
 			this.originalScore = originalScore_;
 		}
 		
@@ -343,8 +417,8 @@ public class SearchIntersection {
 		@Override
 		public int compareTo(WordThmsList other) {
 			//want thmsListSize to be first, for efficient looping after sorting.
-			int thisSz = thmsList.size();
-			int otherSz = other.thmsList.size();
+			int thisSz = thmsCount;
+			int otherSz = other.thmsCount;
 			return this.score < other.score ? 1 : this.score > other.score ? -1 : 
 				//shorter thm lists rank higher
 				( thisSz > otherSz ? 1 : thisSz < otherSz ? -1 :
@@ -358,7 +432,7 @@ public class SearchIntersection {
 		public int hashCode() {
 			final int prime = 31;
 			int result = 1;
-			result = prime * result + this.thmsList.size();
+			result = prime * result + this.thmsCount;
 			result = result * prime + this.score;
 			result = result * prime + this.wordIndexInThm;
 			result = result + this.word.hashCode();
@@ -371,7 +445,7 @@ public class SearchIntersection {
 				return false;				
 			}
 			WordThmsList other = (WordThmsList)obj;
-			if(thmsList.size() != other.thmsList.size()) {
+			if(thmsCount != other.thmsCount) {
 				return false;
 			}
 			if(this.score != other.score) {
@@ -582,6 +656,191 @@ public class SearchIntersection {
 		return null;		
 	}*/
 	
+	/**
+	 * Intersection searches for a batch of queries, e.g. for offline jobs such as precomputing
+	 * similar thms. Identical queries, i.e. with the same tokens after preprocessing, are searched 
+	 * once. The rest are grouped by their token with the longest posting list. Postings of index 
+	 * terms shared by queries of a group are decoded once, and all queries of the group read them
+	 * from there, each in its own word order, so results are the same as searching queries one by one.
+	 * Groups are searched on numThreads threads, large groups in chunks of BATCH_CHUNK_QUERY_COUNT queries.
+	 * @param queryList
+	 * @param searchStateBuilder builds state for each query, e.g. to disable literal search.
+	 * @param numHighest number of results per query.
+	 * @param numThreads
+	 * @return states of the queries, in order, with results in intersectionVecList() and thmScoreSpanList().
+	 * Score and span maps only contain the result thms. Identical queries share the same state, 
+	 * so states should not be modified.
+	 */
+	public static List<SearchState> intersectionSearchBatch(List<String> queryList, final SearchStateBuilder searchStateBuilder,
+			final int numHighest, int numThreads) {
+		
+		int queryListSz = queryList.size();
+		//index of each query's unique representative in uniqueQueryList
+		int[] uniqueIndexAr = new int[queryListSz];
+		final List<String> uniqueQueryList = new ArrayList<String>();
+		//group token, and indices in uniqueQueryList of the queries in the group
+		ListMultimap<String, Integer> groupMMap = ArrayListMultimap.create();
+		Map<SearchResultCache.QueryKey, Integer> queryKeyIndexMap = new HashMap<SearchResultCache.QueryKey, Integer>();
+		//all queries of the batch are searched on the same generation, pinned until the batch is done.
+		final IndexGeneration generation = IndexGeneration.enter();
+		try {
+			final WordThmsPostingIndex wordThmsPostingIndex = generation.wordThmsPostingIndex();
+		
+			for(int i = 0; i < queryListSz; i++) {
+				String query = queryList.get(i).toLowerCase();
+				SearchResultCache.QueryKey queryKey = SearchResultCache.QueryKey.create(query, searchStateBuilder.build(), 
+						numHighest, false, false);
+				Integer uniqueIndex = queryKeyIndexMap.get(queryKey);
+				if(null == uniqueIndex) {
+					uniqueIndex = uniqueQueryList.size();
+					queryKeyIndexMap.put(queryKey, uniqueIndex);
+					uniqueQueryList.add(query);
+					//group by token with the longest posting list, which dominates search time.
+					String groupToken = "";
+					int maxPostingCount = -1;
+					for(String token : WordForms.splitThmIntoSearchWordsList(query)) {
+						int postingCount = wordThmsPostingIndex.postingCount(token);
+						if(postingCount > maxPostingCount) {
+							maxPostingCount = postingCount;
+							groupToken = token;
+						}
+					}
+					groupMMap.put(groupToken, uniqueIndex);
+				}
+				uniqueIndexAr[i] = uniqueIndex;
+			}
+			
+			final SearchState[] uniqueStateAr = new SearchState[uniqueQueryList.size()];
+			final List<List<Integer>> groupList = new ArrayList<List<Integer>>(groupMMap.keySet().size());
+			for(String groupToken : groupMMap.keySet()) {
+				groupList.add(groupMMap.get(groupToken));
+			}
+			ForkJoinPool pool = new ForkJoinPool(Math.max(1, numThreads));
+			try {
+				pool.invoke(new RecursiveAction() {
+					private static final long serialVersionUID = 1L;
+					@Override
+					protected void compute() {
+						List<RecursiveAction> groupTaskList = new ArrayList<RecursiveAction>(groupList.size());
+						for(final List<Integer> groupUniqueIndexList : groupList) {
+							groupTaskList.add(new RecursiveAction() {
+								private static final long serialVersionUID = 1L;
+								@Override
+								protected void compute() {
+									searchBatchGroup(groupUniqueIndexList, uniqueQueryList, uniqueStateAr, wordThmsPostingIndex, 
+											generation, searchStateBuilder, numHighest);
+								}
+							});
+						}
+						invokeAll(groupTaskList);
+					}
+				});
+			}finally {
+				pool.shutdown();
+			}
+		
+			List<SearchState> searchStateList = new ArrayList<SearchState>(queryListSz);
+			for(int i = 0; i < queryListSz; i++) {
+				searchStateList.add(uniqueStateAr[uniqueIndexAr[i]]);
+			}
+			return searchStateList;
+		}finally {
+			IndexGeneration.exit();
+		}
+	}
+	
+	/**
+	 * Decodes the postings of index terms shared by queries of the group, then searches the 
+	 * queries in chunks, in parallel, reading these postings. Runs in the batch's ForkJoinPool.
+	 * @param groupUniqueIndexList indices in uniqueQueryList of the group's queries.
+	 * @param uniqueQueryList
+	 * @param uniqueStateAr filled with the states of the group's queries.
+	 * @param wordThmsPostingIndex posting index of generation.
+	 * @param generation generation the batch is pinned on.
+	 * @param searchStateBuilder
+	 * @param numHighest
+	 */
+	private static void searchBatchGroup(final List<Integer> groupUniqueIndexList, final List<String> uniqueQueryList,
+			final SearchState[] uniqueStateAr, WordThmsPostingIndex wordThmsPostingIndex, final IndexGeneration generation,
+			final SearchStateBuilder searchStateBuilder, final int numHighest) {
+		
+		int groupSz = groupUniqueIndexList.size();
+		//number of queries of the group each index term occurs in.
+		Map<String, Integer> termQueryCountMap = new HashMap<String, Integer>();
+		if(groupSz > 1) {
+			for(int uniqueIndex : groupUniqueIndexList) {
+				for(String term : queryIndexTerms(uniqueQueryList.get(uniqueIndex), wordThmsPostingIndex)) {
+					Integer count = termQueryCountMap.get(term);
+					termQueryCountMap.put(term, null == count ? 1 : count + 1);
+				}
+			}
+		}
+		List<String> sharedTermList = new ArrayList<String>();
+		for(Map.Entry<String, Integer> entry : termQueryCountMap.entrySet()) {
+			if(entry.getValue() > 1) {
+				sharedTermList.add(entry.getKey());
+			}
+		}
+		final DecodedTerms decodedTerms = sharedTermList.isEmpty() ? null : wordThmsPostingIndex.decode(sharedTermList);
+		
+		List<RecursiveAction> chunkTaskList = new ArrayList<RecursiveAction>();
+		for(int c = 0; c < groupSz; c += BATCH_CHUNK_QUERY_COUNT) {
+			final List<Integer> chunkUniqueIndexList = groupUniqueIndexList.subList(c, 
+					Math.min(groupSz, c + BATCH_CHUNK_QUERY_COUNT));
+			chunkTaskList.add(new RecursiveAction() {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected void compute() {
+					IndexGeneration.enter(generation);
+					try {
+						for(int uniqueIndex : chunkUniqueIndexList) {
+							SearchState searchState = searchStateBuilder.build();
+							intersectionSearch(uniqueQueryList.get(uniqueIndex), null, searchState, false, false, 
+									numHighest, null, decodedTerms);
+							//drop score and span maps of all thms hit, to bound memory across the batch.
+							List<Integer> resultList = searchState.intersectionVecList();
+							uniqueStateAr[uniqueIndex] = searchState.resultsCopy(null == resultList 
+									? Collections.<Integer>emptyList() : resultList);
+						}
+					}finally {
+						IndexGeneration.exit();
+					}
+				}
+			});
+		}
+		RecursiveAction.invokeAll(chunkTaskList);
+	}
+	
+	/**
+	 * Index terms intersectionSearch() looks up for the query's words, i.e. singular or normalized
+	 * forms of words, and normalized 2- and 3-grams. Related words are not included. Terms not in 
+	 * the index are included too.
+	 * @param query
+	 * @param wordThmsPostingIndex
+	 * @return
+	 */
+	private static Set<String> queryIndexTerms(String query, WordThmsPostingIndex wordThmsPostingIndex) {
+		Set<String> termSet = new HashSet<String>();
+		List<String> wordList = WordForms.splitThmIntoSearchWordsList(query);
+		int wordListSz = wordList.size();
+		for(int i = 0; i < wordListSz; i++) {
+			String word = WordForms.stripUmlautFromWord(wordList.get(i));
+			String term = WordForms.getSingularForm(word);
+			if(!wordThmsPostingIndex.containsTerm(term)) {
+				term = WordForms.normalizeWordForm(term);
+			}
+			termSet.add(term);
+			if(i < wordListSz - 1) {
+				String twoGram = word + " " + WordForms.stripUmlautFromWord(wordList.get(i+1));
+				termSet.add(WordForms.normalizeNGram(twoGram));
+				if(i < wordListSz - 2) {
+					termSet.add(WordForms.normalizeNGram(twoGram + " " + WordForms.stripUmlautFromWord(wordList.get(i+2))));
+				}
+			}
+		}
+		return termSet;
+	}
+	
 	public static SearchState intersectionSearch(String input, Set<String> searchWordsSet, 
 			SearchState searchState, boolean contextSearchBool, boolean searchRelationalBool,
 			int numHighest) {		
@@ -610,6 +869,17 @@ public class SearchIntersection {
 	public static SearchState intersectionSearch(String input, Set<String> searchWordsSet, 
 			SearchState searchState, boolean contextSearchBool, boolean searchRelationalBool,
 			int numHighest, Set<Integer> dbThmSet) {
+		return intersectionSearch(input, searchWordsSet, searchState, contextSearchBool, 
+				searchRelationalBool, numHighest, dbThmSet, null);
+	}
+	
+	/**
+	 * Same as intersectionSearch() above, reading postings of terms in decodedTerms from there.
+	 * @param decodedTerms optional, postings decoded by the generation's posting index.
+	 */
+	private static SearchState intersectionSearch(String input, Set<String> searchWordsSet, 
+			SearchState searchState, boolean contextSearchBool, boolean searchRelationalBool,
+			int numHighest, Set<Integer> dbThmSet, DecodedTerms decodedTerms) {
 		
 		if (WordForms.getWhiteEmptySpacePattern().matcher(input).matches()){
 			return null;
@@ -669,8 +939,8 @@ public class SearchIntersection {
 		// pre-compute the scores for singleton words in query.
 		int totalSingletonAdded = computeSingletonScores(inputWordsList, singletonScoresAr, inputWordsArUpdated);
 		searchState.set_totalWordAdded(totalSingletonAdded);
-		//map of word in normalized form, with list of thms for that word. Used for literal search.
-		Map<String, Collection<IndexPartPair>> wordIndexPartPairMap = new HashMap<String, Collection<IndexPartPair>>();
+		//words in normalized form, whose thms were hit in the posting index. Used for literal search.
+		Set<String> postingWordsSet = new HashSet<String>();
 		
 		Set<ThmScoreSpanPair> thmScoreSpanSet = new HashSet<ThmScoreSpanPair>();
 		Map<Integer, ThmPart> thmPartMap = new HashMap<Integer, ThmPart>();
@@ -721,7 +991,7 @@ public class SearchIntersection {
 					
 					//addWordThms will add if proper n-gram.
 						scoreAdded = addWordThms(thmScoreMap, scoreThmMMap, thmWordSpanMMap,// thmWordsMMap, thmScoreSpanSet, 
-								thmPartMap, wordThmsListList, wordIndexPartPairMap,
+								thmPartMap, wordThmsListList, postingWordsSet,
 								threeGram, i, WordForms.TokenType.THREEGRAM, wordThmCountMap,
 								singletonScoresAr, searchWordsSet, dbThmSet, searchState);
 						if (scoreAdded > 0) {
@@ -738,7 +1008,7 @@ public class SearchIntersection {
 				//long time2 = SimilarThmSearch.printElapsedTime(time1, "time2");
 				if (twoGramsMap.containsKey(twoGram)) {
 					scoreAdded = addWordThms(thmScoreMap, scoreThmMMap, thmWordSpanMMap, //thmScoreSpanSet, 
-							thmPartMap, wordThmsListList, wordIndexPartPairMap, twoGram,
+							thmPartMap, wordThmsListList, postingWordsSet, twoGram,
 							i, WordForms.TokenType.TWOGRAM, wordThmCountMap, singletonScoresAr,
 							searchWordsSet, dbThmSet, searchState);
 					if (scoreAdded > 0) {
@@ -753,7 +1023,7 @@ public class SearchIntersection {
 			
 			//This score includes words scores for words related to this word.
 			scoreAdded = addWordThms(thmScoreMap, scoreThmMMap, thmWordSpanMMap, //thmScoreSpanSet,
-					thmPartMap, wordThmsListList, wordIndexPartPairMap,
+					thmPartMap, wordThmsListList, postingWordsSet,
 					word, i, WordForms.TokenType.SINGLETON, wordThmCountMap, singletonScoresAr, searchWordsSet, dbThmSet, searchState);
 			if (scoreAdded > 0) {
 				wordCountArray[i] += 1;
@@ -773,7 +1043,21 @@ public class SearchIntersection {
 				
 		//Iterator<WordThmsList> wordThmsListIter = wordThmsListList.iterator();
 		//Iterator<String> wordThmsListKeyIter = wordThmsListList.keySet().iterator();
-		Set<IndexPartPair> selectedThmsSet = new HashSet<IndexPartPair>();
+		Set<Integer> selectedThmsSet = new HashSet<Integer>();
+		//reused for all words of this query, allocation-free when iterating postings.
+		IndexGeneration generation = IndexGeneration.forCurrentThread();
+		PostingCursor postingCursor = generation.wordThmsPostingIndex().cursor();
+		postingCursor.setDecodedTerms(decodedTerms);
+		/*if sharded, thms are scored in parallel, and only the top MAX_RANKED_THM_COUNT thms by
+		 span are put in thmScoreMap, thmSpanMap, etc. Spans are bitmasks of query word positions.*/
+		ShardedIntersectionSearch shardedSearch0 = shardedSearch(generation);
+		ShardedIntersectionSearch.ShardedQuery shardedQuery = null;
+		if(null != shardedSearch0 && inputWordsArSz <= ShardedIntersectionSearch.MAX_QUERY_WORDS) {
+			shardedQuery = shardedSearch0.startQuery(dbThmSet, decodedTerms);
+		}
+		boolean topKPruning0 = topKPruning;
+		//set once only selected thms are scored.
+		IntersectionTopKPruner topKPruner = null;
 		int curScore = 0;
 		int originalWordsListSz = originalWordsList.size();
 		
@@ -800,6 +1084,9 @@ public class SearchIntersection {
 			//total score added for cur word and all words related to it for the theorems (keys).
 			//Keys are thm indices, values are scores that have been added for this word and related words.
 			Map<Integer, Integer> thmRelWordsScoreMap = new HashMap<Integer, Integer>();
+			if(null != shardedQuery) {
+				shardedQuery.nextOriginalWord(word);
+			}
 			
 			List<WordThmsList> wordThmsListCol = wordThmsListList.get(word);			
 			int originalWordScore = 0;
@@ -810,8 +1097,8 @@ public class SearchIntersection {
 			
 			//don't count related words score.
 			curScore += originalWordScore;
-			for(WordThmsList wordThmsList : wordThmsListCol) {
-				
+			for(int j = 0; j < wordThmsListCol.size(); j++) {
+				WordThmsList wordThmsList = wordThmsListCol.get(j);
 				String relWord = wordThmsList.word;
 				
 				//already checked, don't check individual words again. E.g. "simplicial object"
@@ -821,25 +1108,28 @@ public class SearchIntersection {
 				}			
 				searchedWordsSb.append(relWord).append(" ");
 				
-				Collection<IndexPartPair> wordThms = wordThmsList.thmsList;
+				/*if true, filter out the thms that haven't already been selected on previous words. For efficiency.
+				 Else add to selected thms for record keeping to decide if future thms should be added.*/
+				int selectedThmsCount = null == shardedQuery ? selectedThmsSet.size() : shardedQuery.selectedThmsCount();
+				boolean onlySelectedThms = curScore >= halfScore && selectedThmsCount >= numHighest;
 				
-				if(curScore >= halfScore && selectedThmsSet.size() >= numHighest) {
-					//filter out the thms that haven't already been selected on previous words. For efficiency.
-					Collection<IndexPartPair> updatedWordThms = new ArrayList<IndexPartPair>();
-					for(IndexPartPair pair : wordThms) {
-						if(selectedThmsSet.contains(pair)) {
-							updatedWordThms.add(pair);
-						}
-					}				
-					wordThms = updatedWordThms;
-				}else {
-					//add to selected thms for record keeping to decide if future thms should be added.
-					selectedThmsSet.addAll(wordThms);					
+				if(null != shardedQuery) {
+					shardedQuery.gatherWordThms(wordThmsList, originalWordScore, onlySelectedThms);
+					continue;
+				}
+				//selected thms are fixed from now on, since onlySelectedThms stays true.
+				if(onlySelectedThms && topKPruning0) {
+					if(null == topKPruner) {
+						topKPruner = new IntersectionTopKPruner(MAX_RANKED_THM_COUNT);
+						topKPruner.start(selectedThmsSet, dbThmSet);
+					}
+					topKPruner.prune(thmWordSpanMMap, remainingSpanBound(originalWordsList, wordThmsListList, i, j));
 				}
 				//this function actually loops over the thms.
 				gatherWordThmsAPosteriori(thmScoreMap, thmWordSpanMMap, thmScoreSpanSet,
 						thmPartMap, thmWordIndexMap, wordThmsList, thmRelWordsScoreMap,//wordThmsList.wordIndexInThm, wordThmsList.tokenType,
-						searchWordsSet, dbThmSet, originalWordScore, wordThms, thmPruneWordsMap, word);
+						searchWordsSet, dbThmSet, originalWordScore, postingCursor, selectedThmsSet, onlySelectedThms,
+						thmPruneWordsMap, word, topKPruner);
 			}
 		}
 		boolean debugPrint = false;
@@ -851,7 +1141,13 @@ public class SearchIntersection {
 		// add bonus points to thms with most number of query words, judging
 		// rom size of value set in thmWordSpanMMap
 		
-		computeLargestSpan(searchState, thmWordSpanMMap, thmSpanMap);
+		if(null != shardedQuery) {
+			int largestWordSpan = shardedQuery.collectCandidates(MAX_RANKED_THM_COUNT, thmScoreMap, thmSpanMap,
+					thmScoreSpanSet, thmPartMap, thmWordIndexMap, thmPruneWordsMap);
+			searchState.setLargestWordSpan(largestWordSpan);
+		}else {
+			computeLargestSpan(searchState, thmWordSpanMMap, thmSpanMap);
+		}
 		
 		searchState.addThmSpan(thmSpanMap);	
 		searchState.setThmScoreMap(thmScoreMap);
@@ -863,7 +1159,7 @@ public class SearchIntersection {
 			System.out.println("Initializing literal search...");
 			
 			List<Integer> highestThmList = LiteralSearch.literalSearch(input, searchState, resultWordSpan, searchWordsSet, 
-					wordIndexPartPairMap, numHighest);
+					postingWordsSet, numHighest);
 			searchState.set_intersectionVecList(highestThmList);
 			return searchState;
 		}
@@ -884,7 +1180,7 @@ public class SearchIntersection {
 		//***boolean topScorer = true;
 		PriorityQueue<ThmScoreSpanPair> thmScorePQ2 = new PriorityQueue<ThmScoreSpanPair>();
 		List<Integer> highestThmList = new ArrayList<Integer>();
-		int maxThmCount = 400;
+		int maxThmCount = MAX_RANKED_THM_COUNT;
 		int counter = 0;
 		//number of original query words, *without* related words.
 		//int queryWordsCount = wordThmCountMap.keySet().size();
@@ -1084,7 +1380,7 @@ public class SearchIntersection {
 	 * @param input can assume input lower-cased.
 	 * 
 	 */
-	private static String queryPreprocess(String input, SearchState searchState) {
+	static String queryPreprocess(String input, SearchState searchState) {
 		Matcher matcher = queryPreprocessPatt.matcher(input);
 		if(matcher.find()) {
 			input = matcher.replaceAll(queryPreprocessReplStr);
@@ -1164,6 +1460,28 @@ public class SearchIntersection {
 		scoreThmMMap.putAll(tempScoreThmMMap);		
 	}
 
+	/**
+	 * Number of query word positions covered by the words still to be processed in intersectionSearch(),
+	 * starting with the wordThmsListIndex'th WordThmsList of the wordIndex'th original word.
+	 * @param originalWordsList processed from the end.
+	 * @param wordThmsListList
+	 * @param wordIndex
+	 * @param wordThmsListIndex
+	 * @return
+	 */
+	private static int remainingSpanBound(List<String> originalWordsList, ListMultimap<String, WordThmsList> wordThmsListList,
+			int wordIndex, int wordThmsListIndex) {
+		BitSet positionsBitSet = new BitSet();
+		for(int i = wordIndex; i > -1; i--) {
+			List<WordThmsList> wordThmsListCol = wordThmsListList.get(originalWordsList.get(i));
+			for(int j = i == wordIndex ? wordThmsListIndex : 0; j < wordThmsListCol.size(); j++) {
+				WordThmsList wordThmsList = wordThmsListCol.get(j);
+				positionsBitSet.set(wordThmsList.wordIndexInThm, wordThmsList.wordIndexInThm + wordThmsList.tokenType.indexShift());
+			}
+		}
+		return positionsBitSet.cardinality();
+	}
+
 	/**
 	 * Gather the sizes of the value maps for thmWordSpanMMap, and keep
 	 * track of order based on scores using a TreeMultimap
@@ -1195,7 +1513,7 @@ public class SearchIntersection {
 	 * 
 	 * @param thmScoreMap
 	 * @param scoreThmMMap
-	 * @param wordIndexPartPairMap Map of words and Collections of IndexPartPair's, where words must be 
+	 * @param postingWordsSet Set of words whose thms are hit in the posting index, where words must be 
 	 * in normalized form. Used for literal search.
 	 * @param word current word to add thms for
 	 * @param wordIndices  array of indices of words in query
@@ -1214,7 +1532,7 @@ public class SearchIntersection {
 	 */
 	private static int addWordThms(Map<Integer, Integer> thmScoreMap, TreeMultimap<Integer, Integer> scoreThmMMap,
 			Multimap<Integer, Integer> thmWordSpanMMap, //Set<ThmScoreSpanPair> thmScoreSpanSet, 
-			Map<Integer, ThmPart> thmPartMap, ListMultimap<String, WordThmsList> wordThmsListList, Map<String, Collection<IndexPartPair>> wordIndexPartPairMap,
+			Map<Integer, ThmPart> thmPartMap, ListMultimap<String, WordThmsList> wordThmsListList, Set<String> postingWordsSet,
 			String word, int wordIndexInThm, WordForms.TokenType tokenType, Map<String, Integer> wordThmCountMap,
 			int[] singletonScoresAr, Set<String> searchWordsSet, Set<Integer> dbThmSet, SearchState searchState
 			) {
@@ -1222,8 +1540,8 @@ public class SearchIntersection {
 		int curScoreToAdd = 0;
 		String wordOriginalForm = word;
 		List<String> relatedWordsList = null;
-		// for every word, get list of thms containing this word. 
-		Collection<IndexPartPair> wordThms;
+		// for every word, get number of thms containing this word. 
+		int wordThmsCount;
 		
 		//Recall words have all been systematically singularized normalized when gathering and processing data,
 		//i.e. when adding to wordThmsMMap
@@ -1233,8 +1551,7 @@ public class SearchIntersection {
 			word = WordForms.normalizeNGram(word);
 		}
 		
-		Collection<IndexPartPair> singWordThms = wordThmsIndexMMap1.get(word);
-		wordThms = singWordThms;		
+		wordThmsCount = postingIndex().postingCount(word);
 		
 		RelatedWords relatedWords;
 		relatedWords = relatedWordsMap.get(word);
@@ -1243,7 +1560,7 @@ public class SearchIntersection {
 		}
 		
 		Integer wordScore = 0;
-		if (!wordThms.isEmpty()) {
+		if (wordThmsCount > 0) {
 			wordScore = wordsScoreMap.get(word);
 			
 			wordScore = wordScore == null ? defaultWordScore : wordScore;
@@ -1273,13 +1590,13 @@ public class SearchIntersection {
 			} 
 		}*/
 		
-		if (wordThms.isEmpty()) {
+		if (wordThmsCount == 0) {
 			
 			String normalizedWord = WordForms.normalizeWordForm(word);
 			Integer tempWordScore = wordsScoreMap.get(normalizedWord);
-			wordThms = wordThmsIndexMMap1.get(normalizedWord);
+			wordThmsCount = postingIndex().postingCount(normalizedWord);
 			
-			if (!wordThms.isEmpty()) {
+			if (wordThmsCount > 0) {
 				
 				tempWordScore = null == tempWordScore ? defaultWordScore : tempWordScore;
 				wordScore = tempWordScore;
@@ -1304,17 +1621,17 @@ public class SearchIntersection {
 		// adjust curScoreToAdd, boost 2, 3-gram scores when applicable
 		curScoreToAdd = tokenType.adjustNGramScore(curScoreToAdd, singletonScoresAr, wordIndexInThm);
 				
-		if (!wordThms.isEmpty()) {
+		if (wordThmsCount > 0) {
 			
 			if(curScoreToAdd == 0) {
 				curScoreToAdd = defaultWordScore;
 			}
 			
-			wordThmsListList.put(word, new WordThmsList(word, wordThms, curScoreToAdd, tokenType, wordIndexInThm));
-			//use normalized word for literal search. Construct new map, as wordThms are immutable.
-			wordIndexPartPairMap.put(word, new HashSet<IndexPartPair>(wordThms));
+			wordThmsListList.put(word, new WordThmsList(word, wordThmsCount, curScoreToAdd, tokenType, wordIndexInThm));
+			//use normalized word for literal search.
+			postingWordsSet.add(word);
 			
-			wordThmCountMap.put(word, wordThms.size());
+			wordThmCountMap.put(word, wordThmsCount);
 			
 			if (DEBUG) {
 				System.out.println("SearchIntersection-Word added: " + word + ". Score: " + curScoreToAdd);
@@ -1343,7 +1660,7 @@ public class SearchIntersection {
 			//don't add related words score to total word score, i.e. curScoreToAdd
 			addRelatedWordsThms(thmScoreMap, scoreThmMMap, //thmScoreSpanSet, 
 					thmWordSpanMMap, wordIndexInThm, word, tokenType, curScoreToAdd, relatedWordsList, 
-					dbThmSet, wordThmsListList, wordIndexPartPairMap);
+					dbThmSet, wordThmsListList, postingWordsSet);
 		}
 		return curScoreToAdd;
 	}
@@ -1365,9 +1682,12 @@ public class SearchIntersection {
 	 * @param dbThmSet
 	 * @param curScoreToAdd
 	 * @param thmRelWordsScoreMap map of thm index and related words scores. 
-	 * @param wordOriginalForm
-	 * @param wordThms
+	 * @param postingCursor cursor over the posting index, reset to wordThmsList's word here.
+	 * @param selectedThmsSet thms selected so far for the query.
+	 * @param onlySelectedThms if true, only loop over thms in selectedThmsSet, else add all thms 
+	 * for this word to selectedThmsSet.
 	 * @param thmPruneWordsMap used to prune generic-word thms.  e.g. ones whose sole word is "equation", "module".
+	 * @param topKPruner if not null, only loop over postings of thms it has not pruned. 
 	 * @return score added.
 	 */
 	private static void gatherWordThmsAPosteriori(Map<Integer, Integer> thmScoreMap,
@@ -1376,7 +1696,8 @@ public class SearchIntersection {
 			WordThmsList wordThmsList, Map<Integer, Integer> thmRelWordsScoreMap,
 			//int wordIndexInThm, WordForms.TokenType tokenType,
 			Set<String> searchWordsSet, Set<Integer> dbThmSet, int originalWordScore, 
-			Collection<IndexPartPair> wordThms, Map<Integer, String> thmPruneWordsMap, String word) {
+			PostingCursor postingCursor, Set<Integer> selectedThmsSet, boolean onlySelectedThms,
+			Map<Integer, String> thmPruneWordsMap, String word, IntersectionTopKPruner topKPruner) {
 
 		//int scoreAdded;
 		long beforeLoop = 0;
@@ -1392,10 +1713,21 @@ public class SearchIntersection {
 		
 		boolean isOriginalWord = relWord.equals(word);
 		
-		for (IndexPartPair thmIndexPair : wordThms) {
+		postingCursor.reset(relWord);
+		if(null != topKPruner) {
+			topKPruner.startWord();
+		}
+		while (null == topKPruner ? postingCursor.next() : topKPruner.nextPosting(postingCursor)) {
 			//note this list could be long, i.e. in hundreds of thousands
-			int index = thmIndexPair.thmIndex();
+			int index = postingCursor.thmIndex();
 			
+			if(onlySelectedThms) {
+				if(!selectedThmsSet.contains(index)) {
+					continue;
+				}
+			}else {
+				selectedThmsSet.add(index);
+			}
 			if(null != dbThmSet && !dbThmSet.contains(index)) {
 				continue;
 			}
@@ -1414,17 +1746,17 @@ public class SearchIntersection {
 				int penalty = curScoreToAdd > 5 ? curScoreToAdd / 3 : 1;
 				curScoreToAdd -= penalty;
 			}*/
-			thmIndexPair.addToMap(thmPartMap);
+			postingCursor.addToMap(thmPartMap);
 			
 			WordDistScoreTMap wordIndexTMap = thmWordIndexMap.get(index);
 			wordIndexTMap = null == wordIndexTMap ? new WordDistScoreTMap() : wordIndexTMap;			
 			
-			ThmPart thmPart = thmIndexPair.thmPart();
-			//array of word indices in thm, used for word-distance based scoring.
-			byte[] wordIndexAr = thmIndexPair.wordIndexAr();
-			for(byte b : wordIndexAr) {
+			ThmPart thmPart = postingCursor.thmPart();
+			//word indices in thm, used for word-distance based scoring.
+			int wordIndexCount = postingCursor.wordIndexCount();
+			for(int j = 0; j < wordIndexCount; j++) {
 				//limited to 128 because bytes comparison needed in treemap.
-				wordIndexTMap.addToTreeMap(thmPart, b, word);
+				wordIndexTMap.addToTreeMap(thmPart, postingCursor.wordIndexAt(j), word);
 			}
 			// used to prune generic-word thms, e.g. ones whose sole word is "equation", "module", etc.
 			/////////thmIndexPair.setWord(word);
@@ -1459,7 +1791,7 @@ public class SearchIntersection {
 			
 			/***Dec 6 scoreThmMMap.remove(prevScore, index);
 			scoreThmMMap.put(newScore, index);*/
-			char thmTypeChar = thmIndexPair.thmType();
+			char thmTypeChar = postingCursor.thmType();
 			
 			//thmScorePQ.add(new ThmScoreSpanPair(index, newScore, 0));
 			// put in thmIndex, and the index of word in the query, to
@@ -1469,7 +1801,7 @@ public class SearchIntersection {
 			
 		}
 		
-		if(profileTiming) SimilarThmSearch.printElapsedTime(beforeLoop, "LOOPING over "+wordThms.size()+" Thms");
+		if(profileTiming) SimilarThmSearch.printElapsedTime(beforeLoop, "LOOPING over "+wordThmsList.thmsCount+" Thms");
 		
 	}
 
@@ -1488,7 +1820,7 @@ public class SearchIntersection {
 			TreeMultimap<Integer, Integer> scoreThmMMap, //Set<ThmScoreSpanPair> thmScoreSet,
 			Multimap<Integer, Integer> thmWordSpanMMap, int wordIndexInQuery, String originalWord,
 			WordForms.TokenType tokenType, int originalWordScore, List<String> relatedWordsList, Set<Integer> dbThmSet,
-			ListMultimap<String, WordThmsList> wordThmsListMMap, Map<String, Collection<IndexPartPair>> wordIndexPartPairMap) {
+			ListMultimap<String, WordThmsList> wordThmsListMMap, Set<String> postingWordsSet) {
 		// add thms for related words found, with some reduction factor;
 		// make global after experimentation. But *must not* exceed original word score,
 		//to make original hits rank higher. Want score for input word to be 3 or higher.
@@ -1512,8 +1844,7 @@ public class SearchIntersection {
 				if(maxRelatedWords-- < 1) {
 					break;
 				}
-				//need to create new Set each time, due to deliberate immutability of wordThmsIndexMMap1 
-				Collection<IndexPartPair> relatedWordThms = new HashSet<IndexPartPair>(wordThmsIndexMMap1.get(relatedWord));
+				int relatedWordThmsCount = postingIndex().postingCount(relatedWord);
 				
 				/*if (relatedWordScore == 0 && !relatedWordThms.isEmpty()) {
 					//Integer score = wordsScoreMap.get(relatedWord);
@@ -1523,18 +1854,13 @@ public class SearchIntersection {
 					relatedWordScore = (int) Math.ceil(score * RELATED_WORD_MULTIPLICATION_FACTOR);
 				}*/
 				
-				if(!relatedWordThms.isEmpty()) {
+				if(relatedWordThmsCount > 0) {
 					/*Need to prevent thms containing many related words from outranking direct hits.
 					e.g. "Perron-Frobenius" query top results contained non-direct hits, due to related words. 
 					But don't iterate over all relatedWordThms, since these are large and iterating has proven to drastically slow down search.*/
-					wordThmsListMMap.put(originalWord, new WordThmsList(relatedWord, relatedWordThms, relatedWordScore, originalWordScore, tokenType, wordIndexInQuery));
+					wordThmsListMMap.put(originalWord, new WordThmsList(relatedWord, relatedWordThmsCount, relatedWordScore, originalWordScore, tokenType, wordIndexInQuery));
 					//use normalized word for literal search.
-					Collection<IndexPartPair> pairCol = wordIndexPartPairMap.get(relatedWord);
-					if(null != pairCol) {
-						pairCol.addAll(relatedWordThms);
-					}else {
-						wordIndexPartPairMap.put(relatedWord, relatedWordThms);
-					}
+					postingWordsSet.add(relatedWord);
 					
 					if (DEBUG) {
 						System.out.println("SearchIntersection-RELATED Word added: " + relatedWord + ". Score: " + relatedWordScore);
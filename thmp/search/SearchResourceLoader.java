@@ -0,0 +1,234 @@
+package thmp.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import thmp.parse.Maps;
+import thmp.utils.WordForms;
+
+/**
+ * Loads search resources at startup, e.g. from SearchCombined.initializeSearchWithResource(),
+ * rather than one after another in the static initializers reached by the first search.
+ * Each resource declares the resources its loading uses, and independent resources are loaded
+ * concurrently, each after its dependencies. Dependencies also keep two threads from initializing
+ * classes whose initializers use each other, which would deadlock. A search that arrives while
+ * a resource is loading waits for that load, rather than starting another one.
+ *
+ * Resources only some uses need, e.g. the food lexicon, are not loaded here but on first use.
+ * Load times of all resources, including those loaded on first use, are recorded and
+ * listed by loadTimeReport().
+ */
+public class SearchResourceLoader {
+
+	private static final Logger logger = LogManager.getLogger(SearchResourceLoader.class);
+	//in the order resources may be loaded in, so dependencies come before their dependents.
+	private static final List<Resource> RESOURCE_LIST = new ArrayList<Resource>();
+	//resource names and load times in ms, in order loads finished.
+	private static final Map<String, Long> loadTimeMap = Collections.synchronizedMap(new LinkedHashMap<String, Long>());
+	//completes when all resources have been loaded or have failed.
+	private static Future<?> loadFuture;
+
+	/**
+	 * Resource loaded at startup.
+	 */
+	private static abstract class Resource{
+		final String name;
+		final List<String> dependencyList;
+
+		Resource(String name, String... dependencies){
+			this.name = name;
+			this.dependencyList = Arrays.asList(dependencies);
+		}
+
+		/**
+		 * Loads resource, usually by initializing the class holding it.
+		 */
+		abstract void load();
+	}
+
+	static{
+		addResource(new Resource("WordForms"){
+			void load(){
+				WordForms.stopWordsSet();
+			}
+		});
+		addResource(new Resource("WordFrequency", "WordForms"){
+			void load(){
+				WordFrequency.ComputeFrequencyData.englishStockFreqMap();
+			}
+		});
+		addResource(new Resource("Maps.BuildMaps", "WordForms", "WordFrequency"){
+			void load(){
+				Maps.BuildMaps.initialize();
+			}
+		});
+		addResource(new Resource("TwoGramSearch", "WordForms", "WordFrequency"){
+			void load(){
+				NGramSearch.get_2GramFirstWordsSet();
+			}
+		});
+		//ThreeGramSearch uses the 2-grams in its initialization
+		addResource(new Resource("ThreeGramSearch", "TwoGramSearch"){
+			void load(){
+				ThreeGramSearch.get_3GramFirstWordsSet();
+			}
+		});
+		addResource(new Resource("CollectThm.ThmWordsMaps", "TwoGramSearch", "ThreeGramSearch"){
+			void load(){
+				CollectThm.ThmWordsMaps.get_CONTEXT_VEC_SIZE();
+			}
+		});
+		addResource(new Resource("relatedWordsMap", "CollectThm.ThmWordsMaps"){
+			void load(){
+				CollectThm.ThmWordsMaps.getRelatedWordsMap();
+			}
+		});
+		addResource(new Resource("IndexGeneration", "CollectThm.ThmWordsMaps"){
+			void load(){
+				IndexGeneration.current();
+			}
+		});
+	}
+
+	private static void addResource(Resource resource){
+		for(Resource prevResource : RESOURCE_LIST){
+			if(prevResource.name.equals(resource.name)){
+				throw new IllegalStateException("Resource " + resource.name + " is already declared!");
+			}
+		}
+		for(String dependency : resource.dependencyList){
+			boolean declared = false;
+			for(Resource prevResource : RESOURCE_LIST){
+				if(prevResource.name.equals(dependency)){
+					declared = true;
+				}
+			}
+			//so dependencies can't form cycles
+			if(!declared){
+				throw new IllegalStateException("Dependency " + dependency + " of resource " + resource.name
+						+ " must be declared before it!");
+			}
+		}
+		RESOURCE_LIST.add(resource);
+	}
+
+	/**
+	 * Starts loading resources on background threads, if not already started.
+	 * Servlet context should be set prior to this, see SearchCombined.initializeSearchWithResource().
+	 * @return Future that completes once all resources have been loaded, or have failed to load.
+	 */
+	public static synchronized Future<?> loadInBackground(){
+		if(null != loadFuture){
+			return loadFuture;
+		}
+		//one thread per resource, so resources waiting for dependencies can't hold up others.
+		ExecutorService executor = Executors.newFixedThreadPool(RESOURCE_LIST.size() + 1,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("search-resource-load-%d").build());
+		final long beforeLoad = System.currentTimeMillis();
+		final Map<String, Future<?>> futureMap = new HashMap<String, Future<?>>();
+		for(final Resource resource : RESOURCE_LIST){
+			final List<Future<?>> dependencyFutureList = new ArrayList<Future<?>>();
+			for(String dependency : resource.dependencyList){
+				dependencyFutureList.add(futureMap.get(dependency));
+			}
+			futureMap.put(resource.name, executor.submit(new Callable<Void>(){
+				public Void call() throws InterruptedException{
+					for(Future<?> dependencyFuture : dependencyFutureList){
+						try{
+							dependencyFuture.get();
+						}catch(ExecutionException e){
+							throw new IllegalStateException("Not loading " + resource.name + ", since a dependency failed to load.", e);
+						}
+					}
+					long beforeResourceLoad = System.currentTimeMillis();
+					resource.load();
+					recordLoadTime(resource.name, System.currentTimeMillis() - beforeResourceLoad);
+					return null;
+				}
+			}));
+		}
+		loadFuture = executor.submit(new Callable<Void>(){
+			public Void call() throws InterruptedException{
+				for(Resource resource : RESOURCE_LIST){
+					try{
+						futureMap.get(resource.name).get();
+					}catch(ExecutionException e){
+						logger.error("SearchResourceLoader - failed to load " + resource.name + ": " + e.getCause());
+					}
+				}
+				String msg = "SearchResourceLoader - loaded search resources in " + (System.currentTimeMillis() - beforeLoad)
+						+ "ms:\n" + loadTimeReport();
+				System.out.println(msg);
+				logger.info(msg);
+				return null;
+			}
+		});
+		executor.shutdown();
+		return loadFuture;
+	}
+
+	/**
+	 * Loads resources, and waits until all have been loaded.
+	 */
+	public static void load(){
+		try{
+			loadInBackground().get();
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while loading search resources.", e);
+		}catch(ExecutionException e){
+			throw new IllegalStateException("ExecutionException while loading search resources.", e);
+		}
+	}
+
+	/**
+	 * Records time taken to load a resource, including resources loaded on first use.
+	 * @param resourceName
+	 * @param loadTimeMillis
+	 */
+	public static void recordLoadTime(String resourceName, long loadTimeMillis){
+		loadTimeMap.put(resourceName, loadTimeMillis);
+	}
+
+	/**
+	 * Resources loaded so far, and their load times in ms, in order loads finished.
+	 * Time of a resource excludes that of dependencies, which were loaded before it.
+	 * @return
+	 */
+	public static Map<String, Long> loadTimeMap(){
+		synchronized(loadTimeMap){
+			return new LinkedHashMap<String, Long>(loadTimeMap);
+		}
+	}
+
+	/**
+	 * Per-resource load times, one resource per line.
+	 * @return
+	 */
+	public static String loadTimeReport(){
+		StringBuilder sb = new StringBuilder();
+		for(Map.Entry<String, Long> entry : loadTimeMap().entrySet()){
+			sb.append(entry.getKey()).append(": ").append(entry.getValue()).append("ms\n");
+		}
+		return sb.toString();
+	}
+
+	public static void main(String[] args){
+		load();
+	}
+}
@@ -0,0 +1,220 @@
+package thmp.search;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+
+import thmp.utils.WordForms;
+
+/**
+ * Cache of SearchCombined results, keyed by the query's normalized tokens, search flags, and
+ * the IndexGeneration the search is pinned on, so queries repeatedly sent by the web front end
+ * skip the search stages, and results are only served to searches on the generation they index.
+ * Entries are weighed by their approximate size, evicted by LRU once the total weight exceeds
+ * MAX_WEIGHT_BYTES, and expire after TTL_MINUTES.
+ *
+ * invalidateAll() should be called whenever a new generation is swapped in, to free the entries
+ * of the previous one. Searches still pinned on a previous generation don't get cached.
+ * Thread-safe.
+ */
+public class SearchResultCache {
+
+	private static final Logger logger = LogManager.getLogger(SearchResultCache.class);
+	private static final long MAX_WEIGHT_BYTES = 64L << 20;
+	private static final long TTL_MINUTES = 30;
+	//approximate bytes per cached collection entry, including boxing.
+	private static final int BYTES_PER_ENTRY = 48;
+	//log stats every this many lookups
+	private static final int STATS_LOG_INTERVAL = 10000;
+
+	private final Cache<QueryKey, CachedResult> cache;
+	private final AtomicLong lookupCounter = new AtomicLong();
+
+	public SearchResultCache() {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumWeight(MAX_WEIGHT_BYTES)
+				.weigher(new Weigher<QueryKey, CachedResult>() {
+					public int weigh(QueryKey key, CachedResult result) {
+						return result.weightBytes;
+					}
+				})
+				.expireAfterWrite(TTL_MINUTES, TimeUnit.MINUTES)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * Key of a query: its tokens after the preprocessing that intersection search does, the
+	 * flags that change results, and the id of the IndexGeneration it's searched on.
+	 */
+	public static class QueryKey {
+		private final long generationId;
+		private final List<String> tokenList;
+		private final boolean searchContextBool;
+		private final boolean searchRelationalBool;
+		private final boolean allowLiteralSearch;
+		private final boolean defFirst;
+		private final int numCommonVecs;
+		private final int hashCode;
+
+		private QueryKey(long generationId, List<String> tokenList, boolean searchContextBool, boolean searchRelationalBool,
+				boolean allowLiteralSearch, boolean defFirst, int numCommonVecs) {
+			this.generationId = generationId;
+			this.tokenList = tokenList;
+			this.searchContextBool = searchContextBool;
+			this.searchRelationalBool = searchRelationalBool;
+			this.allowLiteralSearch = allowLiteralSearch;
+			this.defFirst = defFirst;
+			this.numCommonVecs = numCommonVecs;
+			int hash = tokenList.hashCode() * 31 + (int)(generationId ^ (generationId >>> 32));
+			hash = hash * 31 + (searchContextBool ? 1 : 0);
+			hash = hash * 31 + (searchRelationalBool ? 1 : 0);
+			hash = hash * 31 + (allowLiteralSearch ? 1 : 0);
+			hash = hash * 31 + (defFirst ? 1 : 0);
+			this.hashCode = hash * 31 + numCommonVecs;
+		}
+
+		/**
+		 * Key of query on the generation pinned on this thread, see IndexGeneration.enter().
+		 * @param input lower-cased query, with search prefixes and result count already removed.
+		 * @param searchState state of the query, before searching.
+		 * @param numCommonVecs
+		 * @param searchContextBool
+		 * @param searchRelationalBool
+		 * @return
+		 */
+		static QueryKey create(String input, SearchState searchState, int numCommonVecs,
+				boolean searchContextBool, boolean searchRelationalBool) {
+			SearchState preprocessState = new SearchState();
+			input = SearchIntersection.queryPreprocess(input, preprocessState);
+			//quoted sections are searched literally, so "a b" differs from a b
+			List<String> tokenList = input.indexOf('"') >= 0 ? WordForms.splitThmIntoQuotedSections(input)
+					: WordForms.splitThmIntoSearchWordsList(input);
+			return new QueryKey(IndexGeneration.forCurrentThread().id(), tokenList, searchContextBool, searchRelationalBool, searchState.allowLiteralSearch(),
+					searchState.defFirst() || preprocessState.defFirst(), numCommonVecs);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof QueryKey)) {
+				return false;
+			}
+			QueryKey other = (QueryKey)obj;
+			return hashCode == other.hashCode && generationId == other.generationId && searchContextBool == other.searchContextBool
+					&& searchRelationalBool == other.searchRelationalBool && allowLiteralSearch == other.allowLiteralSearch
+					&& defFirst == other.defFirst && numCommonVecs == other.numCommonVecs
+					&& tokenList.equals(other.tokenList);
+		}
+
+		@Override
+		public String toString() {
+			return tokenList.toString();
+		}
+	}
+
+	/**
+	 * Results of a query, along with what the search recorded in its SearchState and search words set.
+	 */
+	private static class CachedResult {
+		final List<Integer> thmIndexList;
+		final SearchState searchState;
+		final Set<String> searchWordsSet;
+		final int weightBytes;
+
+		CachedResult(List<Integer> thmIndexList, SearchState searchState, Set<String> searchWordsSet) {
+			this.thmIndexList = thmIndexList;
+			this.searchState = searchState;
+			this.searchWordsSet = searchWordsSet;
+			long weight = (long)BYTES_PER_ENTRY * (thmIndexList.size() + searchWordsSet.size()
+					+ searchState.resultsEntryCount());
+			this.weightBytes = (int)Math.min(weight, Integer.MAX_VALUE);
+		}
+	}
+
+	/**
+	 * Looks up cached results. On a hit, fills searchState and searchWordsSet as the search would have.
+	 * @param key
+	 * @param searchState
+	 * @param searchWordsSet can be null.
+	 * @return null if not cached.
+	 */
+	public List<Integer> get(QueryKey key, SearchState searchState, Set<String> searchWordsSet) {
+		CachedResult result = cache.getIfPresent(key);
+		if(lookupCounter.incrementAndGet() % STATS_LOG_INTERVAL == 0) {
+			logger.info("SearchResultCache stats: " + stats() + ", entries: " + cache.size());
+		}
+		if(null == result) {
+			return null;
+		}
+		searchState.restoreResults(result.searchState);
+		if(null != searchWordsSet) {
+			searchWordsSet.addAll(result.searchWordsSet);
+		}
+		return new ArrayList<Integer>(result.thmIndexList);
+	}
+
+	/**
+	 * Caches results of a search, unless the key's generation is no longer the current one.
+	 * @param key
+	 * @param thmIndexList results
+	 * @param searchState state after the search.
+	 * @param searchWordsSet can be null.
+	 */
+	public void put(QueryKey key, List<Integer> thmIndexList, SearchState searchState,
+			Set<String> searchWordsSet) {
+		if(key.generationId != IndexGeneration.current().id()) {
+			return;
+		}
+		//score and span maps are only kept for result thms
+		Set<Integer> thmIndexSet = new HashSet<Integer>(thmIndexList);
+		if(null != searchState.intersectionVecList()) {
+			thmIndexSet.addAll(searchState.intersectionVecList());
+		}
+		Set<String> searchWordsCopy = null == searchWordsSet ? Collections.<String>emptySet()
+				: new HashSet<String>(searchWordsSet);
+		CachedResult result = new CachedResult(new ArrayList<Integer>(thmIndexList),
+				searchState.resultsCopy(thmIndexSet), searchWordsCopy);
+		cache.put(key, result);
+		//in case a new generation was swapped in, and the cache invalidated, meanwhile
+		if(key.generationId != IndexGeneration.current().id()) {
+			cache.invalidate(key);
+		}
+	}
+
+	/**
+	 * Drops all cached results. Call after a new generation is swapped in.
+	 */
+	public void invalidateAll() {
+		cache.invalidateAll();
+		logger.info("SearchResultCache invalidated.");
+	}
+
+	/**
+	 * Hit, miss, and eviction counts.
+	 * @return
+	 */
+	public CacheStats stats() {
+		return cache.stats();
+	}
+
+	public long size() {
+		return cache.size();
+	}
+}
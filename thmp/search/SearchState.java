@@ -1,6 +1,8 @@
 package thmp.search;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -261,4 +263,79 @@ public class SearchState {
 	public void setParseState(ParseState parseState) {
 		this.parseState = parseState;
 	}
+	
+	/**
+	 * Copy of the results recorded in this state, for caching. Score and span maps are
+	 * restricted to thms in thmIndexCol, since they can contain all thms hit by the query.
+	 * Database connection and parse state are not copied.
+	 * @param thmIndexCol
+	 * @return
+	 */
+	SearchState resultsCopy(Collection<Integer> thmIndexCol) {
+		SearchState copy = new SearchState();
+		copy.allowLiteralSearch = allowLiteralSearch;
+		copy.restoreResults(this, thmIndexCol);
+		return copy;
+	}
+	
+	/**
+	 * Copies results recorded in cachedState into this state, e.g. on a cache hit. 
+	 * Collections are copied, so cachedState is not modified by later changes to this state.
+	 * @param cachedState
+	 */
+	void restoreResults(SearchState cachedState) {
+		restoreResults(cachedState, null);
+	}
+	
+	private void restoreResults(SearchState other, Collection<Integer> thmIndexCol) {
+		tokenScoreMap.putAll(other.tokenScoreMap);
+		normalizedTokenSet.addAll(other.normalizedTokenSet);
+		totalWordAdded = other.totalWordAdded;
+		largestWordSpan = Math.max(largestWordSpan, other.largestWordSpan);
+		defFirst = defFirst || other.defFirst;
+		if(null != other.intersectionVecList) {
+			intersectionVecList = new ArrayList<Integer>(other.intersectionVecList);
+		}
+		if(null != other.thmScoreSpanList) {
+			thmScoreSpanList = new ArrayList<ThmScoreSpanPair>(other.thmScoreSpanList);
+		}
+		thmSpanMap.putAll(restrictMap(other.thmSpanMap, thmIndexCol));
+		if(null != other.thmScoreMap) {
+			thmScoreMap = restrictMap(other.thmScoreMap, thmIndexCol);
+		}
+		if(null != other.contextSearchNumCoincidingMap) {
+			contextSearchNumCoincidingMap = restrictMap(other.contextSearchNumCoincidingMap, thmIndexCol);
+		}
+	}
+	
+	/**
+	 * @param map
+	 * @param keyCol null if no restriction.
+	 * @return new map
+	 */
+	private static Map<Integer, Integer> restrictMap(Map<Integer, Integer> map, Collection<Integer> keyCol){
+		if(null == keyCol) {
+			return new HashMap<Integer, Integer>(map);
+		}
+		Map<Integer, Integer> restrictedMap = new HashMap<Integer, Integer>();
+		for(Integer key : keyCol) {
+			Integer val = map.get(key);
+			if(null != val) {
+				restrictedMap.put(key, val);
+			}
+		}
+		return restrictedMap;
+	}
+	
+	/**
+	 * Approximate number of entries held by this state, used to weigh cached states.
+	 * @return
+	 */
+	int resultsEntryCount() {
+		return tokenScoreMap.size() + normalizedTokenSet.size() + thmSpanMap.size()
+			+ (null == intersectionVecList ? 0 : intersectionVecList.size())
+			+ (null == thmScoreSpanList ? 0 : thmScoreSpanList.size())
+			+ (null == thmScoreMap ? 0 : thmScoreMap.size())
+			+ (null == contextSearchNumCoincidingMap ? 0 : contextSearchNumCoincidingMap.size());
+	}
 }
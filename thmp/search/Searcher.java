@@ -52,6 +52,8 @@ public interface Searcher<S> {
 		private static final long serialVersionUID = 1408487446908500897L;
 		//Where an instance of this class should be serialized.
 		private static final String searchConfigurationSerialPath = "src/thmp/data/searchConfiguration.dat";
+		//start thm indices of bundles, written by ThmBundleWriter as bundles are written.
+		private static final String bundleIndexPath = "src/thmp/data/bundleStartThmIndex.txt";
 		//used in ThmHypPairGet. Containing indices of thms that are the first in a bundle. 
 		private List<Integer> bundleStartThmIndexList;
 		private int totalThmsCount;
@@ -88,6 +90,10 @@ public interface Searcher<S> {
 		public static String searchConfigurationSerialPath(){
 			return searchConfigurationSerialPath;
 		}
+		
+		public static String bundleIndexPath(){
+			return bundleIndexPath;
+		}
 	}
 	
 	public static class SearchMetaData{
@@ -111,6 +117,9 @@ public interface Searcher<S> {
 		
 		/**Map of words and their literal search indices, encoded as bytes.*/
 		private static final String literalSearchIndexMapPath = "src/thmp/data/literalSearchIndexMap.dat";
+		/**CSR graph of similar thms, and dir of the per-bundle graphs it's assembled from, see SimilarThmGraph.*/
+		private static final String similarThmGraphPath = "src/thmp/data/similarThmGraph.store";
+		private static final String similarThmGraphBundleDirPath = "src/thmp/data/similarThmGraph/";
 		public static final String texFilesSerializedListFileName = "texFileNamesSetList.dat";
 		
 		/**Path to file containing database names data 
@@ -192,6 +201,14 @@ public interface Searcher<S> {
 			return literalSearchIndexMapPath;
 		}
 		
+		public static String similarThmGraphPath() {
+			return similarThmGraphPath;
+		}
+		
+		public static String similarThmGraphBundleDirPath() {
+			return similarThmGraphBundleDirPath;
+		}
+		
 		/** Used to separate the case when gatheringDataBool, where in fact want maps collected
 		 * in previous runs, e.g. when using a pre-computed projection matrix for SVD.*/
 		public static String previousWordDocFreqMapsPath() {
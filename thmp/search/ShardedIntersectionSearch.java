@@ -0,0 +1,533 @@
+package thmp.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import thmp.search.SearchIntersection.ThmScoreSpanPair;
+import thmp.search.SearchIntersection.WordDistScoreTMap;
+import thmp.search.SearchIntersection.WordThmsList;
+import thmp.search.WordThmsPostingIndex.DecodedTerms;
+import thmp.search.WordThmsPostingIndex.PostingCursor;
+import thmp.search.WordThmsPostingIndex.ShardTable;
+import thmp.utils.WordForms.ThmPart;
+
+/**
+ * Sharded mode of intersection search. The thm index space is split into contiguous shards,
+ * each reading only its own range of the posting lists, see WordThmsPostingIndex.ShardTable.
+ * For each word of the query, all shards score their thms in parallel on a ForkJoinPool,
+ * into primitive per-thm arrays rather than HashMaps. Each shard then keeps its local top
+ * thms, and these are merged, so SearchIntersection ranks the candidates with the
+ * existing ThmScoreSpanPair ordering. Candidates are the thms with largest spans, which is
+ * what that ordering ranks by, ties are broken by thm index rather than by heap order.
+ *
+ * Words are processed one after another, with all shards finishing a word before the next
+ * starts, since whether a word only scores already-selected thms depends on the number of
+ * thms selected by previous words across all shards. Results are thus the same as the
+ * single-threaded search, except that the per-thm maps put in SearchState (thm scores and
+ * spans) only contain the merged candidates, rather than all thms hit.
+ *
+ * Per-thm arrays are pooled across queries, and reset through lists of touched thms,
+ * so each concurrent query holds about 30 bytes per thm in the index.
+ */
+public class ShardedIntersectionSearch {
+
+	/**spans are kept as bitmasks of query word positions*/
+	static final int MAX_QUERY_WORDS = 64;
+	private static final byte STM_CODE = (byte)(ThmPart.STM.ordinal() + 1);
+	private static final ThmPart[] THM_PART_AR = ThmPart.values();
+
+	private final WordThmsPostingIndex postingIndex;
+	private final ShardTable shardTable;
+	private final ForkJoinPool pool;
+	private final ConcurrentLinkedQueue<ShardState[]> shardStatesPool = new ConcurrentLinkedQueue<ShardState[]>();
+
+	/**
+	 * @param postingIndex
+	 * @param numShards
+	 * @param parallelism number of threads scoring shards.
+	 */
+	public ShardedIntersectionSearch(WordThmsPostingIndex postingIndex, int numShards, int parallelism) {
+		this.postingIndex = postingIndex;
+		this.shardTable = postingIndex.createShardTable(numShards);
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	public int numShards() {
+		return shardTable.numShards();
+	}
+
+	/**
+	 * Stops the threads once in-flight queries are done, no queries can be started afterwards.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Starts scoring a query, words are then added with gatherWordThms().
+	 * @param dbThmSet optional, only consider thms in this set.
+	 * @param decodedTerms optional, terms whose decoded postings shards read, see PostingCursor.setDecodedTerms().
+	 * @return
+	 */
+	ShardedQuery startQuery(Set<Integer> dbThmSet, DecodedTerms decodedTerms) {
+		ShardState[] shardStates = shardStatesPool.poll();
+		if(null == shardStates) {
+			int numShards = shardTable.numShards();
+			shardStates = new ShardState[numShards];
+			for(int s = 0; s < numShards; s++) {
+				shardStates[s] = new ShardState(s, shardTable.shardStart(s), shardTable.shardEnd(s));
+			}
+		}
+		for(ShardState shardState : shardStates) {
+			shardState.cursor.setDecodedTerms(decodedTerms);
+		}
+		return new ShardedQuery(shardStates, dbThmSet);
+	}
+
+	private interface ShardAction {
+		void run(ShardState shardState);
+	}
+
+	/**
+	 * Runs action on all shards in parallel, returns once all are done.
+	 * @param shardStates
+	 * @param action
+	 */
+	private void forEachShard(final ShardState[] shardStates, final ShardAction action) {
+		pool.invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected void compute() {
+				List<RecursiveAction> taskList = new ArrayList<RecursiveAction>(shardStates.length);
+				for(final ShardState shardState : shardStates) {
+					taskList.add(new RecursiveAction() {
+						private static final long serialVersionUID = 1L;
+						@Override
+						protected void compute() {
+							action.run(shardState);
+						}
+					});
+				}
+				invokeAll(taskList);
+			}
+		});
+	}
+
+	/**
+	 * One word pass of a query, i.e. one call to gatherWordThms().
+	 */
+	private static class WordPass {
+		final WordThmsList wordThmsList;
+		//original query word, wordThmsList could be for a word related to it.
+		final String word;
+		final int wordOrdinal;
+		final int originalWordScore;
+		final boolean onlySelectedThms;
+		final long spanBits;
+
+		WordPass(WordThmsList wordThmsList, String word, int wordOrdinal, int originalWordScore,
+				boolean onlySelectedThms) {
+			this.wordThmsList = wordThmsList;
+			this.word = word;
+			this.wordOrdinal = wordOrdinal;
+			this.originalWordScore = originalWordScore;
+			this.onlySelectedThms = onlySelectedThms;
+			int indexShift = wordThmsList.tokenType.indexShift();
+			this.spanBits = ((1L << indexShift) - 1) << wordThmsList.wordIndexInThm;
+		}
+	}
+
+	/**
+	 * Scoring state of one query across all shards. Not thread-safe, used by the query's thread.
+	 */
+	class ShardedQuery {
+
+		private final ShardState[] shardStates;
+		private final Set<Integer> dbThmSet;
+		private final List<WordPass> wordPassList = new ArrayList<WordPass>();
+		private final List<String> originalWordList = new ArrayList<String>();
+
+		private ShardedQuery(ShardState[] shardStates, Set<Integer> dbThmSet) {
+			this.shardStates = shardStates;
+			this.dbThmSet = dbThmSet;
+		}
+
+		/**
+		 * Starts next original query word. Related-words scores are kept per original word.
+		 * @param word
+		 */
+		void nextOriginalWord(String word) {
+			originalWordList.add(word);
+		}
+
+		/**
+		 * Number of thms selected so far, across all shards.
+		 * @return
+		 */
+		int selectedThmsCount() {
+			int count = 0;
+			for(ShardState shardState : shardStates) {
+				count += shardState.selectedCount;
+			}
+			return count;
+		}
+
+		/**
+		 * Sharded counterpart of SearchIntersection.gatherWordThmsAPosteriori(), for the current
+		 * original word.
+		 * @param wordThmsList
+		 * @param originalWordScore
+		 * @param onlySelectedThms
+		 */
+		void gatherWordThms(WordThmsList wordThmsList, int originalWordScore, boolean onlySelectedThms) {
+			int wordOrdinal = originalWordList.size() - 1;
+			final WordPass wordPass = new WordPass(wordThmsList, originalWordList.get(wordOrdinal), wordOrdinal,
+					originalWordScore, onlySelectedThms);
+			wordPassList.add(wordPass);
+			//1-based, 0 denotes not selected
+			final int passNum = wordPassList.size();
+			forEachShard(shardStates, new ShardAction() {
+				@Override
+				public void run(ShardState shardState) {
+					shardState.gatherWordThms(wordPass, passNum, dbThmSet);
+				}
+			});
+		}
+
+		/**
+		 * Merges the top maxCandidateCount thms of all shards, by span, and fills the maps as
+		 * gatherWordThmsAPosteriori() would, for these candidates only.
+		 * Releases the query's arrays, so no other method can be called afterwards.
+		 * @param maxCandidateCount
+		 * @return largest word span.
+		 */
+		int collectCandidates(final int maxCandidateCount, Map<Integer, Integer> thmScoreMap,
+				Map<Integer, Integer> thmSpanMap, Set<ThmScoreSpanPair> thmScoreSpanSet, Map<Integer, ThmPart> thmPartMap,
+				Map<Integer, WordDistScoreTMap> thmWordIndexMap, Map<Integer, String> thmPruneWordsMap) {
+
+			forEachShard(shardStates, new ShardAction() {
+				@Override
+				public void run(ShardState shardState) {
+					shardState.selectLocalTop(maxCandidateCount);
+				}
+			});
+			int largestWordSpan = 0;
+			int keyCount = 0;
+			for(ShardState shardState : shardStates) {
+				largestWordSpan = Math.max(largestWordSpan, shardState.largestWordSpan);
+				keyCount += shardState.topCount;
+			}
+			long[] keyAr = new long[keyCount];
+			keyCount = 0;
+			for(ShardState shardState : shardStates) {
+				System.arraycopy(shardState.topKeyAr, 0, keyAr, keyCount, shardState.topCount);
+				keyCount += shardState.topCount;
+			}
+			Arrays.sort(keyAr);
+			int candidateCount = Math.min(keyCount, maxCandidateCount);
+			for(int i = 0; i < candidateCount; i++) {
+				int thmIndex = (int)keyAr[i];
+				ShardState shardState = shardStates[shardOf(thmIndex)];
+				shardState.candidateMarkAr[thmIndex - shardState.start] = true;
+			}
+			forEachShard(shardStates, new ShardAction() {
+				@Override
+				public void run(ShardState shardState) {
+					shardState.collectCandidates(wordPassList, dbThmSet);
+					shardState.reset();
+				}
+			});
+			for(ShardState shardState : shardStates) {
+				thmScoreMap.putAll(shardState.candidateScoreMap);
+				thmSpanMap.putAll(shardState.candidateSpanMap);
+				thmScoreSpanSet.addAll(shardState.candidatePairList);
+				thmPartMap.putAll(shardState.candidatePartMap);
+				thmWordIndexMap.putAll(shardState.candidateWordIndexMap);
+				for(Map.Entry<Integer, Integer> entry : shardState.candidatePruneWordMap.entrySet()) {
+					thmPruneWordsMap.put(entry.getKey(), originalWordList.get(entry.getValue()));
+				}
+				shardState.clearCandidates();
+				//pooled states shouldn't keep decoded postings alive
+				shardState.cursor.setDecodedTerms(null);
+			}
+			shardStatesPool.add(shardStates);
+			return largestWordSpan;
+		}
+
+		private int shardOf(int thmIndex) {
+			//shards are contiguous and of about equal size
+			int numShards = shardStates.length;
+			int s = (int)((long)thmIndex * numShards / shardTable.shardEnd(numShards - 1));
+			s = Math.min(s, numShards - 1);
+			while(thmIndex < shardStates[s].start) s--;
+			while(thmIndex >= shardStates[s].end) s++;
+			return s;
+		}
+	}
+
+	/**
+	 * Per-thm scoring arrays of one shard, indexed by thm index minus shard start.
+	 */
+	private class ShardState {
+		final int start;
+		final int end;
+		final int shard;
+		final int[] scoreAr;
+		//bit i set if query word at position i hits thm
+		final long[] spanMaskAr;
+		//scores added by current original word and words related to it
+		final int[] relWordsScoreAr;
+		//ordinal+1 of original word that relWordsScoreAr entry is for
+		final int[] relWordsStampAr;
+		//number of pass in which thm was selected, 0 if not selected
+		final int[] selectedPassAr;
+		//ordinal+1 of last original word that hit thm, used to prune generic-word thms.
+		final int[] pruneWordAr;
+		//ThmPart ordinal+1
+		final byte[] thmPartAr;
+		final byte[] thmTypeAr;
+		final boolean[] candidateMarkAr;
+		//thms whose entries need to be reset after query
+		final int[] touchedAr;
+		int touchedCount;
+		int selectedCount;
+		final PostingCursor cursor;
+
+		//bounded max-heap of local top keys, see selectLocalTop()
+		long[] topKeyAr = new long[0];
+		int topCount;
+		int largestWordSpan;
+
+		final Map<Integer, Integer> candidateScoreMap = new HashMap<Integer, Integer>();
+		final Map<Integer, Integer> candidateSpanMap = new HashMap<Integer, Integer>();
+		final List<ThmScoreSpanPair> candidatePairList = new ArrayList<ThmScoreSpanPair>();
+		final Map<Integer, ThmPart> candidatePartMap = new HashMap<Integer, ThmPart>();
+		final Map<Integer, WordDistScoreTMap> candidateWordIndexMap = new HashMap<Integer, WordDistScoreTMap>();
+		final Map<Integer, Integer> candidatePruneWordMap = new HashMap<Integer, Integer>();
+
+		ShardState(int shard, int start, int end) {
+			this.shard = shard;
+			this.start = start;
+			this.end = end;
+			int len = end - start;
+			scoreAr = new int[len];
+			spanMaskAr = new long[len];
+			relWordsScoreAr = new int[len];
+			relWordsStampAr = new int[len];
+			selectedPassAr = new int[len];
+			pruneWordAr = new int[len];
+			thmPartAr = new byte[len];
+			thmTypeAr = new byte[len];
+			candidateMarkAr = new boolean[len];
+			touchedAr = new int[len];
+			cursor = postingIndex.cursor();
+		}
+
+		/**
+		 * Same scoring as SearchIntersection.gatherWordThmsAPosteriori(), for thms in this shard.
+		 */
+		void gatherWordThms(WordPass wordPass, int passNum, Set<Integer> dbThmSet) {
+			WordThmsList wordThmsList = wordPass.wordThmsList;
+			String relWord = wordThmsList.word;
+			int relWordScore0 = wordThmsList.score;
+			int originalWordScore = wordPass.originalWordScore;
+			boolean isOriginalWord = relWord.equals(wordPass.word);
+			boolean onlySelectedThms = wordPass.onlySelectedThms;
+			long spanBits = wordPass.spanBits;
+			int wordStamp = wordPass.wordOrdinal + 1;
+
+			cursor.reset(relWord, shardTable, shard);
+			while(cursor.next()) {
+				int thmIndex = cursor.thmIndex();
+				int i = thmIndex - start;
+				if(onlySelectedThms) {
+					if(0 == selectedPassAr[i]) {
+						continue;
+					}
+				}else if(0 == selectedPassAr[i]) {
+					selectedPassAr[i] = passNum;
+					touchedAr[touchedCount++] = i;
+					selectedCount++;
+				}
+				if(null != dbThmSet && !dbThmSet.contains(thmIndex)) {
+					continue;
+				}
+				pruneWordAr[i] = wordStamp;
+				if(STM_CODE != thmPartAr[i]) {
+					thmPartAr[i] = (byte)(cursor.thmPart().ordinal() + 1);
+				}
+				int scoreToAdd;
+				if(relWordsStampAr[i] == wordStamp) {
+					int relWordsScore = relWordsScoreAr[i];
+					if(isOriginalWord) {
+						int diff = originalWordScore - relWordsScore;
+						scoreToAdd = diff < 0 ? 0 : diff;
+					}else {
+						//is a related word, should have total at most originalWordScore - 1
+						int diff = originalWordScore - 1 - relWordsScore;
+						scoreToAdd = Math.min(relWordScore0, diff < 0 ? 0 : diff);
+					}
+					relWordsScoreAr[i] = relWordsScore + scoreToAdd;
+				}else {
+					scoreToAdd = isOriginalWord ? originalWordScore : relWordScore0;
+					relWordsStampAr[i] = wordStamp;
+					relWordsScoreAr[i] = scoreToAdd;
+				}
+				//as in TokenType.addToMap(), score only changes if span increases.
+				long spanMask = spanMaskAr[i];
+				long newSpanMask = spanMask | spanBits;
+				if(newSpanMask != spanMask) {
+					spanMaskAr[i] = newSpanMask;
+					scoreAr[i] += scoreToAdd;
+					thmTypeAr[i] = (byte)cursor.thmType();
+				}
+			}
+		}
+
+		/**
+		 * Keeps keys of the local top maxCount thms in topKeyAr. Smaller keys rank higher:
+		 * larger span first, then lower thm index.
+		 */
+		void selectLocalTop(int maxCount) {
+			if(topKeyAr.length < maxCount) {
+				topKeyAr = new long[maxCount];
+			}
+			topCount = 0;
+			largestWordSpan = 0;
+			for(int t = 0; t < touchedCount; t++) {
+				int i = touchedAr[t];
+				if(0 == spanMaskAr[i]) {
+					//selected but filtered out by dbThmSet
+					continue;
+				}
+				int span = Long.bitCount(spanMaskAr[i]);
+				largestWordSpan = Math.max(largestWordSpan, span);
+				long key = ((long)(MAX_QUERY_WORDS - span) << 32) | (i + start);
+				if(topCount < maxCount) {
+					topKeyAr[topCount] = key;
+					siftUp(topCount++);
+				}else if(maxCount > 0 && key < topKeyAr[0]) {
+					topKeyAr[0] = key;
+					siftDown(0);
+				}
+			}
+		}
+
+		private void siftUp(int pos) {
+			long key = topKeyAr[pos];
+			while(pos > 0) {
+				int parent = (pos - 1) >>> 1;
+				if(topKeyAr[parent] >= key) {
+					break;
+				}
+				topKeyAr[pos] = topKeyAr[parent];
+				pos = parent;
+			}
+			topKeyAr[pos] = key;
+		}
+
+		private void siftDown(int pos) {
+			long key = topKeyAr[pos];
+			int half = topCount >>> 1;
+			while(pos < half) {
+				int child = 2 * pos + 1;
+				if(child + 1 < topCount && topKeyAr[child + 1] > topKeyAr[child]) {
+					child++;
+				}
+				if(key >= topKeyAr[child]) {
+					break;
+				}
+				topKeyAr[pos] = topKeyAr[child];
+				pos = child;
+			}
+			topKeyAr[pos] = key;
+		}
+
+		/**
+		 * Fills candidate maps for thms marked in candidateMarkAr. Word indices in thms are
+		 * gathered by replaying the query's word passes, only for the candidates.
+		 */
+		void collectCandidates(List<WordPass> wordPassList, Set<Integer> dbThmSet) {
+			boolean hasCandidate = false;
+			for(int t = 0; t < touchedCount; t++) {
+				int i = touchedAr[t];
+				if(!candidateMarkAr[i]) {
+					continue;
+				}
+				hasCandidate = true;
+				int thmIndex = i + start;
+				int span = Long.bitCount(spanMaskAr[i]);
+				candidateScoreMap.put(thmIndex, scoreAr[i]);
+				candidateSpanMap.put(thmIndex, span);
+				candidatePairList.add(new ThmScoreSpanPair(thmIndex, scoreAr[i], span, (char)thmTypeAr[i]));
+				candidatePartMap.put(thmIndex, THM_PART_AR[thmPartAr[i] - 1]);
+				candidatePruneWordMap.put(thmIndex, pruneWordAr[i] - 1);
+				candidateWordIndexMap.put(thmIndex, new WordDistScoreTMap());
+			}
+			if(!hasCandidate) {
+				return;
+			}
+			int passNum = 0;
+			for(WordPass wordPass : wordPassList) {
+				passNum++;
+				cursor.reset(wordPass.wordThmsList.word, shardTable, shard);
+				while(cursor.next()) {
+					int thmIndex = cursor.thmIndex();
+					int i = thmIndex - start;
+					if(!candidateMarkAr[i]) {
+						continue;
+					}
+					if(wordPass.onlySelectedThms && (0 == selectedPassAr[i] || selectedPassAr[i] > passNum)) {
+						continue;
+					}
+					if(null != dbThmSet && !dbThmSet.contains(thmIndex)) {
+						continue;
+					}
+					WordDistScoreTMap wordIndexTMap = candidateWordIndexMap.get(thmIndex);
+					ThmPart thmPart = cursor.thmPart();
+					int wordIndexCount = cursor.wordIndexCount();
+					for(int j = 0; j < wordIndexCount; j++) {
+						wordIndexTMap.addToTreeMap(thmPart, cursor.wordIndexAt(j), wordPass.word);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Resets entries of touched thms, for reuse by next query.
+		 */
+		void reset() {
+			for(int t = 0; t < touchedCount; t++) {
+				int i = touchedAr[t];
+				scoreAr[i] = 0;
+				spanMaskAr[i] = 0;
+				relWordsScoreAr[i] = 0;
+				relWordsStampAr[i] = 0;
+				selectedPassAr[i] = 0;
+				pruneWordAr[i] = 0;
+				thmPartAr[i] = 0;
+				thmTypeAr[i] = 0;
+				candidateMarkAr[i] = false;
+			}
+			touchedCount = 0;
+			selectedCount = 0;
+			topCount = 0;
+		}
+
+		void clearCandidates() {
+			candidateScoreMap.clear();
+			candidateSpanMap.clear();
+			candidatePairList.clear();
+			candidatePartMap.clear();
+			candidateWordIndexMap.clear();
+			candidatePruneWordMap.clear();
+		}
+	}
+}
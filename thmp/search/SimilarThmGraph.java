@@ -0,0 +1,441 @@
+package thmp.search;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.primitives.Ints;
+import com.wolfram.puremath.dbapp.DBUtils;
+import com.wolfram.puremath.dbapp.SimilarThmUtils;
+
+import thmp.search.Searcher.SearchMetaData;
+import thmp.utils.FileUtils;
+
+/**
+ * Memory-mapped k-nearest-neighbour graph of similar thms, in compressed sparse row form, with
+ * the content of the similarThmsTb database table: for each thm, the indices of up to
+ * SimilarThmUtils.maxSimilarThmListLen() similar thms, most similar first. Loaded with each
+ * IndexGeneration, so SimilarThmSearch.getSimilarThms() looks thms up in process, and similar
+ * thm panels don't depend on the database. The table is only used for thms not in the graph.
+ *
+ * File layout (big-endian): magic, version, flags, first thm index, thm count, edge count, then
+ * offsets (thmCount+1 ints into the neighbour array), neighbour thm indices (edgeCount ints),
+ * and, if the HAS_SCORES flag is set, a similarity score per edge (edgeCount floats).
+ *
+ * GenerateSimilarThms writes one file per bundle of thms as it goes, with the bundle's first
+ * thm index, so a run can be restarted from the bundles not yet written, and assemble() joins
+ * the bundles into the graph of all thms.
+ *
+ * Immutable once loaded, and safe for concurrent lookups.
+ */
+public class SimilarThmGraph {
+
+	private static final Logger logger = LogManager.getLogger(SimilarThmGraph.class);
+	//"STGR"
+	private static final int FILE_MAGIC = 0x53544752;
+	private static final int FILE_VERSION = 1;
+	private static final int HEADER_INT_COUNT = 6;
+	/**set if file has a score per edge*/
+	private static final int HAS_SCORES = 1;
+	/**extension of graph and bundle files*/
+	public static final String FILE_EXT = ".store";
+	private static final String BUNDLE_FILE_PREFIX = "similarThmGraphBundle";
+	private static final Pattern BUNDLE_FILE_PATTERN = Pattern.compile(BUNDLE_FILE_PREFIX + "(\\d+)\\" + FILE_EXT);
+	//e.g. similarThmIndexByteArray60.dat, written by GenerateSimilarThms for the database.
+	private static final Pattern BYTE_ARRAY_FILE_PATTERN = Pattern.compile("similarThmIndexByteArray(\\d+)\\.dat");
+
+	private final int firstThmIndex;
+	private final int thmCount;
+	private final int edgeCount;
+	private final IntBuffer offsetBuf;
+	private final IntBuffer neighbourBuf;
+	//null if graph has no scores
+	private final FloatBuffer scoreBuf;
+
+	private SimilarThmGraph(int firstThmIndex, int thmCount, int edgeCount, IntBuffer offsetBuf,
+			IntBuffer neighbourBuf, FloatBuffer scoreBuf){
+		this.firstThmIndex = firstThmIndex;
+		this.thmCount = thmCount;
+		this.edgeCount = edgeCount;
+		this.offsetBuf = offsetBuf;
+		this.neighbourBuf = neighbourBuf;
+		this.scoreBuf = scoreBuf;
+	}
+
+	/**
+	 * Memory-maps the graph at path.
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static SimilarThmGraph load(String path) throws IOException{
+		ByteBuffer buf;
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try{
+			FileChannel channel = file.getChannel();
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}finally{
+			file.close();
+		}
+		if(FILE_MAGIC != buf.getInt(0) || FILE_VERSION != buf.getInt(4)){
+			throw new IOException("Not a SimilarThmGraph file, or unsupported version: " + path);
+		}
+		int flags = buf.getInt(8);
+		int firstThmIndex = buf.getInt(12);
+		int thmCount = buf.getInt(16);
+		int edgeCount = buf.getInt(20);
+		int pos = HEADER_INT_COUNT*4;
+		IntBuffer offsetBuf = slice(buf, pos, (thmCount+1)*4).asIntBuffer();
+		pos += (thmCount+1)*4;
+		IntBuffer neighbourBuf = slice(buf, pos, edgeCount*4).asIntBuffer();
+		pos += edgeCount*4;
+		FloatBuffer scoreBuf = null;
+		if((flags & HAS_SCORES) != 0){
+			scoreBuf = slice(buf, pos, edgeCount*4).asFloatBuffer();
+		}
+		return new SimilarThmGraph(firstThmIndex, thmCount, edgeCount, offsetBuf, neighbourBuf, scoreBuf);
+	}
+
+	private static ByteBuffer slice(ByteBuffer buf, int pos, int len){
+		ByteBuffer dup = buf.duplicate();
+		dup.position(pos);
+		dup.limit(pos + len);
+		return dup.slice();
+	}
+
+	/**
+	 * Maps the default similar thms graph, if one has been written.
+	 * @return null if there is no graph, so similar thms come from the database.
+	 */
+	public static SimilarThmGraph loadDefault(){
+		String path = FileUtils.getPathIfOnServlet(SearchMetaData.similarThmGraphPath());
+		if(!new File(path).exists()){
+			logger.info("No SimilarThmGraph at " + path + ", similar thms come from the database.");
+			return null;
+		}
+		try{
+			return load(path);
+		}catch(IOException e){
+			logger.error("IOException when mapping SimilarThmGraph " + path + " " + e);
+			return null;
+		}
+	}
+
+	public int firstThmIndex(){
+		return firstThmIndex;
+	}
+
+	/**
+	 * Number of thms with neighbour lists, starting from firstThmIndex().
+	 * @return
+	 */
+	public int thmCount(){
+		return thmCount;
+	}
+
+	public int edgeCount(){
+		return edgeCount;
+	}
+
+	public boolean hasScores(){
+		return null != scoreBuf;
+	}
+
+	/**
+	 * Whether thm has a neighbour list in graph, possibly empty.
+	 * @param thmIndex
+	 * @return
+	 */
+	public boolean containsThm(int thmIndex){
+		return thmIndex >= firstThmIndex && thmIndex - firstThmIndex < thmCount;
+	}
+
+	private int row(int thmIndex){
+		if(!containsThm(thmIndex)){
+			throw new IllegalArgumentException("Thm index " + thmIndex + " not in graph of thms ["
+					+ firstThmIndex + ", " + (firstThmIndex + thmCount) + ")");
+		}
+		return thmIndex - firstThmIndex;
+	}
+
+	public int neighbourCount(int thmIndex){
+		int row = row(thmIndex);
+		return offsetBuf.get(row + 1) - offsetBuf.get(row);
+	}
+
+	/**
+	 * Indices of thms similar to thm, most similar first.
+	 * @param thmIndex
+	 * @return
+	 */
+	public int[] getNeighbours(int thmIndex){
+		int row = row(thmIndex);
+		int start = offsetBuf.get(row);
+		int[] neighbourAr = new int[offsetBuf.get(row + 1) - start];
+		for(int i = 0; i < neighbourAr.length; i++){
+			neighbourAr[i] = neighbourBuf.get(start + i);
+		}
+		return neighbourAr;
+	}
+
+	/**
+	 * Same as getNeighbours(), as list, as returned by SimilarThmSearch.getSimilarThms().
+	 * @param thmIndex
+	 * @return
+	 */
+	public List<Integer> getSimilarThms(int thmIndex){
+		return Ints.asList(getNeighbours(thmIndex));
+	}
+
+	/**
+	 * Scores of thm's neighbours, in order of getNeighbours().
+	 * @param thmIndex
+	 * @return
+	 */
+	public float[] getScores(int thmIndex){
+		if(null == scoreBuf){
+			throw new IllegalStateException("SimilarThmGraph has no scores");
+		}
+		int row = row(thmIndex);
+		int start = offsetBuf.get(row);
+		float[] scoreAr = new float[offsetBuf.get(row + 1) - start];
+		for(int i = 0; i < scoreAr.length; i++){
+			scoreAr[i] = scoreBuf.get(start + i);
+		}
+		return scoreAr;
+	}
+
+	/**
+	 * Writes graph of neighbour lists of consecutive thms. Written to a temp file first, so
+	 * graphs mapped by searches are replaced atomically, and a bundle file only exists once
+	 * complete.
+	 * @param firstThmIndex thm index of neighbourListList.get(0).
+	 * @param neighbourListList similar thms of each thm, most similar first.
+	 * @param scoreListList scores of each neighbour, in same order, or null to write no scores.
+	 * @param path
+	 */
+	public static void writeToFile(int firstThmIndex, List<? extends List<Integer>> neighbourListList,
+			List<? extends List<Float>> scoreListList, String path){
+		int thmCount = neighbourListList.size();
+		long edgeCount = 0;
+		for(int i = 0; i < thmCount; i++){
+			edgeCount += neighbourListList.get(i).size();
+			if(null != scoreListList && scoreListList.get(i).size() != neighbourListList.get(i).size()){
+				throw new IllegalArgumentException("Thm " + (firstThmIndex + i) + " has "
+						+ neighbourListList.get(i).size() + " neighbours but " + scoreListList.get(i).size() + " scores");
+			}
+		}
+		checkFileSize(thmCount, edgeCount, null != scoreListList);
+		String tempPath = path + ".tmp";
+		try{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempPath), 1 << 16));
+			try{
+				writeHeader(out, null != scoreListList, firstThmIndex, thmCount, (int)edgeCount);
+				int offset = 0;
+				for(List<Integer> neighbourList : neighbourListList){
+					out.writeInt(offset);
+					offset += neighbourList.size();
+				}
+				out.writeInt(offset);
+				for(List<Integer> neighbourList : neighbourListList){
+					for(int neighbour : neighbourList){
+						out.writeInt(neighbour);
+					}
+				}
+				if(null != scoreListList){
+					for(List<Float> scoreList : scoreListList){
+						for(float score : scoreList){
+							out.writeFloat(score);
+						}
+					}
+				}
+			}finally{
+				out.close();
+			}
+			Files.move(Paths.get(tempPath), Paths.get(path), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException e){
+			String msg = "IOException while writing SimilarThmGraph " + path;
+			logger.error(msg + e);
+			throw new IllegalStateException(msg, e);
+		}
+	}
+
+	private static void writeHeader(DataOutputStream out, boolean hasScores, int firstThmIndex, int thmCount,
+			int edgeCount) throws IOException{
+		out.writeInt(FILE_MAGIC);
+		out.writeInt(FILE_VERSION);
+		out.writeInt(hasScores ? HAS_SCORES : 0);
+		out.writeInt(firstThmIndex);
+		out.writeInt(thmCount);
+		out.writeInt(edgeCount);
+	}
+
+	/**
+	 * Files are mapped as one buffer, so must be under 2GB.
+	 */
+	private static void checkFileSize(long thmCount, long edgeCount, boolean hasScores){
+		long fileSize = HEADER_INT_COUNT*4L + (thmCount+1)*4 + edgeCount*(hasScores ? 8 : 4);
+		if(fileSize > Integer.MAX_VALUE){
+			throw new IllegalStateException("SimilarThmGraph of " + thmCount + " thms and " + edgeCount
+					+ " edges too large to map: " + fileSize + " bytes");
+		}
+	}
+
+	/**
+	 * Joins graphs of consecutive bundles of thms into one graph, streamed from the mapped bundles.
+	 * @param bundlePathList paths of bundle graphs, in thm order, without gaps between bundles.
+	 * @param path
+	 * @throws IOException if a bundle can't be read
+	 */
+	public static void assemble(List<String> bundlePathList, String path) throws IOException{
+		List<SimilarThmGraph> bundleList = new ArrayList<SimilarThmGraph>();
+		long thmCount = 0;
+		long edgeCount = 0;
+		boolean hasScores = !bundlePathList.isEmpty();
+		for(String bundlePath : bundlePathList){
+			SimilarThmGraph bundle = load(bundlePath);
+			if(!bundleList.isEmpty()){
+				SimilarThmGraph prev = bundleList.get(bundleList.size() - 1);
+				if(prev.firstThmIndex + prev.thmCount != bundle.firstThmIndex){
+					throw new IllegalArgumentException("SimilarThmGraph bundle " + bundlePath + " starts at thm "
+							+ bundle.firstThmIndex + ", previous bundle ends at " + (prev.firstThmIndex + prev.thmCount));
+				}
+			}
+			bundleList.add(bundle);
+			thmCount += bundle.thmCount;
+			edgeCount += bundle.edgeCount;
+			hasScores &= bundle.hasScores();
+		}
+		checkFileSize(thmCount, edgeCount, hasScores);
+		int firstThmIndex = bundleList.isEmpty() ? 0 : bundleList.get(0).firstThmIndex;
+		String tempPath = path + ".tmp";
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempPath), 1 << 16));
+		try{
+			writeHeader(out, hasScores, firstThmIndex, (int)thmCount, (int)edgeCount);
+			int offset = 0;
+			for(SimilarThmGraph bundle : bundleList){
+				for(int row = 0; row < bundle.thmCount; row++){
+					out.writeInt(offset + bundle.offsetBuf.get(row));
+				}
+				offset += bundle.edgeCount;
+			}
+			out.writeInt(offset);
+			for(SimilarThmGraph bundle : bundleList){
+				for(int i = 0; i < bundle.edgeCount; i++){
+					out.writeInt(bundle.neighbourBuf.get(i));
+				}
+			}
+			if(hasScores){
+				for(SimilarThmGraph bundle : bundleList){
+					for(int i = 0; i < bundle.edgeCount; i++){
+						out.writeFloat(bundle.scoreBuf.get(i));
+					}
+				}
+			}
+		}finally{
+			out.close();
+		}
+		Files.move(Paths.get(tempPath), Paths.get(path), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Path to graph file of given bundle, in SearchMetaData.similarThmGraphBundleDirPath().
+	 * @param bundleNum
+	 * @return
+	 */
+	public static String bundlePath(int bundleNum){
+		return SearchMetaData.similarThmGraphBundleDirPath() + BUNDLE_FILE_PREFIX + bundleNum + FILE_EXT;
+	}
+
+	/**
+	 * Joins all bundle graphs written to SearchMetaData.similarThmGraphBundleDirPath() into
+	 * the default graph.
+	 * @throws IOException
+	 */
+	public static void assembleBundles() throws IOException{
+		TreeMap<Integer, String> bundlePathMap = new TreeMap<Integer, String>();
+		File[] fileAr = new File(SearchMetaData.similarThmGraphBundleDirPath()).listFiles();
+		for(File file : null == fileAr ? new File[0] : fileAr){
+			Matcher matcher = BUNDLE_FILE_PATTERN.matcher(file.getName());
+			if(matcher.matches()){
+				bundlePathMap.put(Integer.parseInt(matcher.group(1)), file.getPath());
+			}
+		}
+		String path = SearchMetaData.similarThmGraphPath();
+		assemble(new ArrayList<String>(bundlePathMap.values()), path);
+		System.out.println("SimilarThmGraph - assembled " + bundlePathMap.size() + " bundles into " + path);
+	}
+
+	/**
+	 * Writes bundle graphs of the similar thm maps serialized for the database by earlier runs of
+	 * GenerateSimilarThms, skipping bundles already written, then assembles them.
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public static void convert() throws IOException{
+		File[] fileAr = new File(DBUtils.SimilarThmsTb.similarThmIndexByteArrayDirPath).listFiles();
+		new File(SearchMetaData.similarThmGraphBundleDirPath()).mkdirs();
+		for(File file : null == fileAr ? new File[0] : fileAr){
+			Matcher matcher = BYTE_ARRAY_FILE_PATTERN.matcher(file.getName());
+			if(!matcher.matches()){
+				continue;
+			}
+			String bundlePath = bundlePath(Integer.parseInt(matcher.group(1)));
+			if(new File(bundlePath).exists()){
+				continue;
+			}
+			Map<Integer, byte[]> similarThmsMap = ((List<Map<Integer, byte[]>>)FileUtils.deserializeListFromFile(
+					file.getPath())).get(0);
+			TreeMap<Integer, byte[]> sortedMap = new TreeMap<Integer, byte[]>(similarThmsMap);
+			int firstThmIndex = sortedMap.firstKey();
+			List<List<Integer>> neighbourListList = new ArrayList<List<Integer>>();
+			for(int thmIndex = firstThmIndex; thmIndex <= sortedMap.lastKey(); thmIndex++){
+				byte[] bytes = sortedMap.get(thmIndex);
+				neighbourListList.add(null == bytes ? Collections.<Integer>emptyList()
+						: SimilarThmUtils.byteArrayToIndexList(bytes, SimilarThmUtils.numBitsPerThmIndex()));
+			}
+			writeToFile(firstThmIndex, neighbourListList, null, bundlePath);
+			System.out.println("SimilarThmGraph - converted " + file.getName());
+		}
+		assembleBundles();
+	}
+
+	/**
+	 * Supply "-convert" to write the graph of the similar thms serialized for the database,
+	 * or "-assemble" to assemble bundles written by GenerateSimilarThms.
+	 * Lookup timings are in jmh/thmp/bench/SimilarThmGraphBenchmark.
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length > 0 && "-convert".equals(args[0])) {
+			convert();
+			return;
+		}
+		if(args.length > 0 && "-assemble".equals(args[0])) {
+			assembleBundles();
+			return;
+		}
+		System.out.println("Supply \"-convert\" or \"-assemble\" to write the similar thms graph.");
+	}
+}
@@ -47,12 +47,18 @@ public class SimilarThmSearch {
 	
 	/**
 	 * Finds index list of similar theorems by retrieving precomputed
-	 * indices from database. Used at app runtime.
+	 * indices from the SimilarThmGraph of the current IndexGeneration, or from 
+	 * database if thm is not in graph. Used at app runtime.
 	 * @param thmIndex
+	 * @param conn only used if thm is not in graph, can be null.
 	 * @return
 	 */
 	public static List<Integer> getSimilarThms(int thmIndex, Connection conn){
 		
+		SimilarThmGraph similarThmGraph = IndexGeneration.forCurrentThread().similarThmGraph();
+		if(null != similarThmGraph && similarThmGraph.containsThm(thmIndex)) {
+			return similarThmGraph.getSimilarThms(thmIndex);
+		}
 		//Connection conn = DBUtils.getPooledConnection();
 		if(null == conn) {
 			return Collections.emptyList();
@@ -87,15 +93,100 @@ public class SimilarThmSearch {
 		//int maxSimilarThmCount = SimilarThmUtils.maxSimilarThmListLen();
 				
 		List<Integer> combinedList = new ArrayList<Integer>();		
-		getSimilarComponent(thmIndex, thmStr, combinedList);
+		getSimilarComponent(thmIndex, thmStr, componentQueryList(thmStr), null, combinedList);
 		
 		int combinedListSz = combinedList.size();
 		
 		if(combinedListSz < maxSimilarThmCount/2) {
 			thmStr = thmHypPair.hypStr();
-			getSimilarComponent(thmIndex, thmStr, combinedList);
+			getSimilarComponent(thmIndex, thmStr, componentQueryList(thmStr), null, combinedList);
 		}
+		return truncateSimilarThmList(combinedList, combinedListSz);
+	}
+	
+	/**
+	 * Same as preComputeSimilarThm() for each thm in thmIndexList, with the intersection searches
+	 * for all thms done as one batch on numThreads threads, see SearchIntersection.intersectionSearchBatch().
+	 * @param thmIndexList
+	 * @param numThreads
+	 * @return lists of similar thms, in the order of thmIndexList.
+	 */
+	public static List<List<Integer>> preComputeSimilarThms(List<Integer> thmIndexList, int numThreads) {
+		
+		int thmIndexListSz = thmIndexList.size();
+		List<String> thmStrList = new ArrayList<String>(thmIndexListSz);
+		List<String> hypStrList = new ArrayList<String>(thmIndexListSz);
+		for(int thmIndex : thmIndexList) {
+			ThmHypPair thmHypPair = ThmHypPairGet.retrieveThmHypPairWithThmFromCache(thmIndex);
+			thmStrList.add(thmHypPair.thmStr());
+			hypStrList.add(thmHypPair.hypStr());
+		}
+		List<List<Integer>> combinedListList = new ArrayList<List<Integer>>(thmIndexListSz);
+		for(int i = 0; i < thmIndexListSz; i++) {
+			combinedListList.add(new ArrayList<Integer>());
+		}
+		List<Integer> allPositionList = new ArrayList<Integer>(thmIndexListSz);
+		for(int i = 0; i < thmIndexListSz; i++) {
+			allPositionList.add(i);
+		}
+		getSimilarComponentsBatch(thmIndexList, thmStrList, allPositionList, combinedListList, numThreads);
+		
+		//as in preComputeSimilarThm(), also use hypotheses if statements don't yield enough similar thms.
+		int[] combinedListSzAr = new int[thmIndexListSz];
+		List<Integer> hypPositionList = new ArrayList<Integer>();
+		for(int i = 0; i < thmIndexListSz; i++) {
+			combinedListSzAr[i] = combinedListList.get(i).size();
+			if(combinedListSzAr[i] < maxSimilarThmCount/2) {
+				hypPositionList.add(i);
+			}
+		}
+		getSimilarComponentsBatch(thmIndexList, hypStrList, hypPositionList, combinedListList, numThreads);
 		
+		List<List<Integer>> similarThmListList = new ArrayList<List<Integer>>(thmIndexListSz);
+		for(int i = 0; i < thmIndexListSz; i++) {
+			similarThmListList.add(truncateSimilarThmList(combinedListList.get(i), combinedListSzAr[i]));
+		}
+		return similarThmListList;
+	}
+	
+	/**
+	 * Runs getSimilarComponent() for thms at positionList in thmIndexList, with the intersection 
+	 * searches of all their components done as one batch.
+	 */
+	private static void getSimilarComponentsBatch(List<Integer> thmIndexList, List<String> thmStrList, 
+			List<Integer> positionList, List<List<Integer>> combinedListList, int numThreads) {
+		
+		//ThmP1.preprocess() is not thread-safe, so components are gathered beforehand.
+		List<List<String>> componentQueryListList = new ArrayList<List<String>>(positionList.size());
+		List<String> allQueryList = new ArrayList<String>();
+		for(int position : positionList) {
+			List<String> componentQueryList = componentQueryList(thmStrList.get(position));
+			componentQueryListList.add(componentQueryList);
+			allQueryList.addAll(componentQueryList);
+		}
+		SearchStateBuilder searchStateBuilder = new SearchStateBuilder();
+		searchStateBuilder.disableLiteralSearch();
+		List<SearchState> allSearchStateList = SearchIntersection.intersectionSearchBatch(allQueryList, 
+				searchStateBuilder, numHighestResultsPerComponent, numThreads);
+		
+		int queryCounter = 0;
+		for(int i = 0; i < positionList.size(); i++) {
+			int position = positionList.get(i);
+			List<String> componentQueryList = componentQueryListList.get(i);
+			int componentCount = componentQueryList.size();
+			getSimilarComponent(thmIndexList.get(position), thmStrList.get(position), componentQueryList, 
+					allSearchStateList.subList(queryCounter, queryCounter + componentCount), 
+					combinedListList.get(position));
+			queryCounter += componentCount;
+		}
+	}
+	
+	/**
+	 * @param combinedList
+	 * @param combinedListSz size of combinedList after statements were searched.
+	 * @return
+	 */
+	private static List<Integer> truncateSimilarThmList(List<Integer> combinedList, int combinedListSz) {
 		//System.out.println("SimilarThmSearch - combinedList.size " + combinedList.size());
 		if(combinedListSz > maxSimilarThmCount) {
 			List<Integer> tempList = new ArrayList<Integer>();
@@ -106,14 +197,38 @@ public class SimilarThmSearch {
 		}
 		return combinedList;
 	}
+	
+	/**
+	 * Divides thm into pieces to search, i.e. logical components, e.g.
+	 * "if ... ", and "then ...". Shorter pieces first.
+	 * @param thmStr
+	 * @return
+	 */
+	private static List<String> componentQueryList(String thmStr) {
+		String[] thmPieces = ThmP1.preprocess(thmStr);
+		List<String> thmPiecesList = new ArrayList<String>();
+		for(String component : thmPieces) {
+			//too short to be meaningful
+			if(component.length() < 9) {
+				continue;
+			}
+			thmPiecesList.add(component);
+		}
+		thmPiecesList.sort(new thmp.utils.DataUtility.StringLenComparator());
+		return thmPiecesList;
+	}
 
 	/**
 	 * Similar thms for components, e.g. just statements, or just hypothesis
 	 * @param thmIndex
 	 * @param thmStr
+	 * @param thmPiecesList components of thmStr, from componentQueryList().
+	 * @param searchStateList intersection search states for thmPiecesList, if already searched,
+	 * null to search here.
 	 * @return
 	 */
-	private static void getSimilarComponent(int thmIndex, String thmStr, List<Integer> combinedList) {
+	private static void getSimilarComponent(int thmIndex, String thmStr, List<String> thmPiecesList, 
+			List<SearchState> searchStateList, List<Integer> combinedList) {
 		//keep a running parse state to collect variable definitions.
 		///ParseStateBuilder parseStateBuilder = new ParseStateBuilder();
 		//ParseState parseState = parseStateBuilder.build();
@@ -124,23 +239,6 @@ public class SimilarThmSearch {
 		Map<Integer, Integer> stmContextScoreMap = new HashMap<Integer, Integer>();		
 		Map<Integer, Integer> hypContextScoreMap = new HashMap<Integer, Integer>();
 		
-		long beforeProcess = 0;
-		if(DEBUG) beforeProcess = System.nanoTime();
-		
-		/* Divides thm into pieces, i.e. logical components, e.g.
-		 * "if ... ", and "then ..." */
-		String[] thmPieces = ThmP1.preprocess(thmStr);
-		List<String> thmPiecesList = new ArrayList<String>();
-		
-		long beforeParse = 0;
-		if(DEBUG) {
-			beforeParse = System.nanoTime();
-			System.out.println("Time for preprocessing: " + (beforeParse - beforeProcess));
-		}
-		for(String component : thmPieces) {
-			thmPiecesList.add(component);
-		}
-		thmPiecesList.sort(new thmp.utils.DataUtility.StringLenComparator());
 		int listSz = thmPiecesList.size();
 		
 		boolean profileTiming = false;
@@ -155,10 +253,6 @@ public class SimilarThmSearch {
 		for(int i = 0; i < listSz; i++) {
 			
 			String str = thmPiecesList.get(i);
-			int strLen = str.length();
-			if(strLen < 9) {
-				continue;
-			}
 			if(thmScoreMap.size() > countCap) {
 				break;
 			}
@@ -175,12 +269,18 @@ public class SimilarThmSearch {
 			Map<Integer, Integer> thmSpanMap = new HashMap<Integer, Integer>();
 			
 			if(profileTiming) beforeSearch = System.nanoTime();
-			SearchStateBuilder searchStateBuilder = new SearchStateBuilder();
-			searchStateBuilder.disableLiteralSearch();
-			SearchState searchState = searchStateBuilder.build();
+			SearchState searchState;
+			if(null == searchStateList) {
+				SearchStateBuilder searchStateBuilder = new SearchStateBuilder();
+				searchStateBuilder.disableLiteralSearch();
+				searchState = searchStateBuilder.build();
+				searchIntersection(str, searchState);
+			}else {
+				searchState = searchStateList.get(i);
+			}
 			
 			//max span amongst any thms amongst returned results.
-			int maxThmSpan = gatherThmFromWords(str, thmIndexList, thmScoreMap, thmSpanMap,
+			int maxThmSpan = gatherThmFromWords(thmIndexList, thmScoreMap, thmSpanMap,
 					searchState);	
 			//long afterSearch = System.nanoTime();
 			//if(DEBUG) System.out.println("Time for searching: " + (afterSearch - afterParse));
@@ -442,17 +542,11 @@ public class SimilarThmSearch {
 	}
 	
 	/**
-	 * Find theorems that contain the relevant words in input str.
-	 * Return list of ones with good words match.
+	 * Intersection search for thm segment.
 	 * @param str Typically a theorem segment.
-	 * @param intersectionResultsList results of intersection search.
-	 * @param thmSpanMap Span map of indices and their word spans in the theorems.
-	 * @return maximum span amongst search results.
+	 * @param searchState
 	 */
-	private static int gatherThmFromWords(String str, List<Integer> intersectionResultsList,
-			Map<Integer, Integer> allThmScoreMap, Map<Integer, Integer> thmSpanMap,
-			SearchState searchState) {
-		
+	private static void searchIntersection(String str, SearchState searchState) {
 		//List<String> thmWordsList = WordForms.splitThmIntoSearchWordsList(str);
 		Set<String> searchWordsSet = null;
 		
@@ -461,6 +555,19 @@ public class SimilarThmSearch {
 		//improve intersection search to return more pertinent results!!
 		SearchIntersection.intersectionSearch(str, searchWordsSet, searchState, contextSearchBool, 
 				searchRelationalBool, numHighestResultsPerComponent);
+	}
+	
+	/**
+	 * Find theorems that contain the relevant words in searched thm segment.
+	 * Return list of ones with good words match.
+	 * @param intersectionResultsList results of intersection search.
+	 * @param thmSpanMap Span map of indices and their word spans in the theorems.
+	 * @param searchState state after intersection search of the segment.
+	 * @return maximum span amongst search results.
+	 */
+	private static int gatherThmFromWords(List<Integer> intersectionResultsList,
+			Map<Integer, Integer> allThmScoreMap, Map<Integer, Integer> thmSpanMap,
+			SearchState searchState) {
 		
 		List<Integer> intersectionList = searchState.intersectionVecList();
 		
@@ -1,11 +1,15 @@
 package thmp.search;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 
 import javax.servlet.ServletContext;
@@ -27,21 +31,43 @@ import thmp.utils.FileUtils;
  */
 public class TheoremGet {
 	
-	private static final LoadingCache<Integer, ContextRelationVecBundle> vecBundleCache;
 	private static final Logger logger = LogManager.getLogger(TheoremGet.class);
 	private static final ServletContext servletContext = FileUtils.getServletContext();
+	private static final Object NO_STORE = new Object();
 	
-	static{
-		vecBundleCache = CacheBuilder.newBuilder()
-				//.maximumSize(400) //number of entries
-				//56 files total on Sept 15, but will increase.
-				.maximumSize(60) //65mb x 60 = 3900mb //was 40 as of Sept 15
-				.build(
-						new CacheLoader<Integer, ContextRelationVecBundle>() {
-							public ContextRelationVecBundle load(Integer bundleKey){
-								System.out.println("TheoremGet - loading a new vec bundle with key " + bundleKey);
-								return new ContextRelationVecBundle(bundleKey);
-						}});		
+	/**
+	 * Vec bundles loaded so far, for one IndexGeneration. The last vec bundle is rewritten 
+	 * when IndexSegments are appended, so each generation loads its own.
+	 */
+	static class VecData{
+		private final LoadingCache<Integer, ContextRelationVecBundle> vecBundleCache;
+		/*memory-mapped vec stores, keyed by bundle key, mapped on first access. NO_STORE if bundle has no store file.*/
+		private final ConcurrentMap<Integer, Object> vecStoreMap = new ConcurrentHashMap<Integer, Object>();
+		
+		VecData(){
+			vecBundleCache = CacheBuilder.newBuilder()
+					//.maximumSize(400) //number of entries
+					//56 files total on Sept 15, but will increase.
+					.maximumSize(60) //65mb x 60 = 3900mb //was 40 as of Sept 15
+					.build(
+							new CacheLoader<Integer, ContextRelationVecBundle>() {
+								public ContextRelationVecBundle load(Integer bundleKey){
+									System.out.println("TheoremGet - loading a new vec bundle with key " + bundleKey);
+									return new ContextRelationVecBundle(bundleKey);
+							}});
+		}
+		
+		/**
+		 * Drops loaded bundles and stores, once the generation is no longer used.
+		 */
+		void release(){
+			vecBundleCache.invalidateAll();
+			vecStoreMap.clear();
+		}
+	}
+	
+	private static VecData vecData(){
+		return IndexGeneration.forCurrentThread().vecData();
 	}
 	
 	/**
@@ -53,7 +79,7 @@ public class TheoremGet {
 		int bundleKey = ContextRelationVecBundle.getContextVecBundleKey(thmIndex);
 		ContextRelationVecBundle bundle;
 		try{
-			bundle = vecBundleCache.get(bundleKey);
+			bundle = vecData().vecBundleCache.get(bundleKey);
 		}catch(ExecutionException e){
 			String msg = "ExecutionException when getting thm from LoadingCache! for index: " + thmIndex;
 			//print for testing locally
@@ -64,6 +90,36 @@ public class TheoremGet {
 		return bundle.getContextRelationVecsFromIndex(thmIndex-bundleKey*ContextRelationVecBundle.numThmsInBundle());
 	}
 	
+	/**
+	 * Memory-mapped store of the context and relation vecs in bundle with given key,
+	 * or null if the bundle has no store file, in which case use getContextRelationVecFromIndex().
+	 * Thm with index thmIndex is at thmIndex - bundleKey*numThmsInBundle() in the store.
+	 * @param bundleKey
+	 * @return
+	 */
+	public static ContextRelationVecStore getContextRelationVecStore(int bundleKey){
+		ConcurrentMap<Integer, Object> vecStoreMap = vecData().vecStoreMap;
+		Object store = vecStoreMap.get(bundleKey);
+		if(null == store){
+			String storePath = ContextRelationVecStore.storePath(ContextRelationVecBundle.constructSerialFilePath(bundleKey));
+			store = NO_STORE;
+			if(new File(storePath).exists()){
+				try{
+					store = ContextRelationVecStore.load(storePath);
+				}catch(IOException e){
+					String msg = "IOException while mapping ContextRelationVecStore " + storePath;
+					System.out.println(msg);
+					logger.error(msg + e);
+				}
+			}
+			Object prevStore = vecStoreMap.putIfAbsent(bundleKey, store);
+			if(null != prevStore){
+				store = prevStore;
+			}
+		}
+		return store == NO_STORE ? null : (ContextRelationVecStore)store;
+	}
+	
 	/**
 	 * Bundle of context and relation vectors. To be serialized and cached.
 	 */
@@ -86,7 +142,7 @@ public class TheoremGet {
 			vecsList = deserializeContextVecListFromFile(serialFileStr);			
 		}
 		
-		private static String constructSerialFilePath(int bundleKey){
+		static String constructSerialFilePath(int bundleKey){
 			String path = BASE_FILE_STR + String.valueOf(bundleKey);// + BASE_FILE_EXT_STR;
 			if(servletContext != null){
 				path = servletContext.getRealPath(path);
@@ -0,0 +1,303 @@
+package thmp.search;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import thmp.search.SearchCombined.ThmHypPair;
+import thmp.search.TheoremGet.ContextRelationVecPair;
+import thmp.utils.FileUtils;
+
+/**
+ * Writes combined ThmHypPair and context vec bundles as thms are added, so at most one
+ * bundle of each is held in memory, rather than the lists for all tars.
+ *
+ * ThmHypPair bundles end when endBundle() is called, e.g. after each group of tars, and
+ * their start thm indices, i.e. SearchConfiguration.bundleStartThmIndexList, are appended to
+ * the bundle index file as each bundle is written. Vec bundles are written every
+ * ContextRelationVecBundle.numThmsInBundle() vecs, as TheoremGet expects.
+ * Bundles are written as serialized lists, along with their memory-mapped stores.
+ * A writer from forAppend() continues after bundles written before, e.g. for a new
+ * IndexSegments segment. A writer from forTar() writes the thms and vecs of one tar,
+ * as DetectHypothesis parses it, which are read back with readTarThms() and readTarVecs().
+ */
+public class ThmBundleWriter {
+
+	private static final Logger logger = LogManager.getLogger(ThmBundleWriter.class);
+	private static final Charset INDEX_CHARSET = Charset.forName("UTF-8");
+	//appended to thm bundle base path of a tar, for its bundle index
+	private static final String TAR_BUNDLE_INDEX_SUFFIX = "BundleIndex.txt";
+
+	private final String thmBundleBasePath;
+	private final String vecsBundleBasePath;
+	private final int numThmsInVecsBundle;
+	private final Path bundleIndexPath;
+
+	//thms and vecs added since the respective last bundle was written
+	private List<ThmHypPair> curThmList = new ArrayList<ThmHypPair>();
+	private List<ContextRelationVecPair> curVecsList = new ArrayList<ContextRelationVecPair>();
+	private final List<Integer> bundleStartThmIndexList = new ArrayList<Integer>();
+	private int thmCount;
+	private int vecsCount;
+	private int vecsBundleCount;
+
+	/**
+	 * Writes to the default combined bundle paths.
+	 * @param bundleIndexPath file to write bundle start indices to, overwritten.
+	 */
+	public ThmBundleWriter(String bundleIndexPath) {
+		this(ThmSearch.getSystemCombinedParsedExpressionListFilePathBase(),
+				TheoremGet.ContextRelationVecBundle.BASE_FILE_STR,
+				TheoremGet.ContextRelationVecBundle.numThmsInBundle(), bundleIndexPath);
+	}
+
+	/**
+	 * @param thmBundleBasePath bundle i is written to this path followed by i.
+	 * @param vecsBundleBasePath vec bundle i is written to this path followed by i.
+	 * @param numThmsInVecsBundle
+	 * @param bundleIndexPath file to write bundle start indices to, overwritten.
+	 */
+	public ThmBundleWriter(String thmBundleBasePath, String vecsBundleBasePath, int numThmsInVecsBundle,
+			String bundleIndexPath) {
+		this(thmBundleBasePath, vecsBundleBasePath, numThmsInVecsBundle, bundleIndexPath, true);
+	}
+
+	private ThmBundleWriter(String thmBundleBasePath, String vecsBundleBasePath, int numThmsInVecsBundle,
+			String bundleIndexPath, boolean clearIndex) {
+		this.thmBundleBasePath = thmBundleBasePath;
+		this.vecsBundleBasePath = vecsBundleBasePath;
+		this.numThmsInVecsBundle = numThmsInVecsBundle;
+		this.bundleIndexPath = Paths.get(bundleIndexPath);
+		if(!clearIndex) {
+			return;
+		}
+		try {
+			Files.deleteIfExists(this.bundleIndexPath);
+		}catch(IOException e) {
+			throw new IllegalStateException("IOException while clearing bundle index " + bundleIndexPath, e);
+		}
+	}
+
+	/**
+	 * Writer to the default combined bundle paths, that continues after the bundles listed in the
+	 * bundle index. The last vec bundle, if not full, is read back and rewritten along with new vecs.
+	 * @param bundleIndexPath file with start indices of existing bundles, appended to.
+	 * @param totalThmsCount number of thms in existing bundles.
+	 * @return
+	 */
+	public static ThmBundleWriter forAppend(String bundleIndexPath, int totalThmsCount) {
+		return forAppend(ThmSearch.getSystemCombinedParsedExpressionListFilePathBase(),
+				TheoremGet.ContextRelationVecBundle.BASE_FILE_STR,
+				TheoremGet.ContextRelationVecBundle.numThmsInBundle(), bundleIndexPath, totalThmsCount);
+	}
+
+	@SuppressWarnings("unchecked")
+	static ThmBundleWriter forAppend(String thmBundleBasePath, String vecsBundleBasePath, int numThmsInVecsBundle,
+			String bundleIndexPath, int totalThmsCount) {
+		ThmBundleWriter writer = new ThmBundleWriter(thmBundleBasePath, vecsBundleBasePath, numThmsInVecsBundle,
+				bundleIndexPath, false);
+		if(Files.exists(writer.bundleIndexPath)) {
+			writer.bundleStartThmIndexList.addAll(readBundleIndex(bundleIndexPath));
+		}
+		writer.thmCount = totalThmsCount;
+		writer.vecsCount = totalThmsCount;
+		writer.vecsBundleCount = totalThmsCount / numThmsInVecsBundle;
+		int lastVecsBundleSize = totalThmsCount % numThmsInVecsBundle;
+		if(lastVecsBundleSize > 0) {
+			String path = vecsBundleBasePath + String.valueOf(writer.vecsBundleCount);
+			List<ContextRelationVecPair> lastVecsList = (List<ContextRelationVecPair>)FileUtils.deserializeListFromFile(path);
+			if(lastVecsList.size() != lastVecsBundleSize) {
+				throw new IllegalStateException("Vec bundle " + path + " has " + lastVecsList.size()
+					+ " vecs, but " + lastVecsBundleSize + " are expected from the thm count " + totalThmsCount);
+			}
+			writer.curVecsList = new ArrayList<ContextRelationVecPair>(lastVecsList);
+		}
+		return writer;
+	}
+
+	/**
+	 * Writer for the thms and vecs of one tar, e.g. a bundle per ingestion checkpoint shard,
+	 * so the tar's thms need not all be in memory at once.
+	 * @param thmBundleBasePath e.g. "0208_001/0208/parsedExpressionList".
+	 * @param vecsBundleBasePath e.g. "0208_001/0208/vecs/contextRelationVecPairList".
+	 * @return
+	 */
+	public static ThmBundleWriter forTar(String thmBundleBasePath, String vecsBundleBasePath) {
+		return new ThmBundleWriter(thmBundleBasePath, vecsBundleBasePath,
+				TheoremGet.ContextRelationVecBundle.numThmsInBundle(), tarBundleIndexPath(thmBundleBasePath));
+	}
+
+	private static String tarBundleIndexPath(String thmBundleBasePath) {
+		return thmBundleBasePath + TAR_BUNDLE_INDEX_SUFFIX;
+	}
+
+	/**
+	 * Reads the thms of a tar, from the bundles written by a writer from forTar(). Tars parsed
+	 * before tar outputs were written in bundles have one serialized list at thmBundleBasePath instead.
+	 * @param thmBundleBasePath
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<ThmHypPair> readTarThms(String thmBundleBasePath) {
+		String bundleIndexPath = tarBundleIndexPath(thmBundleBasePath);
+		if(!Files.exists(Paths.get(bundleIndexPath))) {
+			return (List<ThmHypPair>)FileUtils.deserializeListFromFile(thmBundleBasePath);
+		}
+		int bundleCount = readBundleIndex(bundleIndexPath).size();
+		List<ThmHypPair> thmHypPairList = new ArrayList<ThmHypPair>();
+		for(int i = 0; i < bundleCount; i++) {
+			thmHypPairList.addAll((List<ThmHypPair>)FileUtils.deserializeListFromFile(thmBundleBasePath + i));
+		}
+		return thmHypPairList;
+	}
+
+	/**
+	 * Reads the vecs of a tar, written along with its thms by a writer from forTar(), or as one
+	 * serialized list at vecsBundleBasePath for tars parsed before.
+	 * @param thmBundleBasePath base path the tar's thms were written to.
+	 * @param vecsBundleBasePath
+	 * @param thmCount number of thms in the tar.
+	 * @return
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<ContextRelationVecPair> readTarVecs(String thmBundleBasePath, String vecsBundleBasePath,
+			int thmCount) {
+		if(!Files.exists(Paths.get(tarBundleIndexPath(thmBundleBasePath)))) {
+			return (List<ContextRelationVecPair>)FileUtils.deserializeListFromFile(vecsBundleBasePath);
+		}
+		int numThmsInVecsBundle = TheoremGet.ContextRelationVecBundle.numThmsInBundle();
+		int bundleCount = (thmCount + numThmsInVecsBundle - 1) / numThmsInVecsBundle;
+		List<ContextRelationVecPair> vecsList = new ArrayList<ContextRelationVecPair>(thmCount);
+		for(int i = 0; i < bundleCount; i++) {
+			vecsList.addAll((List<ContextRelationVecPair>)FileUtils.deserializeListFromFile(vecsBundleBasePath + i));
+		}
+		return vecsList;
+	}
+
+	/**
+	 * Adds thms to current bundle, with indices following those of thms added before.
+	 * @param thmHypPairList
+	 */
+	public void addThms(List<ThmHypPair> thmHypPairList) {
+		curThmList.addAll(thmHypPairList);
+		thmCount += thmHypPairList.size();
+	}
+
+	/**
+	 * Adds context and relation vecs of thms, in same order as the thms. Writes vec bundles as they fill up.
+	 * @param vecsList
+	 */
+	public void addVecs(List<ContextRelationVecPair> vecsList) {
+		for(ContextRelationVecPair vecs : vecsList) {
+			curVecsList.add(vecs);
+			if(curVecsList.size() == numThmsInVecsBundle) {
+				writeVecsBundle();
+			}
+		}
+		vecsCount += vecsList.size();
+	}
+
+	/**
+	 * Writes the thms added since the last bundle as the next bundle, even if there are none,
+	 * so bundle indices stay in line with the combined mx files.
+	 */
+	public void endBundle() {
+		int bundleIndex = bundleStartThmIndexList.size();
+		int bundleStartThmIndex = thmCount - curThmList.size();
+		String path = thmBundleBasePath + String.valueOf(bundleIndex);
+		FileUtils.serializeObjToFile(curThmList, path);
+		try {
+			ThmHypPairStore.writeToFile(curThmList, ThmHypPairStore.storePath(path));
+			Files.write(bundleIndexPath, Collections.singletonList(String.valueOf(bundleStartThmIndex)), INDEX_CHARSET,
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		}catch(IOException e) {
+			String msg = "IOException while writing ThmHypPair bundle " + path;
+			logger.error(msg + e);
+			throw new IllegalStateException(msg, e);
+		}
+		bundleStartThmIndexList.add(bundleStartThmIndex);
+		curThmList = new ArrayList<ThmHypPair>();
+	}
+
+	private void writeVecsBundle() {
+		//Name deliberately does not contain ".dat" at end.
+		String path = vecsBundleBasePath + String.valueOf(vecsBundleCount);
+		String storePath = ContextRelationVecStore.storePath(path);
+		try {
+			//written to temp files first, since the last bundle can be rewritten while being searched
+			FileUtils.serializeObjToFile(curVecsList, path + ".tmp");
+			ContextRelationVecStore.writeToFile(curVecsList, storePath + ".tmp");
+			Files.move(Paths.get(path + ".tmp"), Paths.get(path), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			Files.move(Paths.get(storePath + ".tmp"), Paths.get(storePath), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException e) {
+			String msg = "IOException while writing ContextRelationVecStore " + path;
+			logger.error(msg + e);
+			throw new IllegalStateException(msg, e);
+		}
+		vecsBundleCount++;
+		curVecsList = new ArrayList<ContextRelationVecPair>();
+	}
+
+	/**
+	 * Writes remaining thms and vecs, in last bundles.
+	 */
+	public void close() {
+		if(!curThmList.isEmpty()) {
+			endBundle();
+		}
+		//last vecs bundle holds fewer than numThmsInVecsBundle vecs
+		if(!curVecsList.isEmpty()) {
+			writeVecsBundle();
+		}
+		if(vecsCount != thmCount) {
+			logger.error("ThmBundleWriter - number of vecs " + vecsCount + " differs from number of thms " + thmCount);
+		}
+	}
+
+	/**
+	 * Indices of thms that are first in their bundles, for SearchConfiguration.
+	 * @return
+	 */
+	public List<Integer> bundleStartThmIndexList() {
+		return bundleStartThmIndexList;
+	}
+
+	/**
+	 * Number of thms in current bundle.
+	 * @return
+	 */
+	public int curBundleSize() {
+		return curThmList.size();
+	}
+
+	public int thmCount() {
+		return thmCount;
+	}
+
+	/**
+	 * Reads bundle start indices written by a ThmBundleWriter.
+	 * @param bundleIndexPath
+	 * @return
+	 */
+	public static List<Integer> readBundleIndex(String bundleIndexPath) {
+		List<Integer> bundleStartThmIndexList = new ArrayList<Integer>();
+		for(String line : FileUtils.readLinesFromFile(bundleIndexPath, INDEX_CHARSET)) {
+			if(!line.isEmpty()) {
+				bundleStartThmIndexList.add(Integer.parseInt(line.trim()));
+			}
+		}
+		return bundleStartThmIndexList;
+	}
+}
@@ -1,28 +1,43 @@
 package thmp.search;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import javax.servlet.ServletContext;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.wolfram.puremath.dbapp.ThmHypUtils;
 
 import thmp.search.SearchCombined.ThmHypPair;
 import thmp.search.Searcher.SearchConfiguration;
 import thmp.search.TheoremGet.ContextRelationVecBundle;
 import thmp.search.TheoremGet.ContextRelationVecPair;
+import thmp.utils.DBUtils;
 import thmp.utils.FileUtils;
 
 /**
@@ -32,37 +47,72 @@ import thmp.utils.FileUtils;
  */
 public class ThmHypPairGet{
 
-	private static final LoadingCache<Integer, ThmHypPairBundle> thmBundleCache;
 	private static final ServletContext servletContext = FileUtils.getServletContext();
 	//private static final String metaDataFilePath = "/src/thmp/hhh";
 	private static final Logger logger = LogManager.getLogger(ThmHypPairGet.class);
-
-	/*do binary search on this list to find the index of the first thm the bundles
-	  length should be around 313 (as of Oct 2017) */
-	private static final List<Integer> bundleStartThmIndexList;
-	/**total number of thms*/
-	private static final int totalThmsCount;
-	private static final int totalBundleNum;
+	private static final Object NO_STORE = new Object();
+	/**number of ThmHypPair's retrieved from db to keep, ~2kb each*/
+	private static final int THM_HYP_PAIR_CACHE_SIZE = 20000;
+	private static final int PREFETCH_THREAD_COUNT = 2;
+	private static final int PREFETCH_QUEUE_SIZE = 64;
+	/*prefetches next pages of results. Prefetching is best-effort, so pages are dropped 
+	 if the queue is full, rather than holding up searches.*/
+	private static final ThreadPoolExecutor prefetchExecutor = new ThreadPoolExecutor(PREFETCH_THREAD_COUNT, 
+			PREFETCH_THREAD_COUNT, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(PREFETCH_QUEUE_SIZE),
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("thm-hyp-prefetch-%d").build(),
+			new ThreadPoolExecutor.DiscardPolicy());
 	
-	static{
-		//deserialize the list set during preprocessing,  
-		SearchConfiguration searchConfig = FileUtils.deserializeSearchConfiguration();
-		bundleStartThmIndexList = searchConfig.bundleStartThmIndexList();		
-		System.out.println("ThmHypPairGet - bundleStartThmIndexList:  "+bundleStartThmIndexList );
-		totalThmsCount = searchConfig.totalThmsCount();
-		totalBundleNum = bundleStartThmIndexList.size();
-		//318 total as of Sept 16
-		thmBundleCache = CacheBuilder.newBuilder()
-				.maximumSize(500) //~5mb x 500 = 2500 mb
-				//.removalListener( null)
-				.build(
-						new CacheLoader<Integer, ThmHypPairBundle>() {
-							public ThmHypPairBundle load(Integer bundleKey){
-								System.out.println("ThmHypPairGet - loading a new ThmHypPair bundle with key " + bundleKey);
-								return new ThmHypPairBundle(bundleKey);
+	/**
+	 * Bundle layout from SearchConfiguration, and the bundles loaded so far, for one IndexGeneration.
+	 */
+	static class BundleData{
+		/*do binary search on this list to find the index of the first thm the bundles
+		  length should be around 313 (as of Oct 2017) */
+		private final List<Integer> bundleStartThmIndexList;
+		/**total number of thms*/
+		private final int totalThmsCount;
+		private final int totalBundleNum;
+		private final LoadingCache<Integer, ThmHypPairBundle> thmBundleCache;
+		/*memory-mapped stores, mapped on first access. NO_STORE if bundle has no store file.*/
+		private final AtomicReferenceArray<Object> thmHypPairStoreAr;
+		/*recently retrieved ThmHypPair's from db, by thm index. Placeholder pairs are not cached.*/
+		private final Cache<Integer, ThmHypPair> thmHypPairCache;
+		
+		BundleData(SearchConfiguration searchConfig){
+			bundleStartThmIndexList = searchConfig.bundleStartThmIndexList();		
+			System.out.println("ThmHypPairGet - bundleStartThmIndexList:  "+bundleStartThmIndexList );
+			totalThmsCount = searchConfig.totalThmsCount();
+			totalBundleNum = bundleStartThmIndexList.size();
+			thmHypPairStoreAr = new AtomicReferenceArray<Object>(totalBundleNum);
+			thmHypPairCache = CacheBuilder.newBuilder().maximumSize(THM_HYP_PAIR_CACHE_SIZE).build();
+			//318 total as of Sept 16
+			thmBundleCache = CacheBuilder.newBuilder()
+					.maximumSize(500) //~5mb x 500 = 2500 mb
+					//.removalListener( null)
+					.build(
+							new CacheLoader<Integer, ThmHypPairBundle>() {
+								public ThmHypPairBundle load(Integer bundleKey){
+									System.out.println("ThmHypPairGet - loading a new ThmHypPair bundle with key " + bundleKey);
+									return new ThmHypPairBundle(bundleKey, BundleData.this);
+								}
 							}
-						}
-						);	
+							);
+		}
+		
+		/**
+		 * Drops loaded bundles and stores, once the generation is no longer used.
+		 */
+		void release(){
+			thmBundleCache.invalidateAll();
+			thmHypPairCache.invalidateAll();
+			for(int i = 0; i < totalBundleNum; i++){
+				thmHypPairStoreAr.set(i, null);
+			}
+		}
+	}
+	
+	private static BundleData bundleData(){
+		return IndexGeneration.forCurrentThread().thmBundleData();
 	}
 	
 	/**
@@ -70,8 +120,9 @@ public class ThmHypPairGet{
 	 * chronologically.
 	 */
 	public static class MxBundleKeyIterator implements Iterator<Integer>{
+		private final BundleData bundleData = bundleData();
 		//deliberately don't subtract 1.
-		private volatile int currentIndex = totalBundleNum;
+		private volatile int currentIndex = bundleData.totalBundleNum;
 		
 		@Override
 		public boolean hasNext(){			
@@ -90,7 +141,7 @@ public class ThmHypPairGet{
 		 * @return
 		 */
 		public int findOverallThmIndex(int thmIndexInBundle) {
-			return bundleStartThmIndexList.get(this.currentIndex) + thmIndexInBundle;
+			return bundleData.bundleStartThmIndexList.get(this.currentIndex) + thmIndexInBundle;
 		}
 	}
 	
@@ -99,8 +150,9 @@ public class ThmHypPairGet{
 	 * chronologically.
 	 */
 	public static class ThmCacheIterator implements Iterator<ThmHypPairBundle>{
+		private final BundleData bundleData = bundleData();
 		//deliberately don't subtract 1.
-		private volatile int currentIndex = totalBundleNum;
+		private volatile int currentIndex = bundleData.totalBundleNum;
 		
 		@Override
 		public boolean hasNext() {
@@ -114,7 +166,7 @@ public class ThmHypPairGet{
 		public ThmHypPairBundle next() {
 			this.currentIndex--;
 			try {
-				return thmBundleCache.get(currentIndex);
+				return bundleData.thmBundleCache.get(currentIndex);
 			} catch (ExecutionException e) {
 				String msg = "ExecutionException when trying to retrieve bundle! " + e;
 				//print for now for local debugging. 
@@ -144,12 +196,17 @@ public class ThmHypPairGet{
 		private static final ThmHypPairBundle PLACEHOLDER_BUNDLE = new ThmHypPairBundle();
 		
 		public ThmHypPairBundle(int bundleKey){	
+			this(bundleKey, bundleData());
+		}
+		
+		private ThmHypPairBundle(int bundleKey, BundleData bundleData){	
 			this.bundleKey = bundleKey;
-			String serialFileStr = BASE_FILE_STR + String.valueOf(bundleKey);
-			if(servletContext != null){
-				serialFileStr = servletContext.getRealPath(serialFileStr);
+			ThmHypPairStore store = thmHypPairStore(bundleKey, bundleData);
+			if(null != store){
+				thmPairList = store.getAll();
+				return;
 			}
-			thmPairList = deserializeThmHypPairListFromFile(serialFileStr);
+			thmPairList = deserializeThmHypPairListFromFile(bundleSerialFilePath(bundleKey));
 		}
 		
 		private ThmHypPairBundle(){
@@ -191,9 +248,10 @@ public class ThmHypPairGet{
 	 * @return Can be null!
 	 */
 	public static ThmHypPairBundle retrieveBundleWithThm(int thmIndex){
-		int bundleStartThmIndexListIndex = findBundleBeginIndex(thmIndex);
+		BundleData bundleData = bundleData();
+		int bundleStartThmIndexListIndex = findBundleBeginIndex(thmIndex, bundleData.bundleStartThmIndexList);
 		try {
-			return thmBundleCache.get(bundleStartThmIndexListIndex);
+			return bundleData.thmBundleCache.get(bundleStartThmIndexListIndex);
 		} catch (ExecutionException e) {
 			String msg = "ExecutionException when retrieving from cache! " + e;
 			//print for now so visible to local debugging
@@ -212,10 +270,17 @@ public class ThmHypPairGet{
 	 */
 	public static ThmHypPair retrieveThmHypPairWithThmFromCache(int thmIndex){
 		
+		BundleData bundleData = bundleData();
+		List<Integer> bundleStartThmIndexList = bundleData.bundleStartThmIndexList;
 		//index inside the bundleStartThmIndexList, to get the index of the starting thm in bundle.
-		int bundleStartThmIndexListIndex = findBundleBeginIndex(thmIndex);
+		int bundleStartThmIndexListIndex = findBundleBeginIndex(thmIndex, bundleStartThmIndexList);
+		//decode just this thm if bundle has a store, rather than deserializing whole bundle.
+		ThmHypPairStore store = thmHypPairStore(bundleStartThmIndexListIndex, bundleData);
+		if(null != store){
+			return store.get(thmIndex - bundleStartThmIndexList.get(bundleStartThmIndexListIndex));
+		}
 		try {
-			return thmBundleCache.get(bundleStartThmIndexListIndex)
+			return bundleData.thmBundleCache.get(bundleStartThmIndexListIndex)
 					.thmPairList.get(thmIndex - bundleStartThmIndexList.get(bundleStartThmIndexListIndex));
 		} catch (ExecutionException e) {
 			String msg = "ExecutionException when retrieving from cache! " + e;
@@ -226,6 +291,44 @@ public class ThmHypPairGet{
 		return ThmHypPair.PLACEHOLDER_PAIR();
 	}
 	
+	/**
+	 * Path to the serialized list of ThmHypPair's for bundle.
+	 * @param bundleKey
+	 * @return
+	 */
+	private static String bundleSerialFilePath(int bundleKey){
+		String serialFileStr = ThmHypPairBundle.BASE_FILE_STR + String.valueOf(bundleKey);
+		if(servletContext != null){
+			serialFileStr = servletContext.getRealPath(serialFileStr);
+		}
+		return serialFileStr;
+	}
+	
+	/**
+	 * Memory-mapped store for bundle, mapped on first access.
+	 * @param bundleKey
+	 * @return null if bundle has not been converted to a ThmHypPairStore.
+	 */
+	private static ThmHypPairStore thmHypPairStore(int bundleKey, BundleData bundleData){
+		AtomicReferenceArray<Object> thmHypPairStoreAr = bundleData.thmHypPairStoreAr;
+		Object store = thmHypPairStoreAr.get(bundleKey);
+		if(null == store){
+			String storePath = ThmHypPairStore.storePath(bundleSerialFilePath(bundleKey));
+			store = NO_STORE;
+			if(new File(storePath).exists()){
+				try{
+					store = ThmHypPairStore.load(storePath);
+				}catch(IOException e){
+					logger.error("IOException when mapping ThmHypPairStore " + storePath + " " + e);
+				}
+			}
+			//another thread may have mapped it meanwhile, mapping twice is harmless.
+			thmHypPairStoreAr.compareAndSet(bundleKey, null, store);
+			store = thmHypPairStoreAr.get(bundleKey);
+		}
+		return store == NO_STORE ? null : (ThmHypPairStore)store;
+	}
+	
 	/**
 	 * Return the ThmHypPair with index thmIndex
 	 * @param thmIndex
@@ -233,27 +336,110 @@ public class ThmHypPairGet{
 	 */
 	public static ThmHypPair retrieveThmHypPairWithThm(int thmIndex, Connection conn){
 		
+		Cache<Integer, ThmHypPair> thmHypPairCache = bundleData().thmHypPairCache;
+		ThmHypPair thmHypPair = thmHypPairCache.getIfPresent(thmIndex);
+		if(null != thmHypPair) {
+			return thmHypPair;
+		}
 		try {
-			return ThmHypUtils.getThmHypFromDB(thmIndex, conn);
+			thmHypPair = ThmHypUtils.getThmHypFromDB(thmIndex, conn);
 		} catch (SQLException e) {
 			logger.error("SQLException while retrieving ThmHypPair! " + Arrays.toString(e.getStackTrace()));
 			return ThmHypPair.PLACEHOLDER_PAIR();
 		}
+		if(thmHypPair != ThmHypPair.PLACEHOLDER_PAIR()) {
+			thmHypPairCache.put(thmIndex, thmHypPair);
+		}
+		return thmHypPair;
 	}
 	
 	/**
-	 * Return the ThmHypPair with list of indices.
+	 * Return the ThmHypPair with list of indices. Pairs not in cache are retrieved
+	 * with one db query per ~64 thms.
 	 * @param list of thm indices.
-	 * @return
+	 * @return ThmHypPair's in order of thmIndexList. Thms not found, and repeated indices, are skipped.
 	 */
 	public static List<ThmHypPair> retrieveThmHypPairWithThm(List<Integer> thmIndexList, Connection conn){
 		
-		try {
-			return ThmHypUtils.getThmHypFromDB(thmIndexList, conn);
-		} catch (SQLException e) {
-			logger.error("SQLException while retrieving ThmHypPair! " + Arrays.toString(e.getStackTrace()));
+		Cache<Integer, ThmHypPair> thmHypPairCache = bundleData().thmHypPairCache;
+		Map<Integer, ThmHypPair> thmHypPairMap = new HashMap<Integer, ThmHypPair>(thmHypPairCache.getAllPresent(thmIndexList));
+		Set<Integer> missingThmIndexSet = new LinkedHashSet<Integer>(thmIndexList);
+		missingThmIndexSet.removeAll(thmHypPairMap.keySet());
+		if(!missingThmIndexSet.isEmpty()) {
+			try {
+				Map<Integer, ThmHypPair> dbThmHypPairMap = ThmHypUtils.getThmHypMapFromDB(missingThmIndexSet, conn);
+				thmHypPairCache.putAll(dbThmHypPairMap);
+				thmHypPairMap.putAll(dbThmHypPairMap);
+			} catch (SQLException e) {
+				logger.error("SQLException while retrieving ThmHypPair! " + Arrays.toString(e.getStackTrace()));
+				return Collections.emptyList();
+			}
+		}
+		List<ThmHypPair> thmHypPairList = new ArrayList<ThmHypPair>(thmHypPairMap.size());
+		Set<Integer> addedThmIndexSet = new HashSet<Integer>();
+		for(int thmIndex : thmIndexList) {
+			ThmHypPair thmHypPair = thmHypPairMap.get(thmIndex);
+			if(null != thmHypPair && addedThmIndexSet.add(thmIndex)) {
+				thmHypPairList.add(thmHypPair);
+			}
+		}
+		return thmHypPairList;
+	}
+	
+	/**
+	 * Return the ThmHypPair's of one page of search results, and prefetches the next page
+	 * in the background meanwhile, so paging through results takes one db query per page,
+	 * or none once prefetched.
+	 * @param thmIndexList thm indices of all results, in ranked order.
+	 * @param pageStart index in thmIndexList of first result on page.
+	 * @param pageSize
+	 * @param conn
+	 * @return ThmHypPair's on page, as for retrieveThmHypPairWithThm(List, Connection).
+	 */
+	public static List<ThmHypPair> retrieveThmHypPairPage(List<Integer> thmIndexList, int pageStart, int pageSize,
+			Connection conn){
+		
+		int thmIndexListSz = thmIndexList.size();
+		if(pageStart < 0 || pageSize < 1) {
+			throw new IllegalArgumentException("Invalid page start or size: " + pageStart + ", " + pageSize);
+		}
+		if(pageStart >= thmIndexListSz) {
 			return Collections.emptyList();
 		}
+		int pageEnd = Math.min(pageStart + pageSize, thmIndexListSz);
+		if(pageEnd < thmIndexListSz) {
+			//submitted first, so its query runs alongside this page's.
+			prefetch(thmIndexList.subList(pageEnd, Math.min(pageEnd + pageSize, thmIndexListSz)), bundleData());
+		}
+		return retrieveThmHypPairWithThm(thmIndexList.subList(pageStart, pageEnd), conn);
+	}
+	
+	/**
+	 * Retrieves ThmHypPair's not in cache on a prefetch thread, with its own pooled connection.
+	 * @param thmIndexList
+	 * @param bundleData Data of generation to cache pairs in.
+	 */
+	private static void prefetch(List<Integer> thmIndexList, final BundleData bundleData){
+		final Set<Integer> missingThmIndexSet = new LinkedHashSet<Integer>(thmIndexList);
+		missingThmIndexSet.removeAll(bundleData.thmHypPairCache.getAllPresent(thmIndexList).keySet());
+		if(missingThmIndexSet.isEmpty()) {
+			return;
+		}
+		prefetchExecutor.execute(new Runnable(){
+			public void run(){
+				Connection conn = DBUtils.getPooledConnection();
+				if(null == conn) {
+					return;
+				}
+				try {
+					bundleData.thmHypPairCache.putAll(ThmHypUtils.getThmHypMapFromDB(missingThmIndexSet, conn));
+				} catch (SQLException e) {
+					logger.error("SQLException while prefetching ThmHypPair's! " + e);
+				} finally {
+					DBUtils.closePooledConnection(conn);
+				}
+			}
+		});
 	}
 	
 	/**
@@ -261,6 +447,10 @@ public class ThmHypPairGet{
 	 * containing thm with thmIndex. Index in bundleStartThmIndexList.
 	 */
 	public static int findBundleBeginIndex(int thmIndex){
+		return findBundleBeginIndex(thmIndex, bundleData().bundleStartThmIndexList);
+	}
+	
+	private static int findBundleBeginIndex(int thmIndex, List<Integer> bundleStartThmIndexList){
 		
 		int low = 0;
 		int high = bundleStartThmIndexList.size();
@@ -286,7 +476,16 @@ public class ThmHypPairGet{
 	 * @return
 	 */
 	public static int totalBundleNum(){
-		return totalBundleNum;
+		return bundleData().totalBundleNum;
+	}
+	
+	/**
+	 * Overall index of the first thm in the bundle (or mx file) with given key.
+	 * @param bundleKey 0-based, same key as used by MxBundleKeyIterator.
+	 * @return
+	 */
+	public static int bundleStartThmIndex(int bundleKey){
+		return bundleData().bundleStartThmIndexList.get(bundleKey);
 	}
 	
 	/**
@@ -294,6 +493,6 @@ public class ThmHypPairGet{
 	 * @return
 	 */
 	public static int totalThmsCount(){
-		return totalThmsCount;
+		return bundleData().totalThmsCount;
 	}
 }
@@ -0,0 +1,213 @@
+package thmp.search;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import thmp.search.SearchCombined.ThmHypPair;
+import thmp.utils.FileUtils;
+
+/**
+ * Columnar, memory-mapped store of the ThmHypPair's in one bundle, replacing the
+ * Java-serialized combinedParsedExpressionList<N> at lookup time. A record is decoded
+ * on demand in O(1), without deserializing the rest of the bundle.
+ *
+ * File layout (big-endian): magic, version, record count, then an offsets table of
+ * recordCount*FIELD_COUNT+1 ints into the UTF-8 blob that follows. Fields of record i are
+ * at offsets i*FIELD_COUNT+f, in order thm, hyp, srcFileName, thmType.
+ *
+ * Immutable once loaded, and safe for concurrent lookups.
+ */
+public class ThmHypPairStore {
+
+	private static final Logger logger = LogManager.getLogger(ThmHypPairStore.class);
+	//"THPS"
+	private static final int FILE_MAGIC = 0x54485053;
+	private static final int FILE_VERSION = 1;
+	private static final int HEADER_INT_COUNT = 3;
+	private static final int FIELD_COUNT = 4;
+	private static final int THM_FIELD = 0;
+	private static final int HYP_FIELD = 1;
+	private static final int SRC_FILE_NAME_FIELD = 2;
+	private static final int THM_TYPE_FIELD = 3;
+	/**appended to path of the serialized bundle*/
+	public static final String FILE_EXT = ".store";
+
+	private final int recordCount;
+	private final IntBuffer offsetBuf;
+	private final ByteBuffer blobBuf;
+
+	private ThmHypPairStore(int recordCount, IntBuffer offsetBuf, ByteBuffer blobBuf){
+		this.recordCount = recordCount;
+		this.offsetBuf = offsetBuf;
+		this.blobBuf = blobBuf;
+	}
+
+	/**
+	 * Memory-maps the store at path.
+	 * @param path
+	 * @return
+	 * @throws IOException
+	 */
+	public static ThmHypPairStore load(String path) throws IOException{
+		ByteBuffer buf;
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try{
+			FileChannel channel = file.getChannel();
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}finally{
+			file.close();
+		}
+		if(FILE_MAGIC != buf.getInt(0) || FILE_VERSION != buf.getInt(4)){
+			throw new IOException("Not a ThmHypPairStore file, or unsupported version: " + path);
+		}
+		int recordCount = buf.getInt(8);
+		int offsetCount = recordCount*FIELD_COUNT + 1;
+		ByteBuffer dup = buf.duplicate();
+		dup.position(HEADER_INT_COUNT*4);
+		IntBuffer offsetBuf = dup.slice().asIntBuffer();
+		dup.position(HEADER_INT_COUNT*4 + offsetCount*4);
+		ByteBuffer blobBuf = dup.slice();
+		return new ThmHypPairStore(recordCount, offsetBuf, blobBuf);
+	}
+
+	/**
+	 * Number of thms in store.
+	 * @return
+	 */
+	public int size(){
+		return recordCount;
+	}
+
+	/**
+	 * Decodes the ThmHypPair with given index in the bundle.
+	 * @param indexInBundle
+	 * @return
+	 */
+	public ThmHypPair get(int indexInBundle){
+		if(indexInBundle < 0 || indexInBundle >= recordCount){
+			throw new IndexOutOfBoundsException("Index " + indexInBundle + " for store of size " + recordCount);
+		}
+		return new ThmHypPair(field(indexInBundle, THM_FIELD), field(indexInBundle, HYP_FIELD),
+				field(indexInBundle, SRC_FILE_NAME_FIELD), field(indexInBundle, THM_TYPE_FIELD));
+	}
+
+	/**
+	 * Decodes all records, in order.
+	 * @return
+	 */
+	public List<ThmHypPair> getAll(){
+		List<ThmHypPair> list = new ArrayList<ThmHypPair>(recordCount);
+		for(int i = 0; i < recordCount; i++){
+			list.add(get(i));
+		}
+		return list;
+	}
+
+	private String field(int indexInBundle, int field){
+		int offsetIndex = indexInBundle*FIELD_COUNT + field;
+		int start = offsetBuf.get(offsetIndex);
+		int len = offsetBuf.get(offsetIndex + 1) - start;
+		byte[] bytes = new byte[len];
+		//duplicate so concurrent lookups don't share position.
+		ByteBuffer dup = blobBuf.duplicate();
+		dup.position(start);
+		dup.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Writes the list in store format.
+	 * @param thmHypPairList
+	 * @param path
+	 * @throws IOException
+	 */
+	public static void writeToFile(List<ThmHypPair> thmHypPairList, String path) throws IOException{
+		int recordCount = thmHypPairList.size();
+		byte[][] fieldBytesAr = new byte[recordCount*FIELD_COUNT][];
+		long blobLen = 0;
+		for(int i = 0; i < recordCount; i++){
+			ThmHypPair pair = thmHypPairList.get(i);
+			fieldBytesAr[i*FIELD_COUNT + THM_FIELD] = utf8Bytes(pair.thmStr());
+			fieldBytesAr[i*FIELD_COUNT + HYP_FIELD] = utf8Bytes(pair.hypStr());
+			fieldBytesAr[i*FIELD_COUNT + SRC_FILE_NAME_FIELD] = utf8Bytes(pair.srcFileName());
+			fieldBytesAr[i*FIELD_COUNT + THM_TYPE_FIELD] = utf8Bytes(pair.thmType());
+			for(int f = 0; f < FIELD_COUNT; f++){
+				blobLen += fieldBytesAr[i*FIELD_COUNT + f].length;
+			}
+		}
+		if(blobLen > Integer.MAX_VALUE){
+			throw new IllegalStateException("Bundle too large for ThmHypPairStore: " + blobLen + " bytes");
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16));
+		try{
+			out.writeInt(FILE_MAGIC);
+			out.writeInt(FILE_VERSION);
+			out.writeInt(recordCount);
+			int offset = 0;
+			for(byte[] fieldBytes : fieldBytesAr){
+				out.writeInt(offset);
+				offset += fieldBytes.length;
+			}
+			out.writeInt(offset);
+			for(byte[] fieldBytes : fieldBytesAr){
+				out.write(fieldBytes);
+			}
+		}finally{
+			out.close();
+		}
+	}
+
+	private static byte[] utf8Bytes(String str){
+		return null == str ? new byte[0] : str.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Path to store of bundle, from path to its serialized list.
+	 * @param serialFileStr e.g. "src/thmp/data/pe/combinedParsedExpressionList3"
+	 * @return
+	 */
+	public static String storePath(String serialFileStr){
+		return serialFileStr + FILE_EXT;
+	}
+
+	/**
+	 * Converts all serialized bundles to store format, written next to them.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void convertBundles(){
+		int totalBundleNum = ThmHypPairGet.totalBundleNum();
+		String basePath = ThmSearch.getSystemCombinedParsedExpressionListFilePathBase();
+		for(int i = 0; i < totalBundleNum; i++){
+			String serialFileStr = basePath + String.valueOf(i);
+			List<ThmHypPair> thmHypPairList = (List<ThmHypPair>)FileUtils.deserializeListFromFile(serialFileStr);
+			try{
+				writeToFile(thmHypPairList, storePath(serialFileStr));
+			}catch(IOException e){
+				String msg = "IOException while writing ThmHypPairStore for " + serialFileStr;
+				logger.error(msg + e);
+				throw new IllegalStateException(msg, e);
+			}
+			System.out.println("ThmHypPairStore - converted bundle " + i + " of size " + thmHypPairList.size());
+		}
+	}
+
+	/**
+	 * Converts existing serialized bundles to store format, see convertBundles().
+	 */
+	public static void main(String[] args) {
+		convertBundles();
+	}
+}
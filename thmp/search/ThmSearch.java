@@ -58,14 +58,21 @@ public class ThmSearch {
 	 */
 	public static class ThmSearchQuery{
 		
+		private static final boolean DEBUG = false;
+		private static final String CACHE_BAG_NAME = "cacheBag";
+		private static final String TIME_BAG_NAME = "timeBag";
+		
+		/**
+		 * Kernel-side state, initialized on first use of the WL path, so the Java
+		 * nearest-vector search does not need to acquire a kernel.
+		 */
+		private static class WLKernelState{
+		
 		private static final int QUERY_VEC_LENGTH;
 		//private static final KernelLink ml;	
 		private static final String V_MX;
 		//string of rule of V_MX to its range vector
 		//private static final String V_MX_RULE_NAME;
-		private static final boolean DEBUG = false;
-		private static final String CACHE_BAG_NAME = "cacheBag";
-		private static final String TIME_BAG_NAME = "timeBag";
 		//distance threshold for Nearest. To be computed programmatically using samples.
 		private static final double DISTANCE_THRESHOLD;
 		//total number of mx files
@@ -196,6 +203,7 @@ public class ThmSearch {
 		//needs to happen after computing QUERY_VEC_LENGTH
 		DISTANCE_THRESHOLD = computeDistanceThreshold(ml);
 	}
+		}
 	
 	private static class IndexDistancePair implements Comparable<IndexDistancePair>{
 		int thmIndex;
@@ -212,7 +220,7 @@ public class ThmSearch {
 	}
 	
 	public static int getQUERY_VEC_LENGTH(){
-		return QUERY_VEC_LENGTH;
+		return WLKernelState.QUERY_VEC_LENGTH;
 	}
 	
 	/**
@@ -292,6 +300,8 @@ public class ThmSearch {
 	 * @throws ExprFormatException 
 	 */
 	public static List<Integer> findNearestVecs(String queryVecStr, int ... num){
+		//triggers loading of projection mx and cache manager in kernel, if not already loaded.
+		double distanceThreshold = WLKernelState.DISTANCE_THRESHOLD;
 		WLEvaluationMedium medium = FileUtils.acquireWLEvaluationMedium();
 			String msg = "Transposing and applying corMx...";
 			logger.info(msg);
@@ -390,7 +400,7 @@ public class ThmSearch {
 						+ LIST_INDEX_SHIFT, true, true);*/
 				//threshold based rather than numNearest/3 count based?? Oct 2017.
 				/*Note that this relies on distance option introduced in 11.1*/
-				Expr nearestVec = evaluateWLCommand(medium, "findNearestDist[" + nextMxName + ",qT,"+ DISTANCE_THRESHOLD +","
+				Expr nearestVec = evaluateWLCommand(medium, "findNearestDist[" + nextMxName + ",qT,"+ distanceThreshold +","
 						+numNearest/3 +"]", true, true);
 				
 				if(DEBUG) {
@@ -476,13 +486,17 @@ public class ThmSearch {
 	}
 	
 	/**
-	 * Reads thm one at a time.
+	 * Reads thm one at a time. Uses the Java NearestVecSearch if the binary
+	 * exports of the matrices are present, and the WL kernel otherwise.
 	 * @param thm is a thm input String
 	 * @param numVecs number of cloests vecs to take
 	 * @return list of indices of nearest thms. 
 	 */
 	public static List<Integer> findNearestThmsInTermDocMx(String thm, int numVec){
 		
+		if(NearestVecSearch.isAvailable()){
+			return NearestVecSearch.findNearestThms(thm, numVec);
+		}
 		List<Integer> nearestVecList = null;		
 		String query = TriggerMathThm2.createQueryVec(thm);
 		//String msg = "ThmSearch - query String formed. ";
@@ -519,6 +533,9 @@ public class ThmSearch {
 		private static final String D_INVERSE_NAME = "dInverse";
 		private static final String U_TRANSPOSE_NAME = "uTranspose";
 		private static final String COR_MX_NAME = "corMx";
+		/*binary exports of the projection mx and the combined projected matrices, read by NearestVecSearch*/
+		public static final String PROJECTION_MX_BINARY_FILE_NAME = "termDocumentMatrixSVD.vecs";
+		public static final String PROJECTED_MX_BINARY_FILE_EXT = ".vecs";
 		public static final String PARSEDEXPRESSION_LIST_FILE_NAME_ROOT = "parsedExpressionList";
 		//Do not attach .dat at end of this file name.
 		public static final String CONTEXT_VEC_PAIR_LIST_FILE_NAME = "contextRelationVecPairList";
@@ -815,6 +832,8 @@ public class ThmSearch {
 				ml.evaluate("DumpSave[\"" + PATH_TO_MX + "\", {TermDocumentMatrix`mxMeanValue, "
 						+ "TermDocumentMatrix`uTranspose, TermDocumentMatrix`dInverse, TermDocumentMatrix`corMx}];");
 				ml.discardAnswer();
+				ml.evaluate(projectionMxBinaryExportCmd(getSystemProjectionMxBinaryFilePath()));
+				ml.discardAnswer();
 			}catch(MathLinkException e){
 				System.out.println("error at launch!");
 				e.printStackTrace();
@@ -822,6 +841,43 @@ public class ThmSearch {
 			}
 		}
 		
+		/**
+		 * WL command to write the projection matrices, in context PROJECTION_MX_CONTEXT_NAME, 
+		 * as big-endian binary, to be read by NearestVecSearch. Layout: k, n (Integer32), 
+		 * mxMeanValue, diagonal of dInverse, uTranspose row-major (Real32), then corMx as
+		 * nonzero count, 0-based row indices, 0-based col indices, values.
+		 * @param binaryPath
+		 * @return
+		 */
+		protected static String projectionMxBinaryExportCmd(String binaryPath){
+			String ctx = PROJECTION_MX_CONTEXT_NAME;
+			return "Module[{s, sa=SparseArray[" + ctx + COR_MX_NAME + "], mean=" + ctx + "mxMeanValue}, "
+					+ "s=OpenWrite[\"" + binaryPath + "\", BinaryFormat->True]; "
+					+ "BinaryWrite[s, Dimensions[" + ctx + U_TRANSPOSE_NAME + "], \"Integer32\", ByteOrdering->1]; "
+					+ "BinaryWrite[s, If[NumberQ[mean], N[mean], 0.], \"Real32\", ByteOrdering->1]; "
+					+ "BinaryWrite[s, Diagonal[Normal[" + ctx + D_INVERSE_NAME + "]], \"Real32\", ByteOrdering->1]; "
+					+ "BinaryWrite[s, Flatten[Normal[" + ctx + U_TRANSPOSE_NAME + "]], \"Real32\", ByteOrdering->1]; "
+					+ "BinaryWrite[s, Length[sa[\"NonzeroValues\"]], \"Integer32\", ByteOrdering->1]; "
+					+ "If[Length[sa[\"NonzeroValues\"]] > 0, "
+					+ "BinaryWrite[s, Flatten[Transpose[sa[\"NonzeroPositions\"]] - 1], \"Integer32\", ByteOrdering->1]; "
+					+ "BinaryWrite[s, sa[\"NonzeroValues\"], \"Real32\", ByteOrdering->1]]; "
+					+ "Close[s]]";
+		}
+		
+		/**
+		 * WL command to write a matrix of projected thm vecs (rows are thms) as big-endian 
+		 * binary: row count, col count (Integer32), then entries row-major (Real32).
+		 * @param mxName name of WL symbol of the matrix.
+		 * @param binaryPath
+		 * @return
+		 */
+		protected static String projectedMxBinaryExportCmd(String mxName, String binaryPath){
+			return "Module[{s, m=Normal[" + mxName + "]}, "
+					+ "s=OpenWrite[\"" + binaryPath + "\", BinaryFormat->True]; "
+					+ "BinaryWrite[s, {Length[m], If[Length[m] > 0, Length[First[m]], 0]}, \"Integer32\", ByteOrdering->1]; "
+					+ "If[Length[m] > 0, BinaryWrite[s, Flatten[m], \"Real32\", ByteOrdering->1]]; "
+					+ "Close[s]]";
+		}
 	}/* end of TermDocumentMatrix class */
 	
 	/**
@@ -896,7 +952,7 @@ public class ThmSearch {
 	 * Supports Linux and OS X. 
 	 * @return
 	 */
-	private static String getSystemProjectionMxFilePath(){
+	protected static String getSystemProjectionMxFilePath(){
 		String pathToMx = "src/thmp/data/termDocumentMatrixSVD.mx";
 		//mx file also depends on the system!		
 		//but only 32-bit vs 64-bit, not OS. Should check bit instead.
@@ -908,6 +964,14 @@ public class ThmSearch {
 		return pathToMx;
 	}
 	
+	/**
+	 * Retrieves path to binary export of the SVD matrix data.
+	 * @return
+	 */
+	protected static String getSystemProjectionMxBinaryFilePath(){
+		return TermDocumentMatrix.DATA_ROOT_DIR_SLASH + TermDocumentMatrix.PROJECTION_MX_BINARY_FILE_NAME;
+	}
+	
 	/**
 	 * Retrieves path to matrix combining projected vecs.
 	 * @return
@@ -412,13 +412,40 @@ public class TriggerMathThm2 {
 	 */
 	public static String createQueryVec(String thm){
 		
+		//keywordDict is annotated with "hyp"/"stm"
+		int queryVecLen = ThmSearch.ThmSearchQuery.getQUERY_VEC_LENGTH();
+		double[] queryVec = createQueryVecAr(thm, queryVecLen);
+		if(null == queryVec) return "";
+		
+		//transform into query list String 
+		StringBuilder sb = new StringBuilder(28000);
+		sb.append("{{");
+		for(int j = 0; j < queryVecLen; j++){
+			//String t = j == queryVecLen-1 ? queryVec[j] + "" : queryVec[j] + ", ";
+			String t = queryVec[j] + ", ";
+			sb.append(t);
+		}
+		int sbLen = sb.length();
+		sb.delete(sbLen - 2, sbLen);
+		sb.append("}}");
+		return sb.toString();
+	}
+	
+	/**
+	 * Creates the query vector as array, same weighing as createQueryVec,
+	 * without going through the WL kernel for the vector length. Used by 
+	 * the Java nearest-vector search.
+	 * @param thm
+	 * @param queryVecLen length of query vec, i.e. row dimension of term-document mx.
+	 * @return Query vector, or null if no relevant term was detected in thm.
+	 */
+	public static double[] createQueryVecAr(String thm, int queryVecLen){
+		
 		List<String> thmAr = WordForms.splitThmIntoSearchWordsList(thm);
 		//map of non-annotated words and their scores. Use get_wordsScoreMapNoAnno 
 		//and not CONTEXT_VEC_WORDS_MAP.
 		Map<String, Integer> wordsScoreMap = CollectThm.ThmWordsMaps.get_wordsScoreMap();	
 		
-		//keywordDict is annotated with "hyp"/"stm"
-		int queryVecLen = ThmSearch.ThmSearchQuery.getQUERY_VEC_LENGTH();
 		//logger.info("TriggerMathThm - queryVecLen: " + queryVecLen);
 		double[] queryVec = new double[queryVecLen];
 		double norm = 0;
@@ -452,7 +479,7 @@ public class TriggerMathThm2 {
 		//short-circuit if no relevant term was detected in input thm
 		//rather than return a list of results that are close to the 0-vector
 		//but doesn't make sense.
-		if(norm == 0) return "";
+		if(norm == 0) return null;
 		
 		for(IndexScorePair pair : indexScorePairList){
 			queryVec[pair.index] = pair.score;			
@@ -475,18 +502,7 @@ public class TriggerMathThm2 {
 				}
 			}
 		}		
-		//transform into query list String 
-		StringBuilder sb = new StringBuilder(28000);
-		sb.append("{{");
-		for(int j = 0; j < queryVecLen; j++){
-			//String t = j == queryVecLen-1 ? queryVec[j] + "" : queryVec[j] + ", ";
-			String t = queryVec[j] + ", ";
-			sb.append(t);
-		}
-		int sbLen = sb.length();
-		sb.delete(sbLen - 2, sbLen);
-		sb.append("}}");
-		return sb.toString();
+		return queryVec;
 	}
 	
 	/**
@@ -0,0 +1,636 @@
+package thmp.search;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Multimap;
+
+import thmp.search.CollectThm.ThmWordsMaps.IndexPartPair;
+import thmp.utils.WordForms.ThmPart;
+
+/**
+ * Compact posting lists for the word-thm index used by intersection search.
+ * Replaces the Multimap<String, IndexPartPair> at search time, where every
+ * posting is a boxed object with its own byte array.
+ *
+ * For each term, postings are sorted by thm index, and thm indices are delta-encoded
+ * relative to the previous posting of the same term. The thm part, thm type, and
+ * word indices in thm are packed into parallel primitive arrays. Postings are read
+ * through a reusable PostingCursor, which allocates nothing per posting.
+ *
+ * Immutable once built, so can be shared across search threads. Cursors are *not*
+ * thread-safe, each search should create its own.
+ *
+ * Every SKIP_INTERVAL postings of a term, a skip entry records the thm index and word-index
+ * start, so PostingCursor.skipTo() can jump over postings without decoding them.
+ *
+ * A ShardTable splits the thm index space into contiguous shards, so cursors can iterate
+ * the postings of one shard only, for sharded intersection search.
+ *
+ * DecodedTerms holds the postings of some terms with thm indices already decoded, so the
+ * postings of terms shared by many queries, e.g. in a batch, are decoded once.
+ */
+public class WordThmsPostingIndex {
+
+	private static final ThmPart[] THM_PART_AR = ThmPart.values();
+	//number of postings between skip entries
+	private static final int SKIP_INTERVAL = 64;
+	private static final Comparator<IndexPartPair> THM_INDEX_COMPARATOR = new Comparator<IndexPartPair>() {
+		@Override
+		public int compare(IndexPartPair p1, IndexPartPair p2) {
+			return Integer.compare(p1.thmIndex(), p2.thmIndex());
+		}
+	};
+
+	/**map of term and its term id, which indexes into termPostingStartAr and termWordIndexStartAr*/
+	private final Map<String, Integer> termIdMap;
+	/**start of postings for each term id, length numTerms+1 */
+	private final int[] termPostingStartAr;
+	/**start of word indices for each term id in wordIndexAr, length numTerms+1 */
+	private final int[] termWordIndexStartAr;
+	/**thm index deltas, first posting of each term is absolute*/
+	private final int[] thmIndexDeltaAr;
+	/**ordinal of ThmPart for each posting*/
+	private final byte[] thmPartAr;
+	/**thm type char for each posting, e.g. 'T', 'D'. All descriptor chars are ASCII upper-case.*/
+	private final byte[] thmTypeAr;
+	/**number of word indices for each posting*/
+	private final byte[] wordIndexCountAr;
+	/**word indices in thm, concatenated for all postings*/
+	private final byte[] wordIndexAr;
+	/**start of skip entries for each term id, length numTerms+1. Entry k of a term is for 
+	 its posting (k+1)*SKIP_INTERVAL */
+	private final int[] termSkipStartAr;
+	/**absolute thm index of the posting before the skip entry's posting*/
+	private final int[] skipThmIndexAr;
+	/**start of word indices of the skip entry's posting*/
+	private final int[] skipWordIndexStartAr;
+
+	private WordThmsPostingIndex(Map<String, Integer> termIdMap, int[] termPostingStartAr,
+			int[] termWordIndexStartAr, int[] thmIndexDeltaAr, byte[] thmPartAr, byte[] thmTypeAr,
+			byte[] wordIndexCountAr, byte[] wordIndexAr, int[] termSkipStartAr, int[] skipThmIndexAr,
+			int[] skipWordIndexStartAr) {
+		this.termIdMap = termIdMap;
+		this.termPostingStartAr = termPostingStartAr;
+		this.termWordIndexStartAr = termWordIndexStartAr;
+		this.thmIndexDeltaAr = thmIndexDeltaAr;
+		this.thmPartAr = thmPartAr;
+		this.thmTypeAr = thmTypeAr;
+		this.wordIndexCountAr = wordIndexCountAr;
+		this.wordIndexAr = wordIndexAr;
+		this.termSkipStartAr = termSkipStartAr;
+		this.skipThmIndexAr = skipThmIndexAr;
+		this.skipWordIndexStartAr = skipWordIndexStartAr;
+	}
+
+	/**
+	 * Builds posting index from the word-thm index multimap, as deserialized from
+	 * wordThmIndexMMap.dat. The multimap can be discarded afterwards.
+	 * @param wordThmsIndexMMap
+	 * @return
+	 */
+	public static WordThmsPostingIndex create(Multimap<String, IndexPartPair> wordThmsIndexMMap) {
+
+		Map<String, Collection<IndexPartPair>> wordThmsMap = wordThmsIndexMMap.asMap();
+		int numTerms = wordThmsMap.size();
+		int numPostings = wordThmsIndexMMap.size();
+		int numWordIndices = 0;
+		for(IndexPartPair pair : wordThmsIndexMMap.values()) {
+			numWordIndices += Math.min(pair.wordIndexAr().length, Byte.MAX_VALUE);
+		}
+
+		Map<String, Integer> termIdMap = new HashMap<String, Integer>(numTerms * 4 / 3 + 1);
+		int[] termPostingStartAr = new int[numTerms + 1];
+		int[] termWordIndexStartAr = new int[numTerms + 1];
+		int[] thmIndexDeltaAr = new int[numPostings];
+		byte[] thmPartAr = new byte[numPostings];
+		byte[] thmTypeAr = new byte[numPostings];
+		byte[] wordIndexCountAr = new byte[numPostings];
+		byte[] wordIndexAr = new byte[numWordIndices];
+		int numSkips = 0;
+		for(Collection<IndexPartPair> postings : wordThmsMap.values()) {
+			numSkips += (postings.size() - 1) / SKIP_INTERVAL;
+		}
+		int[] termSkipStartAr = new int[numTerms + 1];
+		int[] skipThmIndexAr = new int[numSkips];
+		int[] skipWordIndexStartAr = new int[numSkips];
+		int skipCounter = 0;
+
+		List<IndexPartPair> postingList = new ArrayList<IndexPartPair>();
+		int termId = 0;
+		int postingCounter = 0;
+		int wordIndexCounter = 0;
+
+		for(Map.Entry<String, Collection<IndexPartPair>> entry : wordThmsMap.entrySet()) {
+			termIdMap.put(entry.getKey(), termId);
+			termPostingStartAr[termId] = postingCounter;
+			termWordIndexStartAr[termId] = wordIndexCounter;
+			termSkipStartAr[termId] = skipCounter;
+
+			postingList.clear();
+			postingList.addAll(entry.getValue());
+			//stable, so relative order of postings with the same thm index is kept.
+			Collections.sort(postingList, THM_INDEX_COMPARATOR);
+
+			int prevThmIndex = 0;
+			int postingIndexInTerm = 0;
+			for(IndexPartPair pair : postingList) {
+				int thmIndex = pair.thmIndex();
+				if(postingIndexInTerm > 0 && postingIndexInTerm % SKIP_INTERVAL == 0) {
+					skipThmIndexAr[skipCounter] = prevThmIndex;
+					skipWordIndexStartAr[skipCounter] = wordIndexCounter;
+					skipCounter++;
+				}
+				postingIndexInTerm++;
+				thmIndexDeltaAr[postingCounter] = thmIndex - prevThmIndex;
+				prevThmIndex = thmIndex;
+				thmPartAr[postingCounter] = (byte)pair.thmPart().ordinal();
+				thmTypeAr[postingCounter] = (byte)pair.thmType();
+
+				byte[] pairWordIndexAr = pair.wordIndexAr();
+				int wordIndexLen = Math.min(pairWordIndexAr.length, Byte.MAX_VALUE);
+				wordIndexCountAr[postingCounter] = (byte)wordIndexLen;
+				System.arraycopy(pairWordIndexAr, 0, wordIndexAr, wordIndexCounter, wordIndexLen);
+				wordIndexCounter += wordIndexLen;
+				postingCounter++;
+			}
+			termId++;
+		}
+		termPostingStartAr[numTerms] = postingCounter;
+		termWordIndexStartAr[numTerms] = wordIndexCounter;
+		termSkipStartAr[numTerms] = skipCounter;
+
+		return new WordThmsPostingIndex(termIdMap, termPostingStartAr, termWordIndexStartAr,
+				thmIndexDeltaAr, thmPartAr, thmTypeAr, wordIndexCountAr, wordIndexAr,
+				termSkipStartAr, skipThmIndexAr, skipWordIndexStartAr);
+	}
+
+	/**
+	 * Number of thms containing term, 0 if term not in index.
+	 * @param term
+	 * @return
+	 */
+	public int postingCount(String term) {
+		Integer termId = termIdMap.get(term);
+		if(null == termId) {
+			return 0;
+		}
+		return termPostingStartAr[termId + 1] - termPostingStartAr[termId];
+	}
+
+	public boolean containsTerm(String term) {
+		return postingCount(term) > 0;
+	}
+
+	public int numTerms() {
+		return termIdMap.size();
+	}
+
+	public int numPostings() {
+		return thmIndexDeltaAr.length;
+	}
+
+	/**
+	 * Creates new cursor, not positioned on any term. Call reset(term) before iterating.
+	 * @return
+	 */
+	public PostingCursor cursor() {
+		return new PostingCursor();
+	}
+
+	/**
+	 * Creates new cursor positioned before first posting of term.
+	 * @param term
+	 * @return
+	 */
+	public PostingCursor cursor(String term) {
+		PostingCursor cursor = new PostingCursor();
+		cursor.reset(term);
+		return cursor;
+	}
+
+	/**
+	 * Decodes the postings of terms, for cursors to read through setDecodedTerms().
+	 * Terms not in the index are skipped.
+	 * @param terms
+	 * @return
+	 */
+	public DecodedTerms decode(Collection<String> terms) {
+		Map<Integer, DecodedTerm> decodedTermMap = new HashMap<Integer, DecodedTerm>();
+		PostingCursor cursor = new PostingCursor();
+		for(String term : terms) {
+			Integer termId = termIdMap.get(term);
+			if(null == termId || decodedTermMap.containsKey(termId)) {
+				continue;
+			}
+			int postingCount = cursor.reset(term);
+			int[] thmIndexAr = new int[postingCount];
+			int[] wordIndexStartAr = new int[postingCount];
+			for(int k = 0; cursor.next(); k++) {
+				thmIndexAr[k] = cursor.curThmIndex;
+				wordIndexStartAr[k] = cursor.curWordIndexStart;
+			}
+			decodedTermMap.put(termId, new DecodedTerm(thmIndexAr, wordIndexStartAr));
+		}
+		return new DecodedTerms(decodedTermMap);
+	}
+
+	/**
+	 * Absolute thm indices, and starts of word indices in wordIndexAr, of a term's postings.
+	 */
+	private static class DecodedTerm {
+		final int[] thmIndexAr;
+		final int[] wordIndexStartAr;
+
+		DecodedTerm(int[] thmIndexAr, int[] wordIndexStartAr) {
+			this.thmIndexAr = thmIndexAr;
+			this.wordIndexStartAr = wordIndexStartAr;
+		}
+	}
+
+	/**
+	 * Postings of a set of terms, decoded by decode(). Immutable, so can be shared across 
+	 * search threads. Only valid for cursors of the index that created it.
+	 */
+	public class DecodedTerms {
+
+		private final Map<Integer, DecodedTerm> decodedTermMap;
+
+		private DecodedTerms(Map<Integer, DecodedTerm> decodedTermMap) {
+			this.decodedTermMap = decodedTermMap;
+		}
+
+		public int numTerms() {
+			return decodedTermMap.size();
+		}
+	}
+
+	/**
+	 * Creates table splitting the thm index space into numShards contiguous shards of 
+	 * about equal size, see PostingCursor.reset(String, ShardTable, int).
+	 * @param numShards
+	 * @return
+	 */
+	public ShardTable createShardTable(int numShards) {
+		return new ShardTable(numShards);
+	}
+
+	/**
+	 * Thm index ranges of shards, and for terms with long posting lists, the posting 
+	 * in each shard to start from, so cursors don't decode postings of preceding shards.
+	 * Short posting lists are skipped through from the start of the term.
+	 */
+	public class ShardTable {
+
+		//terms with fewer postings don't get an entry
+		private static final int MIN_POSTINGS_FOR_ENTRY = 2048;
+		private final int numShards;
+		/**first thm index of each shard, length numShards+1, last element is past the largest thm index*/
+		private final int[] shardStartThmAr;
+		/**row in the tables below for each term id, -1 if term has no entry*/
+		private final int[] termRowAr;
+		//row*numShards + shard
+		private final int[] shardPostingStartAr;
+		private final int[] shardWordIndexStartAr;
+		//absolute thm index of the posting before the shard's first posting, for delta decoding.
+		private final int[] shardPrevThmIndexAr;
+
+		private ShardTable(int numShards_) {
+			if(numShards_ < 1) {
+				throw new IllegalArgumentException("Number of shards must be positive: " + numShards_);
+			}
+			this.numShards = numShards_;
+			int numTerms = termPostingStartAr.length - 1;
+			int maxThmIndex = 0;
+			int numRows = 0;
+			termRowAr = new int[numTerms];
+			for(int termId = 0; termId < numTerms; termId++) {
+				int thmIndex = 0;
+				for(int pos = termPostingStartAr[termId]; pos < termPostingStartAr[termId + 1]; pos++) {
+					thmIndex += thmIndexDeltaAr[pos];
+				}
+				//postings are sorted, so last one is largest
+				maxThmIndex = Math.max(maxThmIndex, thmIndex);
+				boolean hasEntry = termPostingStartAr[termId + 1] - termPostingStartAr[termId] >= MIN_POSTINGS_FOR_ENTRY;
+				termRowAr[termId] = hasEntry ? numRows++ : -1;
+			}
+			shardStartThmAr = new int[numShards + 1];
+			long thmIndexBound = maxThmIndex + 1L;
+			for(int s = 0; s <= numShards; s++) {
+				shardStartThmAr[s] = (int)(thmIndexBound * s / numShards);
+			}
+			shardPostingStartAr = new int[numRows * numShards];
+			shardWordIndexStartAr = new int[numRows * numShards];
+			shardPrevThmIndexAr = new int[numRows * numShards];
+			for(int termId = 0; termId < numTerms; termId++) {
+				int row = termRowAr[termId];
+				if(row < 0) {
+					continue;
+				}
+				int pos = termPostingStartAr[termId];
+				int end = termPostingStartAr[termId + 1];
+				int wordIndexPos = termWordIndexStartAr[termId];
+				int prevThmIndex = 0;
+				for(int s = 0; s < numShards; s++) {
+					int shardStart = shardStartThmAr[s];
+					while(pos < end && prevThmIndex + thmIndexDeltaAr[pos] < shardStart) {
+						prevThmIndex += thmIndexDeltaAr[pos];
+						wordIndexPos += wordIndexCountAr[pos];
+						pos++;
+					}
+					shardPostingStartAr[row * numShards + s] = pos;
+					shardWordIndexStartAr[row * numShards + s] = wordIndexPos;
+					shardPrevThmIndexAr[row * numShards + s] = prevThmIndex;
+				}
+			}
+		}
+
+		public int numShards() {
+			return numShards;
+		}
+
+		/**
+		 * First thm index in shard.
+		 * @param shard
+		 * @return
+		 */
+		public int shardStart(int shard) {
+			return shardStartThmAr[shard];
+		}
+
+		/**
+		 * One past the last thm index in shard.
+		 * @param shard
+		 * @return
+		 */
+		public int shardEnd(int shard) {
+			return shardStartThmAr[shard + 1];
+		}
+	}
+
+	/**
+	 * Approximate heap footprint of the primitive arrays, excluding the term map.
+	 * @return
+	 */
+	public long postingArraysBytes() {
+		return 4L * (termPostingStartAr.length + termWordIndexStartAr.length + thmIndexDeltaAr.length
+				+ termSkipStartAr.length + skipThmIndexAr.length + skipWordIndexStartAr.length)
+				+ thmPartAr.length + thmTypeAr.length + wordIndexCountAr.length + wordIndexAr.length;
+	}
+
+	/**
+	 * Cursor over the postings of one term. Usage:
+	 * <pre>
+	 * cursor.reset(term);
+	 * while(cursor.next()){ int thmIndex = cursor.thmIndex(); ... }
+	 * </pre>
+	 * Reusable across terms, allocation-free while iterating.
+	 */
+	public class PostingCursor {
+
+		private int postingPos;
+		private int postingEnd;
+		//first posting and skip entries of current term
+		private int termPostingStart;
+		private int skipStart;
+		private int skipEnd;
+		private int curThmIndex;
+		//only postings with thm index in [minThmIndex, maxThmIndex) are visited.
+		private int minThmIndex;
+		private int maxThmIndex;
+		//start of current posting's word indices in wordIndexAr
+		private int curWordIndexStart;
+		//start of next posting's word indices in wordIndexAr
+		private int nextWordIndexStart;
+		//if not null, terms in it are read from their decoded postings.
+		private DecodedTerms decodedTerms;
+		//decoded postings of current term, indexed by posting minus termPostingStart. Null if not decoded.
+		private int[] decodedThmIndexAr;
+		private int[] decodedWordIndexStartAr;
+
+		private PostingCursor() {
+			this.postingPos = 0;
+			this.postingEnd = 0;
+		}
+
+		/**
+		 * Terms decoded in decodedTerms are read from there, from the next reset() on. 
+		 * Iteration is the same as for the encoded postings.
+		 * @param decodedTerms created by the same index, or null to read all terms from the index.
+		 */
+		public void setDecodedTerms(DecodedTerms decodedTerms) {
+			this.decodedTerms = decodedTerms;
+		}
+
+		/**
+		 * Positions cursor before first posting of term.
+		 * @param term
+		 * @return number of postings for term, 0 if term not in index.
+		 */
+		public int reset(String term) {
+			minThmIndex = Integer.MIN_VALUE;
+			maxThmIndex = Integer.MAX_VALUE;
+			decodedThmIndexAr = null;
+			decodedWordIndexStartAr = null;
+			Integer termId = termIdMap.get(term);
+			if(null == termId) {
+				postingPos = 0;
+				postingEnd = 0;
+				skipStart = 0;
+				skipEnd = 0;
+				return 0;
+			}
+			if(null != decodedTerms) {
+				DecodedTerm decodedTerm = decodedTerms.decodedTermMap.get(termId);
+				if(null != decodedTerm) {
+					decodedThmIndexAr = decodedTerm.thmIndexAr;
+					decodedWordIndexStartAr = decodedTerm.wordIndexStartAr;
+				}
+			}
+			termPostingStart = termPostingStartAr[termId];
+			skipStart = termSkipStartAr[termId];
+			skipEnd = termSkipStartAr[termId + 1];
+			postingEnd = termPostingStartAr[termId + 1];
+			//one before first, so first next() lands on first posting
+			postingPos = termPostingStartAr[termId] - 1;
+			curThmIndex = 0;
+			nextWordIndexStart = termWordIndexStartAr[termId];
+			curWordIndexStart = nextWordIndexStart;
+			return postingEnd - postingPos - 1;
+		}
+
+		/**
+		 * Positions cursor before first posting of term in given shard. next() only
+		 * visits postings with thm indices in the shard.
+		 * @param term
+		 * @param shardTable table created by the same index.
+		 * @param shard
+		 */
+		public void reset(String term, ShardTable shardTable, int shard) {
+			reset(term);
+			minThmIndex = shardTable.shardStartThmAr[shard];
+			maxThmIndex = shardTable.shardStartThmAr[shard + 1];
+			Integer termId = termIdMap.get(term);
+			if(null == termId) {
+				return;
+			}
+			if(null != decodedThmIndexAr) {
+				postingPos = termPostingStart + lowerBound(decodedThmIndexAr, 0, minThmIndex) - 1;
+				return;
+			}
+			int row = shardTable.termRowAr[termId];
+			if(row >= 0) {
+				int entry = row * shardTable.numShards + shard;
+				postingPos = shardTable.shardPostingStartAr[entry] - 1;
+				curThmIndex = shardTable.shardPrevThmIndexAr[entry];
+				nextWordIndexStart = shardTable.shardWordIndexStartAr[entry];
+				curWordIndexStart = nextWordIndexStart;
+			}
+		}
+
+		/**
+		 * Advances to next posting.
+		 * @return false if no more postings.
+		 */
+		public boolean next() {
+			do {
+				if(postingPos + 1 >= postingEnd) {
+					postingPos = postingEnd;
+					return false;
+				}
+				postingPos++;
+				if(null == decodedThmIndexAr) {
+					curThmIndex += thmIndexDeltaAr[postingPos];
+					curWordIndexStart = nextWordIndexStart;
+					nextWordIndexStart += wordIndexCountAr[postingPos];
+				}else {
+					curThmIndex = decodedThmIndexAr[postingPos - termPostingStart];
+					curWordIndexStart = decodedWordIndexStartAr[postingPos - termPostingStart];
+				}
+			} while(curThmIndex < minThmIndex);
+			if(curThmIndex >= maxThmIndex) {
+				//sorted, so no more postings in range
+				postingPos = postingEnd;
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Advances to the next posting with thm index at least targetThmIndex, using skip 
+		 * entries to jump over postings. Always moves past the current posting.
+		 * @param targetThmIndex
+		 * @return false if no more such postings.
+		 */
+		public boolean skipTo(int targetThmIndex) {
+			if(null != decodedThmIndexAr) {
+				//first posting after the current one that is at least target
+				int from = postingPos + 1 - termPostingStart;
+				if(from < decodedThmIndexAr.length) {
+					postingPos = termPostingStart + lowerBound(decodedThmIndexAr, from, targetThmIndex) - 1;
+				}
+				return next() && curThmIndex >= targetThmIndex;
+			}
+			//last skip entry whose preceding posting is before target
+			int lo = skipStart;
+			int hi = skipEnd - 1;
+			int skip = -1;
+			while(lo <= hi) {
+				int mid = (lo + hi) >>> 1;
+				if(skipThmIndexAr[mid] < targetThmIndex) {
+					skip = mid;
+					lo = mid + 1;
+				}else {
+					hi = mid - 1;
+				}
+			}
+			if(skip >= 0) {
+				//the posting right before the skip entry's posting
+				int skipPostingPos = termPostingStart + (skip - skipStart + 1) * SKIP_INTERVAL - 1;
+				if(skipPostingPos > postingPos) {
+					postingPos = skipPostingPos;
+					curThmIndex = skipThmIndexAr[skip];
+					nextWordIndexStart = skipWordIndexStartAr[skip];
+				}
+			}
+			while(next()) {
+				if(curThmIndex >= targetThmIndex) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Position of the first thm index in ar, starting from from, that is at least target,
+		 * ar.length if none is.
+		 */
+		private int lowerBound(int[] ar, int from, int target) {
+			int lo = from;
+			int hi = ar.length;
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if(ar[mid] < target) {
+					lo = mid + 1;
+				}else {
+					hi = mid;
+				}
+			}
+			return lo;
+		}
+
+		public int thmIndex() {
+			return curThmIndex;
+		}
+
+		public ThmPart thmPart() {
+			return THM_PART_AR[thmPartAr[postingPos]];
+		}
+
+		/**
+		 * If in hypothetical/contextual part.
+		 * @return
+		 */
+		public boolean isContextPart() {
+			return THM_PART_AR[thmPartAr[postingPos]] == ThmPart.HYP;
+		}
+
+		public char thmType() {
+			return (char)thmTypeAr[postingPos];
+		}
+
+		/**
+		 * Number of recorded indices of the term in current thm.
+		 * @return
+		 */
+		public int wordIndexCount() {
+			return wordIndexCountAr[postingPos];
+		}
+
+		/**
+		 * i'th index of the term in current thm.
+		 * @param i
+		 * @return
+		 */
+		public byte wordIndexAt(int i) {
+			return wordIndexAr[curWordIndexStart + i];
+		}
+
+		/**
+		 * Adds current thm part to map, only overrides if not already STM.
+		 * Analogous to IndexPartPair.addToMap().
+		 * @param thmIndexPartMap
+		 */
+		public void addToMap(Map<Integer, ThmPart> thmIndexPartMap) {
+			ThmPart part = thmIndexPartMap.get(curThmIndex);
+			if(ThmPart.STM != part) {
+				thmIndexPartMap.put(curThmIndex, thmPart());
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package thmp.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimap;
+
+import thmp.search.CollectThm.ThmWordsMaps.IndexPartPair;
+import thmp.utils.BinaryDataFile;
+import thmp.utils.FileUtils;
+import thmp.utils.GatherRelatedWords.RelatedWords;
+import thmp.utils.WordForms.ThmPart;
+
+/**
+ * Round trips through BinaryDataFile, and reading converted files through FileUtils.
+ */
+public class TestBinaryDataFile {
+
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("testBinaryDataFile", ".dat");
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+		//write() shouldn't leave its temp file behind, even if it fails
+		File tempFile = new File(file.getPath() + ".tmp");
+		boolean tempFileLeft = tempFile.exists();
+		tempFile.delete();
+		Assert.assertFalse("Temp file left behind: " + tempFile, tempFileLeft);
+	}
+
+	@Test
+	public void test1() {
+		Map<String, Integer> map = new HashMap<String, Integer>();
+		map.put("field", 3);
+		map.put("kähler manifold", -2);
+		map.put("", Integer.MAX_VALUE);
+		List<Map<String, Integer>> mapList = new ArrayList<Map<String, Integer>>();
+		mapList.add(map);
+		BinaryDataFile.write(mapList, "list<map<string,int>>", file.getPath());
+
+		Assert.assertTrue(BinaryDataFile.isBinaryDataFile(file.getPath()));
+		Assert.assertEquals(mapList, FileUtils.deserializeListFromFile(file.getPath()));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void test2() {
+		ListMultimap<String, IndexPartPair> mmap = ArrayListMultimap.create();
+		mmap.put("ring", new IndexPartPair(7, ThmPart.HYP, 'L', new byte[]{1, -1, 4}));
+		mmap.put("ring", new IndexPartPair(300000, ThmPart.STM, new byte[]{0}));
+		mmap.put("ideal", new IndexPartPair(0, ThmPart.STM, new byte[0]));
+		List<Multimap<String, IndexPartPair>> mmapList = new ArrayList<Multimap<String, IndexPartPair>>();
+		mmapList.add(mmap);
+		BinaryDataFile.write(mmapList, BinaryDataFile.WORD_THM_INDEX_SCHEMA, file.getPath());
+
+		Multimap<String, IndexPartPair> readMMap = ((List<Multimap<String, IndexPartPair>>)
+				BinaryDataFile.read(file.getPath())).get(0);
+		List<IndexPartPair> ringList = new ArrayList<IndexPartPair>(readMMap.get("ring"));
+		Assert.assertEquals(3, readMMap.size());
+		Assert.assertEquals(7, ringList.get(0).thmIndex());
+		Assert.assertEquals(ThmPart.HYP, ringList.get(0).thmPart());
+		Assert.assertEquals('L', ringList.get(0).thmType());
+		Assert.assertArrayEquals(new byte[]{1, -1, 4}, ringList.get(0).wordIndexAr());
+		Assert.assertEquals(300000, ringList.get(1).thmIndex());
+		Assert.assertEquals('T', ringList.get(1).thmType());
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void test3() {
+		Map<String, RelatedWords> map = new HashMap<String, RelatedWords>();
+		map.put("ideal", new RelatedWords(Arrays.asList("submodule"), null, Arrays.asList("ring", "quotient")));
+		List<Map<String, RelatedWords>> mapList = new ArrayList<Map<String, RelatedWords>>();
+		mapList.add(map);
+		BinaryDataFile.write(mapList, "list<map<string,relatedWords>>", file.getPath());
+
+		RelatedWords relatedWords = ((List<Map<String, RelatedWords>>)BinaryDataFile.read(file.getPath())).get(0).get("ideal");
+		Assert.assertEquals(Arrays.asList("submodule"), relatedWords.getSynonymsList());
+		Assert.assertTrue(relatedWords.getAntonymsList().isEmpty());
+		Assert.assertEquals(Arrays.asList("submodule", "ring", "quotient"), relatedWords.getCombinedList());
+	}
+
+	/**
+	 * Values that don't match the schema are rejected.
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void test4() {
+		List<String> list = new ArrayList<String>();
+		list.add("field");
+		BinaryDataFile.write(list, "list<int>", file.getPath());
+	}
+}
@@ -0,0 +1,159 @@
+package thmp.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import thmp.parse.RelationVec;
+import thmp.search.ContextRelationVecStore;
+import thmp.search.TheoremGet.ContextRelationVecPair;
+
+/**
+ * Round trip of vec pairs through ContextRelationVecStore, and its scoring against the
+ * Map and Set vecs it's written from.
+ */
+public class TestContextRelationVecStore {
+
+	private static final int THM_COUNT = 300;
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("testContextRelationVecs", ContextRelationVecStore.FILE_EXT);
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Test
+	public void test1() throws IOException {
+		Random rand = new Random(11);
+		List<ContextRelationVecPair> list = randomVecPairList(rand);
+		//thm without vecs, stored as empty
+		list.add(null);
+		ContextRelationVecStore.writeToFile(list, file.getPath());
+
+		ContextRelationVecStore store = ContextRelationVecStore.load(file.getPath());
+		Assert.assertEquals(list.size(), store.size());
+		for(int i = 0; i < THM_COUNT; i++) {
+			ContextRelationVecPair storePair = store.get(i);
+			Assert.assertEquals(list.get(i).contextVecMap(), storePair.contextVecMap());
+			Assert.assertEquals(list.get(i).relationVec(), storePair.relationVec());
+		}
+		Assert.assertTrue(store.get(THM_COUNT).contextVecMap().isEmpty());
+		Assert.assertTrue(store.get(THM_COUNT).relationVec().isEmpty());
+
+		for(int n = 0; n < 20; n++) {
+			Map<Integer, Integer> queryContextVecMap = randomContextVecMap(rand);
+			int[] queryKeys = ContextRelationVecStore.sortedContextQueryKeys(queryContextVecMap);
+			int[] queryVals = ContextRelationVecStore.contextQueryVals(queryContextVecMap, queryKeys);
+			for(int i = 0; i < THM_COUNT; i++) {
+				Assert.assertEquals(contextMatchCount(queryContextVecMap, list.get(i).contextVecMap()),
+						store.contextMatchCount(i, queryKeys, queryVals));
+			}
+		}
+	}
+
+	@Test
+	public void test2() throws IOException {
+		//empty bundle
+		ContextRelationVecStore.writeToFile(Collections.<ContextRelationVecPair>emptyList(), file.getPath());
+		ContextRelationVecStore store = ContextRelationVecStore.load(file.getPath());
+		Assert.assertEquals(0, store.size());
+		try {
+			store.get(0);
+			Assert.fail("get(0) on empty store");
+		}catch(IndexOutOfBoundsException e) {
+			//expected
+		}
+	}
+
+	@Test
+	public void test3() throws IOException {
+		//relation distances from the store are those of RelationVec
+		Random rand = new Random(17);
+		List<ContextRelationVecPair> list = randomVecPairList(rand);
+		ContextRelationVecStore.writeToFile(list, file.getPath());
+		ContextRelationVecStore store = ContextRelationVecStore.load(file.getPath());
+
+		int[] indexAr = new int[THM_COUNT];
+		for(int i = 0; i < THM_COUNT; i++) {
+			indexAr[i] = THM_COUNT - 1 - i;
+		}
+		int[] missCountAr = new int[THM_COUNT];
+		for(int n = 0; n < 20; n++) {
+			Set<Integer> queryRelationVec = randomRelationVec(rand);
+			if(n == 0) {
+				queryRelationVec.clear();
+			}else if(n == 1) {
+				//bits past the last word of every thm
+				queryRelationVec.add(1000);
+			}
+			long[] queryWords = ContextRelationVecStore.relationQueryWords(queryRelationVec);
+			int queryBitCount = ContextRelationVecStore.bitCount(queryWords);
+			Assert.assertEquals(queryRelationVec.size(), queryBitCount);
+			store.relationMissCounts(indexAr, 0, THM_COUNT, queryWords, queryBitCount, missCountAr);
+			for(int i = 0; i < THM_COUNT; i++) {
+				int dist = RelationVec.hammingDistanceForSets(queryRelationVec, list.get(i).relationVec());
+				Assert.assertEquals(dist, store.relationMissCount(i, queryWords, queryBitCount));
+				Assert.assertEquals(dist, missCountAr[THM_COUNT - 1 - i]);
+			}
+		}
+	}
+
+	/**
+	 * Same count as ContextSearch, entries with equal positive values.
+	 */
+	private static int contextMatchCount(Map<Integer, Integer> queryContextVecMap, Map<Integer, Integer> thmContextVecMap) {
+		int count = 0;
+		for(Map.Entry<Integer, Integer> entry : queryContextVecMap.entrySet()) {
+			Integer thmVal = thmContextVecMap.get(entry.getKey());
+			if(null != thmVal && thmVal.equals(entry.getValue()) && thmVal > 0) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private static List<ContextRelationVecPair> randomVecPairList(Random rand) {
+		List<ContextRelationVecPair> list = new ArrayList<ContextRelationVecPair>();
+		for(int i = 0; i < THM_COUNT; i++) {
+			list.add(new ContextRelationVecPair(randomContextVecMap(rand), randomRelationVec(rand)));
+		}
+		return list;
+	}
+
+	private static Map<Integer, Integer> randomContextVecMap(Random rand) {
+		Map<Integer, Integer> map = new HashMap<Integer, Integer>();
+		int size = rand.nextInt(12);
+		for(int j = 0; j < size; j++) {
+			//small key and value ranges so query and thm vecs overlap
+			map.put(rand.nextInt(60), rand.nextInt(5) - 1);
+		}
+		return map;
+	}
+
+	private static Set<Integer> randomRelationVec(Random rand) {
+		Set<Integer> set = new HashSet<Integer>();
+		int size = rand.nextInt(10);
+		for(int j = 0; j < size; j++) {
+			//spans several 64-bit words
+			set.add(rand.nextInt(300));
+		}
+		return set;
+	}
+}
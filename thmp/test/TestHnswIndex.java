@@ -0,0 +1,228 @@
+package thmp.test;
+
+import static org.junit.Assert.*;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import thmp.search.HnswIndex;
+
+/**
+ * Tests HnswIndex against nearest vecs found by scanning all vecs, and that indices
+ * read back from their memory-mapped files as written. Vecs are seeded random points
+ * around cluster centers, like the projected thm vecs.
+ */
+public class TestHnswIndex {
+
+	private static final int DIM = 35;
+	private static final int NUM_CLUSTERS = 50;
+	private static final int NUM_NEAREST = 30;
+	//thm index of the first vec, so thm indices differ from node indices
+	private static final int FIRST_THM_INDEX = 1000;
+	private static final double MIN_RECALL = 0.95;
+
+	private File indexFile;
+
+	@Before
+	public void setUp() throws IOException {
+		indexFile = File.createTempFile("testHnswIndex", ".hnsw");
+	}
+
+	@After
+	public void tearDown() {
+		indexFile.delete();
+	}
+
+	private static float[][] clusterCenters(Random rand) {
+		float[][] centerAr = new float[NUM_CLUSTERS][DIM];
+		for(float[] center : centerAr) {
+			for(int i = 0; i < DIM; i++) {
+				center[i] = (float)rand.nextGaussian();
+			}
+		}
+		return centerAr;
+	}
+
+	private static float[] vecs(int numVecs, float[][] centerAr, Random rand) {
+		float[] vecs = new float[numVecs*DIM];
+		for(int v = 0; v < numVecs; v++) {
+			float[] center = centerAr[rand.nextInt(NUM_CLUSTERS)];
+			for(int i = 0; i < DIM; i++) {
+				vecs[v*DIM + i] = center[i] + 0.4f*(float)rand.nextGaussian();
+			}
+		}
+		return vecs;
+	}
+
+	private static HnswIndex.Builder builder(float[] vecs) {
+		HnswIndex.Builder builder = new HnswIndex.Builder(DIM);
+		for(int v = 0; v < vecs.length/DIM; v++) {
+			builder.add(vecs, v*DIM, FIRST_THM_INDEX + v);
+		}
+		return builder;
+	}
+
+	private static double distanceSq(float[] vecs, int v, double[] query) {
+		double sum = 0;
+		for(int i = 0; i < DIM; i++) {
+			double diff = vecs[v*DIM + i] - query[i];
+			sum += diff*diff;
+		}
+		return sum;
+	}
+
+	/**
+	 * Thm indices of the numNearest vecs nearest to query, by scan.
+	 */
+	private static List<Integer> exactNearest(float[] vecs, double[] query, int numNearest) {
+		int numVecs = vecs.length/DIM;
+		//squared distances in high bits, vec index in low bits, so sorting orders by distance.
+		long[] distIndexAr = new long[numVecs];
+		for(int v = 0; v < numVecs; v++) {
+			distIndexAr[v] = ((long)Float.floatToIntBits((float)distanceSq(vecs, v, query)) << 32) | v;
+		}
+		Arrays.sort(distIndexAr);
+		List<Integer> list = new ArrayList<Integer>(numNearest);
+		for(int i = 0; i < numNearest; i++) {
+			list.add(FIRST_THM_INDEX + (int)distIndexAr[i]);
+		}
+		return list;
+	}
+
+	@Test
+	public void testRecall() throws IOException {
+		Random rand = new Random(41);
+		float[][] centerAr = clusterCenters(rand);
+		float[] vecs = vecs(20000, centerAr, rand);
+		builder(vecs).writeToFile(indexFile.getPath());
+		HnswIndex index = HnswIndex.load(indexFile.getPath());
+		assertEquals(HnswIndex.DEFAULT_EF_SEARCH, index.efSearch());
+
+		int numQueries = 200;
+		long hits = 0;
+		for(int q = 0; q < numQueries; q++) {
+			double[] query = new double[DIM];
+			float[] center = centerAr[rand.nextInt(NUM_CLUSTERS)];
+			for(int i = 0; i < DIM; i++) {
+				query[i] = center[i] + 0.4*rand.nextGaussian();
+			}
+			List<Double> distList = new ArrayList<Double>();
+			List<Integer> nearestList = index.findNearest(query, NUM_NEAREST, Double.MAX_VALUE, distList);
+			assertEquals(NUM_NEAREST, nearestList.size());
+			assertEquals(NUM_NEAREST, distList.size());
+			for(int i = 0; i < NUM_NEAREST; i++) {
+				//distances are of the returned thms, closest first
+				double distSq = distanceSq(vecs, nearestList.get(i) - FIRST_THM_INDEX, query);
+				assertEquals(Math.sqrt(distSq), distList.get(i), 1e-9);
+				if(i > 0) {
+					assertTrue(distList.get(i-1) <= distList.get(i));
+				}
+			}
+			List<Integer> exactList = exactNearest(vecs, query, NUM_NEAREST);
+			for(int thmIndex : nearestList) {
+				if(exactList.contains(thmIndex)) {
+					hits++;
+				}
+			}
+		}
+		double recall = hits/(double)(numQueries*NUM_NEAREST);
+		assertTrue("Recall@" + NUM_NEAREST + " at efSearch " + index.efSearch() + " too low: " + recall,
+				recall >= MIN_RECALL);
+	}
+
+	@Test
+	public void testThreshold() throws IOException {
+		Random rand = new Random(7);
+		float[] vecs = vecs(2000, clusterCenters(rand), rand);
+		builder(vecs).writeToFile(indexFile.getPath());
+		HnswIndex index = HnswIndex.load(indexFile.getPath());
+		double[] query = new double[DIM];
+		for(int i = 0; i < DIM; i++) {
+			query[i] = vecs[i];
+		}
+		List<Double> distList = new ArrayList<Double>();
+		index.findNearest(query, NUM_NEAREST, Double.MAX_VALUE, distList);
+		//between the 10th and 11th nearest
+		double threshold = (distList.get(9) + distList.get(10))/2;
+		distList.clear();
+		List<Integer> nearestList = index.findNearest(query, NUM_NEAREST, threshold, distList);
+		assertEquals(10, nearestList.size());
+		for(double dist : distList) {
+			assertTrue(dist < threshold);
+		}
+	}
+
+	/**
+	 * Each vec read back from the mapped file is its own nearest vec, under its thm index.
+	 */
+	@Test
+	public void testFileRoundTrip() throws IOException {
+		Random rand = new Random(3);
+		float[] vecs = vecs(3000, clusterCenters(rand), rand);
+		HnswIndex.Builder builder = builder(vecs);
+		builder.writeToFile(indexFile.getPath());
+		HnswIndex index = HnswIndex.load(indexFile.getPath());
+		assertEquals(builder.nodeCount(), index.nodeCount());
+		assertEquals(DIM, index.dim());
+		index.setEfSearch(200);
+		assertEquals(200, index.efSearch());
+		for(int v = 0; v < builder.nodeCount(); v++) {
+			double[] query = new double[DIM];
+			for(int i = 0; i < DIM; i++) {
+				query[i] = vecs[v*DIM + i];
+			}
+			List<Double> distList = new ArrayList<Double>();
+			List<Integer> nearestList = index.findNearest(query, 1, Double.MAX_VALUE, distList);
+			assertEquals(Arrays.asList(FIRST_THM_INDEX + v), nearestList);
+			assertEquals(0, distList.get(0), 0);
+		}
+
+		//same seed builds the same graph
+		File rebuiltFile = File.createTempFile("testHnswIndex", ".hnsw");
+		try {
+			builder(vecs).writeToFile(rebuiltFile.getPath());
+			assertArrayEquals(Files.readAllBytes(indexFile.toPath()), Files.readAllBytes(rebuiltFile.toPath()));
+		}finally {
+			rebuiltFile.delete();
+		}
+	}
+
+	@Test
+	public void testEmptyIndex() throws IOException {
+		new HnswIndex.Builder(DIM).writeToFile(indexFile.getPath());
+		HnswIndex index = HnswIndex.load(indexFile.getPath());
+		assertEquals(0, index.nodeCount());
+		assertTrue(index.findNearest(new double[DIM], NUM_NEAREST, Double.MAX_VALUE).isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testQueryDimension() throws IOException {
+		Random rand = new Random(5);
+		builder(vecs(100, clusterCenters(rand), rand)).writeToFile(indexFile.getPath());
+		HnswIndex.load(indexFile.getPath()).findNearest(new double[DIM + 1], NUM_NEAREST, Double.MAX_VALUE);
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotIndexFile() throws IOException {
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(indexFile));
+		try {
+			for(int i = 0; i < 16; i++) {
+				out.writeInt(i);
+			}
+		}finally {
+			out.close();
+		}
+		HnswIndex.load(indexFile.getPath());
+	}
+}
@@ -0,0 +1,117 @@
+package thmp.test;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMultimap;
+
+import thmp.search.CollectThm.ThmWordsMaps.IndexPartPair;
+import thmp.search.ConceptSearch;
+import thmp.search.IndexGeneration;
+import thmp.search.WordThmsPostingIndex;
+import thmp.utils.WordForms.ThmPart;
+
+/**
+ * Tests that searches pinned to a generation keep it across a swap, that it is released once the
+ * last of them exits, and that other threads see the new generation. Generations are over
+ * synthetic posting indices, where the word "banach" is in a different thm in each.
+ */
+public class TestIndexGeneration {
+
+	private static IndexGeneration generation(int banachThmIndex) {
+		ImmutableMultimap.Builder<String, IndexPartPair> builder = ImmutableMultimap.builder();
+		builder.put("banach", new IndexPartPair(banachThmIndex, ThmPart.STM, 'T', new byte[] {0}));
+		return IndexGeneration.forPostingIndex(WordThmsPostingIndex.create(builder.build()), 10);
+	}
+
+	/**
+	 * Thms concept search finds on the generation this thread uses.
+	 */
+	private static List<Integer> banachThms() {
+		return ConceptSearch.getStrictNormalizedWordsThms(Arrays.asList("banach"));
+	}
+
+	@Test
+	public void testPinnedSearchKeepsGeneration() throws Exception {
+		IndexGeneration generation = generation(0);
+		assertSame(generation, IndexGeneration.swapInBackground(generation).get());
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			assertSame(generation, IndexGeneration.enter());
+			//a worker of the search, pinned to its generation
+			final CountDownLatch workerEntered = new CountDownLatch(1);
+			final CountDownLatch workerExit = new CountDownLatch(1);
+			final IndexGeneration pinnedGeneration = generation;
+			Future<List<Integer>> workerFuture = executor.submit(new Callable<List<Integer>>() {
+				public List<Integer> call() throws InterruptedException {
+					IndexGeneration.enter(pinnedGeneration);
+					try {
+						workerEntered.countDown();
+						workerExit.await();
+						return banachThms();
+					}finally {
+						IndexGeneration.exit();
+					}
+				}
+			});
+			workerEntered.await();
+
+			IndexGeneration nextGeneration = generation(1);
+			assertSame(nextGeneration, IndexGeneration.swapInBackground(nextGeneration).get());
+			assertTrue(nextGeneration.id() > generation.id());
+			assertSame(generation, IndexGeneration.forCurrentThread());
+			assertEquals(Arrays.asList(0), banachThms());
+			//nested enter keeps the pinned generation
+			assertSame(generation, IndexGeneration.enter());
+			IndexGeneration.exit();
+
+			//unpinned thread
+			Future<List<Integer>> unpinnedFuture = executor.submit(new Callable<List<Integer>>() {
+				public List<Integer> call() {
+					return banachThms();
+				}
+			});
+			assertEquals(Arrays.asList(1), unpinnedFuture.get());
+			assertSame(nextGeneration, IndexGeneration.current());
+
+			workerExit.countDown();
+			assertEquals(Arrays.asList(0), workerFuture.get());
+			assertFalse(generation.isReleased());
+			IndexGeneration.exit();
+			assertTrue(generation.isReleased());
+			assertFalse(nextGeneration.isReleased());
+			assertSame(nextGeneration, IndexGeneration.forCurrentThread());
+			assertEquals(Arrays.asList(1), banachThms());
+		}finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testReleasedOnSwapWithoutSearches() throws Exception {
+		IndexGeneration generation = generation(2);
+		IndexGeneration.swapInBackground(generation).get();
+		assertFalse(generation.isReleased());
+		IndexGeneration nextGeneration = generation(3);
+		IndexGeneration.swapInBackground(nextGeneration).get();
+		assertTrue(generation.isReleased());
+		try {
+			IndexGeneration.enter(generation);
+			fail("Entered released generation");
+		}catch(IllegalStateException e) {
+			//expected
+		}
+		assertSame(nextGeneration, IndexGeneration.enter());
+		IndexGeneration.exit();
+		assertFalse(nextGeneration.isReleased());
+	}
+}
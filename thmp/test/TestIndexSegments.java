@@ -0,0 +1,165 @@
+package thmp.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+
+import thmp.search.CollectThm;
+import thmp.search.CollectThm.ThmWordsMaps.IndexPartPair;
+import thmp.search.IndexSegments;
+import thmp.search.IndexSegments.Segment;
+import thmp.search.Searcher.SearchConfiguration;
+import thmp.utils.WordForms.ThmPart;
+
+/**
+ * Tests appending segments and compacting them, in a temp directory. Compaction should keep
+ * the postings, with their thm indices, and the bundles covered by the nearest vec index.
+ */
+public class TestIndexSegments {
+
+	private static final String[] THMS = new String[] {
+			"let x be a locally compact hausdorff space",
+			"every finitely generated module over a noetherian ring is noetherian",
+			"a closed subspace of a banach space is a banach space",
+			"the unit ball of a normed linear space is convex"
+	};
+	//bundles of the full build, covered by the nearest vec index
+	private static final int PREV_BUNDLE_NUM = 4;
+	private static final int BUNDLE_THM_COUNT = 250;
+
+	private File dataDir;
+
+	@Before
+	public void setUp() throws Exception {
+		dataDir = Files.createTempDirectory("indexSegments").toFile();
+		IndexSegments.setDataDir(dataDir.getPath() + File.separator);
+	}
+
+	@After
+	public void tearDown() {
+		IndexSegments.setDataDir(null);
+		for(File file : dataDir.listFiles()) {
+			file.delete();
+		}
+		dataDir.delete();
+	}
+
+	/**
+	 * Postings of a segment, as collected by ProjectionMatrix.appendSegment().
+	 */
+	private static Multimap<String, IndexPartPair> segmentPostings(int startThmIndex, int thmCount, Random rand) {
+		HashMultimap<String, IndexPartPair> wordThmsMMap = HashMultimap.create();
+		for(int thmIndex = startThmIndex; thmIndex < startThmIndex + thmCount; thmIndex++) {
+			CollectThm.ThmWordsMaps.addToWordThmIndexMap(wordThmsMMap, THMS[rand.nextInt(THMS.length)],
+					new IndexPartPair(thmIndex, rand.nextInt(3) == 0 ? ThmPart.HYP : ThmPart.STM, 'T'));
+		}
+		return ArrayListMultimap.create(wordThmsMMap);
+	}
+
+	/**
+	 * Postings of each term as sorted strings, since IndexPartPair uses identity equality.
+	 */
+	private static Map<String, List<String>> postingStrings(Multimap<String, IndexPartPair> wordThmsMMap) {
+		Map<String, List<String>> postingMap = new TreeMap<String, List<String>>();
+		for(Map.Entry<String, IndexPartPair> entry : wordThmsMMap.entries()) {
+			IndexPartPair pair = entry.getValue();
+			List<String> postingList = postingMap.get(entry.getKey());
+			if(null == postingList) {
+				postingList = new ArrayList<String>();
+				postingMap.put(entry.getKey(), postingList);
+			}
+			postingList.add(pair.thmIndex() + " " + pair.thmPart() + " " + pair.thmType() + " "
+					+ Arrays.toString(pair.wordIndexAr()));
+		}
+		for(List<String> postingList : postingMap.values()) {
+			Collections.sort(postingList);
+		}
+		return postingMap;
+	}
+
+	private static Map<String, List<String>> segmentPostingStrings() {
+		Multimap<String, IndexPartPair> wordThmsMMap = ArrayListMultimap.create();
+		IndexSegments.addSegmentPostings(wordThmsMMap);
+		return postingStrings(wordThmsMMap);
+	}
+
+	@Test
+	public void testAppendAndCompact() {
+		Random rand = new Random(7);
+		int startThmIndex = PREV_BUNDLE_NUM * BUNDLE_THM_COUNT;
+		Multimap<String, IndexPartPair> postings1 = segmentPostings(startThmIndex, 300, rand);
+		Multimap<String, IndexPartPair> postings2 = segmentPostings(startThmIndex + 300, 200, rand);
+		Multimap<String, IndexPartPair> allPostings = ArrayListMultimap.create(postings1);
+		allPostings.putAll(postings2);
+		Map<String, List<String>> expectedPostingMap = postingStrings(allPostings);
+
+		assertTrue(IndexSegments.read().segmentList().isEmpty());
+		IndexSegments.addSegment(postings1, startThmIndex, 300, PREV_BUNDLE_NUM);
+		IndexSegments.addSegment(postings2, startThmIndex + 300, 200, PREV_BUNDLE_NUM + 2);
+
+		IndexSegments segments = IndexSegments.read();
+		List<Segment> segmentList = segments.segmentList();
+		assertEquals(2, segmentList.size());
+		assertEquals(startThmIndex, segmentList.get(0).startThmIndex());
+		assertEquals(300, segmentList.get(0).thmCount());
+		assertEquals(startThmIndex + 300, segmentList.get(1).startThmIndex());
+		assertEquals(200, segmentList.get(1).thmCount());
+		//index still only covers the bundles of the full build
+		int totalBundleNum = PREV_BUNDLE_NUM + 4;
+		assertEquals(PREV_BUNDLE_NUM, segments.nearestVecIndexBundleCount(totalBundleNum));
+		assertEquals(expectedPostingMap, segmentPostingStrings());
+
+		List<Integer> bundleStartThmIndexList = new ArrayList<Integer>();
+		for(int i = 0; i < totalBundleNum; i++) {
+			bundleStartThmIndexList.add(i * BUNDLE_THM_COUNT);
+		}
+		SearchConfiguration searchConfig = new SearchConfiguration(bundleStartThmIndexList, startThmIndex + 500, 0);
+		IndexSegments.compact(searchConfig);
+
+		segments = IndexSegments.read();
+		segmentList = segments.segmentList();
+		assertEquals(1, segmentList.size());
+		assertEquals(startThmIndex, segmentList.get(0).startThmIndex());
+		assertEquals(500, segmentList.get(0).thmCount());
+		assertEquals(PREV_BUNDLE_NUM, segments.nearestVecIndexBundleCount(totalBundleNum));
+		assertEquals(expectedPostingMap, segmentPostingStrings());
+		//files of the merged segments are deleted
+		List<String> postingsFileList = new ArrayList<String>();
+		for(File file : dataDir.listFiles()) {
+			if(file.getName().endsWith(".dat")) {
+				postingsFileList.add(file.getName());
+			}
+		}
+		assertEquals(Arrays.asList(segmentList.get(0).postingsFileName()), postingsFileList);
+
+		//compacting again leaves the segments as they are
+		IndexSegments.compact(searchConfig);
+		assertEquals(segmentList.get(0).postingsFileName(), IndexSegments.read().segmentList().get(0).postingsFileName());
+		assertEquals(expectedPostingMap, segmentPostingStrings());
+	}
+
+	@Test
+	public void testClear() {
+		IndexSegments.addSegment(segmentPostings(1000, 10, new Random(3)), 1000, 10, PREV_BUNDLE_NUM);
+		assertEquals(1, IndexSegments.read().segmentList().size());
+		IndexSegments.clear();
+		assertTrue(IndexSegments.read().segmentList().isEmpty());
+		assertTrue(segmentPostingStrings().isEmpty());
+	}
+}
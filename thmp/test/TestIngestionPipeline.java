@@ -0,0 +1,166 @@
+package thmp.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import thmp.parse.IngestionPipeline;
+import thmp.parse.IngestionPipeline.Shard;
+
+/**
+ * Tests IngestionPipeline on stub tex files, scraping thm names so no parsing is needed.
+ * Each file names one theorem, "theorem of file<i>", so output order shows file order.
+ */
+public class TestIngestionPipeline {
+
+	private static final Charset CHARSET = Charset.forName("UTF-8");
+	//files between checkpoints, as in IngestionPipeline
+	private static final int CHECKPOINT_FILE_COUNT = 100;
+
+	private Path dirPath;
+
+	@Before
+	public void setUp() throws IOException {
+		dirPath = Files.createTempDirectory("ingestionPipeline");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		deleteDir(dirPath.toFile());
+	}
+
+	private static void deleteDir(File dir) {
+		for(File file : dir.listFiles()) {
+			if(file.isDirectory()) {
+				deleteDir(file);
+			}else {
+				file.delete();
+			}
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Writes stub tex files, the ith with fillerLineCount(i) lines of text without thm names.
+	 * @return file paths and tex file names, in file order.
+	 */
+	private Map<String, String> writeTexFiles(int numFiles, int[] fillerLineCountAr) throws IOException {
+		Map<String, String> texFileNamesMap = new LinkedHashMap<String, String>();
+		for(int i = 0; i < numFiles; i++) {
+			List<String> lineList = new ArrayList<String>();
+			lineList.add("\\begin{proof}");
+			int fillerLineCount = null == fillerLineCountAr ? 0 : fillerLineCountAr[i];
+			for(int j = 0; j < fillerLineCount; j++) {
+				lineList.add("let x be an element of a compact space, and let y be a point of x");
+			}
+			lineList.add("we now use the banach theorem of file" + i + ".");
+			lineList.add("\\end{proof}");
+			Path path = dirPath.resolve("file" + i + ".tex");
+			Files.write(path, lineList, CHARSET);
+			texFileNamesMap.put(path.toString(), "file" + i);
+		}
+		return texFileNamesMap;
+	}
+
+	private static void assertFileOrder(int numFiles, List<String> thmNameList) {
+		assertEquals(numFiles, thmNameList.size());
+		for(int i = 0; i < numFiles; i++) {
+			assertTrue("Thm name out of file order: " + thmNameList.get(i), thmNameList.get(i).endsWith(" file" + i));
+		}
+	}
+
+	private static IngestionPipeline run(Map<String, String> texFileNamesMap, Path checkpointDirPath, int numThreads) {
+		IngestionPipeline pipeline = new IngestionPipeline(texFileNamesMap, checkpointDirPath, true, numThreads);
+		pipeline.run();
+		return pipeline;
+	}
+
+	private static int shardCount(IngestionPipeline pipeline) {
+		int count = 0;
+		for(Shard shard : pipeline.shards()) {
+			assertTrue(shard.thmHypPairList().isEmpty());
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Earlier files are longer, so parse threads finish later files first.
+	 */
+	@Test
+	public void testFileOrder() throws IOException {
+		int numFiles = 24;
+		int[] fillerLineCountAr = new int[numFiles];
+		for(int i = 0; i < numFiles; i++) {
+			fillerLineCountAr[i] = (numFiles - i) * 500;
+		}
+		Map<String, String> texFileNamesMap = writeTexFiles(numFiles, fillerLineCountAr);
+		for(int numThreads : new int[] {1, 4, 8}) {
+			Path checkpointDirPath = Files.createDirectory(dirPath.resolve("checkpoints" + numThreads));
+			IngestionPipeline pipeline = run(texFileNamesMap, checkpointDirPath, numThreads);
+			assertFileOrder(numFiles, pipeline.thmNameList());
+			assertEquals(1, shardCount(pipeline));
+		}
+	}
+
+	/**
+	 * Run resumed after the first two shards were committed, and more files were recorded in the
+	 * manifest without a commit line.
+	 */
+	@Test
+	public void testResume() throws IOException {
+		int numFiles = 250;
+		Map<String, String> texFileNamesMap = writeTexFiles(numFiles, null);
+		IngestionPipeline pipeline = run(texFileNamesMap, Files.createDirectory(dirPath.resolve("checkpoints")), 4);
+		List<String> thmNameList = pipeline.thmNameList();
+		assertFileOrder(numFiles, thmNameList);
+		assertEquals(3, shardCount(pipeline));
+
+		//interrupted run, which committed the shards of its first 200 files
+		Path checkpointDirPath = Files.createDirectory(dirPath.resolve("resumedCheckpoints"));
+		List<String> fileList = new ArrayList<String>(texFileNamesMap.keySet());
+		Map<String, String> committedFileNamesMap = new LinkedHashMap<String, String>();
+		for(String file : fileList.subList(0, 2 * CHECKPOINT_FILE_COUNT)) {
+			committedFileNamesMap.put(file, texFileNamesMap.get(file));
+		}
+		run(committedFileNamesMap, checkpointDirPath, 4);
+		Path manifestPath = checkpointDirPath.resolve("manifest.txt");
+		List<String> committedLineList = Files.readAllLines(manifestPath, CHARSET);
+		assertEquals(2 * CHECKPOINT_FILE_COUNT + 2, committedLineList.size());
+		//lines of a shard that wasn't written
+		Files.write(manifestPath, fileList.subList(2 * CHECKPOINT_FILE_COUNT, 2 * CHECKPOINT_FILE_COUNT + 30), CHARSET,
+				StandardOpenOption.APPEND);
+
+		IngestionPipeline resumedPipeline = run(texFileNamesMap, checkpointDirPath, 4);
+		assertEquals(thmNameList, resumedPipeline.thmNameList());
+		assertEquals(pipeline.stats().getTotalThmsNum(), resumedPipeline.stats().getTotalThmsNum());
+		assertEquals(3, shardCount(resumedPipeline));
+		//uncommitted lines were dropped, and their files processed again
+		List<String> manifestLineList = Files.readAllLines(manifestPath, CHARSET);
+		assertEquals(committedLineList, manifestLineList.subList(0, committedLineList.size()));
+		List<String> lastShardLineList = manifestLineList.subList(committedLineList.size(), manifestLineList.size());
+		assertEquals(fileList.subList(2 * CHECKPOINT_FILE_COUNT, numFiles),
+				lastShardLineList.subList(0, lastShardLineList.size() - 1));
+		assertEquals(Arrays.asList("#committed shard2.dat"), lastShardLineList.subList(lastShardLineList.size() - 1,
+				lastShardLineList.size()));
+
+		//rerun on completed checkpoints processes nothing
+		IngestionPipeline rerunPipeline = run(texFileNamesMap, checkpointDirPath, 4);
+		assertEquals(thmNameList, rerunPipeline.thmNameList());
+		assertEquals(manifestLineList, Files.readAllLines(manifestPath, CHARSET));
+	}
+}
@@ -0,0 +1,194 @@
+package thmp.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.collect.HashMultimap;
+
+import thmp.search.CollectThm;
+import thmp.search.CollectThm.ThmWordsMaps.IndexPartPair;
+import thmp.search.IndexGeneration;
+import thmp.search.SearchIntersection;
+import thmp.search.SearchState;
+import thmp.search.SearchState.SearchStateBuilder;
+import thmp.search.WordThmsPostingIndex;
+import thmp.search.WordThmsPostingIndex.DecodedTerms;
+import thmp.search.WordThmsPostingIndex.PostingCursor;
+import thmp.search.WordThmsPostingIndex.ShardTable;
+import thmp.utils.WordForms.ThmPart;
+
+/**
+ * Tests for batch intersection search. Checks that batch results are the same as searching
+ * each query on its own, and that cursors over decoded postings iterate as over the index.
+ * Runs on an index of synthetic thms, made of parts of the queries.
+ */
+public class TestIntersectionSearchBatch {
+
+	//queries share words, so batch groups have shared terms to decode. Some are repeated.
+	private static final String[] QUERIES = new String[] {
+			"locally convex space",
+			"locally compact hausdorff space",
+			"compact hausdorff space",
+			"linear map between banach space",
+			"closed unit ball of a normed linear space",
+			"finite dimensional vector space",
+			"finite dimensional vector space",
+			"vector space over a field",
+			"finitely generated module over noetherian ring",
+			"noetherian ring",
+			"prime ideal of a commutative ring with unity",
+			"prime ideal of a noetherian ring",
+			"locally convex space",
+			"group",
+			"space of continuous functions",
+			"continuous functions on a compact space"
+	};
+	private static final int NUM_THMS = 40000;
+
+	private static WordThmsPostingIndex postingIndex;
+	private static IndexGeneration generation;
+
+	@BeforeClass
+	public static void setUp() {
+		Random rand = new Random(13);
+		HashMultimap<String, IndexPartPair> wordThmsMMap = HashMultimap.create();
+		for(int thmIndex = 0; thmIndex < NUM_THMS; thmIndex++) {
+			StringBuilder thmSb = new StringBuilder();
+			int numParts = 1 + rand.nextInt(4);
+			for(int p = 0; p < numParts; p++) {
+				//consecutive words, so thms also contain the queries' n-grams
+				String[] queryWordsAr = QUERIES[rand.nextInt(QUERIES.length)].split(" ");
+				int start = rand.nextInt(queryWordsAr.length);
+				int end = start + 1 + rand.nextInt(queryWordsAr.length - start);
+				for(int i = start; i < end; i++) {
+					thmSb.append(queryWordsAr[i]).append(' ');
+				}
+			}
+			char thmType = rand.nextInt(10) == 0 ? 'D' : 'T';
+			CollectThm.ThmWordsMaps.addToWordThmIndexMap(wordThmsMMap, thmSb.toString(),
+					new IndexPartPair(thmIndex, rand.nextInt(4) == 0 ? ThmPart.HYP : ThmPart.STM, thmType));
+		}
+		postingIndex = WordThmsPostingIndex.create(wordThmsMMap);
+		generation = IndexGeneration.forPostingIndex(postingIndex, NUM_THMS);
+		IndexGeneration.enter(generation);
+	}
+
+	@AfterClass
+	public static void tearDown() {
+		IndexGeneration.exit();
+	}
+
+	private static void testBatch(int numHighest, int numThreads) {
+		SearchStateBuilder searchStateBuilder = new SearchStateBuilder();
+		searchStateBuilder.disableLiteralSearch();
+		List<String> queryList = Arrays.asList(QUERIES);
+		List<SearchState> batchStateList = SearchIntersection.intersectionSearchBatch(queryList, searchStateBuilder,
+				numHighest, numThreads);
+		assertEquals(queryList.size(), batchStateList.size());
+		for(int i = 0; i < queryList.size(); i++) {
+			String query = queryList.get(i);
+			SearchState searchState = searchStateBuilder.build();
+			SearchIntersection.intersectionSearch(query, null, searchState, false, false, numHighest);
+			SearchState batchState = batchStateList.get(i);
+			assertEquals("Batch results differ for query: " + query, searchState.intersectionVecList(),
+					batchState.intersectionVecList());
+			assertEquals("Batch scores differ for query: " + query, searchState.thmScoreSpanList(),
+					batchState.thmScoreSpanList());
+		}
+	}
+
+	@Test
+	public void testBatchSingleThread() {
+		testBatch(10, 1);
+		testBatch(200, 1);
+	}
+
+	@Test
+	public void testBatchManyThreads() {
+		testBatch(10, 4);
+		testBatch(200, 4);
+	}
+
+	@Test
+	public void testBatchSharded() {
+		SearchIntersection.setShardedSearch(4);
+		try {
+			testBatch(10, 4);
+		}finally {
+			SearchIntersection.setShardedSearch(0);
+		}
+	}
+
+	private static List<String> indexTerms() {
+		List<String> termList = new ArrayList<String>();
+		for(String query : QUERIES) {
+			String[] wordsAr = query.split(" ");
+			termList.addAll(Arrays.asList(wordsAr));
+			for(int i = 0; i < wordsAr.length - 1; i++) {
+				termList.add(wordsAr[i] + " " + wordsAr[i+1]);
+			}
+		}
+		termList.add("absent");
+		return termList;
+	}
+
+	private static void assertSamePosting(PostingCursor expectedCursor, PostingCursor cursor) {
+		assertEquals(expectedCursor.thmIndex(), cursor.thmIndex());
+		assertEquals(expectedCursor.thmPart(), cursor.thmPart());
+		assertEquals(expectedCursor.thmType(), cursor.thmType());
+		assertEquals(expectedCursor.wordIndexCount(), cursor.wordIndexCount());
+		for(int i = 0; i < cursor.wordIndexCount(); i++) {
+			assertEquals(expectedCursor.wordIndexAt(i), cursor.wordIndexAt(i));
+		}
+	}
+
+	@Test
+	public void testDecodedCursor() {
+		List<String> termList = indexTerms();
+		DecodedTerms decodedTerms = postingIndex.decode(termList);
+		PostingCursor decodedCursor = postingIndex.cursor();
+		decodedCursor.setDecodedTerms(decodedTerms);
+		ShardTable shardTable = postingIndex.createShardTable(3);
+		Random rand = new Random(5);
+		for(String term : termList) {
+			PostingCursor cursor = postingIndex.cursor(term);
+			assertEquals(postingIndex.postingCount(term), decodedCursor.reset(term));
+			boolean hasNext;
+			while((hasNext = cursor.next()) == decodedCursor.next() && hasNext) {
+				assertSamePosting(cursor, decodedCursor);
+			}
+			assertFalse("Decoded postings differ for term: " + term, hasNext);
+
+			for(int shard = 0; shard < shardTable.numShards(); shard++) {
+				cursor.reset(term, shardTable, shard);
+				decodedCursor.reset(term, shardTable, shard);
+				while((hasNext = cursor.next()) == decodedCursor.next() && hasNext) {
+					assertSamePosting(cursor, decodedCursor);
+				}
+				assertFalse("Decoded shard postings differ for term: " + term, hasNext);
+			}
+
+			cursor.reset(term);
+			decodedCursor.reset(term);
+			int target = 0;
+			while(true) {
+				target += rand.nextInt(2000);
+				boolean found = cursor.skipTo(target);
+				assertEquals(found, decodedCursor.skipTo(target));
+				if(!found) {
+					break;
+				}
+				assertSamePosting(cursor, decodedCursor);
+				target = cursor.thmIndex();
+			}
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package thmp.test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMultimap;
+
+import thmp.search.CollectThm;
+import thmp.search.CollectThm.ThmWordsMaps.IndexPartPair;
+import thmp.search.IndexGeneration;
+import thmp.search.SearchIntersection;
+import thmp.search.SearchState;
+import thmp.search.Searcher;
+import thmp.search.WordThmsPostingIndex;
+import thmp.search.WordThmsPostingIndex.PostingCursor;
+import thmp.utils.WordForms.ThmPart;
+
+/**
+ * Regression tests for top-k pruning in intersection search. Checks that results with
+ * pruning are the same as the exhaustive search, over queries of various lengths and
+ * word frequencies. The query tests on the search data are skipped if it's absent,
+ * the synthetic index and skipTo() tests don't need it.
+ */
+public class TestIntersectionTopKPruning {
+
+	private static final String[] QUERIES = new String[] {
+			"locally convex space",
+			"locally compact hausdorff space",
+			"every bounded linear surjection",
+			"linear map between banach space",
+			"closed unit ball of a normed linear space",
+			"finite dimensional vector space",
+			"direct sum of trivial complex",
+			"localization of catenary ring",
+			"projective dimension",
+			"finitely generated module over noetherian ring",
+			"the category of sheaves of abelian groups on a topological space has enough injectives",
+			"let f be a continuous function on a compact set then f is uniformly continuous",
+			"prime ideal of a commutative ring with unity",
+			"group",
+			"space of continuous functions"
+	};
+
+	private static List<Integer> search(String query, boolean pruning, int... numHighest) {
+		SearchIntersection.setTopKPruning(pruning);
+		try {
+			return SearchIntersection.getHighestThmList(query, new HashSet<String>(), new SearchState(), false, false,
+					numHighest);
+		}finally {
+			SearchIntersection.setTopKPruning(false);
+		}
+	}
+
+	private static void assumeSearchData() {
+		Assume.assumeTrue("No search data", new File(Searcher.SearchMetaData.wordThmIndexMMapSerialFilePath()).exists());
+	}
+
+	private static void testQueries(int... numHighest) {
+		for(String query : QUERIES) {
+			List<Integer> exhaustiveList = search(query, false, numHighest);
+			List<Integer> prunedList = search(query, true, numHighest);
+			assertEquals("Pruned results differ for query: " + query, exhaustiveList, prunedList);
+		}
+	}
+
+	@Test
+	public void testQueriesDefaultNumHighest() {
+		assumeSearchData();
+		testQueries();
+	}
+
+	@Test
+	public void testQueriesFewHighest() {
+		assumeSearchData();
+		testQueries(3);
+	}
+
+	@Test
+	public void testQueriesManyHighest() {
+		assumeSearchData();
+		testQueries(200);
+	}
+
+	/**
+	 * Queries on an index of synthetic thms, made of parts of the queries and a few other query words.
+	 * Thms containing whole queries outrank ones with only parts, so pruning drops thms.
+	 */
+	@Test
+	public void testQueriesSyntheticIndex() {
+		Random rand = new Random(11);
+		List<String> vocabList = new ArrayList<String>();
+		for(String query : QUERIES) {
+			for(String word : query.split(" ")) {
+				vocabList.add(word);
+			}
+		}
+		int vocabSz = vocabList.size();
+		HashMultimap<String, IndexPartPair> wordThmsMMap = HashMultimap.create();
+		int numThms = 60000;
+		for(int thmIndex = 0; thmIndex < numThms; thmIndex++) {
+			StringBuilder thmSb = new StringBuilder();
+			if(rand.nextInt(2) == 0) {
+				//skewed towards words of early queries
+				thmSb.append(vocabList.get((int)(vocabSz * Math.pow(rand.nextDouble(), 2)))).append(' ');
+			}
+			int numParts = 1 + rand.nextInt(4);
+			for(int p = 0; p < numParts; p++) {
+				//consecutive words, so thms also contain the queries' n-grams
+				String[] queryWordsAr = QUERIES[rand.nextInt(QUERIES.length)].split(" ");
+				int start = rand.nextInt(queryWordsAr.length);
+				int end = start + 1 + rand.nextInt(queryWordsAr.length - start);
+				for(int i = start; i < end; i++) {
+					thmSb.append(queryWordsAr[i]).append(' ');
+				}
+			}
+			char thmType = rand.nextInt(10) == 0 ? 'D' : 'T';
+			CollectThm.ThmWordsMaps.addToWordThmIndexMap(wordThmsMMap, thmSb.toString(), 
+					new IndexPartPair(thmIndex, rand.nextInt(4) == 0 ? ThmPart.HYP : ThmPart.STM, thmType));
+		}
+		IndexGeneration generation = IndexGeneration.forPostingIndex(WordThmsPostingIndex.create(wordThmsMMap), numThms);
+		IndexGeneration.enter(generation);
+		try {
+			testQueries();
+			testQueries(3);
+			testQueries(200);
+		}finally {
+			IndexGeneration.exit();
+		}
+	}
+
+	@Test
+	public void testSkipTo() {
+		Random rand = new Random(7);
+		ImmutableMultimap.Builder<String, IndexPartPair> builder = ImmutableMultimap.builder();
+		int numThms = 20000;
+		for(int thmIndex = 0; thmIndex < numThms; thmIndex++) {
+			//denser terms have more skip entries
+			if(rand.nextInt(2) == 0) builder.put("dense", new IndexPartPair(thmIndex, ThmPart.STM, new byte[] {1}));
+			if(rand.nextInt(50) == 0) builder.put("sparse", new IndexPartPair(thmIndex, ThmPart.HYP, new byte[] {2, 3}));
+			//duplicate postings for the same thm
+			if(thmIndex % 97 == 0) {
+				builder.put("dup", new IndexPartPair(thmIndex, ThmPart.STM, new byte[] {4}));
+				builder.put("dup", new IndexPartPair(thmIndex, ThmPart.HYP, new byte[] {5, 6}));
+			}
+		}
+		WordThmsPostingIndex postingIndex = WordThmsPostingIndex.create(builder.build());
+		for(String term : new String[] {"dense", "sparse", "dup", "absent"}) {
+			int target = 0;
+			PostingCursor skipCursor = postingIndex.cursor(term);
+			PostingCursor linearCursor = postingIndex.cursor(term);
+			while(true) {
+				target += rand.nextInt(300);
+				boolean found = skipCursor.skipTo(target);
+				boolean linearFound;
+				while((linearFound = linearCursor.next()) && linearCursor.thmIndex() < target);
+				assertEquals(linearFound, found);
+				if(!found) {
+					break;
+				}
+				assertEquals(linearCursor.thmIndex(), skipCursor.thmIndex());
+				assertEquals(linearCursor.thmPart(), skipCursor.thmPart());
+				assertEquals(linearCursor.wordIndexCount(), skipCursor.wordIndexCount());
+				for(int i = 0; i < skipCursor.wordIndexCount(); i++) {
+					assertEquals(linearCursor.wordIndexAt(i), skipCursor.wordIndexAt(i));
+				}
+				target = skipCursor.thmIndex();
+			}
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package thmp.test;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+
+import thmp.search.LiteralSearch.LiteralPostings;
+import thmp.search.LiteralSearch.LiteralSearchIndex;
+import thmp.search.LiteralSearchIndexStore;
+import thmp.search.Searcher.SearchMetaData;
+
+/**
+ * Lookups in LiteralSearchIndexStore, against the multimap it's written from.
+ */
+public class TestLiteralSearchIndexStore {
+
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("testLiteralSearchIndex", LiteralSearchIndexStore.FILE_EXT);
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Test
+	public void test1() throws IOException {
+		ListMultimap<String, LiteralSearchIndex> mmap = ArrayListMultimap.create();
+		mmap.put("ring", new LiteralSearchIndex(12, new byte[]{-128, 3}));
+		mmap.put("ring", new LiteralSearchIndex(5, new byte[]{-1}));
+		mmap.put("kähler", new LiteralSearchIndex(7, new byte[]{0}));
+		mmap.put("module", new LiteralSearchIndex(2, new byte[]{-20, -1, 40}));
+		LiteralSearchIndexStore.writeToFile(mmap, file.getPath());
+		LiteralSearchIndexStore store = LiteralSearchIndexStore.load(file.getPath());
+		Assert.assertEquals(3, store.termCount());
+
+		LiteralPostings postings = new LiteralPostings();
+		//sorted by thm index
+		Assert.assertEquals(2, store.getPostings("ring", postings));
+		Assert.assertEquals(5, postings.thmIndex(0));
+		//-1 is a word index, not a placeholder
+		Assert.assertEquals(1, postings.wordIndexCount(0));
+		Assert.assertEquals(-1, postings.wordIndexAt(0, 0));
+		Assert.assertEquals(12, postings.thmIndex(1));
+		Assert.assertEquals(-128, postings.wordIndexAt(1, 0));
+		Assert.assertEquals(3, postings.wordIndexAt(1, 1));
+
+		Assert.assertEquals(1, store.getPostings("kähler", postings));
+		Assert.assertEquals(7, postings.thmIndex(0));
+		//only first MAX_INDEX_COUNT_PER_WORD indices are kept
+		Assert.assertEquals(1, store.getPostings("module", postings));
+		Assert.assertEquals(LiteralSearchIndex.MAX_INDEX_COUNT_PER_WORD, postings.wordIndexCount(0));
+
+		Assert.assertEquals(0, store.getPostings("rin", postings));
+		Assert.assertEquals(0, store.getPostings("rings", postings));
+		Assert.assertEquals(0, postings.size());
+	}
+
+	@Test
+	public void test2() throws IOException {
+		//postings past maxThmsPerLiteralWord are dropped, as in the db table
+		int maxThms = SearchMetaData.maxThmsPerLiteralWord;
+		ListMultimap<String, LiteralSearchIndex> mmap = ArrayListMultimap.create();
+		for(int i = 0; i < maxThms + 10; i++) {
+			mmap.put("field", new LiteralSearchIndex(maxThms + 10 - i, new byte[]{(byte)i}));
+		}
+		LiteralSearchIndexStore.writeToFile(mmap, file.getPath());
+		ListMultimap<String, LiteralSearchIndex> segmentMMap = ArrayListMultimap.create();
+		segmentMMap.put("field", new LiteralSearchIndex(1000, new byte[]{1}));
+		segmentMMap.put("sheaf", new LiteralSearchIndex(1001, new byte[]{2}));
+		LiteralSearchIndexStore.append(segmentMMap, file.getPath());
+
+		LiteralSearchIndexStore store = LiteralSearchIndexStore.load(file.getPath());
+		LiteralPostings postings = new LiteralPostings();
+		Assert.assertEquals(maxThms, store.getPostings("field", postings));
+		Assert.assertEquals(11, postings.thmIndex(0));
+		Assert.assertEquals(maxThms + 10, postings.thmIndex(maxThms - 1));
+		Assert.assertEquals(1, store.getPostings("sheaf", postings));
+		Assert.assertEquals(1001, postings.thmIndex(0));
+	}
+}
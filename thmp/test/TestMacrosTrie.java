@@ -163,6 +163,66 @@ public class TestMacrosTrie {
 		Assert.assertTrue(isEqual);		
 	}
 	
+	@Test
+	public void testNested2() {
+		//\newcommand\abs[1]{|#1|} \newcommand\norm[1]{\abs{\abs{#1}}}
+		List<String> commandStrList = new ArrayList<String>();
+		List<String> replacementStrList = new ArrayList<String>();		
+		List<Integer> slotCountList = new ArrayList<Integer>();
+		
+		commandStrList.add("\\abs");
+		replacementStrList.add("|#1|");
+		slotCountList.add(1);
+		
+		commandStrList.add("\\norm");
+		replacementStrList.add("\\abs{\\abs{#1}}");
+		slotCountList.add(1);
+		
+		commandStrList.add("\\R");
+		replacementStrList.add("\\mathbb{R}");
+		slotCountList.add(0);
+		
+		String thm = "\\norm{x} in \\abs{\\R}x";
+		String expected = "||x|| in |\\mathbb{R}|x";
+		
+		String actual = parseMacros(commandStrList, replacementStrList, slotCountList, thm);
+		Assert.assertEquals(expected, actual);
+	}
+	
+	@Test
+	public void testLongestCommand() {
+		//don't turn \label into \lambdabel, use longest command not followed by letter.
+		List<String> commandStrList = new ArrayList<String>();
+		List<String> replacementStrList = new ArrayList<String>();		
+		List<Integer> slotCountList = new ArrayList<Integer>();
+		
+		commandStrList.add("\\la");
+		replacementStrList.add("\\lambda");
+		slotCountList.add(0);
+		
+		commandStrList.add("\\la1");
+		replacementStrList.add("\\lambda_1");
+		slotCountList.add(0);
+		
+		String thm = "\\label{a} \\la, \\la1 \\la2";
+		String expected = "\\label{a} \\lambda, \\lambda_1 \\lambda2";
+		
+		String actual = parseMacros(commandStrList, replacementStrList, slotCountList, thm);
+		Assert.assertEquals(expected, actual);
+	}
+	
+	@Test
+	public void testOptArg() {
+		//\newcommand{\cmd}[2][n]{#1^#2}, and \def\a{\a b} defined with itself.
+		MacrosTrieBuilder macrosTrieBuilder = new MacrosTrieBuilder();
+		macrosTrieBuilder.addTrieNode("\\cmd", "#1^#2", 2, "n");
+		macrosTrieBuilder.addTrieNode("\\a", "\\a b", 0);
+		MacrosTrie macrosTrie = macrosTrieBuilder.build();
+		
+		Assert.assertEquals("n^x and m^y", macrosTrie.replaceMacrosInThmStr("\\cmd{x} and \\cmd[m]{y}"));
+		Assert.assertEquals("\\a b b", macrosTrie.replaceMacrosInThmStr("\\a"));
+	}
+	
 	//test begin theorem start and end environment macros
 	//\begin{pro1}
 	
@@ -0,0 +1,94 @@
+package thmp.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import thmp.search.SimilarThmGraph;
+
+/**
+ * Lookups in SimilarThmGraph, written directly and assembled from bundles.
+ */
+public class TestSimilarThmGraph {
+
+	private List<File> fileList;
+
+	@Before
+	public void createFiles() throws IOException {
+		fileList = new ArrayList<File>();
+		for(int i = 0; i < 3; i++) {
+			fileList.add(File.createTempFile("testSimilarThmGraph", SimilarThmGraph.FILE_EXT));
+		}
+	}
+
+	@After
+	public void deleteFiles() {
+		for(File file : fileList) {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void test1() throws IOException {
+		List<List<Integer>> neighbourListList = new ArrayList<List<Integer>>();
+		neighbourListList.add(Arrays.asList(7, 3, 1200000));
+		neighbourListList.add(Collections.<Integer>emptyList());
+		neighbourListList.add(Arrays.asList(5));
+		List<List<Float>> scoreListList = new ArrayList<List<Float>>();
+		scoreListList.add(Arrays.asList(.9f, .5f, .25f));
+		scoreListList.add(Collections.<Float>emptyList());
+		scoreListList.add(Arrays.asList(1f));
+		String path = fileList.get(0).getPath();
+		SimilarThmGraph.writeToFile(10, neighbourListList, scoreListList, path);
+		SimilarThmGraph graph = SimilarThmGraph.load(path);
+		Assert.assertEquals(3, graph.thmCount());
+		Assert.assertEquals(4, graph.edgeCount());
+		Assert.assertTrue(graph.hasScores());
+		Assert.assertFalse(graph.containsThm(9));
+		Assert.assertFalse(graph.containsThm(13));
+		Assert.assertEquals(Arrays.asList(7, 3, 1200000), graph.getSimilarThms(10));
+		Assert.assertEquals(0, graph.neighbourCount(11));
+		Assert.assertEquals(Arrays.asList(5), graph.getSimilarThms(12));
+		Assert.assertArrayEquals(new float[]{.9f, .5f, .25f}, graph.getScores(10), 0f);
+	}
+
+	@Test
+	public void test2() throws IOException {
+		List<List<Integer>> bundle1 = new ArrayList<List<Integer>>();
+		bundle1.add(Arrays.asList(1, 2));
+		bundle1.add(Arrays.asList(0));
+		List<List<Integer>> bundle2 = new ArrayList<List<Integer>>();
+		bundle2.add(Collections.<Integer>emptyList());
+		bundle2.add(Arrays.asList(0, 1, 2));
+		SimilarThmGraph.writeToFile(0, bundle1, null, fileList.get(0).getPath());
+		SimilarThmGraph.writeToFile(2, bundle2, null, fileList.get(1).getPath());
+		String path = fileList.get(2).getPath();
+		SimilarThmGraph.assemble(Arrays.asList(fileList.get(0).getPath(), fileList.get(1).getPath()), path);
+		SimilarThmGraph graph = SimilarThmGraph.load(path);
+		Assert.assertEquals(4, graph.thmCount());
+		Assert.assertFalse(graph.hasScores());
+		Assert.assertEquals(Arrays.asList(1, 2), graph.getSimilarThms(0));
+		Assert.assertEquals(Arrays.asList(0), graph.getSimilarThms(1));
+		Assert.assertEquals(0, graph.neighbourCount(2));
+		Assert.assertEquals(Arrays.asList(0, 1, 2), graph.getSimilarThms(3));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void test3() throws IOException {
+		//gap between bundles
+		List<List<Integer>> bundle = new ArrayList<List<Integer>>();
+		bundle.add(Arrays.asList(1));
+		SimilarThmGraph.writeToFile(0, bundle, null, fileList.get(0).getPath());
+		SimilarThmGraph.writeToFile(5, bundle, null, fileList.get(1).getPath());
+		SimilarThmGraph.assemble(Arrays.asList(fileList.get(0).getPath(), fileList.get(1).getPath()),
+				fileList.get(2).getPath());
+	}
+}
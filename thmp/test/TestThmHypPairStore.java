@@ -0,0 +1,80 @@
+package thmp.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import thmp.search.SearchCombined.ThmHypPair;
+import thmp.search.ThmHypPairStore;
+
+/**
+ * Round trip of ThmHypPair lists through ThmHypPairStore.
+ */
+public class TestThmHypPairStore {
+
+	private File file;
+
+	@Before
+	public void createFile() throws IOException {
+		file = File.createTempFile("testThmHypPairStore", ThmHypPairStore.FILE_EXT);
+	}
+
+	@After
+	public void deleteFile() {
+		file.delete();
+	}
+
+	@Test
+	public void test1() throws IOException {
+		List<ThmHypPair> list = new ArrayList<ThmHypPair>();
+		list.add(new ThmHypPair("every compact kähler manifold is formal", "let $X$ be compact", "math0211002", "theorem"));
+		list.add(new ThmHypPair("$\\forall ε > 0$ there is $δ$ with $|f(x)| < ε$", "", "1702.01234", "lemma"));
+		list.add(new ThmHypPair("可换环的局部化是平坦的", "设 $R$ 为环", "1605.00001", "proposition"));
+		//null fields are stored as empty
+		list.add(new ThmHypPair("", null, "1605.00002", null));
+		ThmHypPairStore.writeToFile(list, file.getPath());
+
+		ThmHypPairStore store = ThmHypPairStore.load(file.getPath());
+		Assert.assertEquals(list.size(), store.size());
+		for(int i = 0; i < 3; i++) {
+			ThmHypPair pair = list.get(i);
+			ThmHypPair storePair = store.get(i);
+			Assert.assertEquals(pair.thmStr(), storePair.thmStr());
+			Assert.assertEquals(pair.hypStr(), storePair.hypStr());
+			Assert.assertEquals(pair.srcFileName(), storePair.srcFileName());
+			Assert.assertEquals(pair.thmType(), storePair.thmType());
+		}
+		ThmHypPair storePair = store.get(3);
+		Assert.assertEquals("", storePair.thmStr());
+		Assert.assertEquals("", storePair.hypStr());
+		Assert.assertEquals("1605.00002", storePair.srcFileName());
+		Assert.assertEquals("", storePair.thmType());
+
+		List<ThmHypPair> storeList = store.getAll();
+		Assert.assertEquals(list.size(), storeList.size());
+		Assert.assertEquals(list.get(2).thmStr(), storeList.get(2).thmStr());
+		Assert.assertEquals(list.get(1).hypStr(), storeList.get(1).hypStr());
+	}
+
+	@Test
+	public void test2() throws IOException {
+		//empty bundle
+		ThmHypPairStore.writeToFile(Collections.<ThmHypPair>emptyList(), file.getPath());
+		ThmHypPairStore store = ThmHypPairStore.load(file.getPath());
+		Assert.assertEquals(0, store.size());
+		Assert.assertTrue(store.getAll().isEmpty());
+		try {
+			store.get(0);
+			Assert.fail("get(0) on empty store");
+		}catch(IndexOutOfBoundsException e) {
+			//expected
+		}
+	}
+}
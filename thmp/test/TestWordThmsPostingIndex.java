@@ -0,0 +1,166 @@
+package thmp.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.collect.Multimap;
+
+import thmp.search.CollectThm;
+import thmp.search.CollectThm.ThmWordsMaps.IndexPartPair;
+import thmp.search.ConceptSearch;
+import thmp.search.IndexGeneration;
+import thmp.search.SearchIntersection;
+import thmp.search.SearchState;
+import thmp.search.WordThmsPostingIndex;
+import thmp.search.WordThmsPostingIndex.PostingCursor;
+import thmp.utils.WordForms.ThmPart;
+
+/**
+ * Tests WordThmsPostingIndex against the word-thm multimap it replaces, and pins how search
+ * selects thms from postings. Selection is by thm index: a thm selected by earlier query words
+ * is scored by later words too, and concept search returns thms containing all words.
+ */
+public class TestWordThmsPostingIndex {
+
+	private static final String[] THMS = new String[] {
+			"let x be a locally compact hausdorff space",
+			"every finitely generated module over a noetherian ring is noetherian",
+			"a closed subspace of a banach space is a banach space",
+			"the unit ball of a normed linear space is convex",
+			"every compact subset of a hausdorff space is closed",
+			"a prime ideal of a commutative ring with unity"
+	};
+
+	private static final Comparator<IndexPartPair> THM_INDEX_COMPARATOR = new Comparator<IndexPartPair>() {
+		@Override
+		public int compare(IndexPartPair p1, IndexPartPair p2) {
+			return Integer.compare(p1.thmIndex(), p2.thmIndex());
+		}
+	};
+
+	/**
+	 * Checks every term's postings, in thm index order, against the multimap's.
+	 */
+	private static void assertSamePostings(Multimap<String, IndexPartPair> wordThmsMMap, WordThmsPostingIndex postingIndex) {
+		assertEquals(wordThmsMMap.keySet().size(), postingIndex.numTerms());
+		assertEquals(wordThmsMMap.size(), postingIndex.numPostings());
+		PostingCursor cursor = postingIndex.cursor();
+		for(Map.Entry<String, java.util.Collection<IndexPartPair>> entry : wordThmsMMap.asMap().entrySet()) {
+			String term = entry.getKey();
+			List<IndexPartPair> pairList = new ArrayList<IndexPartPair>(entry.getValue());
+			//index sorts stably, so postings of the same thm keep their order
+			Collections.sort(pairList, THM_INDEX_COMPARATOR);
+			assertEquals(pairList.size(), postingIndex.postingCount(term));
+			assertEquals(pairList.size(), cursor.reset(term));
+			for(IndexPartPair pair : pairList) {
+				assertTrue("Missing posting for term: " + term, cursor.next());
+				assertEquals(pair.thmIndex(), cursor.thmIndex());
+				assertEquals(pair.thmPart(), cursor.thmPart());
+				assertEquals(pair.thmType(), cursor.thmType());
+				byte[] wordIndexAr = pair.wordIndexAr();
+				assertEquals(wordIndexAr.length, cursor.wordIndexCount());
+				for(int i = 0; i < wordIndexAr.length; i++) {
+					assertEquals(wordIndexAr[i], cursor.wordIndexAt(i));
+				}
+			}
+			assertFalse("Extra posting for term: " + term, cursor.next());
+		}
+		assertEquals(0, cursor.reset("absent term"));
+		assertFalse(cursor.next());
+	}
+
+	@Test
+	public void testSameAsMultimap() {
+		Random rand = new Random(3);
+		HashMultimap<String, IndexPartPair> wordThmsMMap = HashMultimap.create();
+		for(int thmIndex = 0; thmIndex < 3000; thmIndex++) {
+			String thm = THMS[rand.nextInt(THMS.length)] + " and " + THMS[rand.nextInt(THMS.length)];
+			char thmType = "TDLPC".charAt(rand.nextInt(5));
+			CollectThm.ThmWordsMaps.addToWordThmIndexMap(wordThmsMMap, thm,
+					new IndexPartPair(thmIndex, rand.nextInt(3) == 0 ? ThmPart.HYP : ThmPart.STM, thmType));
+		}
+		assertSamePostings(wordThmsMMap, WordThmsPostingIndex.create(wordThmsMMap));
+	}
+
+	@Test
+	public void testSameAsMultimapEdgeCases() {
+		ImmutableMultimap.Builder<String, IndexPartPair> builder = ImmutableMultimap.builder();
+		//several postings for the same thm, out of thm index order
+		builder.put("dup", new IndexPartPair(9, ThmPart.STM, 'D', new byte[] {4}));
+		builder.put("dup", new IndexPartPair(2, ThmPart.HYP, 'T', new byte[] {1, 2}));
+		builder.put("dup", new IndexPartPair(9, ThmPart.HYP, 'L', new byte[] {5, 6, 7}));
+		builder.put("noWordIndex", new IndexPartPair(5, ThmPart.STM, 'T', new byte[0]));
+		byte[] longWordIndexAr = new byte[Byte.MAX_VALUE];
+		for(int i = 0; i < longWordIndexAr.length; i++) {
+			longWordIndexAr[i] = (byte)i;
+		}
+		builder.put("longWordIndex", new IndexPartPair(0, ThmPart.STM, 'P', longWordIndexAr));
+		//long enough for skip entries
+		for(int thmIndex = 0; thmIndex < 1000; thmIndex += 3) {
+			builder.put("long", new IndexPartPair(thmIndex, ThmPart.STM, 'T', new byte[] {(byte)(thmIndex % 100)}));
+		}
+		ImmutableMultimap<String, IndexPartPair> wordThmsMMap = builder.build();
+		assertSamePostings(wordThmsMMap, WordThmsPostingIndex.create(wordThmsMMap));
+	}
+
+	/**
+	 * Index where "banach" is rare, in thms 0 and 1, and "hausdorff" is in thm 0 and thms 2 on.
+	 */
+	private static IndexGeneration selectionGeneration() {
+		ImmutableMultimap.Builder<String, IndexPartPair> builder = ImmutableMultimap.builder();
+		builder.put("banach", new IndexPartPair(0, ThmPart.STM, 'T', new byte[] {0}));
+		builder.put("banach", new IndexPartPair(1, ThmPart.STM, 'T', new byte[] {0}));
+		builder.put("hausdorff", new IndexPartPair(0, ThmPart.HYP, 'T', new byte[] {1}));
+		int numThms = 60;
+		for(int thmIndex = 2; thmIndex < numThms; thmIndex++) {
+			builder.put("hausdorff", new IndexPartPair(thmIndex, ThmPart.STM, 'T', new byte[] {0}));
+		}
+		return IndexGeneration.forPostingIndex(WordThmsPostingIndex.create(builder.build()), numThms);
+	}
+
+	/**
+	 * Rarer "banach" selects thms 0 and 1. "hausdorff" then only scores selected thms, and adds
+	 * to the span of thm 0, which contains both words.
+	 */
+	@Test
+	public void testLaterWordsScoreSelectedThms() {
+		IndexGeneration.enter(selectionGeneration());
+		try {
+			SearchState searchState = new SearchState();
+			SearchIntersection.intersectionSearch("banach hausdorff", new HashSet<String>(), searchState,
+					false, false, 1);
+			assertEquals(Integer.valueOf(0), searchState.intersectionVecList().get(0));
+			Map<Integer, Integer> thmSpanMap = searchState.thmSpanMap();
+			assertEquals(Integer.valueOf(2), thmSpanMap.get(0));
+			assertEquals(Integer.valueOf(1), thmSpanMap.get(1));
+			assertEquals(new HashSet<Integer>(Arrays.asList(0, 1)), searchState.thmScoreMap().keySet());
+		}finally {
+			IndexGeneration.exit();
+		}
+	}
+
+	@Test
+	public void testConceptSearchAllWords() {
+		IndexGeneration.enter(selectionGeneration());
+		try {
+			assertEquals(Arrays.asList(0), ConceptSearch.getStrictNormalizedWordsThms(Arrays.asList("banach", "hausdorff")));
+			List<Integer> banachThmList = ConceptSearch.getStrictNormalizedWordsThms(Arrays.asList("banach"));
+			Collections.sort(banachThmList);
+			assertEquals(Arrays.asList(0, 1), banachThmList);
+		}finally {
+			IndexGeneration.exit();
+		}
+	}
+}
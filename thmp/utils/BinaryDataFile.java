@@ -0,0 +1,861 @@
+package thmp.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.SetMultimap;
+
+import thmp.search.CollectThm.ThmWordsMaps.IndexPartPair;
+import thmp.search.CollectThm.ThmWordsMaps.WordFreqPair;
+import thmp.search.LiteralSearch.LiteralSearchIndex;
+import thmp.utils.GatherRelatedWords.RelatedWords;
+import thmp.utils.WordForms.ThmPart;
+
+/**
+ * Versioned binary format for the search resource .dat files, e.g. the n-gram maps, relatedWordsMap,
+ * and the word-thm index, in place of Java serialization. Files are read in one pass over the
+ * memory-mapped file into presized collections, without the class descriptors and handle tables
+ * of ObjectInputStream, and independently of the serialVersionUIDs of the classes read.
+ *
+ * Each file is described by a schema stored in its header, built from string, int, long, double,
+ * boolean, char, bytes, list<T>, set<T>, map<K,V>, listmultimap<K,V>, setmultimap<K,V>, and the
+ * records wordFreqPair, relatedWords, indexPartPair, and literalSearchIndex. E.g. twoGramsMap.dat,
+ * a List with one map, has schema list<map<string,int>>. Values are read back as ArrayList, HashSet,
+ * HashMap, ArrayListMultimap, and HashMultimap respectively.
+ *
+ * File layout (big-endian): magic, format version, schema string, then the value. Lengths and
+ * chars are varints, ints are zigzag varints, strings are byte lengths followed by UTF-8 bytes,
+ * and multimaps are written key by key, each key followed by its value count and values.
+ *
+ * FileUtils.deserializeListFromFile() reads files in either format, so existing .dat files are
+ * converted in place with -convert, see main().
+ */
+public class BinaryDataFile {
+
+	private static final Logger logger = LogManager.getLogger(BinaryDataFile.class);
+	//"TDAT". Java serialization streams start with 0xACED instead.
+	private static final int FILE_MAGIC = 0x54444154;
+	private static final int FORMAT_VERSION = 1;
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+	private static final ThmPart[] THM_PART_AR = ThmPart.values();
+
+	public static final String WORD_THM_INDEX_SCHEMA = "list<listmultimap<string,indexPartPair>>";
+	public static final String LITERAL_SEARCH_INDEX_SCHEMA = "list<setmultimap<string,literalSearchIndex>>";
+	//schemas of existing .dat files, by file name, without segment suffixes, see knownSchema().
+	private static final Map<String, String> KNOWN_SCHEMA_MAP = new HashMap<String, String>();
+	private static final Pattern SEGMENT_SUFFIX_PATT = Pattern.compile("Segment\\d+(?:_\\d+)?\\.dat$");
+
+	static{
+		KNOWN_SCHEMA_MAP.put("allThmWordsFreqList.dat", "list<wordFreqPair>");
+		KNOWN_SCHEMA_MAP.put("allThmWordsListTemplate.dat", "list<string>");
+		KNOWN_SCHEMA_MAP.put("allThmNameScrape.dat", "list<string>");
+		KNOWN_SCHEMA_MAP.put("allThmWordsSet.dat", "list<set<string>>");
+		KNOWN_SCHEMA_MAP.put("trueFluffWordsSet.dat", "list<set<string>>");
+		KNOWN_SCHEMA_MAP.put("bigWordFreqPrunedMap.dat", "list<map<string,int>>");
+		KNOWN_SCHEMA_MAP.put("prunedLexicon.dat", "list<map<string,int>>");
+		KNOWN_SCHEMA_MAP.put("twoGramsMap.dat", "list<map<string,int>>");
+		KNOWN_SCHEMA_MAP.put("threeGramsMap.dat", "list<map<string,int>>");
+		KNOWN_SCHEMA_MAP.put("stemWordsMap.dat", "list<map<string,string>>");
+		KNOWN_SCHEMA_MAP.put("foodMap.dat", "list<map<string,string>>");
+		KNOWN_SCHEMA_MAP.put("relatedWordsMap.dat", "list<map<string,relatedWords>>");
+		KNOWN_SCHEMA_MAP.put("wordThmIndexMMap.dat", WORD_THM_INDEX_SCHEMA);
+		KNOWN_SCHEMA_MAP.put("literalSearchIndexMap.dat", LITERAL_SEARCH_INDEX_SCHEMA);
+	}
+
+	/**
+	 * Type in a schema, which writes and reads values of that type.
+	 */
+	private static abstract class Type{
+		final String schema;
+		final Class<?> valueClass;
+
+		Type(String schema, Class<?> valueClass){
+			this.schema = schema;
+			this.valueClass = valueClass;
+		}
+
+		final void write(Object value, Encoder encoder) throws IOException{
+			if(!valueClass.isInstance(value)){
+				throw new IllegalStateException("Schema " + schema + " expects a " + valueClass.getSimpleName()
+						+ ", but got " + (null == value ? "null" : value.getClass().getName()));
+			}
+			writeValue(value, encoder);
+		}
+
+		abstract void writeValue(Object value, Encoder encoder) throws IOException;
+
+		abstract Object read(Decoder decoder);
+
+		/**
+		 * Whether two values of this type hold the same data, used to check conversions.
+		 * Compares encodings, since records such as IndexPartPair only compare part of their data in equals().
+		 */
+		boolean valueEquals(Object value1, Object value2){
+			return Arrays.equals(encode(this, value1), encode(this, value2));
+		}
+	}
+
+	private static abstract class ContainerType extends Type{
+		final Type elemType;
+
+		ContainerType(String schema, Class<?> valueClass, Type elemType){
+			super(schema, valueClass);
+			this.elemType = elemType;
+		}
+	}
+
+	private static class ListType extends ContainerType{
+		ListType(Type elemType){
+			super("list<" + elemType.schema + ">", List.class, elemType);
+		}
+
+		void writeValue(Object value, Encoder encoder) throws IOException{
+			List<?> list = (List<?>)value;
+			encoder.writeVarInt(list.size());
+			for(Object elem : list){
+				elemType.write(elem, encoder);
+			}
+		}
+
+		Object read(Decoder decoder){
+			int size = decoder.readVarInt();
+			List<Object> list = new ArrayList<Object>(size);
+			for(int i = 0; i < size; i++){
+				list.add(elemType.read(decoder));
+			}
+			return list;
+		}
+
+		boolean valueEquals(Object value1, Object value2){
+			List<?> list1 = (List<?>)value1;
+			List<?> list2 = (List<?>)value2;
+			if(list1.size() != list2.size()){
+				return false;
+			}
+			Iterator<?> iter2 = list2.iterator();
+			for(Object elem : list1){
+				if(!elemType.valueEquals(elem, iter2.next())){
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static class SetType extends ContainerType{
+		SetType(Type elemType){
+			super("set<" + elemType.schema + ">", Set.class, elemType);
+		}
+
+		void writeValue(Object value, Encoder encoder) throws IOException{
+			Set<?> set = (Set<?>)value;
+			encoder.writeVarInt(set.size());
+			for(Object elem : set){
+				elemType.write(elem, encoder);
+			}
+		}
+
+		Object read(Decoder decoder){
+			int size = decoder.readVarInt();
+			Set<Object> set = new HashSet<Object>(hashCapacity(size));
+			for(int i = 0; i < size; i++){
+				set.add(elemType.read(decoder));
+			}
+			return set;
+		}
+
+		boolean valueEquals(Object value1, Object value2){
+			return encodingMultiset(elemType, (Set<?>)value1).equals(encodingMultiset(elemType, (Set<?>)value2));
+		}
+	}
+
+	private static class MapType extends Type{
+		final Type keyType;
+		final Type valType;
+
+		MapType(Type keyType, Type valType){
+			super("map<" + keyType.schema + "," + valType.schema + ">", Map.class);
+			this.keyType = keyType;
+			this.valType = valType;
+		}
+
+		void writeValue(Object value, Encoder encoder) throws IOException{
+			Map<?, ?> map = (Map<?, ?>)value;
+			encoder.writeVarInt(map.size());
+			for(Map.Entry<?, ?> entry : map.entrySet()){
+				keyType.write(entry.getKey(), encoder);
+				valType.write(entry.getValue(), encoder);
+			}
+		}
+
+		Object read(Decoder decoder){
+			int size = decoder.readVarInt();
+			Map<Object, Object> map = new HashMap<Object, Object>(hashCapacity(size));
+			for(int i = 0; i < size; i++){
+				Object key = keyType.read(decoder);
+				map.put(key, valType.read(decoder));
+			}
+			return map;
+		}
+
+		boolean valueEquals(Object value1, Object value2){
+			Map<?, ?> map1 = (Map<?, ?>)value1;
+			Map<?, ?> map2 = (Map<?, ?>)value2;
+			if(!map1.keySet().equals(map2.keySet())){
+				return false;
+			}
+			for(Map.Entry<?, ?> entry : map1.entrySet()){
+				if(!valType.valueEquals(entry.getValue(), map2.get(entry.getKey()))){
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static class MultimapType extends Type{
+		final Type keyType;
+		final Type valType;
+		//whether a SetMultimap, else a ListMultimap
+		final boolean setValues;
+
+		MultimapType(Type keyType, Type valType, boolean setValues){
+			super((setValues ? "setmultimap<" : "listmultimap<") + keyType.schema + "," + valType.schema + ">",
+					setValues ? SetMultimap.class : ListMultimap.class);
+			this.keyType = keyType;
+			this.valType = valType;
+			this.setValues = setValues;
+		}
+
+		void writeValue(Object value, Encoder encoder) throws IOException{
+			Map<?, ? extends Collection<?>> map = ((Multimap<?, ?>)value).asMap();
+			encoder.writeVarInt(map.size());
+			for(Map.Entry<?, ? extends Collection<?>> entry : map.entrySet()){
+				keyType.write(entry.getKey(), encoder);
+				Collection<?> vals = entry.getValue();
+				encoder.writeVarInt(vals.size());
+				for(Object val : vals){
+					valType.write(val, encoder);
+				}
+			}
+		}
+
+		Object read(Decoder decoder){
+			int keyCount = decoder.readVarInt();
+			Multimap<Object, Object> mmap = setValues ? HashMultimap.create(keyCount, 2)
+					: ArrayListMultimap.create(keyCount, 2);
+			for(int i = 0; i < keyCount; i++){
+				Object key = keyType.read(decoder);
+				int valCount = decoder.readVarInt();
+				Collection<Object> vals = mmap.get(key);
+				for(int j = 0; j < valCount; j++){
+					vals.add(valType.read(decoder));
+				}
+			}
+			return mmap;
+		}
+
+		boolean valueEquals(Object value1, Object value2){
+			Map<?, ? extends Collection<?>> map1 = ((Multimap<?, ?>)value1).asMap();
+			Map<?, ? extends Collection<?>> map2 = ((Multimap<?, ?>)value2).asMap();
+			if(!map1.keySet().equals(map2.keySet())){
+				return false;
+			}
+			for(Map.Entry<?, ? extends Collection<?>> entry : map1.entrySet()){
+				Collection<?> vals2 = map2.get(entry.getKey());
+				if(setValues){
+					if(!encodingMultiset(valType, entry.getValue()).equals(encodingMultiset(valType, vals2))){
+						return false;
+					}
+				}else if(!new ListType(valType).valueEquals(new ArrayList<Object>(entry.getValue()),
+						new ArrayList<Object>(vals2))){
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static final Type STRING_TYPE = new Type("string", String.class){
+		void writeValue(Object value, Encoder encoder) throws IOException{
+			encoder.writeString((String)value);
+		}
+		Object read(Decoder decoder){
+			return decoder.readString();
+		}
+	};
+
+	private static final Type INT_TYPE = new Type("int", Integer.class){
+		void writeValue(Object value, Encoder encoder) throws IOException{
+			encoder.writeSignedVarInt((Integer)value);
+		}
+		Object read(Decoder decoder){
+			return decoder.readSignedVarInt();
+		}
+	};
+
+	private static final Type LONG_TYPE = new Type("long", Long.class){
+		void writeValue(Object value, Encoder encoder) throws IOException{
+			encoder.out.writeLong((Long)value);
+		}
+		Object read(Decoder decoder){
+			return decoder.buf.getLong();
+		}
+	};
+
+	private static final Type DOUBLE_TYPE = new Type("double", Double.class){
+		void writeValue(Object value, Encoder encoder) throws IOException{
+			encoder.out.writeDouble((Double)value);
+		}
+		Object read(Decoder decoder){
+			return decoder.buf.getDouble();
+		}
+	};
+
+	private static final Type BOOLEAN_TYPE = new Type("boolean", Boolean.class){
+		void writeValue(Object value, Encoder encoder) throws IOException{
+			encoder.out.writeByte((Boolean)value ? 1 : 0);
+		}
+		Object read(Decoder decoder){
+			return decoder.buf.get() != 0;
+		}
+	};
+
+	private static final Type CHAR_TYPE = new Type("char", Character.class){
+		void writeValue(Object value, Encoder encoder) throws IOException{
+			encoder.writeVarInt((Character)value);
+		}
+		Object read(Decoder decoder){
+			return (char)decoder.readVarInt();
+		}
+	};
+
+	private static final Type BYTES_TYPE = new Type("bytes", byte[].class){
+		void writeValue(Object value, Encoder encoder) throws IOException{
+			encoder.writeBytes((byte[])value);
+		}
+		Object read(Decoder decoder){
+			return decoder.readBytes();
+		}
+	};
+
+	private static final Type WORD_FREQ_PAIR_TYPE = new Type("wordFreqPair", WordFreqPair.class){
+		void writeValue(Object value, Encoder encoder) throws IOException{
+			WordFreqPair pair = (WordFreqPair)value;
+			encoder.writeString(pair.word);
+			encoder.writeSignedVarInt(pair.freq());
+		}
+		Object read(Decoder decoder){
+			String word = decoder.readString();
+			return new WordFreqPair(word, decoder.readSignedVarInt());
+		}
+	};
+
+	private static final Type RELATED_WORDS_TYPE = new Type("relatedWords", RelatedWords.class){
+		final Type stringListType = new ListType(STRING_TYPE);
+
+		void writeValue(Object value, Encoder encoder) throws IOException{
+			RelatedWords relatedWords = (RelatedWords)value;
+			stringListType.write(relatedWords.getSynonymsList(), encoder);
+			stringListType.write(relatedWords.getAntonymsList(), encoder);
+			stringListType.write(relatedWords.getRelatedWordsList(), encoder);
+		}
+		@SuppressWarnings("unchecked")
+		Object read(Decoder decoder){
+			List<String> synonymsList = (List<String>)stringListType.read(decoder);
+			List<String> antonymsList = (List<String>)stringListType.read(decoder);
+			return new RelatedWords(synonymsList, antonymsList, (List<String>)stringListType.read(decoder));
+		}
+	};
+
+	private static final Type INDEX_PART_PAIR_TYPE = new Type("indexPartPair", IndexPartPair.class){
+		void writeValue(Object value, Encoder encoder) throws IOException{
+			IndexPartPair pair = (IndexPartPair)value;
+			encoder.writeVarInt(pair.thmIndex());
+			encoder.out.writeByte(pair.thmPart().ordinal());
+			encoder.writeVarInt(pair.thmType());
+			encoder.writeBytes(pair.wordIndexAr());
+		}
+		Object read(Decoder decoder){
+			int thmIndex = decoder.readVarInt();
+			ThmPart thmPart = THM_PART_AR[decoder.buf.get()];
+			char thmType = (char)decoder.readVarInt();
+			return new IndexPartPair(thmIndex, thmPart, thmType, decoder.readBytes());
+		}
+	};
+
+	private static final Type LITERAL_SEARCH_INDEX_TYPE = new Type("literalSearchIndex", LiteralSearchIndex.class){
+		void writeValue(Object value, Encoder encoder) throws IOException{
+			LiteralSearchIndex index = (LiteralSearchIndex)value;
+			encoder.writeVarInt(index.thmIndex());
+			encoder.writeBytes(index.wordIndexAr());
+		}
+		Object read(Decoder decoder){
+			int thmIndex = decoder.readVarInt();
+			return new LiteralSearchIndex(thmIndex, decoder.readBytes());
+		}
+	};
+
+	private static final Map<String, Type> NAMED_TYPE_MAP = new HashMap<String, Type>();
+	static{
+		for(Type type : new Type[]{STRING_TYPE, INT_TYPE, LONG_TYPE, DOUBLE_TYPE, BOOLEAN_TYPE, CHAR_TYPE, BYTES_TYPE,
+				WORD_FREQ_PAIR_TYPE, RELATED_WORDS_TYPE, INDEX_PART_PAIR_TYPE, LITERAL_SEARCH_INDEX_TYPE}){
+			NAMED_TYPE_MAP.put(type.schema, type);
+		}
+	}
+
+	private static class Encoder{
+		final DataOutputStream out;
+
+		Encoder(OutputStream outputStream){
+			this.out = new DataOutputStream(outputStream);
+		}
+
+		void writeVarInt(int n) throws IOException{
+			while((n & ~0x7F) != 0){
+				out.writeByte((n & 0x7F) | 0x80);
+				n >>>= 7;
+			}
+			out.writeByte(n);
+		}
+
+		void writeSignedVarInt(int n) throws IOException{
+			writeVarInt((n << 1) ^ (n >> 31));
+		}
+
+		void writeString(String str) throws IOException{
+			writeBytes(str.getBytes(UTF_8));
+		}
+
+		void writeBytes(byte[] bytes) throws IOException{
+			writeVarInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static class Decoder{
+		final ByteBuffer buf;
+
+		Decoder(ByteBuffer buf){
+			this.buf = buf;
+		}
+
+		int readVarInt(){
+			int n = 0;
+			int shift = 0;
+			byte b;
+			do{
+				b = buf.get();
+				n |= (b & 0x7F) << shift;
+				shift += 7;
+			}while(b < 0);
+			return n;
+		}
+
+		int readSignedVarInt(){
+			int n = readVarInt();
+			return (n >>> 1) ^ -(n & 1);
+		}
+
+		String readString(){
+			int len = readVarInt();
+			if(buf.hasArray()){
+				int pos = buf.position();
+				buf.position(pos + len);
+				return new String(buf.array(), buf.arrayOffset() + pos, len, UTF_8);
+			}
+			byte[] bytes = new byte[len];
+			buf.get(bytes);
+			return new String(bytes, UTF_8);
+		}
+
+		byte[] readBytes(){
+			byte[] bytes = new byte[readVarInt()];
+			buf.get(bytes);
+			return bytes;
+		}
+	}
+
+	/**
+	 * Parses schema, e.g. list<map<string,int>>.
+	 * @param schema
+	 * @return
+	 */
+	private static Type parseSchema(String schema){
+		int[] posAr = new int[]{0};
+		Type type = parseType(schema.replaceAll("\\s", ""), posAr);
+		if(posAr[0] != schema.replaceAll("\\s", "").length()){
+			throw new IllegalStateException("Unexpected characters after position " + posAr[0] + " in schema " + schema);
+		}
+		return type;
+	}
+
+	private static Type parseType(String schema, int[] posAr){
+		int start = posAr[0];
+		int pos = start;
+		while(pos < schema.length() && Character.isLetter(schema.charAt(pos))){
+			pos++;
+		}
+		String name = schema.substring(start, pos);
+		posAr[0] = pos;
+		Type namedType = NAMED_TYPE_MAP.get(name);
+		if(null != namedType){
+			return namedType;
+		}
+		expect(schema, posAr, '<');
+		Type elemType = parseType(schema, posAr);
+		Type type;
+		if("list".equals(name)){
+			type = new ListType(elemType);
+		}else if("set".equals(name)){
+			type = new SetType(elemType);
+		}else{
+			expect(schema, posAr, ',');
+			Type valType = parseType(schema, posAr);
+			if("map".equals(name)){
+				type = new MapType(elemType, valType);
+			}else if("setmultimap".equals(name)){
+				type = new MultimapType(elemType, valType, true);
+			}else if("listmultimap".equals(name)){
+				type = new MultimapType(elemType, valType, false);
+			}else{
+				throw new IllegalStateException("Unknown type " + name + " in schema " + schema);
+			}
+		}
+		expect(schema, posAr, '>');
+		return type;
+	}
+
+	private static void expect(String schema, int[] posAr, char c){
+		if(posAr[0] >= schema.length() || schema.charAt(posAr[0]) != c){
+			throw new IllegalStateException("Expected '" + c + "' at position " + posAr[0] + " in schema " + schema);
+		}
+		posAr[0]++;
+	}
+
+	private static int hashCapacity(int size){
+		return (int)(size / 0.75f) + 1;
+	}
+
+	private static byte[] encode(Type type, Object value){
+		ByteArrayOutputStream bytesStream = new ByteArrayOutputStream();
+		try{
+			Encoder encoder = new Encoder(bytesStream);
+			type.write(value, encoder);
+			encoder.out.flush();
+		}catch(IOException e){
+			throw new IllegalStateException(e);
+		}
+		return bytesStream.toByteArray();
+	}
+
+	private static Multiset<ByteBuffer> encodingMultiset(Type type, Collection<?> values){
+		Multiset<ByteBuffer> multiset = HashMultiset.create();
+		for(Object value : values){
+			multiset.add(ByteBuffer.wrap(encode(type, value)));
+		}
+		return multiset;
+	}
+
+	/**
+	 * Writes value with schema to path. Written to a temp file first, then moved into place,
+	 * so readers never see a partial file. The temp file is deleted if writing fails.
+	 * @param value e.g. a List with one map, as passed to FileUtils.serializeObjToFile().
+	 * @param schema e.g. list<map<string,int>>.
+	 * @param path
+	 */
+	public static void write(Object value, String schema, String path){
+		Type type = parseSchema(schema);
+		File file = new File(path);
+		File parentDir = file.getAbsoluteFile().getParentFile();
+		if(null != parentDir){
+			parentDir.mkdirs();
+		}
+		String tempPath = path + ".tmp";
+		boolean moved = false;
+		try{
+			try(OutputStream fileStream = new BufferedOutputStream(new FileOutputStream(tempPath), 1 << 16)){
+				Encoder encoder = new Encoder(fileStream);
+				encoder.out.writeInt(FILE_MAGIC);
+				encoder.out.writeInt(FORMAT_VERSION);
+				encoder.writeString(type.schema);
+				//throws IllegalStateException if value doesn't match schema
+				type.write(value, encoder);
+				encoder.out.flush();
+			}catch(IOException e){
+				String msg = "IOException while writing binary data file " + path;
+				logger.error(msg + e);
+				throw new IllegalStateException(msg, e);
+			}
+			try{
+				Files.move(Paths.get(tempPath), Paths.get(path), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+			}catch(IOException e){
+				throw new IllegalStateException("IOException while moving " + tempPath + " to " + path, e);
+			}
+			moved = true;
+		}finally{
+			if(!moved){
+				new File(tempPath).delete();
+			}
+		}
+	}
+
+	/**
+	 * Reads file written by write().
+	 * @param path
+	 * @return value in file, e.g. a List with one map.
+	 */
+	public static Object read(String path){
+		try(RandomAccessFile file = new RandomAccessFile(path, "r"); FileChannel channel = file.getChannel()){
+			return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), path);
+		}catch(IOException e){
+			String msg = "IOException while reading binary data file " + path;
+			logger.error(msg + e);
+			throw new IllegalStateException(msg, e);
+		}
+	}
+
+	/**
+	 * Reads data written by write() from inputStream, e.g. a servlet resource, and closes it.
+	 * @param inputStream
+	 * @return
+	 */
+	public static Object read(InputStream inputStream){
+		try{
+			ByteArrayOutputStream bytesStream = new ByteArrayOutputStream(1 << 16);
+			byte[] buffer = new byte[1 << 16];
+			int len;
+			while((len = inputStream.read(buffer)) != -1){
+				bytesStream.write(buffer, 0, len);
+			}
+			return read(ByteBuffer.wrap(bytesStream.toByteArray()), "input stream");
+		}catch(IOException e){
+			throw new IllegalStateException("IOException while reading binary data from input stream", e);
+		}finally{
+			FileUtils.silentClose(inputStream);
+		}
+	}
+
+	private static Object read(ByteBuffer buf, String source){
+		if(buf.remaining() < 8 || buf.getInt() != FILE_MAGIC){
+			throw new IllegalStateException(source + " is not a binary data file!");
+		}
+		int version = buf.getInt();
+		if(version != FORMAT_VERSION){
+			throw new IllegalStateException(source + " has format version " + version + ", but version "
+					+ FORMAT_VERSION + " is expected!");
+		}
+		Decoder decoder = new Decoder(buf);
+		Type type = parseSchema(decoder.readString());
+		return type.read(decoder);
+	}
+
+	/**
+	 * Whether file at path was written by write(), rather than by Java serialization.
+	 * @param path
+	 * @return
+	 */
+	public static boolean isBinaryDataFile(String path){
+		try(InputStream inputStream = new FileInputStream(path)){
+			return startsWithMagic(inputStream);
+		}catch(IOException e){
+			return false;
+		}
+	}
+
+	/**
+	 * Whether stream starts with the magic of binary data files. Consumes the first 4 bytes,
+	 * so mark the stream first to reread it.
+	 * @param inputStream
+	 * @return
+	 * @throws IOException
+	 */
+	static boolean startsWithMagic(InputStream inputStream) throws IOException{
+		int magic = 0;
+		for(int i = 0; i < 4; i++){
+			int b = inputStream.read();
+			if(b < 0){
+				return false;
+			}
+			magic = (magic << 8) | b;
+		}
+		return magic == FILE_MAGIC;
+	}
+
+	/**
+	 * Schema of an existing .dat file, based on its name, e.g. also for index segments
+	 * such as wordThmIndexMMapSegment0_1000.dat.
+	 * @param fileName
+	 * @return null if file is not known.
+	 */
+	public static String knownSchema(String fileName){
+		String schema = KNOWN_SCHEMA_MAP.get(fileName);
+		if(null == schema){
+			Matcher matcher = SEGMENT_SUFFIX_PATT.matcher(fileName);
+			if(matcher.find()){
+				schema = KNOWN_SCHEMA_MAP.get(fileName.substring(0, matcher.start()) + ".dat");
+			}
+		}
+		return schema;
+	}
+
+	/**
+	 * Converts Java-serialized file at path to this format in place, after checking the
+	 * converted data reads back the same. The original is kept at path + ".ser".
+	 * @param path
+	 * @param schema
+	 * @return whether converted, false if already converted.
+	 */
+	public static boolean convert(String path, String schema){
+		if(isBinaryDataFile(path)){
+			return false;
+		}
+		Type type = parseSchema(schema);
+		Object value = FileUtils.deserializeListFromFile(path);
+		String convertedPath = path + ".bin";
+		write(value, schema, convertedPath);
+		if(!type.valueEquals(value, read(convertedPath))){
+			new File(convertedPath).delete();
+			throw new IllegalStateException("Converted data of " + path + " differs from the original!");
+		}
+		try{
+			Files.move(Paths.get(path), Paths.get(path + ".ser"), StandardCopyOption.REPLACE_EXISTING);
+			Files.move(Paths.get(convertedPath), Paths.get(path), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}catch(IOException e){
+			throw new IllegalStateException("IOException while moving converted file into place at " + path, e);
+		}
+		return true;
+	}
+
+	/**
+	 * Compares load time and allocation of Java deserialization of a .dat file against this format.
+	 * @param path Java-serialized file with known schema.
+	 * @param runs
+	 * @return
+	 */
+	private static String benchmark(String path, int runs){
+		String schema = knownSchema(new File(path).getName());
+		if(null == schema){
+			throw new IllegalArgumentException("No known schema for " + path);
+		}
+		String binaryPath = path + ".bench";
+		write(FileUtils.deserializeListFromFile(path), schema, binaryPath);
+		long[] serialStats = new long[2];
+		long[] binaryStats = new long[2];
+		//first run of each warms up
+		for(int i = 0; i <= runs; i++){
+			measureLoad(path, false, i > 0 ? serialStats : new long[2]);
+			measureLoad(binaryPath, true, i > 0 ? binaryStats : new long[2]);
+		}
+		long binaryFileSize = new File(binaryPath).length();
+		new File(binaryPath).delete();
+		return String.format("%s: java serialization %d ms, %.1f MB allocated, %d bytes;"
+				+ " binary %d ms, %.1f MB allocated, %d bytes", path,
+				serialStats[0] / runs, serialStats[1] / runs / 1e6, new File(path).length(),
+				binaryStats[0] / runs, binaryStats[1] / runs / 1e6, binaryFileSize);
+	}
+
+	/**
+	 * Adds load time in ms and bytes allocated by this thread while loading to stats.
+	 */
+	private static void measureLoad(String path, boolean binary, long[] stats){
+		com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+		long threadId = Thread.currentThread().getId();
+		long allocatedBefore = threadBean.getThreadAllocatedBytes(threadId);
+		long before = System.nanoTime();
+		Object value = binary ? read(path) : FileUtils.deserializeListFromFile(path);
+		stats[0] += (System.nanoTime() - before) / 1000000;
+		stats[1] += threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+		if(null == value){
+			throw new IllegalStateException("Nothing read from " + path);
+		}
+	}
+
+	/**
+	 * -convert [dir or files]: converts the .dat files with known schemas, default in src/thmp/data.
+	 * -convert -schema <schema> <files>: converts files with the given schema.
+	 * -bench <files>: compares loading files with Java deserialization and in this format.
+	 * @param args
+	 */
+	public static void main(String[] args){
+		if(args.length == 0){
+			System.out.println("Usage: -convert [-schema <schema>] [dir or files] | -bench <files>");
+			return;
+		}
+		List<String> argList = new ArrayList<String>(Arrays.asList(args).subList(1, args.length));
+		if("-bench".equals(args[0])){
+			for(String path : argList){
+				System.out.println(benchmark(path, 5));
+			}
+			return;
+		}
+		if(!"-convert".equals(args[0])){
+			throw new IllegalArgumentException("Unknown option " + args[0]);
+		}
+		String schema = null;
+		if(argList.size() > 1 && "-schema".equals(argList.get(0))){
+			schema = argList.get(1);
+			argList = argList.subList(2, argList.size());
+		}
+		if(argList.isEmpty()){
+			argList.add("src/thmp/data");
+		}
+		List<File> fileList = new ArrayList<File>();
+		for(String path : argList){
+			File file = new File(path);
+			File[] dirFiles = file.listFiles();
+			if(null != dirFiles){
+				fileList.addAll(Arrays.asList(dirFiles));
+			}else{
+				fileList.add(file);
+			}
+		}
+		for(File file : fileList){
+			String fileSchema = null == schema ? knownSchema(file.getName()) : schema;
+			if(null == fileSchema || !file.isFile()){
+				continue;
+			}
+			long before = System.currentTimeMillis();
+			boolean converted = convert(file.getPath(), fileSchema);
+			System.out.println(file.getPath() + (converted ? " converted with schema " + fileSchema + " in "
+					+ (System.currentTimeMillis() - before) + "ms" : " already converted"));
+		}
+	}
+}
@@ -1,5 +1,6 @@
 package thmp.utils;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.Closeable;
@@ -353,7 +354,8 @@ public class FileUtils {
 	}
 
 	/**
-	 * Deserialize objects from file supplied by serialFileStr.
+	 * Deserialize objects from file supplied by serialFileStr, written either by
+	 * serializeObjToFile() or by BinaryDataFile.
 	 * Note that this requires the DESERIAL_VERSION_NUM to equal that of previous 
 	 * files deserialized in this JVM session (if enabled).
 	 * **Don't forget to call FileUtils.getPathIfOnServlet(serialFileStr) on
@@ -364,6 +366,9 @@ public class FileUtils {
 	public static Object deserializeListFromFile(String serialFileStr){
 		//idempotent operation <--apparently not
 		////serialFileStr = getPathIfOnServlet(serialFileStr);
+		if(BinaryDataFile.isBinaryDataFile(serialFileStr)) {
+			return BinaryDataFile.read(serialFileStr);
+		}
 		FileInputStream fileInputStream = null;
 		try{
 			fileInputStream = new FileInputStream(serialFileStr);
@@ -394,6 +399,16 @@ public class FileUtils {
 		Object deserializedObj = null;	
 		ObjectInputStream objectInputStream = null;		
 		try{
+			//files converted by BinaryDataFile
+			if(!inputStream.markSupported()) {
+				inputStream = new BufferedInputStream(inputStream);
+			}
+			inputStream.mark(4);
+			boolean isBinaryDataFile = BinaryDataFile.startsWithMagic(inputStream);
+			inputStream.reset();
+			if(isBinaryDataFile) {
+				return BinaryDataFile.read(inputStream);
+			}
 			objectInputStream = new ObjectInputStream(inputStream);
 					
 		}catch(IOException e){
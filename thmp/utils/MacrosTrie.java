@@ -3,414 +3,373 @@ package thmp.utils;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.TreeSet;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import com.google.common.collect.ImmutableMap;
-
 /**
- * Trie for custom macros commands.
+ * Expander for custom macros commands.
  * E.g.:
  * \newcommand{\xra}  {\xrightarrow}
  * \newcommand{\\un}[1]{\\underline{#1}}
  * \def\X{{\cal X}}
  * Use a Builder to build MacrosTrie. MacrosTrie is immutable.
+ *
+ * The commands are compiled into an Aho-Corasick automaton, with the transitions of all states
+ * in one array, so thms are expanded in a single pass over their chars, with one array lookup
+ * per char. Replacement strings are expanded once at build time, so macros defined using other
+ * macros cost the same as plain ones, and macro args are expanded as they are substituted.
  * @author yihed
  */
-public class MacrosTrie/*<MacrosTrieNode> extends WordTrie<WordTrieNode>*/ {
+public class MacrosTrie {
 
-	private static final Pattern DIGIT_PATTERN = Pattern.compile("(\\d)");
-	MacrosTrieNode rootNode;
 	private static final Logger logger = LogManager.getLogger(MacrosTrie.class);
-	private static final Map<String, String> commandAndReplacementStrMap = new HashMap<String, String>();
-	private static final Integer CAPTURING_GROUP_SHIFT = 1;
-	
-	
+	private static final int CAPTURING_GROUP_SHIFT = 1;
+	private static final int ROOT_STATE = 0;
+	private static final int ASCII_LIMIT = 128;
+
+	//e.g. \xra
+	private final String[] commandAr;
+	//e.g. \\underline{#1}, as defined
+	private final String[] replacementAr;
+	//replacement strings, with macros in them expanded
+	private final String[] expandedReplacementAr;
+	//e.g. the count #1 in \newcommand{\\un}[1]{\\underline{#1}}
+	private final int[] slotCountAr;
+	//default value for optional argument, only applicable for some commands,
+	//e.g. newcommand{cmd}[2][default]{a}. Null if none.
+	private final String[] optArgDefaultAr;
+
+	/*automaton. Chars in commands are numbered 1 to alphabetSize-1, 0 for all other chars.*/
+	private final int alphabetSize;
+	private final int[] asciiCharClassAr;
+	//sorted, char class of nonAsciiCharAr[i] is nonAsciiCharClassStart+i
+	private final char[] nonAsciiCharAr;
+	private final int nonAsciiCharClassStart;
+	//next state, at index state*alphabetSize + char class.
+	private final int[] transitionAr;
+	//length of command prefix of state
+	private final int[] depthAr;
+	//index of command ending at state, or -1
+	private final int[] stateCommandAr;
+	//state of longest command that is a suffix of state's prefix, or -1
+	private final int[] outputStateAr;
+
 	public static class MacrosTrieBuilder{
-		
-		MacrosTrieNode rootNode;
+
+		private final List<String> commandList = new ArrayList<String>();
+		private final List<String> replacementList = new ArrayList<String>();
+		private final List<Integer> slotCountList = new ArrayList<Integer>();
+		private final List<String> optArgDefaultList = new ArrayList<String>();
+		private final Map<String, Integer> commandIndexMap = new HashMap<String, Integer>();
 
 		public MacrosTrieBuilder(){
-			this.rootNode = new MacrosTrieNode("", "", 0);		
 		}
-		
+
 		public MacrosTrie build(){
 			return new MacrosTrie(this);
 		}
-		
+
 		/**
-		 * Walk down the trie and adds the TrieNode where appropriate.
-		 * @param c
-		 * @param node
-		 * @param slotCount E.g. the count #1 in \newcommand{\\un}[1]{\\underline{#1}}. 
+		 * Adds command to the commands compiled by build().
+		 * A command should not already exist, since no overloading
+		 * of macros names is allowed.
+		 * If command already exists, leave original one intact.
+		 * @param commandStr e.g. \xra
+		 * @param replacementStr
+		 * @param slotCount E.g. the count #1 in \newcommand{\\un}[1]{\\underline{#1}}.
 		 * slotCount = 0 if no count present.
 		 * @param optArgDefault: default value for optional arg, usually for arg #1.
 		 */
 		public void addTrieNode(String commandStr, String replacementStr, int slotCount, String...optArgDefault){
-			
-			MacrosTrieNode curNode = this.rootNode;
-			char c;
-			int commandStrLen = commandStr.length();
-			for(int i = 0; i < commandStrLen-1; i++){
-				c = commandStr.charAt(i);
-				curNode = curNode.addOrRetrievePassingNode(c);			
+
+			//only commands starting with backslash can be macros
+			if(commandStr.length() < 2 || commandStr.charAt(0) != '\\'){
+				return;
 			}
-			c = commandStr.charAt(commandStrLen-1);
-			curNode.addTrieNodeToNodeMap(c, commandStr, replacementStr, slotCount, optArgDefault);		
+			if(commandIndexMap.containsKey(commandStr)){
+				logger.info(commandStr + " command already exists!");
+				return;
+			}
+			commandIndexMap.put(commandStr, commandList.size());
+			commandList.add(commandStr);
+			replacementList.add(null == replacementStr ? "" : replacementStr);
+			slotCountList.add(slotCount);
+			optArgDefaultList.add(optArgDefault.length > 0 ? optArgDefault[0] : null);
 		}
-		
+
 	}
-	
-	public static class MacrosTrieNode /*extends WordTrieNode*/{
-		//e.g. \xra
-		private String commandStr;
-		//e.g. \xrightarrow, or \\underline{#1}
-		private String replacementStr;
-		private int slotCount;
-		//default value for optional argument, only applicable for some commands,
-		//e.g. newcommand{cmd}[2][default]{a}
-		private String optArgVal;
-		private Map<Character, MacrosTrieNode> nodeMap;
-		
-		public static class ImmutableMacrosTrieNode extends MacrosTrieNode{
-			
-			public ImmutableMacrosTrieNode(MacrosTrieNode trieNode, 
-					ImmutableMap<Character, MacrosTrieNode> immutableNodeMap){
-				super.commandStr = trieNode.commandStr;
-				super.replacementStr = trieNode.replacementStr;
-				super.slotCount = trieNode.slotCount;
-				super.optArgVal = trieNode.optArgVal;
-				/*make map immutable*/
-				super.nodeMap = immutableNodeMap;
-			}			
-			
-			@Override
-			public void setCommandAndReplacementStr(String commandStr_, String replacementStr_){			
-				throw new UnsupportedOperationException("ImmutableMacrosTrieNode cannot be modified!");
-			}
-			
-			@Override
-			public void addTrieNodeToNodeMap(char c, String commandStr_, String replacementStr_, int slotCount_,
-					String...optArgDefault_){
-				throw new UnsupportedOperationException("ImmutableMacrosTrieNode cannot be modified!");
+
+	/**
+	 * Create an immutable MacrosTrie.
+	 * @param builder
+	 */
+	private MacrosTrie(MacrosTrieBuilder builder){
+		int commandCount = builder.commandList.size();
+		this.commandAr = builder.commandList.toArray(new String[commandCount]);
+		this.replacementAr = builder.replacementList.toArray(new String[commandCount]);
+		this.optArgDefaultAr = builder.optArgDefaultList.toArray(new String[commandCount]);
+		this.slotCountAr = new int[commandCount];
+		for(int i = 0; i < commandCount; i++){
+			slotCountAr[i] = builder.slotCountList.get(i);
+		}
+
+		//number the chars occurring in commands
+		TreeSet<Character> charSet = new TreeSet<Character>();
+		int maxStateCount = 1;
+		for(String commandStr : commandAr){
+			for(int i = 0; i < commandStr.length(); i++){
+				charSet.add(commandStr.charAt(i));
 			}
-			
-			@Override
-			public MacrosTrieNode addOrRetrievePassingNode(char c){
-				throw new UnsupportedOperationException("ImmutableMacrosTrieNode cannot be modified!");
-			}			
-		}/*End of ImmutableMacrosTrieNode Class*/
-		
-		public MacrosTrieNode(String commandStr_, String replacementStr_, int slotCount_){
-			this.commandStr = commandStr_;
-			this.replacementStr = replacementStr_;
-			this.slotCount = slotCount_;
-			this.nodeMap = new HashMap<Character, MacrosTrieNode>();
+			maxStateCount += commandStr.length();
 		}
-		
-		public MacrosTrieNode(String commandStr_, String replacementStr_, int slotCount_, String optArgDefault_){
-			this(commandStr_, replacementStr_, slotCount_);
-			this.optArgVal = optArgDefault_;
+		this.asciiCharClassAr = new int[ASCII_LIMIT];
+		int charClass = 1;
+		for(char c : charSet.headSet((char)ASCII_LIMIT)){
+			asciiCharClassAr[c] = charClass++;
 		}
-		
-		/**
-		 * Take node, make the maps in it and its descendents immutable.
-		 * @param trieNode
-		 * @return An immutable MacrosTrieNode.
-		 */
-		public MacrosTrieNode makeNodeImmutable(){
-			ImmutableMap.Builder<Character, MacrosTrieNode> mapBuilder 
-				= new ImmutableMap.Builder<Character, MacrosTrieNode>();
-			for(Entry<Character, MacrosTrieNode> entry : this.nodeMap.entrySet()){
-				MacrosTrieNode childNode = entry.getValue();
-				/*make immutable childNode */
-				childNode = childNode.makeNodeImmutable();
-				mapBuilder.put(entry.getKey(), childNode);
-			}			
-			return new ImmutableMacrosTrieNode(this, mapBuilder.build());
+		this.nonAsciiCharClassStart = charClass;
+		this.nonAsciiCharAr = new char[charSet.size() - (charClass - 1)];
+		int j = 0;
+		for(char c : charSet.tailSet((char)ASCII_LIMIT)){
+			nonAsciiCharAr[j++] = c;
 		}
-		
-		public MacrosTrieNode(){
-			this.nodeMap = new HashMap<Character, MacrosTrieNode>();
+		this.alphabetSize = charSet.size() + 1;
+
+		//trie of commands, -1 for missing transitions
+		int[] transitionAr = new int[maxStateCount * alphabetSize];
+		Arrays.fill(transitionAr, -1);
+		int[] depthAr = new int[maxStateCount];
+		int[] stateCommandAr = new int[maxStateCount];
+		Arrays.fill(stateCommandAr, -1);
+		int stateCount = 1;
+		for(int i = 0; i < commandCount; i++){
+			String commandStr = commandAr[i];
+			int state = ROOT_STATE;
+			for(int k = 0; k < commandStr.length(); k++){
+				int index = state * alphabetSize + charClass(commandStr.charAt(k));
+				if(transitionAr[index] < 0){
+					depthAr[stateCount] = depthAr[state] + 1;
+					transitionAr[index] = stateCount++;
+				}
+				state = transitionAr[index];
+			}
+			stateCommandAr[state] = i;
 		}
-		
-		public void setCommandAndReplacementStr(String commandStr_, String replacementStr_){
-			this.commandStr = commandStr_;
-			this.replacementStr = replacementStr_;
+
+		//fill in missing transitions from failure links, breadth first, so failure states
+		//are complete before they're used.
+		int[] failureAr = new int[stateCount];
+		int[] outputStateAr = new int[stateCount];
+		outputStateAr[ROOT_STATE] = -1;
+		int[] stateQueue = new int[stateCount];
+		int queueTail = 0;
+		for(int c = 0; c < alphabetSize; c++){
+			int child = transitionAr[c];
+			if(child < 0){
+				transitionAr[c] = ROOT_STATE;
+			}else{
+				failureAr[child] = ROOT_STATE;
+				outputStateAr[child] = stateCommandAr[child] >= 0 ? child : -1;
+				stateQueue[queueTail++] = child;
+			}
 		}
-		/**
-		 * @param c
-		 * @return null if nodeMap does not contain a TrieNode corresponding to c
-		 */
-		public MacrosTrieNode getTrieNode(char c){
-			return nodeMap.get(c);
+		for(int queueHead = 0; queueHead < queueTail; queueHead++){
+			int state = stateQueue[queueHead];
+			int failureState = failureAr[state];
+			for(int c = 0; c < alphabetSize; c++){
+				int index = state * alphabetSize + c;
+				int child = transitionAr[index];
+				if(child < 0){
+					transitionAr[index] = transitionAr[failureState * alphabetSize + c];
+				}else{
+					int childFailureState = transitionAr[failureState * alphabetSize + c];
+					failureAr[child] = childFailureState;
+					outputStateAr[child] = stateCommandAr[child] >= 0 ? child : outputStateAr[childFailureState];
+					stateQueue[queueTail++] = child;
+				}
+			}
 		}
-		
-		public String getReplacementStr(){
-			return this.replacementStr;
-		}		
-		
-		@Override
-		public String toString(){
-			StringBuilder sb = new StringBuilder(30);
-			return sb.append(this.commandStr).append(" ").append(this.replacementStr).append(" ").append(this.slotCount).toString();			
+		this.transitionAr = Arrays.copyOf(transitionAr, stateCount * alphabetSize);
+		this.depthAr = Arrays.copyOf(depthAr, stateCount);
+		this.stateCommandAr = Arrays.copyOf(stateCommandAr, stateCount);
+		this.outputStateAr = outputStateAr;
+
+		//some macros contain nested macros, e.g. \newcommand{\s}{\sp_e}
+		this.expandedReplacementAr = new String[commandCount];
+		boolean[] expandingAr = new boolean[commandCount];
+		for(int i = 0; i < commandCount; i++){
+			expandedReplacement(i, expandingAr);
 		}
-		/**
-		 * A node entry should not already exist, since no overloading
-		 * of macros names is allowed.
-		 * If entry already exists, leave original one intact.
-		 * @param c
-		 * @param node
-		 */
-		public void addTrieNodeToNodeMap(char c, String commandStr_, String replacementStr_, int slotCount_, String...optArgDefaultAr){
-			MacrosTrieNode node = this.nodeMap.get(c);
-			String optArgDefault = null;
-			if(optArgDefaultAr.length > 0) {
-				optArgDefault = optArgDefaultAr[0];
-			}
-			if(null != node){
-				if(null != node.commandStr && null != node.replacementStr){
-					logger.info(node.commandStr + " command already exists!");
-					return;
-				}
-				node.setCommandAndReplacementStr(commandStr_, replacementStr_);				
-			}else{
-				this.nodeMap.put(c, new MacrosTrieNode(commandStr_, replacementStr_, slotCount_, optArgDefault));
-			}	
-			commandAndReplacementStrMap.put(commandStr_, replacementStr_);
-		}		
-		
-		/**
-		 * Add or retrieve a node with char c in the middle of a commandStr.
-		 * @param c
-		 * @return
-		 */
-		public MacrosTrieNode addOrRetrievePassingNode(char c){
-			MacrosTrieNode node = this.nodeMap.get(c);
-			if(null == node){
-				node = new MacrosTrieNode();
-				this.nodeMap.put(c, node);
-			}			
-			return node;
-		}	
-		
-		public Map<Character, MacrosTrieNode> nodeMap(){
-			return this.nodeMap;
-		}		
 	}
-	
+
+	private int charClass(char c){
+		if(c < ASCII_LIMIT){
+			return asciiCharClassAr[c];
+		}
+		int index = Arrays.binarySearch(nonAsciiCharAr, c);
+		return index < 0 ? 0 : nonAsciiCharClassStart + index;
+	}
+
+	private static boolean isLetter(char c){
+		//as WordForms.ALPHABET_PATTERN
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
 	/**
-	 * Create an immutable MacrosTrie.
-	 * @param builder
+	 * Replacement string of command with macros in it expanded, expanded on first use while
+	 * building.
+	 * @param commandIndex
+	 * @param expandingAr commands being expanded, null once built.
+	 * @return
 	 */
-	private MacrosTrie(MacrosTrieBuilder builder){
-		this.rootNode = builder.rootNode.makeNodeImmutable();
-	}	
-	
+	private String expandedReplacement(int commandIndex, boolean[] expandingAr){
+		String expandedReplacement = expandedReplacementAr[commandIndex];
+		if(null != expandedReplacement){
+			return expandedReplacement;
+		}
+		if(expandingAr[commandIndex]){
+			//macro defined using itself, leave inner occurrence as is.
+			return replacementAr[commandIndex];
+		}
+		expandingAr[commandIndex] = true;
+		StringBuilder sb = new StringBuilder(replacementAr[commandIndex].length());
+		replaceMacros(replacementAr[commandIndex], sb, expandingAr);
+		expandedReplacement = sb.toString();
+		expandedReplacementAr[commandIndex] = expandedReplacement;
+		return expandedReplacement;
+	}
+
 	/**
 	 * Used during data extraction process after trie is built.
 	 * @param thmStr
 	 * @return thmStr with macros replaced with macros defined in this MacrosTrie.
 	 */
 	public String replaceMacrosInThmStr(String thmStr){
-		return replaceMacrosInThmStr(thmStr, true);
+		if(0 == commandAr.length){
+			return thmStr;
+		}
+		StringBuilder thmSB = new StringBuilder(thmStr.length() + 16);
+		replaceMacros(thmStr, thmSB, null);
+		return thmSB.toString();
 	}
-	
+
 	/**
-	 * Used during data extraction process after trie is built.
+	 * Appends thmStr to thmSB, with macros replaced. A command is replaced where it's not followed
+	 * by a letter, e.g. don't turn \label into \lambdable, and the longest such command is
+	 * used, e.g. \a1 rather than \a.
 	 * @param thmStr
-	 * @param checkNested: whether to check for nested macros, e.g. \newcommand{\s}{\sp_e}
-	 * @return thmStr with macros replaced with macros defined in this MacrosTrie.
+	 * @param thmSB
+	 * @param expandingAr commands whose replacement strings are being expanded, null once built.
 	 */
-	private String replaceMacrosInThmStr(String thmStr, boolean checkNested){
-		
-		List<MacrosTrieNode> trieNodeList = new ArrayList<MacrosTrieNode>();
-		
-		StringBuilder thmSB = new StringBuilder();
-		
-		String commandStrTriggered = "";
-		StringBuilder commandStrSB = new StringBuilder(20);
+	private void replaceMacros(String thmStr, StringBuilder thmSB, boolean[] expandingAr){
 		int thmStrLen = thmStr.length();
-		
+		//start of chars not yet appended
+		int appendStart = 0;
+		int state = ROOT_STATE;
 		for(int i = 0; i < thmStrLen; i++){
-			char c = thmStr.charAt(i);	
-			thmSB.append(c);
-						
-			//add all newly-triggered commands to nodeList
-			if(this.rootNode.nodeMap.containsKey(c)){
-				trieNodeList.add(this.rootNode);
+			state = transitionAr[state * alphabetSize + charClass(thmStr.charAt(i))];
+			int commandState = outputStateAr[state];
+			if(commandState < 0 || (i + 1 < thmStrLen && isLetter(thmStr.charAt(i + 1)))){
+				continue;
 			}
-			int futureIndex = i;
-			for(int j = 0; j < trieNodeList.size(); j++){
-				MacrosTrieNode curNode = trieNodeList.get(j);
-				if(null == curNode) continue;
-				int thmSBLen = thmSB.length();
-				MacrosTrieNode nextNode = curNode.getTrieNode(c);
-				if(null == nextNode || (nextNode.commandStr != null 
-						&& thmSB.charAt(thmSBLen - nextNode.commandStr.length()) != '\\')){
-					//node cannot correspond to any known macro
-					trieNodeList.set(j, null);
-					continue;
-				}else if(null == nextNode.replacementStr){	
-					trieNodeList.set(j, nextNode);
-					continue;
-				}else{
-					//go down to see if a longer command can be satisfied
-					int k = i+1;
-					MacrosTrieNode futureNode = null;
-					MacrosTrieNode runningNode = nextNode;					
-					while(k < thmStrLen && null != (runningNode = runningNode.getTrieNode(thmStr.charAt(k)))){
-						if(null != runningNode.commandStr && null != runningNode.replacementStr){
-							int runningNodeCommandStrLen = runningNode.commandStr.length();
-							//+1 because runningNodeCommandStrLen includes the slash, e.g. \eq, and thmSB
-							//does not include char at index k yet.
-							int slashIndex = k - runningNodeCommandStrLen + 1;
-							//thmStr and not thmSB, since thmSB
-							if(slashIndex > -1 && thmStr.charAt(slashIndex) == '\\') {								
-								futureNode = runningNode;
-								futureIndex = k;	
-							}
-						}
-						k++;
-					}
-					
-					if(null != futureNode){
-						//The remaining part of the commandStr. i+1, because k started at i+1 when searching for futureNode
-						String longerCommandStr = thmStr.substring(i+1, futureIndex+1);
-						thmSB.append(longerCommandStr);	
-						nextNode = futureNode;
-						i = futureIndex;	
-					}
-					//form the replacement String. Returns updated index (in original thmStr) to start further examination.
-					futureIndex = formReplacementString(thmStr, futureIndex, nextNode, commandStrSB, checkNested);	
-					
-					commandStrTriggered = nextNode.commandStr;
-					//don't clear trieNodeList to allow for nested macros.
+			//go down to see if a longer command can be satisfied, only if command
+			//contains non-letters, e.g. \a and \a1.
+			int commandEnd = i;
+			int runningState = commandState;
+			for(int k = i + 1; k < thmStrLen; k++){
+				int nextState = transitionAr[runningState * alphabetSize + charClass(thmStr.charAt(k))];
+				if(depthAr[nextState] != depthAr[runningState] + 1){
 					break;
 				}
-			}
-			/*e.g. don't turn \label into \lambdable*/
-			if(commandStrSB.length() > 0){
-				String nextCharStr = "";
-				if(futureIndex < thmStrLen-1){
-					nextCharStr = String.valueOf(thmStr.charAt(futureIndex+1));
-				}
-				int commandStrTriggeredLen = commandStrTriggered.length();
-				int thmSBLen = thmSB.length();
-				//don't want to replace if not full command. E.g. don't replace "a" with {a} in \omega. 
-				if(!WordForms.ALPHABET_PATTERN.matcher(nextCharStr).matches() && thmSB.charAt(thmSBLen - commandStrTriggeredLen) == '\\'){
-					i = futureIndex;				
-					//System.out.println("commandStrTriggered: " + commandStrTriggered + " thmSB: " + thmSB + " thmStr "+thmStr);
-					thmSB.delete(thmSBLen - commandStrTriggeredLen, thmSBLen); 
-					thmSB.append(commandStrSB);
-					trieNodeList = new ArrayList<MacrosTrieNode>();
+				runningState = nextState;
+				if(stateCommandAr[runningState] >= 0 && (k + 1 == thmStrLen || !isLetter(thmStr.charAt(k + 1)))){
+					commandState = runningState;
+					commandEnd = k;
 				}
-				commandStrSB.setLength(0);
 			}
+			thmSB.append(thmStr, appendStart, commandEnd - depthAr[commandState] + 1);
+			appendStart = appendReplacement(thmStr, commandEnd, stateCommandAr[commandState], thmSB, expandingAr);
+			i = appendStart - 1;
+			state = ROOT_STATE;
 		}
-		return thmSB.toString();
+		thmSB.append(thmStr, appendStart, thmStrLen);
 	}
 
 	/**
-	 * Return how many places to skip ahead. Look for args inside braces {...}.
+	 * Appends the replacement of command, with args filled in. Look for args inside braces {...}.
 	 * Note that some authors don't explicitly use braces, e.g. $\\rr d$ instead of $\\rr{d}$.
 	 * @param thmStr
-	 * @param curIndex
+	 * @param commandEnd index of last char of command in thmStr.
+	 * @param commandIndex
 	 * @param replacementSB SB to be filled in.
-	 * @param checkNested: whether to check for nested macros.
+	 * @param expandingAr
 	 * @return updated index (in original thmStr) to start further examination at.
 	 */
-	private int formReplacementString(String thmStr, int curIndex, MacrosTrieNode trieNode, StringBuilder replacementSB,
-			boolean checkNested) {
-		//replace #...		
-		//int indexToSkip = 0;
-		int slotCount = trieNode.slotCount;
-		String templateReplacementString = trieNode.replacementStr;
+	private int appendReplacement(String thmStr, int commandEnd, int commandIndex, StringBuilder replacementSB,
+			boolean[] expandingAr) {
+		int slotCount = slotCountAr[commandIndex];
+		String templateReplacementString = null == expandingAr ? expandedReplacementAr[commandIndex]
+				: expandedReplacement(commandIndex, expandingAr);
 		if(slotCount == 0){
-			//some macros contain nested macros.
-			if(checkNested) {
-				templateReplacementString = replaceMacrosInThmStr(templateReplacementString, false);
-			}
 			replacementSB.append(templateReplacementString);
-			//System.out.println("replacementSB " + templateReplacementString);
-			return curIndex;
+			return commandEnd + 1;
 		}
-		
+
 		String[] args = new String[slotCount];
-		
-		//capture the arguments, fill in args in the next few braces, one at a time; 
+
+		//capture the arguments, fill in args in the next few braces, one at a time;
 		//e.g. \cmd{1}{2}
-		int startingIndex = curIndex;
-		
+		int startingIndex = commandEnd;
+
 		//if optional argument not specified (i.e. use default), make slot count lower
 		int toSlotCount = slotCount;
+		String optArgVal = optArgDefaultAr[commandIndex];
 		//e.g. \cmd[optVal]{b}
-		if(null != trieNode.optArgVal && thmStr.charAt(startingIndex+1) != '[') {
+		if(null != optArgVal && (commandEnd + 1 == thmStr.length() || thmStr.charAt(commandEnd + 1) != '[')) {
 			toSlotCount--;
 		}
 		for(int j = 0; j < toSlotCount; j++){
-			startingIndex = retrieveBracesContent(thmStr, startingIndex, args, j);			
+			startingIndex = retrieveBracesContent(thmStr, startingIndex, args, j);
 		}
 		if(toSlotCount < slotCount) {
 			//shift all args in args one down, if optional arg default was supplied at macro definition
-			//String[] tempArgs = new String[slotCount+1];			
 			for(int k = slotCount-1; k > 0; k--) {
 				args[k] = args[k-1];
 			}
-			args[0] = trieNode.optArgVal;
+			args[0] = optArgVal;
 		}
-		
-		//System.out.println("+++++++++macros replacement args: " + Arrays.toString(args));
+
 		int templateReplacementStringLen = templateReplacementString.length();
-		Matcher digitMatcher;
 		//fill in #i with its respective replacement string.
-		int lastSlotEndIndex = 0;
-		int i;
-		for(i = 0; i < templateReplacementStringLen-1; i++){
-			
-			char c = templateReplacementString.charAt(i);			
-			if(c == '#' && (digitMatcher=DIGIT_PATTERN.matcher(String.valueOf(templateReplacementString.charAt(i+1)))).matches()){
-				
-				int slotArgNum = Integer.valueOf(digitMatcher.group(1)) - CAPTURING_GROUP_SHIFT;
-				//System.out.println("slotArgNum "+slotArgNum);
+		for(int i = 0; i < templateReplacementStringLen; i++){
+			char c = templateReplacementString.charAt(i);
+			char nextChar;
+			if(c == '#' && i + 1 < templateReplacementStringLen
+					&& (nextChar = templateReplacementString.charAt(i+1)) >= '0' && nextChar <= '9'){
+				int slotArgNum = nextChar - '0' - CAPTURING_GROUP_SHIFT;
 				//should not occur if valid latex syntax.
 				if(slotArgNum >= slotCount || slotArgNum < 0){
-					logger.info("latex syntax error: slotArgNum >= slotCont || slotArgNum < 1 for thm: " + thmStr);
+					logger.info("latex syntax error: slotArgNum >= slotCount || slotArgNum < 1 for thm: " + thmStr);
+					replacementSB.append(c);
 					continue;
-				}				
-				replacementSB.append(args[slotArgNum]);
-				//System.out.println("args[slotArgNum] " + args[slotArgNum]);
+				}
+				String arg = args[slotArgNum];
+				if(null != arg){
+					//args can contain macros too, and are shorter than thmStr.
+					replaceMacros(arg, replacementSB, expandingAr);
+				}
 				i++;
-				lastSlotEndIndex = i;
-				
 			}else{
-				replacementSB.append(c);				
+				replacementSB.append(c);
 			}
 		}
-		if(lastSlotEndIndex < templateReplacementStringLen-1){
-			replacementSB.append(templateReplacementString.charAt(templateReplacementStringLen-1));
-		}
-		//*Uncomment this if need to replace content in nested macros.
-		 //* //some macros contain nested macros.
-		/*
-		if(checkNested){
-		String deepToStr = replaceMacrosInThmStr(replacementSB.toString());
-		replacementSB.setLength(0);
-		replacementSB.append(deepToStr);
-		}*/
-		
-		//System.out.println("replacementSB " + replacementSB + " templateReplacementString "+ templateReplacementString);
-		if(slotCount > 0 && startingIndex > curIndex){
-			//to counter the i++ in the loop, but only if there is nontrivial parameter to command.
-			startingIndex--;
-		}
-		return startingIndex;
+		//only skip past args if there is nontrivial parameter to command.
+		return startingIndex > commandEnd ? startingIndex : commandEnd + 1;
 	}
 
 	/**
@@ -423,9 +382,9 @@ public class MacrosTrie/*<MacrosTrieNode> extends WordTrie<WordTrieNode>*/ {
 	 * @return the starting position to keep looking.
 	 */
 	private int retrieveBracesContent(String thmStr, int index, String[] bracesArgs, int bracesArgsIndex) {
-		
+
 		assert bracesArgsIndex < bracesArgs.length;
-		
+
 		int thmStrLen = thmStr.length();
 		char c;
 		int i = index;
@@ -443,7 +402,7 @@ public class MacrosTrie/*<MacrosTrieNode> extends WordTrie<WordTrieNode>*/ {
 				}else {
 					bracesArgs[bracesArgsIndex] = thmStr.substring(index+1, i);
 				}
-				return i;				
+				return i;
 			}
 			i++;
 		}
@@ -452,35 +411,38 @@ public class MacrosTrie/*<MacrosTrieNode> extends WordTrie<WordTrieNode>*/ {
 		int openBraceCount = 1;
 		if(i >= thmStrLen){
 			return index;
-		}		
+		}
 		char prevChar = ' ';
-		StringBuilder braceContentSB = new StringBuilder(15);
-		
-		while(i < thmStr.length() && (((c=thmStr.charAt(i)) != '}' && c != ']') || prevChar == '\\' || openBraceCount>0 ) ){
-			/* if braces don't all match, compile error. Unless escaped.*/	
+		int contentStart = i;
+		int contentEnd = i;
+
+		while(i < thmStrLen && (((c=thmStr.charAt(i)) != '}' && c != ']') || prevChar == '\\' || openBraceCount>0 ) ){
+			/* if braces don't all match, compile error. Unless escaped.*/
 			if(prevChar != '\\'){
 				if(c == '{' || c == '['){
 					openBraceCount++;
 				}else if(c == '}' || c == ']'){
 					openBraceCount--;
-				}			
+				}
 			}
 			i++;
 			if(openBraceCount == 0){
 				break;
 			}
-			braceContentSB.append(c);
-			prevChar = c;			
+			contentEnd = i;
+			prevChar = c;
 		}
-		//System.out.println("thmStr.charAt(i): " + thmStr.charAt(i));
-		bracesArgs[bracesArgsIndex] = braceContentSB.toString();
+		bracesArgs[bracesArgsIndex] = thmStr.substring(contentStart, contentEnd);
 		return i;
 	}
-	
+
 	@Override
 	public String toString(){
+		Map<String, String> commandAndReplacementStrMap = new LinkedHashMap<String, String>();
+		for(int i = 0; i < commandAr.length; i++){
+			commandAndReplacementStrMap.put(commandAr[i], replacementAr[i]);
+		}
 		return commandAndReplacementStrMap.toString();
-		//return this.rootNode.toString();
 	}
-	
+
 }
@@ -8,6 +8,7 @@ import java.util.Map;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
 
+import thmp.parse.ParseChart;
 import thmp.parse.Struct;
 import thmp.parse.StructList;
 
@@ -74,7 +75,7 @@ public class PlotUtils {
                                   root    |root 
 	 * @param mx
 	 */
-	public static void plotMx(List<List<StructList>> mx){
+	public static void plotMx(ParseChart mx){
 		System.out.println("Plot of matrix mx: ");
 		int mxSz = mx.size();
 		int counter = 0;
@@ -89,9 +90,8 @@ public class PlotUtils {
 		}
 		System.out.println();
 		for(int i = 0; i < mxSz; i++){
-			List<StructList> list = mx.get(i);
-			for(StructList structList : list){
-				structListToShortString(structList);
+			for(int j = 0; j < mxSz; j++){
+				structListToShortString(mx.get(i, j));
 			}
 			System.out.println();
 		}
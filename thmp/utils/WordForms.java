@@ -860,6 +860,14 @@ public class WordForms {
 			this.indexShift = shift;
 		}
 
+		/**
+		 * Number of query words spanned by token, e.g. 2 for TWOGRAM.
+		 * @return
+		 */
+		public int indexShift() {
+			return indexShift;
+		}
+
 		/**
 		 * Add this token's data to supplied maps.
 		 * 